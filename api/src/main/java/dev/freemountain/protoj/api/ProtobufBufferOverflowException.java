@@ -0,0 +1,25 @@
+package dev.freemountain.protoj.api;
+
+/**
+ * Thrown when a message doesn't fit in a caller-supplied buffer.  Nothing is written to the buffer, so it can be
+ * retried with one of at least {@link #getRequiredSize()} remaining bytes.
+ */
+public class ProtobufBufferOverflowException extends ProtobufSerializationException {
+
+    private final int requiredSize;
+    private final int remaining;
+
+    public ProtobufBufferOverflowException(int requiredSize, int remaining) {
+        super("Serialized message needs " + requiredSize + " bytes, only " + remaining + " remaining");
+        this.requiredSize = requiredSize;
+        this.remaining = remaining;
+    }
+
+    public int getRequiredSize() {
+        return requiredSize;
+    }
+
+    public int getRemaining() {
+        return remaining;
+    }
+}
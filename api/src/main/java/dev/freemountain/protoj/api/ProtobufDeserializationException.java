@@ -0,0 +1,12 @@
+package dev.freemountain.protoj.api;
+
+public class ProtobufDeserializationException extends RuntimeException {
+
+    public ProtobufDeserializationException(String message) {
+        super(message);
+    }
+
+    public ProtobufDeserializationException(String message, Throwable cause) {
+        super(message, cause);
+    }
+}
@@ -0,0 +1,17 @@
+package dev.freemountain.protoj.api;
+
+import java.lang.annotation.ElementType;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.lang.annotation.Target;
+
+/**
+ * Number an enum constant is encoded as in {@link ProtobufType#ENUM} fields.  Either every constant of an enum is
+ * annotated, or none are and their ordinals are used.
+ */
+@Target(ElementType.FIELD)
+@Retention(RetentionPolicy.RUNTIME)
+public @interface ProtobufEnumValue {
+
+    int value();
+}
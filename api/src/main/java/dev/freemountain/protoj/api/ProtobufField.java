@@ -14,4 +14,22 @@ public @interface ProtobufField {
     ProtobufType protobufType();
 
     String getterMethod() default "";
+
+    /**
+     * Number of distinct values of a {@code STRING} field whose encodings are cached and copied rather than encoded
+     * again, for fields holding a small set of repeating values.  0 disables the cache.
+     */
+    int encodedCacheSize() default 0;
+
+    /**
+     * Type of the keys of a {@code MAP} field, any integral type, {@code BOOL} or {@code STRING}.  Required on
+     * {@code MAP} fields and rejected on others, the {@code MAP} default only marks it as unset.
+     */
+    ProtobufType mapKeyType() default ProtobufType.MAP;
+
+    /**
+     * Type of the values of a {@code MAP} field, anything but {@code MAP}.  Required on {@code MAP} fields and rejected
+     * on others, the {@code MAP} default only marks it as unset.
+     */
+    ProtobufType mapValueType() default ProtobufType.MAP;
 }
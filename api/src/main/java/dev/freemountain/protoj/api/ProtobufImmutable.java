@@ -0,0 +1,17 @@
+package dev.freemountain.protoj.api;
+
+import java.lang.annotation.ElementType;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.lang.annotation.Target;
+
+/**
+ * Marks a message class whose instances never change once built, e.g. configuration or reference data.  The encoding of
+ * each instance is kept for as long as the instance is reachable, and copied as is wherever it's embedded in another
+ * message instead of being serialized again.  Changing an instance after it was first serialized leaves the old
+ * encoding in use.
+ */
+@Target(ElementType.TYPE)
+@Retention(RetentionPolicy.RUNTIME)
+public @interface ProtobufImmutable {
+}
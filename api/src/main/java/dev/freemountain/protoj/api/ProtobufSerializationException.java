@@ -5,4 +5,8 @@ public class ProtobufSerializationException extends RuntimeException {
     public ProtobufSerializationException(String message) {
         super(message);
     }
+
+    public ProtobufSerializationException(String message, Throwable cause) {
+        super(message, cause);
+    }
 }
@@ -16,5 +16,7 @@ public enum ProtobufType {
     BOOL,
     STRING,
     BYTES,
-    MESSAGE
+    ENUM,
+    MESSAGE,
+    MAP
 }
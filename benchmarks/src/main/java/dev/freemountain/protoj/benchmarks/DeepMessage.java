@@ -0,0 +1,86 @@
+package dev.freemountain.protoj.benchmarks;
+
+import dev.freemountain.protoj.api.ProtobufField;
+import dev.freemountain.protoj.api.ProtobufType;
+
+/**
+ * Depth1 to Depth8 in benchmark.proto.  Every level is its own class, since the same class at different levels is
+ * taken for a circular reference.
+ */
+public class DeepMessage {
+
+    @ProtobufField(fieldNumber = 1, protobufType = ProtobufType.INT32)
+    public int id;
+    @ProtobufField(fieldNumber = 2, protobufType = ProtobufType.STRING)
+    public String label;
+    @ProtobufField(fieldNumber = 3, protobufType = ProtobufType.MESSAGE)
+    public Depth2 child;
+
+    public static class Depth2 {
+
+        @ProtobufField(fieldNumber = 1, protobufType = ProtobufType.INT32)
+        public int id;
+        @ProtobufField(fieldNumber = 2, protobufType = ProtobufType.STRING)
+        public String label;
+        @ProtobufField(fieldNumber = 3, protobufType = ProtobufType.MESSAGE)
+        public Depth3 child;
+    }
+
+    public static class Depth3 {
+
+        @ProtobufField(fieldNumber = 1, protobufType = ProtobufType.INT32)
+        public int id;
+        @ProtobufField(fieldNumber = 2, protobufType = ProtobufType.STRING)
+        public String label;
+        @ProtobufField(fieldNumber = 3, protobufType = ProtobufType.MESSAGE)
+        public Depth4 child;
+    }
+
+    public static class Depth4 {
+
+        @ProtobufField(fieldNumber = 1, protobufType = ProtobufType.INT32)
+        public int id;
+        @ProtobufField(fieldNumber = 2, protobufType = ProtobufType.STRING)
+        public String label;
+        @ProtobufField(fieldNumber = 3, protobufType = ProtobufType.MESSAGE)
+        public Depth5 child;
+    }
+
+    public static class Depth5 {
+
+        @ProtobufField(fieldNumber = 1, protobufType = ProtobufType.INT32)
+        public int id;
+        @ProtobufField(fieldNumber = 2, protobufType = ProtobufType.STRING)
+        public String label;
+        @ProtobufField(fieldNumber = 3, protobufType = ProtobufType.MESSAGE)
+        public Depth6 child;
+    }
+
+    public static class Depth6 {
+
+        @ProtobufField(fieldNumber = 1, protobufType = ProtobufType.INT32)
+        public int id;
+        @ProtobufField(fieldNumber = 2, protobufType = ProtobufType.STRING)
+        public String label;
+        @ProtobufField(fieldNumber = 3, protobufType = ProtobufType.MESSAGE)
+        public Depth7 child;
+    }
+
+    public static class Depth7 {
+
+        @ProtobufField(fieldNumber = 1, protobufType = ProtobufType.INT32)
+        public int id;
+        @ProtobufField(fieldNumber = 2, protobufType = ProtobufType.STRING)
+        public String label;
+        @ProtobufField(fieldNumber = 3, protobufType = ProtobufType.MESSAGE)
+        public Depth8 child;
+    }
+
+    public static class Depth8 {
+
+        @ProtobufField(fieldNumber = 1, protobufType = ProtobufType.INT32)
+        public int id;
+        @ProtobufField(fieldNumber = 2, protobufType = ProtobufType.STRING)
+        public String label;
+    }
+}
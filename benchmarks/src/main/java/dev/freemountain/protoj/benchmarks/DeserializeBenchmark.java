@@ -0,0 +1,57 @@
+package dev.freemountain.protoj.benchmarks;
+
+import com.google.protobuf.Message;
+import dev.freemountain.protoj.deserialize.ProtobufDeserializer;
+import dev.freemountain.protoj.deserialize.ProtobufView;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Decoding of every {@link Shape} from protoc output, by protoj and by the protoc-generated parser.
+ */
+@State(Scope.Thread)
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class DeserializeBenchmark {
+
+    @Param({"SCALAR", "STRING", "DEEP", "REPEATED"})
+    public Shape shape;
+
+    private byte[] encoded;
+
+    @Setup
+    public void setUp() {
+        encoded = shape.protoc().toByteArray();
+    }
+
+    @Benchmark
+    public Object protoj() {
+        return ProtobufDeserializer.deserialize(encoded, shape.protojClass());
+    }
+
+    /**
+     * Reading a single field, which only indexes the top-level message.
+     */
+    @Benchmark
+    public boolean protojView() {
+        return ProtobufView.of(encoded).has(1);
+    }
+
+    @Benchmark
+    public Message protoc() throws Exception {
+        return shape.parseProtoc(encoded);
+    }
+}
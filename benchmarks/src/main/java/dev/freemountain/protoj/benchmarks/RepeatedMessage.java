@@ -0,0 +1,19 @@
+package dev.freemountain.protoj.benchmarks;
+
+import dev.freemountain.protoj.api.ProtobufField;
+import dev.freemountain.protoj.api.ProtobufType;
+import dev.freemountain.protoj.benchmarks.ScalarMessage.NestedMessage;
+import java.util.List;
+
+/**
+ * Repeated in benchmark.proto.
+ */
+public class RepeatedMessage {
+
+    @ProtobufField(fieldNumber = 1, protobufType = ProtobufType.INT64)
+    public long[] ids;
+    @ProtobufField(fieldNumber = 2, protobufType = ProtobufType.DOUBLE)
+    public double[] values;
+    @ProtobufField(fieldNumber = 3, protobufType = ProtobufType.MESSAGE)
+    public List<NestedMessage> items;
+}
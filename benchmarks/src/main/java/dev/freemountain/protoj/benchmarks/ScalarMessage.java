@@ -0,0 +1,44 @@
+package dev.freemountain.protoj.benchmarks;
+
+import dev.freemountain.protoj.api.ProtobufField;
+import dev.freemountain.protoj.api.ProtobufType;
+import java.util.List;
+
+/**
+ * Scalars in benchmark.proto, fields in field number order like protoc writes them.
+ */
+public class ScalarMessage {
+
+    @ProtobufField(fieldNumber = 1, protobufType = ProtobufType.INT32)
+    public int foo;
+    @ProtobufField(fieldNumber = 2, protobufType = ProtobufType.MESSAGE)
+    public NestedMessage nested;
+    @ProtobufField(fieldNumber = 3, protobufType = ProtobufType.SINT32)
+    public int sint;
+    @ProtobufField(fieldNumber = 4, protobufType = ProtobufType.UINT64)
+    public long uint;
+    @ProtobufField(fieldNumber = 5, protobufType = ProtobufType.FIXED32)
+    public int fixed;
+    @ProtobufField(fieldNumber = 6, protobufType = ProtobufType.SFIXED64)
+    public long sfixed;
+    @ProtobufField(fieldNumber = 7, protobufType = ProtobufType.FLOAT)
+    public float ratio;
+    @ProtobufField(fieldNumber = 8, protobufType = ProtobufType.BOOL)
+    public boolean flag;
+    @ProtobufField(fieldNumber = 17, protobufType = ProtobufType.INT32)
+    public List<Integer> list;
+    @ProtobufField(fieldNumber = 11237, protobufType = ProtobufType.INT64)
+    public long bar;
+    @ProtobufField(fieldNumber = 985691, protobufType = ProtobufType.DOUBLE)
+    public double baz;
+
+    public static class NestedMessage {
+
+        @ProtobufField(fieldNumber = 2, protobufType = ProtobufType.BOOL)
+        public boolean bar;
+        @ProtobufField(fieldNumber = 7, protobufType = ProtobufType.STRING)
+        public String baz;
+        @ProtobufField(fieldNumber = 9, protobufType = ProtobufType.FLOAT)
+        public float foo;
+    }
+}
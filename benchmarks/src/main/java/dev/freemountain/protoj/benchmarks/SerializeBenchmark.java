@@ -0,0 +1,75 @@
+package dev.freemountain.protoj.benchmarks;
+
+import com.google.protobuf.Message;
+import dev.freemountain.protoj.serialize.ProtobufSerializer;
+import dev.freemountain.protoj.serialize.SerializerPool;
+import java.io.IOException;
+import java.nio.Buffer;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Serialization of every {@link Shape}, by protoj and by the protoc-generated code for the same schema.
+ */
+@State(Scope.Thread)
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class SerializeBenchmark {
+
+    @Param({"SCALAR", "STRING", "DEEP", "REPEATED"})
+    public Shape shape;
+
+    private Object protojMessage;
+    private Message protocMessage;
+    private SerializerPool pool;
+    private ByteBuffer direct;
+
+    @Setup
+    public void setUp() throws IOException {
+        protojMessage = shape.protoj();
+        protocMessage = shape.protoc();
+        pool = new SerializerPool();
+        byte[] expected = protocMessage.toByteArray();
+        if (!Arrays.equals(expected, ProtobufSerializer.serialize(protojMessage).array())) {
+            throw new IllegalStateException(shape + " doesn't encode to the same bytes as protoc");
+        }
+        direct = ByteBuffer.allocateDirect(expected.length);
+    }
+
+    @Benchmark
+    public ByteBuffer protoj() throws IOException {
+        return ProtobufSerializer.serialize(protojMessage);
+    }
+
+    @Benchmark
+    public ByteBuffer protojPooled() throws IOException {
+        return pool.serialize(protojMessage);
+    }
+
+    @Benchmark
+    public ByteBuffer protojDirect() throws IOException {
+        ((Buffer) direct).clear();
+        ProtobufSerializer.serializeTo(protojMessage, direct);
+        return direct;
+    }
+
+    @Benchmark
+    public byte[] protoc() {
+        return protocMessage.toByteArray();
+    }
+}
@@ -0,0 +1,230 @@
+package dev.freemountain.protoj.benchmarks;
+
+import com.google.protobuf.ByteString;
+import com.google.protobuf.Message;
+import dev.freemountain.protoj.benchmarks.ScalarMessage.NestedMessage;
+import dev.freemountain.protoj.benchmarks.proto.BenchmarkProto;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Message shapes benchmarked, each built once as a protoj message and once as the protoc-generated message holding
+ * the same values, so both encode to the same bytes.
+ */
+public enum Shape {
+
+    SCALAR(ScalarMessage.class) {
+        @Override
+        Object protoj() {
+            ScalarMessage message = new ScalarMessage();
+            message.foo = 19371283;
+            message.nested = nested(7);
+            message.sint = -4096;
+            message.uint = 1L << 40;
+            message.fixed = 0xCAFEBABE;
+            message.sfixed = -9174917261277L;
+            message.ratio = 0.75f;
+            message.flag = true;
+            message.list = Arrays.asList(-1, 4, 171487, -149);
+            message.bar = 9174917261277L;
+            message.baz = 659819.1246;
+            return message;
+        }
+
+        @Override
+        Message protoc() {
+            return BenchmarkProto.Scalars.newBuilder()
+                .setFoo(19371283)
+                .setNested(protocNested(7))
+                .setSint(-4096)
+                .setUint(1L << 40)
+                .setFixed(0xCAFEBABE)
+                .setSfixed(-9174917261277L)
+                .setRatio(0.75f)
+                .setFlag(true)
+                .addAllList(Arrays.asList(-1, 4, 171487, -149))
+                .setBar(9174917261277L)
+                .setBaz(659819.1246)
+                .build();
+        }
+
+        @Override
+        Message parseProtoc(byte[] bytes) throws Exception {
+            return BenchmarkProto.Scalars.parseFrom(bytes);
+        }
+    },
+
+    STRING(StringMessage.class) {
+        @Override
+        Object protoj() {
+            StringMessage message = new StringMessage();
+            message.id = "3f2b8c1e-6d4a-4b7f-9e21-0c5d8a7f6b3e";
+            message.name = "H3LlO W0RLd";
+            message.description = DESCRIPTION;
+            message.tags = TAGS;
+            message.payload = PAYLOAD;
+            return message;
+        }
+
+        @Override
+        Message protoc() {
+            return BenchmarkProto.Strings.newBuilder()
+                .setId("3f2b8c1e-6d4a-4b7f-9e21-0c5d8a7f6b3e")
+                .setName("H3LlO W0RLd")
+                .setDescription(DESCRIPTION)
+                .addAllTags(TAGS)
+                .setPayload(ByteString.copyFrom(PAYLOAD))
+                .build();
+        }
+
+        @Override
+        Message parseProtoc(byte[] bytes) throws Exception {
+            return BenchmarkProto.Strings.parseFrom(bytes);
+        }
+    },
+
+    DEEP(DeepMessage.class) {
+        @Override
+        Object protoj() {
+            DeepMessage message = new DeepMessage();
+            message.id = 1;
+            message.label = label(1);
+            message.child = new DeepMessage.Depth2();
+            message.child.id = 2;
+            message.child.label = label(2);
+            message.child.child = new DeepMessage.Depth3();
+            message.child.child.id = 3;
+            message.child.child.label = label(3);
+            message.child.child.child = new DeepMessage.Depth4();
+            message.child.child.child.id = 4;
+            message.child.child.child.label = label(4);
+            message.child.child.child.child = new DeepMessage.Depth5();
+            message.child.child.child.child.id = 5;
+            message.child.child.child.child.label = label(5);
+            message.child.child.child.child.child = new DeepMessage.Depth6();
+            message.child.child.child.child.child.id = 6;
+            message.child.child.child.child.child.label = label(6);
+            message.child.child.child.child.child.child = new DeepMessage.Depth7();
+            message.child.child.child.child.child.child.id = 7;
+            message.child.child.child.child.child.child.label = label(7);
+            message.child.child.child.child.child.child.child = new DeepMessage.Depth8();
+            message.child.child.child.child.child.child.child.id = 8;
+            message.child.child.child.child.child.child.child.label = label(8);
+            return message;
+        }
+
+        @Override
+        Message protoc() {
+            BenchmarkProto.Depth8 depth8 = BenchmarkProto.Depth8.newBuilder().setId(8).setLabel(label(8)).build();
+            BenchmarkProto.Depth7 depth7 = BenchmarkProto.Depth7.newBuilder().setId(7).setLabel(label(7))
+                .setChild(depth8).build();
+            BenchmarkProto.Depth6 depth6 = BenchmarkProto.Depth6.newBuilder().setId(6).setLabel(label(6))
+                .setChild(depth7).build();
+            BenchmarkProto.Depth5 depth5 = BenchmarkProto.Depth5.newBuilder().setId(5).setLabel(label(5))
+                .setChild(depth6).build();
+            BenchmarkProto.Depth4 depth4 = BenchmarkProto.Depth4.newBuilder().setId(4).setLabel(label(4))
+                .setChild(depth5).build();
+            BenchmarkProto.Depth3 depth3 = BenchmarkProto.Depth3.newBuilder().setId(3).setLabel(label(3))
+                .setChild(depth4).build();
+            BenchmarkProto.Depth2 depth2 = BenchmarkProto.Depth2.newBuilder().setId(2).setLabel(label(2))
+                .setChild(depth3).build();
+            return BenchmarkProto.Depth1.newBuilder().setId(1).setLabel(label(1)).setChild(depth2).build();
+        }
+
+        @Override
+        Message parseProtoc(byte[] bytes) throws Exception {
+            return BenchmarkProto.Depth1.parseFrom(bytes);
+        }
+    },
+
+    REPEATED(RepeatedMessage.class) {
+        @Override
+        Object protoj() {
+            RepeatedMessage message = new RepeatedMessage();
+            message.ids = new long[REPEATED_SIZE];
+            message.values = new double[REPEATED_SIZE];
+            for (int i = 0; i < REPEATED_SIZE; i++) {
+                message.ids[i] = id(i);
+                message.values[i] = value(i);
+            }
+            message.items = new ArrayList<>();
+            for (int i = 0; i < REPEATED_ITEMS; i++) {
+                message.items.add(nested(i));
+            }
+            return message;
+        }
+
+        @Override
+        Message protoc() {
+            BenchmarkProto.Repeated.Builder builder = BenchmarkProto.Repeated.newBuilder();
+            for (int i = 0; i < REPEATED_SIZE; i++) {
+                builder.addIds(id(i)).addValues(value(i));
+            }
+            for (int i = 0; i < REPEATED_ITEMS; i++) {
+                builder.addItems(protocNested(i));
+            }
+            return builder.build();
+        }
+
+        @Override
+        Message parseProtoc(byte[] bytes) throws Exception {
+            return BenchmarkProto.Repeated.parseFrom(bytes);
+        }
+    };
+
+    private static final String DESCRIPTION = repeat("Lorem ipsum dolor sit amet, consectetur adipiscing elit. ", 16);
+    private static final List<String> TAGS = Arrays.asList("routing", "eu-west", "priority", "caf\u00e9", "\u20ac");
+    private static final byte[] PAYLOAD = new byte[256];
+    private static final int REPEATED_SIZE = 10000;
+    private static final int REPEATED_ITEMS = 1000;
+
+    private final Class<?> protojClass;
+
+    Shape(Class<?> protojClass) {
+        this.protojClass = protojClass;
+    }
+
+    Class<?> protojClass() {
+        return protojClass;
+    }
+
+    abstract Object protoj();
+
+    abstract Message protoc();
+
+    abstract Message parseProtoc(byte[] bytes) throws Exception;
+
+    private static NestedMessage nested(int index) {
+        NestedMessage nested = new NestedMessage();
+        nested.bar = true;
+        nested.baz = "H3LlO W0RLd " + index;
+        nested.foo = 7.80f + index;
+        return nested;
+    }
+
+    private static BenchmarkProto.Nested protocNested(int index) {
+        return BenchmarkProto.Nested.newBuilder().setBar(true).setBaz("H3LlO W0RLd " + index).setFoo(7.80f + index)
+            .build();
+    }
+
+    private static String label(int depth) {
+        return "level " + depth;
+    }
+
+    private static long id(int index) {
+        return index * 2654435761L;
+    }
+
+    private static double value(int index) {
+        return index * 0.5;
+    }
+
+    private static String repeat(String value, int count) {
+        StringBuilder builder = new StringBuilder();
+        for (int i = 0; i < count; i++) {
+            builder.append(value);
+        }
+        return builder.toString();
+    }
+}
@@ -0,0 +1,22 @@
+package dev.freemountain.protoj.benchmarks;
+
+import dev.freemountain.protoj.api.ProtobufField;
+import dev.freemountain.protoj.api.ProtobufType;
+import java.util.List;
+
+/**
+ * Strings in benchmark.proto.
+ */
+public class StringMessage {
+
+    @ProtobufField(fieldNumber = 1, protobufType = ProtobufType.STRING)
+    public String id;
+    @ProtobufField(fieldNumber = 2, protobufType = ProtobufType.STRING)
+    public String name;
+    @ProtobufField(fieldNumber = 3, protobufType = ProtobufType.STRING)
+    public String description;
+    @ProtobufField(fieldNumber = 4, protobufType = ProtobufType.STRING)
+    public List<String> tags;
+    @ProtobufField(fieldNumber = 5, protobufType = ProtobufType.BYTES)
+    public byte[] payload;
+}
@@ -0,0 +1,602 @@
+package dev.freemountain.protoj.deserialize;
+
+import dev.freemountain.protoj.api.ProtobufDeserializationException;
+import dev.freemountain.protoj.api.ProtobufType;
+import dev.freemountain.protoj.internal.EnumNumbers;
+import dev.freemountain.protoj.internal.TypeMapper;
+import dev.freemountain.protoj.internal.WireType;
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodType;
+import java.lang.reflect.Array;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.function.Supplier;
+
+/**
+ * Decodes the values of a single {@link dev.freemountain.protoj.api.ProtobufField} and stores them in the message.
+ * <p>
+ * Primitive fields are set through setters adapted to their exact primitive type, so decoding e.g. an {@code int}
+ * never allocates an {@link Integer}.  Primitive arrays are sized exactly before being filled, once per packed run or
+ * run of consecutive unpacked elements.
+ */
+final class FieldDecoder {
+
+    /**
+     * How the declared Java type of the field holds its values.
+     */
+    enum Kind {
+        // Primitive of the Java type matching the protobuf type
+        PRIMITIVE,
+        // Boxed primitive, String, byte[] or enum
+        OBJECT,
+        // Collection of boxed primitives, strings, bytes, enums or messages
+        COLLECTION,
+        // Primitive array of a repeated scalar type
+        ARRAY,
+        // Embedded message
+        MESSAGE,
+        // Map of keys to values, decoded from an entry message per key
+        MAP
+    }
+
+    private static final int LENGTH_DELIMITED = WireType.LENGTH_DELIMITED.getWireTypeId();
+    private static final int KEY_FIELD_NUMBER = 1;
+    private static final int VALUE_FIELD_NUMBER = 2;
+
+    private final String name;
+    private final int fieldNumber;
+    private final ProtobufType protobufType;
+    private final ProtobufType keyType;
+    private final ProtobufType valueType;
+    private final Kind kind;
+    private final int wireType;
+    private final MethodHandle getter;
+    private final MethodHandle setter;
+    private final Class<?> messageClass;
+    private final Supplier<Collection<Object>> collectionFactory;
+    private final Supplier<Map<Object, Object>> mapFactory;
+    // Constants of an ENUM field, or of the values of an ENUM map, by number
+    private final Map<Integer, Object> enumConstants;
+
+    /**
+     * @param getter field getter of type (Object)Object
+     * @param setter field setter of type (Object, javaType)void for primitives, (Object, Object)void otherwise
+     * @param keyType type of the keys of a map, or null for other kinds
+     * @param valueType type of the values of a map, or null for other kinds
+     * @param messageClass class of embedded messages or enum constants, including map values, or null for scalar
+     * fields
+     * @param collectionFactory creates the collection of a repeated field when it's null, or null for other kinds
+     * @param mapFactory creates the map of a map field when it's null, or null for other kinds
+     */
+    FieldDecoder(String name, int fieldNumber, ProtobufType protobufType, ProtobufType keyType, ProtobufType valueType,
+        Kind kind, MethodHandle getter, MethodHandle setter, Class<?> messageClass,
+        Supplier<Collection<Object>> collectionFactory, Supplier<Map<Object, Object>> mapFactory) {
+        this.name = name;
+        this.fieldNumber = fieldNumber;
+        this.protobufType = protobufType;
+        this.keyType = keyType;
+        this.valueType = valueType;
+        this.kind = kind;
+        WireType wireType = TypeMapper.getWireType(protobufType);
+        // Embedded messages are always keyed as length-delimited
+        this.wireType = wireType == null ? LENGTH_DELIMITED : wireType.getWireTypeId();
+        this.getter = getter.asType(MethodType.methodType(Object.class, Object.class));
+        Class<?> setterType = kind == Kind.PRIMITIVE ? javaType(protobufType) : Object.class;
+        this.setter = setter.asType(MethodType.methodType(void.class, Object.class, setterType));
+        this.messageClass = messageClass;
+        this.collectionFactory = collectionFactory;
+        this.mapFactory = mapFactory;
+        boolean enumValues = protobufType == ProtobufType.ENUM || valueType == ProtobufType.ENUM;
+        this.enumConstants = enumValues ? enumConstants(messageClass) : null;
+    }
+
+    private static Map<Integer, Object> enumConstants(Class<?> enumClass) {
+        int[] numbers;
+        try {
+            numbers = EnumNumbers.forEnum(enumClass);
+        } catch (IllegalArgumentException e) {
+            throw new ProtobufDeserializationException(e.getMessage());
+        }
+        Object[] constants = enumClass.getEnumConstants();
+        Map<Integer, Object> enumConstants = new HashMap<>();
+        for (int i = 0; i < constants.length; i++) {
+            enumConstants.put(numbers[i], constants[i]);
+        }
+        return enumConstants;
+    }
+
+    String getName() {
+        return name;
+    }
+
+    int getFieldNumber() {
+        return fieldNumber;
+    }
+
+    /**
+     * Repeated scalars are accepted both packed and unpacked, anything else only with its own wire type.
+     */
+    boolean accepts(int wireType) {
+        if (wireType == this.wireType) {
+            return true;
+        }
+        return wireType == LENGTH_DELIMITED && (kind == Kind.COLLECTION || kind == Kind.ARRAY) && isPackable(
+            protobufType);
+    }
+
+    void decode(ProtoReader reader, int wireType, Object message, int depth) throws Throwable {
+        switch (kind) {
+            case PRIMITIVE:
+                decodePrimitive(reader, message);
+                break;
+            case OBJECT:
+                Object value = readValue(reader, protobufType, depth);
+                // Unknown enum numbers are dropped like unknown fields
+                if (value != null) {
+                    setter.invokeExact(message, value);
+                }
+                break;
+            case MESSAGE: {
+                // Occurrences of an embedded message are merged, the last value of each field winning
+                Object existing = getter.invokeExact(message);
+                if (existing != null) {
+                    int oldLimit = reader.pushLimit(reader.readLength());
+                    MessagePlan.forClass(messageClass).merge(reader, existing, depth + 1);
+                    reader.popLimit(oldLimit);
+                } else {
+                    setter.invokeExact(message, readMessage(reader, depth));
+                }
+                break;
+            }
+            case COLLECTION:
+                Collection<Object> collection = collection(message);
+                if (wireType == LENGTH_DELIMITED && wireType != this.wireType) {
+                    // A packed run of elements without keys
+                    int oldLimit = reader.pushLimit(reader.readLength());
+                    while (!reader.isAtEnd()) {
+                        addValue(collection, readValue(reader, protobufType, depth));
+                    }
+                    reader.popLimit(oldLimit);
+                } else {
+                    addValue(collection, readValue(reader, protobufType, depth));
+                }
+                break;
+            case MAP: {
+                int oldLimit = reader.pushLimit(reader.readLength());
+                decodeEntry(reader, map(message), depth);
+                reader.popLimit(oldLimit);
+                break;
+            }
+            case ARRAY:
+                if (wireType == LENGTH_DELIMITED) {
+                    int oldLimit = reader.pushLimit(reader.readLength());
+                    decodeArray(reader, message, count(reader));
+                    reader.popLimit(oldLimit);
+                } else {
+                    decodeUnpackedRun(reader, message, fieldNumber << 3 | wireType);
+                }
+                break;
+        }
+    }
+
+    private void decodePrimitive(ProtoReader reader, Object message) throws Throwable {
+        switch (protobufType) {
+            case DOUBLE:
+                setter.invokeExact(message, Double.longBitsToDouble(reader.readFixed64()));
+                break;
+            case FLOAT:
+                setter.invokeExact(message, Float.intBitsToFloat(reader.readFixed32()));
+                break;
+            case INT32:
+            case UINT32:
+                setter.invokeExact(message, (int) reader.readVarint());
+                break;
+            case SINT32:
+                setter.invokeExact(message, reader.readSInt32());
+                break;
+            case INT64:
+            case UINT64:
+                setter.invokeExact(message, reader.readVarint());
+                break;
+            case SINT64:
+                setter.invokeExact(message, reader.readSInt64());
+                break;
+            case SFIXED32:
+            case FIXED32:
+                setter.invokeExact(message, reader.readFixed32());
+                break;
+            case SFIXED64:
+            case FIXED64:
+                setter.invokeExact(message, reader.readFixed64());
+                break;
+            case BOOL:
+                setter.invokeExact(message, reader.readVarint() != 0);
+                break;
+        }
+    }
+
+    /**
+     * Decodes a map entry, leaving out the entry if its value is an unknown enum number.  Missing keys and values are
+     * their defaults.
+     */
+    private void decodeEntry(ProtoReader reader, Map<Object, Object> map, int depth) {
+        Object key = null;
+        Object value = null;
+        // Read to the end of the entry either way, since fields may come in any order
+        boolean drop = false;
+        while (!reader.isAtEnd()) {
+            int tag = reader.readTag();
+            int wireType = tag & 0x7;
+            if (tag >>> 3 == KEY_FIELD_NUMBER && wireType == wireType(keyType)) {
+                key = readValue(reader, keyType, depth);
+            } else if (tag >>> 3 == VALUE_FIELD_NUMBER && wireType == wireType(valueType)) {
+                value = readValue(reader, valueType, depth);
+                drop = value == null;
+            } else {
+                reader.skipField(tag);
+            }
+        }
+        if (drop) {
+            return;
+        }
+        key = key != null ? key : defaultValue(reader, keyType, depth);
+        value = value != null ? value : defaultValue(reader, valueType, depth);
+        if (value != null) {
+            map.put(key, value);
+        }
+    }
+
+    private static int wireType(ProtobufType type) {
+        WireType wireType = TypeMapper.getWireType(type);
+        return wireType == null ? LENGTH_DELIMITED : wireType.getWireTypeId();
+    }
+
+    /**
+     * Value of a field missing from a map entry, or null for enums without a constant numbered 0.
+     */
+    private Object defaultValue(ProtoReader reader, ProtobufType type, int depth) {
+        switch (type) {
+            case DOUBLE:
+                return 0d;
+            case FLOAT:
+                return 0f;
+            case INT64:
+            case UINT64:
+            case SINT64:
+            case SFIXED64:
+            case FIXED64:
+                return 0L;
+            case BOOL:
+                return false;
+            case STRING:
+                return "";
+            case BYTES:
+                return new byte[0];
+            case ENUM:
+                return enumConstants.get(0);
+            case MESSAGE:
+                int oldLimit = reader.pushLimit(0);
+                Object message = MessagePlan.forClass(messageClass).decode(reader, depth + 1);
+                reader.popLimit(oldLimit);
+                return message;
+            default:
+                return 0;
+        }
+    }
+
+    private Object readValue(ProtoReader reader, ProtobufType type, int depth) {
+        switch (type) {
+            case DOUBLE:
+                return Double.longBitsToDouble(reader.readFixed64());
+            case FLOAT:
+                return Float.intBitsToFloat(reader.readFixed32());
+            case INT32:
+            case UINT32:
+                return (int) reader.readVarint();
+            case SINT32:
+                return reader.readSInt32();
+            case INT64:
+            case UINT64:
+                return reader.readVarint();
+            case SINT64:
+                return reader.readSInt64();
+            case SFIXED32:
+            case FIXED32:
+                return reader.readFixed32();
+            case SFIXED64:
+            case FIXED64:
+                return reader.readFixed64();
+            case BOOL:
+                return reader.readVarint() != 0;
+            case STRING:
+                return reader.readString();
+            case BYTES:
+                return reader.readBytes();
+            case ENUM:
+                return enumConstants.get((int) reader.readVarint());
+            default:
+                return readMessage(reader, depth);
+        }
+    }
+
+    private static void addValue(Collection<Object> collection, Object value) {
+        if (value != null) {
+            collection.add(value);
+        }
+    }
+
+    private Object readMessage(ProtoReader reader, int depth) {
+        int oldLimit = reader.pushLimit(reader.readLength());
+        Object value = MessagePlan.forClass(messageClass).decode(reader, depth + 1);
+        reader.popLimit(oldLimit);
+        return value;
+    }
+
+    @SuppressWarnings("unchecked")
+    private Map<Object, Object> map(Object message) throws Throwable {
+        Map<Object, Object> map = (Map<Object, Object>) (Object) getter.invokeExact(message);
+        if (map == null) {
+            map = mapFactory.get();
+            setter.invokeExact(message, (Object) map);
+        }
+        return map;
+    }
+
+    @SuppressWarnings("unchecked")
+    private Collection<Object> collection(Object message) throws Throwable {
+        Collection<Object> collection = (Collection<Object>) (Object) getter.invokeExact(message);
+        if (collection == null) {
+            collection = collectionFactory.get();
+            setter.invokeExact(message, (Object) collection);
+        }
+        return collection;
+    }
+
+    /**
+     * Number of elements in a packed run, known up front so the array is only grown once.
+     */
+    private int count(ProtoReader reader) {
+        int fixedSize = fixedSize(protobufType);
+        if (fixedSize > 0) {
+            if (reader.getRemaining() % fixedSize != 0) {
+                throw new ProtobufDeserializationException(
+                    "Packed " + protobufType + " field " + name + " isn't a multiple of " + fixedSize + " bytes");
+            }
+            return reader.getRemaining() / fixedSize;
+        }
+        return reader.countVarints();
+    }
+
+    /**
+     * Appends count elements to the array held by the field, repeated occurrences of a field are concatenated.
+     */
+    private void decodeArray(ProtoReader reader, Object message, int count) throws Throwable {
+        Object existing = getter.invokeExact(message);
+        switch (protobufType) {
+            case DOUBLE: {
+                double[] values = grow((double[]) existing, count);
+                reader.readFixed64(values, values.length - count, count);
+                setter.invokeExact(message, (Object) values);
+                break;
+            }
+            case FLOAT: {
+                float[] values = grow((float[]) existing, count);
+                reader.readFixed32(values, values.length - count, count);
+                setter.invokeExact(message, (Object) values);
+                break;
+            }
+            case SFIXED32:
+            case FIXED32: {
+                int[] values = grow((int[]) existing, count);
+                reader.readFixed32(values, values.length - count, count);
+                setter.invokeExact(message, (Object) values);
+                break;
+            }
+            case SFIXED64:
+            case FIXED64: {
+                long[] values = grow((long[]) existing, count);
+                reader.readFixed64(values, values.length - count, count);
+                setter.invokeExact(message, (Object) values);
+                break;
+            }
+            case INT32:
+            case UINT32:
+            case SINT32: {
+                int[] values = grow((int[]) existing, count);
+                for (int i = values.length - count; i < values.length; i++) {
+                    values[i] = protobufType == ProtobufType.SINT32 ? reader.readSInt32() : (int) reader.readVarint();
+                }
+                setter.invokeExact(message, (Object) values);
+                break;
+            }
+            case INT64:
+            case UINT64:
+            case SINT64: {
+                long[] values = grow((long[]) existing, count);
+                for (int i = values.length - count; i < values.length; i++) {
+                    values[i] = protobufType == ProtobufType.SINT64 ? reader.readSInt64() : reader.readVarint();
+                }
+                setter.invokeExact(message, (Object) values);
+                break;
+            }
+            case BOOL: {
+                boolean[] values = grow((boolean[]) existing, count);
+                for (int i = values.length - count; i < values.length; i++) {
+                    values[i] = reader.readVarint() != 0;
+                }
+                setter.invokeExact(message, (Object) values);
+                break;
+            }
+        }
+    }
+
+    /**
+     * Appends the element following the tag just read, and every element right after it keyed with the same tag, to
+     * the array held by the field.  Encoders write the elements of a field together, so the array is grown once
+     * rather than once per element.
+     */
+    private void decodeUnpackedRun(ProtoReader reader, Object message, int tag) throws Throwable {
+        int count = countRun(reader, tag);
+        Object values = grow(getter.invokeExact(message), count);
+        int offset = Array.getLength(values) - count;
+        for (int i = 0; i < count; i++) {
+            if (i > 0) {
+                reader.readTag();
+            }
+            readElement(reader, values, offset + i);
+        }
+        setter.invokeExact(message, values);
+    }
+
+    /**
+     * Number of elements in the run starting at the reader's position, leaving the position unchanged.
+     */
+    private int countRun(ProtoReader reader, int tag) {
+        int start = reader.getPosition();
+        int count = 1;
+        reader.skipField(tag);
+        while (!reader.isAtEnd()) {
+            int next = reader.getPosition();
+            if (reader.readTag() != tag) {
+                reader.setPosition(next);
+                break;
+            }
+            reader.skipField(tag);
+            count++;
+        }
+        reader.setPosition(start);
+        return count;
+    }
+
+    private Object grow(Object existing, int count) {
+        switch (protobufType) {
+            case DOUBLE:
+                return grow((double[]) existing, count);
+            case FLOAT:
+                return grow((float[]) existing, count);
+            case INT32:
+            case UINT32:
+            case SINT32:
+            case SFIXED32:
+            case FIXED32:
+                return grow((int[]) existing, count);
+            case INT64:
+            case UINT64:
+            case SINT64:
+            case SFIXED64:
+            case FIXED64:
+                return grow((long[]) existing, count);
+            default:
+                return grow((boolean[]) existing, count);
+        }
+    }
+
+    private void readElement(ProtoReader reader, Object values, int index) {
+        switch (protobufType) {
+            case DOUBLE:
+                ((double[]) values)[index] = Double.longBitsToDouble(reader.readFixed64());
+                break;
+            case FLOAT:
+                ((float[]) values)[index] = Float.intBitsToFloat(reader.readFixed32());
+                break;
+            case INT32:
+            case UINT32:
+                ((int[]) values)[index] = (int) reader.readVarint();
+                break;
+            case SINT32:
+                ((int[]) values)[index] = reader.readSInt32();
+                break;
+            case SFIXED32:
+            case FIXED32:
+                ((int[]) values)[index] = reader.readFixed32();
+                break;
+            case INT64:
+            case UINT64:
+                ((long[]) values)[index] = reader.readVarint();
+                break;
+            case SINT64:
+                ((long[]) values)[index] = reader.readSInt64();
+                break;
+            case SFIXED64:
+            case FIXED64:
+                ((long[]) values)[index] = reader.readFixed64();
+                break;
+            case BOOL:
+                ((boolean[]) values)[index] = reader.readVarint() != 0;
+                break;
+        }
+    }
+
+    private static double[] grow(double[] existing, int count) {
+        return existing == null ? new double[count] : Arrays.copyOf(existing, existing.length + count);
+    }
+
+    private static float[] grow(float[] existing, int count) {
+        return existing == null ? new float[count] : Arrays.copyOf(existing, existing.length + count);
+    }
+
+    private static int[] grow(int[] existing, int count) {
+        return existing == null ? new int[count] : Arrays.copyOf(existing, existing.length + count);
+    }
+
+    private static long[] grow(long[] existing, int count) {
+        return existing == null ? new long[count] : Arrays.copyOf(existing, existing.length + count);
+    }
+
+    private static boolean[] grow(boolean[] existing, int count) {
+        return existing == null ? new boolean[count] : Arrays.copyOf(existing, existing.length + count);
+    }
+
+    /**
+     * Repeated fields of scalar numeric types and enums can be packed, strings, bytes, messages and maps can't be.
+     */
+    static boolean isPackable(ProtobufType type) {
+        return type != ProtobufType.STRING && type != ProtobufType.BYTES && type != ProtobufType.MESSAGE
+            && type != ProtobufType.MAP;
+    }
+
+    private static int fixedSize(ProtobufType type) {
+        switch (type) {
+            case DOUBLE:
+            case SFIXED64:
+            case FIXED64:
+                return Long.BYTES;
+            case FLOAT:
+            case SFIXED32:
+            case FIXED32:
+                return Integer.BYTES;
+            default:
+                return 0;
+        }
+    }
+
+    /**
+     * Primitive type holding values of the protobuf type, or null if it has none.
+     */
+    static Class<?> javaType(ProtobufType protobufType) {
+        switch (protobufType) {
+            case INT32:
+            case UINT32:
+            case SINT32:
+            case SFIXED32:
+            case FIXED32:
+                return int.class;
+            case INT64:
+            case UINT64:
+            case SINT64:
+            case SFIXED64:
+            case FIXED64:
+                return long.class;
+            case FLOAT:
+                return float.class;
+            case DOUBLE:
+                return double.class;
+            case BOOL:
+                return boolean.class;
+            default:
+                return null;
+        }
+    }
+}
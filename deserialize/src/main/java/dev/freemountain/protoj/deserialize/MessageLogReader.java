@@ -0,0 +1,151 @@
+package dev.freemountain.protoj.deserialize;
+
+import dev.freemountain.protoj.api.ProtobufDeserializationException;
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.Buffer;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * Replays a log of length-delimited records, as written by {@code MessageLogWriter} or protobuf's
+ * {@code writeDelimitedTo}, by memory-mapping the file and returning every record as a slice of the mapping.  Records
+ * are never copied onto the heap, so replay is bound by how fast the pages can be read in.
+ * <p>
+ * Files larger than a single mapping are mapped in consecutive windows, each starting at a record boundary.  Slices
+ * keep their window mapped, and stay valid after the reader is closed.  Only the records present when the reader was
+ * opened are read.
+ * <p>
+ * Readers aren't thread-safe.
+ */
+public final class MessageLogReader implements Closeable {
+
+    // Longest length prefix, an int as an unsigned varint
+    private static final int MAX_PREFIX_SIZE = 5;
+
+    private final FileChannel channel;
+    private final long fileSize;
+    private final int maxWindowSize;
+    private MappedByteBuffer window;
+    private long windowStart;
+    // Position of the next record within the window
+    private int position;
+    // Size of the length prefix last read
+    private int prefixSize;
+
+    public MessageLogReader(FileChannel channel) throws IOException {
+        this(channel, Integer.MAX_VALUE);
+    }
+
+    /**
+     * @param maxWindowSize largest number of bytes mapped at once, which also bounds the size of a record
+     */
+    MessageLogReader(FileChannel channel, int maxWindowSize) throws IOException {
+        this.channel = channel;
+        this.fileSize = channel.size();
+        this.maxWindowSize = maxWindowSize;
+        map(0);
+    }
+
+    public static MessageLogReader open(Path path) throws IOException {
+        return new MessageLogReader(FileChannel.open(path, StandardOpenOption.READ));
+    }
+
+    /**
+     * Offset in the file of the next record, e.g. to truncate a log after a partially written record.
+     */
+    public long getPosition() {
+        return windowStart + position;
+    }
+
+    public boolean hasNext() {
+        return getPosition() < fileSize;
+    }
+
+    /**
+     * Slice of the encoded message in the next record, or null at the end of the log.
+     *
+     * @throws ProtobufDeserializationException if the record is cut short by the end of the file
+     */
+    public ByteBuffer next() throws IOException {
+        if (!hasNext()) {
+            return null;
+        }
+        if (!fitsWindow()) {
+            // Move the window up to the record, so it's mapped as a whole
+            map(getPosition());
+        }
+        int length = readLength();
+        int start = position + prefixSize;
+        if (length > window.limit() - start) {
+            long recordEnd = windowStart + start + length;
+            throw new ProtobufDeserializationException(recordEnd > fileSize
+                ? "Record at offset " + getPosition() + " is truncated, " + length + " bytes expected but only "
+                + (fileSize - windowStart - start) + " remaining"
+                : "Record at offset " + getPosition() + " of " + length + " bytes is larger than a mapping");
+        }
+        ByteBuffer record = window.duplicate();
+        ((Buffer) record).limit(start + length).position(start);
+        position = start + length;
+        return record.slice();
+    }
+
+    /**
+     * Decodes the next record, or returns null at the end of the log.
+     */
+    public <T> T next(Class<T> messageClass) throws IOException {
+        ByteBuffer record = next();
+        return record == null ? null : ProtobufDeserializer.deserialize(record, messageClass);
+    }
+
+    @Override
+    public void close() throws IOException {
+        channel.close();
+    }
+
+    /**
+     * Whether the record at the current position ends within the window, as far as its length prefix tells.
+     */
+    private boolean fitsWindow() {
+        if (windowStart + window.limit() == fileSize) {
+            // Nothing left to map
+            return true;
+        }
+        if (window.limit() - position < MAX_PREFIX_SIZE) {
+            return false;
+        }
+        int length = readLength();
+        return length <= window.limit() - position - prefixSize;
+    }
+
+    /**
+     * Length prefix of the record at the current position, without consuming it.
+     */
+    private int readLength() {
+        long length = 0;
+        for (int i = 0; i < MAX_PREFIX_SIZE; i++) {
+            if (position + i >= window.limit()) {
+                throw new ProtobufDeserializationException("Record at offset " + getPosition() + " is truncated");
+            }
+            byte groupBits = window.get(position + i);
+            length |= (long) (groupBits & 0x7F) << (7 * i);
+            if (groupBits >= 0) {
+                if (length > Integer.MAX_VALUE) {
+                    break;
+                }
+                prefixSize = i + 1;
+                return (int) length;
+            }
+        }
+        throw new ProtobufDeserializationException("Invalid record length at offset " + getPosition());
+    }
+
+    private void map(long start) throws IOException {
+        window = channel.map(FileChannel.MapMode.READ_ONLY, start, Math.min(maxWindowSize, fileSize - start));
+        windowStart = start;
+        position = 0;
+    }
+}
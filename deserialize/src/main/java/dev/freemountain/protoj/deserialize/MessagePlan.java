@@ -0,0 +1,417 @@
+package dev.freemountain.protoj.deserialize;
+
+import dev.freemountain.protoj.api.ProtobufDeserializationException;
+import dev.freemountain.protoj.api.ProtobufField;
+import dev.freemountain.protoj.api.ProtobufType;
+import dev.freemountain.protoj.internal.SchemaRules;
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.lang.reflect.Constructor;
+import java.lang.reflect.Field;
+import java.lang.reflect.Modifier;
+import java.lang.reflect.ParameterizedType;
+import java.lang.reflect.Type;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.SortedMap;
+import java.util.SortedSet;
+import java.util.TreeMap;
+import java.util.TreeSet;
+import java.util.function.Supplier;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Decode plan for a message class.  Built once per class from its {@link ProtobufField} annotations and shared by
+ * every thread deserializing messages of that class, so steady-state decoding does no annotation or member lookups.
+ * <p>
+ * Decoders are found by field number through a table indexed by the number itself, or a binary search over the
+ * sorted numbers when they are too sparse for a table.
+ */
+final class MessagePlan {
+
+    private static final Logger logger = LoggerFactory.getLogger(MessagePlan.class);
+
+    // Largest field number still looked up through a direct table
+    private static final int MAX_TABLE_FIELD_NUMBER = 1024;
+
+    private static final MethodHandles.Lookup lookup = MethodHandles.lookup();
+
+    /*
+     * ClassValue keeps the plan reachable only as long as the class itself, so plans don't pin classloaders.  Failed
+     * builds are not cached and will throw again on the next lookup.
+     */
+    private static final ClassValue<MessagePlan> plans = new ClassValue<MessagePlan>() {
+        @Override
+        protected MessagePlan computeValue(Class<?> messageClass) {
+            return build(messageClass);
+        }
+    };
+
+    private final Class<?> messageClass;
+    private final MethodHandle constructor;
+    // Indexed by field number, or null when the numbers are looked up in fieldNumbers
+    private final FieldDecoder[] table;
+    // Sorted field numbers, parallel to decoders
+    private final int[] fieldNumbers;
+    private final FieldDecoder[] decoders;
+
+    private MessagePlan(Class<?> messageClass, MethodHandle constructor, FieldDecoder[] decoders) {
+        this.messageClass = messageClass;
+        this.constructor = constructor;
+        Arrays.sort(decoders, Comparator.comparingInt(FieldDecoder::getFieldNumber));
+        this.decoders = decoders;
+        this.fieldNumbers = new int[decoders.length];
+        for (int i = 0; i < decoders.length; i++) {
+            fieldNumbers[i] = decoders[i].getFieldNumber();
+        }
+        int maxFieldNumber = decoders.length == 0 ? 0 : fieldNumbers[decoders.length - 1];
+        if (maxFieldNumber <= MAX_TABLE_FIELD_NUMBER) {
+            this.table = new FieldDecoder[maxFieldNumber + 1];
+            for (FieldDecoder decoder : decoders) {
+                table[decoder.getFieldNumber()] = decoder;
+            }
+        } else {
+            this.table = null;
+        }
+    }
+
+    static MessagePlan forClass(Class<?> messageClass) {
+        return plans.get(messageClass);
+    }
+
+    Class<?> getMessageClass() {
+        return messageClass;
+    }
+
+    /**
+     * Decoder for the field number, or null if the class has no such field.
+     */
+    FieldDecoder getDecoder(int fieldNumber) {
+        if (table != null) {
+            return fieldNumber < table.length ? table[fieldNumber] : null;
+        }
+        int index = Arrays.binarySearch(fieldNumbers, fieldNumber);
+        return index >= 0 ? decoders[index] : null;
+    }
+
+    /**
+     * Decodes a message from the reader up to its current limit.
+     *
+     * @param depth number of messages enclosing this one
+     */
+    Object decode(ProtoReader reader, int depth) {
+        checkDepth(depth);
+        Object message;
+        try {
+            message = (Object) constructor.invokeExact();
+        } catch (Throwable e) {
+            throw propagate(e);
+        }
+        decodeFields(reader, message, depth);
+        return message;
+    }
+
+    /**
+     * Decodes the fields up to the reader's current limit into an existing message, the same as a message occurring
+     * again is merged into the earlier one.
+     */
+    void merge(ProtoReader reader, Object message, int depth) {
+        checkDepth(depth);
+        decodeFields(reader, message, depth);
+    }
+
+    private void checkDepth(int depth) {
+        if (depth > ProtobufDeserializer.MAX_DEPTH) {
+            logger.error("Maximum message depth exceeded class={} depth={}", messageClass.getName(), depth);
+            throw new ProtobufDeserializationException(
+                "Messages nested deeper than " + ProtobufDeserializer.MAX_DEPTH + " levels");
+        }
+    }
+
+    private void decodeFields(ProtoReader reader, Object message, int depth) {
+        while (!reader.isAtEnd()) {
+            int tag = reader.readTag();
+            int wireType = tag & 0x7;
+            FieldDecoder decoder = getDecoder(tag >>> 3);
+            // Fields from newer schemas, or encoded with an unexpected wire type, are skipped
+            if (decoder == null || !decoder.accepts(wireType)) {
+                reader.skipField(tag);
+                continue;
+            }
+            try {
+                decoder.decode(reader, wireType, message, depth);
+            } catch (Throwable e) {
+                throw propagate(e);
+            }
+        }
+    }
+
+    private static RuntimeException propagate(Throwable e) {
+        if (e instanceof RuntimeException) {
+            return (RuntimeException) e;
+        }
+        if (e instanceof Error) {
+            throw (Error) e;
+        }
+        return new ProtobufDeserializationException(e.getMessage(), e);
+    }
+
+    private static MessagePlan build(Class<?> messageClass) {
+        String className = messageClass.getName();
+        MethodHandle constructor;
+        try {
+            Constructor<?> noArgConstructor = messageClass.getDeclaredConstructor();
+            noArgConstructor.setAccessible(true);
+            constructor = lookup.unreflectConstructor(noArgConstructor)
+                .asType(MethodType.methodType(Object.class));
+        } catch (ReflectiveOperationException e) {
+            logger.error("Missing no-arg constructor class={} error={}", className, e.getMessage());
+            throw new ProtobufDeserializationException(className + " needs a no-arg constructor");
+        }
+        List<FieldDecoder> decoders = new ArrayList<>();
+        Set<Integer> visitedFieldNumbers = new HashSet<>();
+        for (Field field : messageClass.getDeclaredFields()) {
+            ProtobufField fieldAnnotation = field.getAnnotation(ProtobufField.class);
+            if (fieldAnnotation == null) {
+                continue;
+            }
+            ProtobufType protobufType = fieldAnnotation.protobufType();
+            int fieldNumber = fieldAnnotation.fieldNumber();
+            // Ensure field numbers are unique
+            if (!visitedFieldNumbers.add(fieldNumber)) {
+                logger.error("Duplicate field found at for class={} field={} number={}", className, field.getName(),
+                    fieldNumber);
+                throw new ProtobufDeserializationException("Duplicate field number " + fieldNumber);
+            }
+            if (Modifier.isFinal(field.getModifiers()) || Modifier.isStatic(field.getModifiers())) {
+                logger.error("Field can't be assigned class={} field={} number={}", className, field.getName(),
+                    fieldNumber);
+                throw new ProtobufDeserializationException(
+                    "Field " + field.getName() + " must be a non-final instance field");
+            }
+            decoders.add(buildDecoder(className, field, fieldAnnotation));
+        }
+        return new MessagePlan(messageClass, constructor, decoders.toArray(new FieldDecoder[0]));
+    }
+
+    private static FieldDecoder buildDecoder(String className, Field field, ProtobufField fieldAnnotation) {
+        int fieldNumber = fieldAnnotation.fieldNumber();
+        ProtobufType protobufType = fieldAnnotation.protobufType();
+        String mapTypesError = SchemaRules.mapTypesError(protobufType, fieldAnnotation.mapKeyType(),
+            fieldAnnotation.mapValueType());
+        if (mapTypesError != null) {
+            logger.error("Invalid map types class={} field={} number={} error={}", className, field.getName(),
+                fieldNumber, mapTypesError);
+            throw new ProtobufDeserializationException(mapTypesError + " on " + field.getName());
+        }
+        ProtobufType keyType = null;
+        ProtobufType valueType = null;
+        Class<?> fieldType = field.getType();
+        Class<?> primitiveType = FieldDecoder.javaType(protobufType);
+        FieldDecoder.Kind kind;
+        Class<?> messageClass = null;
+        Supplier<Collection<Object>> collectionFactory = null;
+        Supplier<Map<Object, Object>> mapFactory = null;
+        if (protobufType == ProtobufType.MAP && Map.class.isAssignableFrom(fieldType)) {
+            kind = FieldDecoder.Kind.MAP;
+            keyType = fieldAnnotation.mapKeyType();
+            valueType = fieldAnnotation.mapValueType();
+            mapFactory = mapFactory(className, field);
+            if (valueType == ProtobufType.MESSAGE || valueType == ProtobufType.ENUM) {
+                messageClass = mapValueClass(className, field);
+            }
+        } else if (Iterable.class.isAssignableFrom(fieldType)) {
+            kind = FieldDecoder.Kind.COLLECTION;
+            collectionFactory = collectionFactory(className, field);
+            if (protobufType == ProtobufType.MESSAGE || protobufType == ProtobufType.ENUM) {
+                messageClass = elementClass(className, field);
+            }
+        } else if (protobufType == ProtobufType.MESSAGE) {
+            kind = FieldDecoder.Kind.MESSAGE;
+            messageClass = fieldType;
+        } else if (protobufType == ProtobufType.ENUM && fieldType.isEnum()) {
+            kind = FieldDecoder.Kind.OBJECT;
+            messageClass = fieldType;
+        } else if (fieldType.isPrimitive() && fieldType == primitiveType) {
+            kind = FieldDecoder.Kind.PRIMITIVE;
+        } else if (fieldType.isArray() && fieldType.getComponentType().isPrimitive()
+            && fieldType.getComponentType() != byte.class && fieldType.getComponentType() == primitiveType) {
+            kind = FieldDecoder.Kind.ARRAY;
+        } else if (protobufType != ProtobufType.ENUM && protobufType != ProtobufType.MAP
+            && fieldType.isAssignableFrom(valueClass(protobufType))) {
+            kind = FieldDecoder.Kind.OBJECT;
+        } else {
+            logger.error("Field type doesn't match protobuf type class={} field={} number={} type={}", className,
+                field.getName(), fieldNumber, protobufType);
+            throw new ProtobufDeserializationException(
+                "Field " + field.getName() + " of " + fieldType.getName() + " can't hold " + protobufType + " values");
+        }
+        try {
+            field.setAccessible(true);
+            return new FieldDecoder(field.getName(), fieldNumber, protobufType, keyType, valueType, kind,
+                lookup.unreflectGetter(field), lookup.unreflectSetter(field), messageClass, collectionFactory,
+                mapFactory);
+        } catch (ReflectiveOperationException | RuntimeException e) {
+            /*
+                Swallowing checked reflection exceptions since they won't be recoverable w/o programming changes
+                anyway
+             */
+            logger.error("Error during reflection operation class={} field={} number={} error={}", className,
+                field.getName(), fieldNumber, e.getMessage());
+            throw new ProtobufDeserializationException(e.getMessage(), e);
+        }
+    }
+
+    /**
+     * Class of decoded values held by non-primitive fields.
+     */
+    private static Class<?> valueClass(ProtobufType protobufType) {
+        switch (protobufType) {
+            case INT32:
+            case UINT32:
+            case SINT32:
+            case SFIXED32:
+            case FIXED32:
+                return Integer.class;
+            case INT64:
+            case UINT64:
+            case SINT64:
+            case SFIXED64:
+            case FIXED64:
+                return Long.class;
+            case FLOAT:
+                return Float.class;
+            case DOUBLE:
+                return Double.class;
+            case BOOL:
+                return Boolean.class;
+            case STRING:
+                return String.class;
+            default:
+                return byte[].class;
+        }
+    }
+
+    /**
+     * Creates the collection of a repeated field which is null after construction, an {@link ArrayList} unless the
+     * declared type asks for a set or is itself a concrete collection.
+     */
+    private static Supplier<Collection<Object>> collectionFactory(String className, Field field) {
+        Class<?> fieldType = field.getType();
+        if (fieldType.isAssignableFrom(ArrayList.class)) {
+            return ArrayList::new;
+        }
+        if (fieldType.isAssignableFrom(LinkedHashSet.class)) {
+            return LinkedHashSet::new;
+        }
+        if (fieldType.isAssignableFrom(TreeSet.class) && SortedSet.class.isAssignableFrom(fieldType)) {
+            return TreeSet::new;
+        }
+        if (Collection.class.isAssignableFrom(fieldType) && !fieldType.isInterface()
+            && !Modifier.isAbstract(fieldType.getModifiers())) {
+            try {
+                MethodHandle constructor = lookup.findConstructor(fieldType, MethodType.methodType(void.class))
+                    .asType(MethodType.methodType(Collection.class));
+                return () -> {
+                    try {
+                        @SuppressWarnings("unchecked")
+                        Collection<Object> collection = (Collection<Object>) constructor.invokeExact();
+                        return collection;
+                    } catch (Throwable e) {
+                        throw propagate(e);
+                    }
+                };
+            } catch (ReflectiveOperationException e) {
+                logger.error("Error during reflection operation class={} field={} error={}", className,
+                    field.getName(), e.getMessage());
+                throw new ProtobufDeserializationException(e.getMessage(), e);
+            }
+        }
+        logger.error("Unsupported collection type class={} field={} type={}", className, field.getName(),
+            fieldType.getName());
+        throw new ProtobufDeserializationException("Unsupported collection type " + fieldType.getName());
+    }
+
+    /**
+     * Creates the map of a map field which is null after construction, a {@link LinkedHashMap} so entries keep their
+     * encoded order, unless the declared type asks for a sorted map or is itself a concrete map.
+     */
+    private static Supplier<Map<Object, Object>> mapFactory(String className, Field field) {
+        Class<?> fieldType = field.getType();
+        if (fieldType.isAssignableFrom(LinkedHashMap.class)) {
+            return LinkedHashMap::new;
+        }
+        if (fieldType.isAssignableFrom(TreeMap.class) && SortedMap.class.isAssignableFrom(fieldType)) {
+            return TreeMap::new;
+        }
+        if (!fieldType.isInterface() && !Modifier.isAbstract(fieldType.getModifiers())) {
+            try {
+                MethodHandle constructor = lookup.findConstructor(fieldType, MethodType.methodType(void.class))
+                    .asType(MethodType.methodType(Map.class));
+                return () -> {
+                    try {
+                        @SuppressWarnings("unchecked")
+                        Map<Object, Object> map = (Map<Object, Object>) constructor.invokeExact();
+                        return map;
+                    } catch (Throwable e) {
+                        throw propagate(e);
+                    }
+                };
+            } catch (ReflectiveOperationException e) {
+                logger.error("Error during reflection operation class={} field={} error={}", className,
+                    field.getName(), e.getMessage());
+                throw new ProtobufDeserializationException(e.getMessage(), e);
+            }
+        }
+        logger.error("Unsupported map type class={} field={} type={}", className, field.getName(),
+            fieldType.getName());
+        throw new ProtobufDeserializationException("Unsupported map type " + fieldType.getName());
+    }
+
+    /**
+     * Message class or enum of the values of a map field, taken from the map's value type argument.
+     */
+    private static Class<?> mapValueClass(String className, Field field) {
+        Type genericType = field.getGenericType();
+        if (genericType instanceof ParameterizedType) {
+            Type[] typeArguments = ((ParameterizedType) genericType).getActualTypeArguments();
+            if (typeArguments.length == 2 && typeArguments[1] instanceof Class) {
+                return (Class<?>) typeArguments[1];
+            }
+            if (typeArguments.length == 2 && typeArguments[1] instanceof ParameterizedType) {
+                return (Class<?>) ((ParameterizedType) typeArguments[1]).getRawType();
+            }
+        }
+        logger.error("Unknown map value type class={} field={} type={}", className, field.getName(), genericType);
+        throw new ProtobufDeserializationException("Field " + field.getName() + " needs a concrete map value type");
+    }
+
+    /**
+     * Message class of a repeated {@code MESSAGE} field, or enum of a repeated {@code ENUM} field, taken from the
+     * collection's type argument.
+     */
+    private static Class<?> elementClass(String className, Field field) {
+        Type genericType = field.getGenericType();
+        if (genericType instanceof ParameterizedType) {
+            Type[] typeArguments = ((ParameterizedType) genericType).getActualTypeArguments();
+            if (typeArguments.length == 1 && typeArguments[0] instanceof Class) {
+                return (Class<?>) typeArguments[0];
+            }
+            if (typeArguments.length == 1 && typeArguments[0] instanceof ParameterizedType) {
+                return (Class<?>) ((ParameterizedType) typeArguments[0]).getRawType();
+            }
+        }
+        logger.error("Unknown message type class={} field={} type={}", className, field.getName(), genericType);
+        throw new ProtobufDeserializationException("Field " + field.getName() + " needs a concrete message type");
+    }
+}
@@ -0,0 +1,281 @@
+package dev.freemountain.protoj.deserialize;
+
+import dev.freemountain.protoj.api.ProtobufDeserializationException;
+import dev.freemountain.protoj.internal.WireType;
+import java.nio.Buffer;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Reads encoded protobuf values from a {@link ByteBuffer} using absolute gets, so the caller's buffer is never moved
+ * and varints and fixed width values are decoded without allocating.
+ * <p>
+ * Embedded messages are read by narrowing the limit to their length with {@link #pushLimit(int)} rather than by
+ * slicing the buffer.
+ */
+final class ProtoReader {
+
+    // Longest varint, a negative int64
+    private static final int MAX_VARINT_SIZE = 10;
+    // Proto2 group delimiters, only ever skipped
+    private static final int START_GROUP = 3;
+    private static final int END_GROUP = 4;
+
+    private final ByteBuffer buffer;
+    private int position;
+    private int limit;
+
+    ProtoReader(ByteBuffer source) {
+        // Fixed width values are little endian, without changing the caller's buffer
+        this(source.duplicate().order(ByteOrder.LITTLE_ENDIAN), source.position(), source.limit());
+    }
+
+    /**
+     * Reads the bytes between position and limit of a little endian buffer in place, without duplicating it.
+     */
+    ProtoReader(ByteBuffer buffer, int position, int limit) {
+        this.buffer = buffer;
+        this.position = position;
+        this.limit = limit;
+    }
+
+    /**
+     * Little endian buffer read in place, shared by views of embedded messages.
+     */
+    ByteBuffer getBuffer() {
+        return buffer;
+    }
+
+    boolean isAtEnd() {
+        return position >= limit;
+    }
+
+    int getPosition() {
+        return position;
+    }
+
+    /**
+     * Moves to an absolute position, e.g. the start of a previously indexed value.
+     */
+    void setPosition(int position) {
+        this.position = position;
+    }
+
+    int getRemaining() {
+        return limit - position;
+    }
+
+    /**
+     * Key of the next field, the field number and wire type combined as (field_number << 3) | wire_type.
+     */
+    int readTag() {
+        long tag = readVarint();
+        if (tag >>> 3 == 0 || tag >>> 32 != 0) {
+            throw malformed("Invalid key " + tag);
+        }
+        return (int) tag;
+    }
+
+    long readVarint() {
+        long result = 0;
+        for (int shift = 0; shift < MAX_VARINT_SIZE * 7; shift += 7) {
+            if (position >= limit) {
+                throw malformed("Truncated varint");
+            }
+            byte groupBits = buffer.get(position++);
+            result |= (long) (groupBits & 0x7F) << shift;
+            if (groupBits >= 0) {
+                return result;
+            }
+        }
+        throw malformed("Varint longer than " + MAX_VARINT_SIZE + " bytes");
+    }
+
+    int readSInt32() {
+        int value = (int) readVarint();
+        return (value >>> 1) ^ -(value & 1);
+    }
+
+    long readSInt64() {
+        long value = readVarint();
+        return (value >>> 1) ^ -(value & 1);
+    }
+
+    int readFixed32() {
+        require(Integer.BYTES);
+        int value = buffer.getInt(position);
+        position += Integer.BYTES;
+        return value;
+    }
+
+    long readFixed64() {
+        require(Long.BYTES);
+        long value = buffer.getLong(position);
+        position += Long.BYTES;
+        return value;
+    }
+
+    /**
+     * Length prefix of a length-delimited value, checked against the remaining bytes.
+     */
+    int readLength() {
+        long length = readVarint();
+        if (length < 0 || length > limit - position) {
+            throw malformed("Length " + length + " exceeds the remaining " + (limit - position) + " bytes");
+        }
+        return (int) length;
+    }
+
+    byte[] readBytes() {
+        byte[] value = new byte[readLength()];
+        readRaw(value);
+        return value;
+    }
+
+    String readString() {
+        int length = readLength();
+        if (buffer.hasArray()) {
+            String value = new String(buffer.array(), buffer.arrayOffset() + position, length, StandardCharsets.UTF_8);
+            position += length;
+            return value;
+        }
+        byte[] value = new byte[length];
+        readRaw(value);
+        return new String(value, StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Bulk little endian copies of packed fixed width values.
+     */
+    void readFixed32(int[] values, int offset, int count) {
+        require(count * Integer.BYTES);
+        view().asIntBuffer().get(values, offset, count);
+        position += count * Integer.BYTES;
+    }
+
+    void readFixed32(float[] values, int offset, int count) {
+        require(count * Float.BYTES);
+        view().asFloatBuffer().get(values, offset, count);
+        position += count * Float.BYTES;
+    }
+
+    void readFixed64(long[] values, int offset, int count) {
+        require(count * Long.BYTES);
+        view().asLongBuffer().get(values, offset, count);
+        position += count * Long.BYTES;
+    }
+
+    void readFixed64(double[] values, int offset, int count) {
+        require(count * Double.BYTES);
+        view().asDoubleBuffer().get(values, offset, count);
+        position += count * Double.BYTES;
+    }
+
+    /**
+     * Number of varints up to the limit, counting the bytes which end one, to size packed arrays exactly.
+     */
+    int countVarints() {
+        int count = 0;
+        for (int i = position; i < limit; i++) {
+            if (buffer.get(i) >= 0) {
+                count++;
+            }
+        }
+        return count;
+    }
+
+    /**
+     * Skips the value of a field without a decoder, so unknown fields from newer schemas are ignored.  Proto2 groups
+     * are skipped up to the end key with their field number.
+     *
+     * @param tag key read in front of the value
+     */
+    void skipField(int tag) {
+        int wireType = tag & 0x7;
+        if (wireType == WireType.VARINT.getWireTypeId()) {
+            readVarint();
+        } else if (wireType == WireType.FIXED_64.getWireTypeId()) {
+            skip(Long.BYTES);
+        } else if (wireType == WireType.LENGTH_DELIMITED.getWireTypeId()) {
+            skip(readLength());
+        } else if (wireType == WireType.FIXED_32.getWireTypeId()) {
+            skip(Integer.BYTES);
+        } else if (wireType == START_GROUP) {
+            skipGroup(tag >>> 3, 1);
+        } else if (wireType == END_GROUP) {
+            throw malformed("End of group " + (tag >>> 3) + " without a start");
+        } else {
+            throw malformed("Unsupported wire type " + wireType);
+        }
+    }
+
+    /**
+     * @param depth number of groups being skipped, including this one
+     */
+    private void skipGroup(int fieldNumber, int depth) {
+        if (depth > ProtobufDeserializer.MAX_DEPTH) {
+            throw malformed("Groups nested deeper than " + ProtobufDeserializer.MAX_DEPTH + " levels");
+        }
+        while (!isAtEnd()) {
+            int tag = readTag();
+            int wireType = tag & 0x7;
+            if (wireType == END_GROUP) {
+                if (tag >>> 3 != fieldNumber) {
+                    throw malformed("End of group " + (tag >>> 3) + " inside group " + fieldNumber);
+                }
+                return;
+            }
+            if (wireType == START_GROUP) {
+                skipGroup(tag >>> 3, depth + 1);
+            } else {
+                skipField(tag);
+            }
+        }
+        throw malformed("Group " + fieldNumber + " isn't ended");
+    }
+
+    /**
+     * Narrows the readable bytes to the next length bytes, returning the limit to restore with {@link #popLimit(int)}.
+     */
+    int pushLimit(int length) {
+        int oldLimit = limit;
+        limit = position + length;
+        return oldLimit;
+    }
+
+    void popLimit(int oldLimit) {
+        if (position != limit) {
+            throw malformed("Embedded message ended " + (limit - position) + " bytes early");
+        }
+        limit = oldLimit;
+    }
+
+    private void skip(int length) {
+        require(length);
+        position += length;
+    }
+
+    private void readRaw(byte[] value) {
+        ByteBuffer source = buffer.duplicate();
+        ((Buffer) source).position(position);
+        source.get(value);
+        position += value.length;
+    }
+
+    private ByteBuffer view() {
+        ByteBuffer view = buffer.duplicate().order(ByteOrder.LITTLE_ENDIAN);
+        ((Buffer) view).position(position);
+        return view;
+    }
+
+    private void require(int length) {
+        if (length > limit - position) {
+            throw malformed("Truncated value, " + length + " bytes needed but " + (limit - position) + " remaining");
+        }
+    }
+
+    private ProtobufDeserializationException malformed(String message) {
+        return new ProtobufDeserializationException(message + " at position " + position);
+    }
+}
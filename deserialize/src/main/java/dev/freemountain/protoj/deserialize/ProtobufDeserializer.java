@@ -0,0 +1,36 @@
+package dev.freemountain.protoj.deserialize;
+
+import dev.freemountain.protoj.api.ProtobufDeserializationException;
+import java.nio.ByteBuffer;
+
+public class ProtobufDeserializer {
+
+    /**
+     * Deepest nesting of embedded messages accepted, so malicious input can't exhaust the stack.
+     */
+    public static final int MAX_DEPTH = 100;
+
+    private ProtobufDeserializer() {
+        throw new RuntimeException("You shouldn't be here");
+    }
+
+    /**
+     * Decodes a message from the remaining bytes of the buffer, which may be a direct buffer.  The buffer's position,
+     * limit and byte order are left untouched.
+     * <p>
+     * The message is created through its no-arg constructor and only fields present in the input are assigned, so
+     * absent fields keep their constructor values.  Repeated fields are appended to, embedded messages are merged into
+     * any existing value, including one set by the constructor, and fields without a matching
+     * {@link dev.freemountain.protoj.api.ProtobufField} are skipped, along with proto2 groups.
+     *
+     * @throws ProtobufDeserializationException if the input is malformed or the class can't be decoded into
+     */
+    public static <T> T deserialize(ByteBuffer buffer, Class<T> messageClass) {
+        Object message = MessagePlan.forClass(messageClass).decode(new ProtoReader(buffer), 0);
+        return messageClass.cast(message);
+    }
+
+    public static <T> T deserialize(byte[] bytes, Class<T> messageClass) {
+        return deserialize(ByteBuffer.wrap(bytes), messageClass);
+    }
+}
@@ -0,0 +1,233 @@
+package dev.freemountain.protoj.deserialize;
+
+import dev.freemountain.protoj.api.ProtobufDeserializationException;
+import dev.freemountain.protoj.api.ProtobufType;
+import dev.freemountain.protoj.internal.TypeMapper;
+import dev.freemountain.protoj.internal.WireType;
+import java.nio.Buffer;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.Arrays;
+
+/**
+ * Read-only view of an encoded message, for reading a few fields out of a large message without decoding all of it.
+ * The buffer may be a heap, direct or memory-mapped buffer, and is never copied.
+ * <p>
+ * The offsets of the fields are indexed on the first access, by skipping over their values, and values are then
+ * decoded in place on every access.  Embedded messages are returned as views which are indexed on their own first
+ * access, and {@code BYTES} and {@code STRING} values as slices sharing the encoded bytes.  Fields are looked up by the
+ * field numbers and {@link ProtobufType}s used in {@link dev.freemountain.protoj.api.ProtobufField}, and like for
+ * singular protobuf fields the last occurrence of a field wins.
+ * <p>
+ * Views aren't thread-safe, and changes to the underlying bytes show through views and slices.
+ */
+public final class ProtobufView {
+
+    private static final int INITIAL_FIELDS = 8;
+
+    private final ProtoReader reader;
+    private final int start;
+    private final int end;
+    // Keys and value offsets of every field in the message, sorted by field number, or null until first accessed
+    private int[] keys;
+    private int[] offsets;
+    private int fieldCount;
+
+    private ProtobufView(ByteBuffer buffer, int start, int end) {
+        this.reader = new ProtoReader(buffer, start, end);
+        this.start = start;
+        this.end = end;
+    }
+
+    /**
+     * View of the remaining bytes of the buffer.  The buffer's position, limit and byte order are left untouched.
+     */
+    public static ProtobufView of(ByteBuffer buffer) {
+        return new ProtobufView(buffer.duplicate().order(ByteOrder.LITTLE_ENDIAN), buffer.position(), buffer.limit());
+    }
+
+    public static ProtobufView of(byte[] bytes) {
+        return of(ByteBuffer.wrap(bytes));
+    }
+
+    /**
+     * Encoded size of the viewed message.
+     */
+    public int getSize() {
+        return end - start;
+    }
+
+    public boolean has(int fieldNumber) {
+        return find(fieldNumber) >= 0;
+    }
+
+    /**
+     * Value of an {@code INT32}, {@code UINT32}, {@code SINT32}, {@code FIXED32} or {@code SFIXED32} field, or 0 if
+     * it's absent.
+     */
+    public int getInt(int fieldNumber, ProtobufType type) {
+        switch (type) {
+            case INT32:
+            case UINT32:
+                return seek(fieldNumber, type) ? (int) reader.readVarint() : 0;
+            case SINT32:
+                return seek(fieldNumber, type) ? reader.readSInt32() : 0;
+            case FIXED32:
+            case SFIXED32:
+                return seek(fieldNumber, type) ? reader.readFixed32() : 0;
+            default:
+                throw new IllegalArgumentException(type + " values aren't held in an int");
+        }
+    }
+
+    /**
+     * Value of an {@code INT64}, {@code UINT64}, {@code SINT64}, {@code FIXED64} or {@code SFIXED64} field, or 0 if
+     * it's absent.
+     */
+    public long getLong(int fieldNumber, ProtobufType type) {
+        switch (type) {
+            case INT64:
+            case UINT64:
+                return seek(fieldNumber, type) ? reader.readVarint() : 0;
+            case SINT64:
+                return seek(fieldNumber, type) ? reader.readSInt64() : 0;
+            case FIXED64:
+            case SFIXED64:
+                return seek(fieldNumber, type) ? reader.readFixed64() : 0;
+            default:
+                throw new IllegalArgumentException(type + " values aren't held in a long");
+        }
+    }
+
+    public float getFloat(int fieldNumber) {
+        return seek(fieldNumber, ProtobufType.FLOAT) ? Float.intBitsToFloat(reader.readFixed32()) : 0;
+    }
+
+    public double getDouble(int fieldNumber) {
+        return seek(fieldNumber, ProtobufType.DOUBLE) ? Double.longBitsToDouble(reader.readFixed64()) : 0;
+    }
+
+    public boolean getBoolean(int fieldNumber) {
+        return seek(fieldNumber, ProtobufType.BOOL) && reader.readVarint() != 0;
+    }
+
+    /**
+     * Slice of the encoded bytes of a {@code BYTES} or {@code STRING} field, or null if it's absent.  The slice shares
+     * the viewed buffer's content.
+     */
+    public ByteBuffer getBytes(int fieldNumber) {
+        if (!seek(fieldNumber, ProtobufType.BYTES)) {
+            return null;
+        }
+        int length = reader.readLength();
+        ByteBuffer slice = reader.getBuffer().duplicate();
+        ((Buffer) slice).limit(reader.getPosition() + length).position(reader.getPosition());
+        return slice.slice();
+    }
+
+    /**
+     * Value of a {@code STRING} field decoded from UTF-8, or null if it's absent.  Unlike the other getters this
+     * copies the value.
+     */
+    public String getString(int fieldNumber) {
+        return seek(fieldNumber, ProtobufType.STRING) ? reader.readString() : null;
+    }
+
+    /**
+     * View of an embedded {@code MESSAGE} field, or null if it's absent.
+     */
+    public ProtobufView getMessage(int fieldNumber) {
+        if (!seek(fieldNumber, ProtobufType.BYTES)) {
+            return null;
+        }
+        int length = reader.readLength();
+        return new ProtobufView(reader.getBuffer(), reader.getPosition(), reader.getPosition() + length);
+    }
+
+    /**
+     * Positions the reader at the value of the field's last occurrence, checking it was encoded as the type expects.
+     *
+     * @return whether the field is present
+     */
+    private boolean seek(int fieldNumber, ProtobufType type) {
+        int index = find(fieldNumber);
+        if (index < 0) {
+            return false;
+        }
+        WireType wireType = TypeMapper.getWireType(type);
+        if ((keys[index] & 0x7) != wireType.getWireTypeId()) {
+            throw new ProtobufDeserializationException(
+                "Field " + fieldNumber + " isn't encoded as " + type + " at position " + offsets[index]);
+        }
+        reader.setPosition(offsets[index]);
+        return true;
+    }
+
+    /**
+     * Index of the field's last occurrence, or -1 if it's absent.
+     */
+    private int find(int fieldNumber) {
+        if (keys == null) {
+            index();
+        }
+        int low = 0;
+        int high = fieldCount - 1;
+        int found = -1;
+        while (low <= high) {
+            int middle = (low + high) >>> 1;
+            int middleNumber = keys[middle] >>> 3;
+            if (middleNumber <= fieldNumber) {
+                if (middleNumber == fieldNumber) {
+                    found = middle;
+                }
+                low = middle + 1;
+            } else {
+                high = middle - 1;
+            }
+        }
+        return found;
+    }
+
+    /**
+     * Records the key and value offset of every field, keeping occurrences of the same field in encoded order.
+     */
+    private void index() {
+        int[] keys = new int[INITIAL_FIELDS];
+        int[] offsets = new int[INITIAL_FIELDS];
+        int count = 0;
+        boolean sorted = true;
+        reader.setPosition(start);
+        while (!reader.isAtEnd()) {
+            int key = reader.readTag();
+            if (count == keys.length) {
+                keys = Arrays.copyOf(keys, count * 2);
+                offsets = Arrays.copyOf(offsets, count * 2);
+            }
+            sorted &= count == 0 || keys[count - 1] >>> 3 <= key >>> 3;
+            keys[count] = key;
+            offsets[count] = reader.getPosition();
+            count++;
+            reader.skipField(key);
+        }
+        if (!sorted) {
+            // Field numbers ahead of the encoded order, so occurrences of a field stay in order and the last one last
+            long[] order = new long[count];
+            for (int i = 0; i < count; i++) {
+                order[i] = (long) (keys[i] >>> 3) << 32 | i;
+            }
+            Arrays.sort(order);
+            int[] sortedKeys = new int[count];
+            int[] sortedOffsets = new int[count];
+            for (int i = 0; i < count; i++) {
+                int encodedIndex = (int) order[i];
+                sortedKeys[i] = keys[encodedIndex];
+                sortedOffsets[i] = offsets[encodedIndex];
+            }
+            keys = sortedKeys;
+            offsets = sortedOffsets;
+        }
+        this.keys = keys;
+        this.offsets = offsets;
+        this.fieldCount = count;
+    }
+}
@@ -0,0 +1,115 @@
+package dev.freemountain.protoj.deserialize;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import dev.freemountain.protoj.api.ProtobufDeserializationException;
+import dev.freemountain.protoj.api.ProtobufField;
+import dev.freemountain.protoj.api.ProtobufType;
+import dev.freemountain.protoj.serialize.MessageLogWriter;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class MessageLogReaderTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    public static class TestMessage {
+
+        @ProtobufField(fieldNumber = 1, protobufType = ProtobufType.INT64)
+        public long foo;
+        @ProtobufField(fieldNumber = 2, protobufType = ProtobufType.STRING)
+        public String bar;
+    }
+
+    @Test
+    public void replaysRecords() throws Exception {
+        Path log = writeLog(1000);
+        try (MessageLogReader reader = MessageLogReader.open(log)) {
+            for (int i = 0; i < 1000; i++) {
+                TestMessage message = reader.next(TestMessage.class);
+                assertEquals(i * 31L, message.foo);
+                assertEquals("message " + i, message.bar);
+            }
+            assertFalse(reader.hasNext());
+            assertNull(reader.next());
+            assertEquals(Files.size(log), reader.getPosition());
+        }
+    }
+
+    @Test
+    public void recordsAreSlicesOfTheMapping() throws Exception {
+        Path log = writeLog(3);
+        try (MessageLogReader reader = MessageLogReader.open(log)) {
+            ByteBuffer record = reader.next();
+            assertTrue(record.isDirect());
+            assertTrue(record.isReadOnly());
+            assertEquals(0, record.position());
+            assertEquals("message 0", ProtobufView.of(record).getString(2));
+        }
+    }
+
+    @Test
+    public void windowsMoveAcrossRecords() throws Exception {
+        Path log = writeLog(500);
+        // Small enough that most windows end part way through a record
+        try (MessageLogReader reader = new MessageLogReader(FileChannel.open(log, StandardOpenOption.READ), 37)) {
+            int count = 0;
+            TestMessage message;
+            while ((message = reader.next(TestMessage.class)) != null) {
+                assertEquals("message " + count, message.bar);
+                count++;
+            }
+            assertEquals(500, count);
+        }
+    }
+
+    @Test
+    public void truncatedRecordFails() throws Exception {
+        Path log = writeLog(2);
+        byte[] bytes = Files.readAllBytes(log);
+        Files.write(log, Arrays.copyOf(bytes, bytes.length - 2));
+        try (MessageLogReader reader = MessageLogReader.open(log)) {
+            reader.next();
+            long lastGood = reader.getPosition();
+            try {
+                reader.next();
+                fail();
+            } catch (ProtobufDeserializationException e) {
+                assertEquals(lastGood, reader.getPosition());
+            }
+        }
+    }
+
+    @Test(expected = ProtobufDeserializationException.class)
+    public void oversizedRecordFails() throws Exception {
+        Path log = writeLog(1);
+        try (MessageLogReader reader = new MessageLogReader(FileChannel.open(log, StandardOpenOption.READ), 4)) {
+            reader.next();
+        }
+    }
+
+    private Path writeLog(int count) throws Exception {
+        Path log = folder.newFile().toPath();
+        try (MessageLogWriter writer = MessageLogWriter.open(log)) {
+            for (int i = 0; i < count; i++) {
+                TestMessage message = new TestMessage();
+                message.foo = i * 31L;
+                message.bar = "message " + i;
+                writer.append(message);
+            }
+        }
+        return log;
+    }
+}
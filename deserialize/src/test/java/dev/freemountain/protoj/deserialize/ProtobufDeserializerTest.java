@@ -0,0 +1,489 @@
+package dev.freemountain.protoj.deserialize;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import com.google.common.io.Resources;
+import dev.freemountain.protoj.api.ProtobufDeserializationException;
+import dev.freemountain.protoj.api.ProtobufEnumValue;
+import dev.freemountain.protoj.api.ProtobufField;
+import dev.freemountain.protoj.api.ProtobufType;
+import dev.freemountain.protoj.serialize.ProtobufSerializer;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.SortedMap;
+import java.util.TreeMap;
+import java.util.TreeSet;
+import org.junit.Test;
+
+public class ProtobufDeserializerTest {
+
+    /**
+     * Same schema as protoc-it.proto, with every field left at its default.
+     */
+    public static class IntegrationTestProto {
+
+        @ProtobufField(fieldNumber = 1, protobufType = ProtobufType.INT32)
+        public int foo1;
+        @ProtobufField(fieldNumber = 2, protobufType = ProtobufType.MESSAGE)
+        public NestedClass nested1;
+        @ProtobufField(fieldNumber = 17, protobufType = ProtobufType.INT32)
+        public List<Integer> list;
+        @ProtobufField(fieldNumber = 11237, protobufType = ProtobufType.INT64)
+        public Long bar1;
+        @ProtobufField(fieldNumber = 985691, protobufType = ProtobufType.DOUBLE)
+        public double baz1;
+    }
+
+    public static class NestedClass {
+
+        public int skipMe = -1;
+        @ProtobufField(fieldNumber = 2, protobufType = ProtobufType.BOOL)
+        public boolean bar2;
+        @ProtobufField(fieldNumber = 7, protobufType = ProtobufType.STRING)
+        public String baz2;
+        @ProtobufField(fieldNumber = 9, protobufType = ProtobufType.FLOAT)
+        public float foo2;
+    }
+
+    public static class ScalarMessage {
+
+        @ProtobufField(fieldNumber = 1, protobufType = ProtobufType.DOUBLE)
+        public double double1;
+        @ProtobufField(fieldNumber = 2, protobufType = ProtobufType.FLOAT)
+        public float float1;
+        @ProtobufField(fieldNumber = 3, protobufType = ProtobufType.INT32)
+        public int int32;
+        @ProtobufField(fieldNumber = 4, protobufType = ProtobufType.INT64)
+        public long int64;
+        @ProtobufField(fieldNumber = 5, protobufType = ProtobufType.UINT32)
+        public int uint32;
+        @ProtobufField(fieldNumber = 6, protobufType = ProtobufType.UINT64)
+        public long uint64;
+        @ProtobufField(fieldNumber = 7, protobufType = ProtobufType.SINT32)
+        public int sint32;
+        @ProtobufField(fieldNumber = 8, protobufType = ProtobufType.SINT64)
+        public long sint64;
+        @ProtobufField(fieldNumber = 9, protobufType = ProtobufType.FIXED32)
+        public int fixed32;
+        @ProtobufField(fieldNumber = 10, protobufType = ProtobufType.FIXED64)
+        public long fixed64;
+        @ProtobufField(fieldNumber = 11, protobufType = ProtobufType.SFIXED32)
+        public Integer sfixed32;
+        @ProtobufField(fieldNumber = 12, protobufType = ProtobufType.SFIXED64)
+        public Long sfixed64;
+        @ProtobufField(fieldNumber = 13, protobufType = ProtobufType.BOOL)
+        public Boolean bool;
+        @ProtobufField(fieldNumber = 14, protobufType = ProtobufType.STRING)
+        public String string;
+        @ProtobufField(fieldNumber = 15, protobufType = ProtobufType.BYTES)
+        public byte[] bytes;
+    }
+
+    public static class RepeatedMessage {
+
+        @ProtobufField(fieldNumber = 1, protobufType = ProtobufType.SINT32)
+        public int[] sint32s;
+        @ProtobufField(fieldNumber = 2, protobufType = ProtobufType.DOUBLE)
+        public double[] doubles;
+        @ProtobufField(fieldNumber = 3, protobufType = ProtobufType.BOOL)
+        public boolean[] bools;
+        @ProtobufField(fieldNumber = 4, protobufType = ProtobufType.INT64)
+        public List<Long> int64s;
+        @ProtobufField(fieldNumber = 5, protobufType = ProtobufType.STRING)
+        public Set<String> strings;
+        @ProtobufField(fieldNumber = 6, protobufType = ProtobufType.MESSAGE)
+        public List<NestedClass> messages;
+        @ProtobufField(fieldNumber = 7, protobufType = ProtobufType.FIXED32)
+        public TreeSet<Integer> fixed32s;
+    }
+
+    @Test
+    public void decodesProtocOutput() throws Exception {
+        byte[] protocBytes = Resources.toByteArray(Resources.getResource("protoc-it-out.bin"));
+        IntegrationTestProto message = ProtobufDeserializer.deserialize(protocBytes, IntegrationTestProto.class);
+        assertEquals(19371283, message.foo1);
+        assertEquals(Arrays.asList(-1, 4, 171487, -149), message.list);
+        assertEquals(Long.valueOf(9174917261277L), message.bar1);
+        assertEquals(659819.1246, message.baz1, 0);
+        assertEquals(-1, message.nested1.skipMe);
+        assertTrue(message.nested1.bar2);
+        assertEquals("H3LlO W0RLd", message.nested1.baz2);
+        assertEquals(7.80f, message.nested1.foo2, 0);
+    }
+
+    @Test
+    public void scalarRoundTrip() throws Exception {
+        ScalarMessage expected = new ScalarMessage();
+        expected.double1 = -0.125;
+        expected.float1 = 3.5f;
+        expected.int32 = -7;
+        expected.int64 = Long.MIN_VALUE;
+        expected.uint32 = -1;
+        expected.uint64 = -2;
+        expected.sint32 = Integer.MIN_VALUE;
+        expected.sint64 = -300;
+        expected.fixed32 = 0xCAFEBABE;
+        expected.fixed64 = Long.MAX_VALUE;
+        expected.sfixed32 = -42;
+        expected.sfixed64 = 1L << 50;
+        expected.bool = true;
+        expected.string = "caf\u00e9 \u20ac";
+        expected.bytes = new byte[]{0, -1, 127};
+        ByteBuffer encoded = ProtobufSerializer.serialize(expected);
+        ScalarMessage actual = ProtobufDeserializer.deserialize(encoded, ScalarMessage.class);
+        assertEquals(expected.double1, actual.double1, 0);
+        assertEquals(expected.float1, actual.float1, 0);
+        assertEquals(expected.int32, actual.int32);
+        assertEquals(expected.int64, actual.int64);
+        assertEquals(expected.uint32, actual.uint32);
+        assertEquals(expected.uint64, actual.uint64);
+        assertEquals(expected.sint32, actual.sint32);
+        assertEquals(expected.sint64, actual.sint64);
+        assertEquals(expected.fixed32, actual.fixed32);
+        assertEquals(expected.fixed64, actual.fixed64);
+        assertEquals(expected.sfixed32, actual.sfixed32);
+        assertEquals(expected.sfixed64, actual.sfixed64);
+        assertEquals(expected.bool, actual.bool);
+        assertEquals(expected.string, actual.string);
+        assertArrayEquals(expected.bytes, actual.bytes);
+        // The caller's buffer isn't moved
+        assertEquals(0, encoded.position());
+    }
+
+    @Test
+    public void repeatedRoundTrip() throws Exception {
+        RepeatedMessage expected = new RepeatedMessage();
+        expected.sint32s = new int[]{1, -1, 300, Integer.MIN_VALUE};
+        expected.doubles = new double[]{659819.1246, Double.NaN, 0};
+        expected.bools = new boolean[]{true, false, true};
+        expected.int64s = Arrays.asList(0L, -1L, 1L << 40);
+        expected.strings = new TreeSet<>(Arrays.asList("a", "", "b"));
+        NestedClass nested = new NestedClass();
+        nested.baz2 = "nested";
+        expected.messages = Arrays.asList(nested, new NestedClass());
+        expected.fixed32s = new TreeSet<>(Arrays.asList(3, 1, 2));
+        RepeatedMessage actual = ProtobufDeserializer
+            .deserialize(ProtobufSerializer.serialize(expected), RepeatedMessage.class);
+        assertArrayEquals(expected.sint32s, actual.sint32s);
+        assertArrayEquals(expected.doubles, actual.doubles, 0);
+        assertTrue(Arrays.equals(expected.bools, actual.bools));
+        assertEquals(expected.int64s, actual.int64s);
+        assertEquals(expected.strings, actual.strings);
+        assertEquals(2, actual.messages.size());
+        assertEquals("nested", actual.messages.get(0).baz2);
+        assertNull(actual.messages.get(1).baz2);
+        assertEquals(expected.fixed32s, actual.fixed32s);
+    }
+
+    public enum Status {
+        @ProtobufEnumValue(0)
+        UNKNOWN,
+        @ProtobufEnumValue(7)
+        ACTIVE,
+        @ProtobufEnumValue(300)
+        RETIRED
+    }
+
+    public static class EnumMessage {
+
+        @ProtobufField(fieldNumber = 1, protobufType = ProtobufType.ENUM)
+        public Status status;
+        @ProtobufField(fieldNumber = 2, protobufType = ProtobufType.ENUM)
+        public List<Status> history;
+    }
+
+    @Test
+    public void enumRoundTrip() throws Exception {
+        EnumMessage expected = new EnumMessage();
+        expected.status = Status.RETIRED;
+        expected.history = Arrays.asList(Status.UNKNOWN, Status.ACTIVE, Status.RETIRED);
+        EnumMessage actual = ProtobufDeserializer
+            .deserialize(ProtobufSerializer.serialize(expected), EnumMessage.class);
+        assertEquals(expected.status, actual.status);
+        assertEquals(expected.history, actual.history);
+    }
+
+    @Test
+    public void unknownEnumNumbersAreDropped() throws Exception {
+        // Status 9, then packed 7, 9, 0
+        byte[] encoded = {0x08, 0x09, 0x12, 0x03, 0x07, 0x09, 0x00};
+        EnumMessage actual = ProtobufDeserializer.deserialize(encoded, EnumMessage.class);
+        assertNull(actual.status);
+        assertEquals(Arrays.asList(Status.ACTIVE, Status.UNKNOWN), actual.history);
+    }
+
+    public static class MapMessage {
+
+        @ProtobufField(fieldNumber = 1, protobufType = ProtobufType.MAP, mapKeyType = ProtobufType.STRING,
+            mapValueType = ProtobufType.INT64)
+        public Map<String, Long> counters;
+        @ProtobufField(fieldNumber = 2, protobufType = ProtobufType.MAP, mapKeyType = ProtobufType.SINT32,
+            mapValueType = ProtobufType.MESSAGE)
+        public SortedMap<Integer, NestedClass> nested;
+        @ProtobufField(fieldNumber = 3, protobufType = ProtobufType.MAP, mapKeyType = ProtobufType.UINT64,
+            mapValueType = ProtobufType.ENUM)
+        public HashMap<Long, Status> statuses;
+    }
+
+    @Test
+    public void mapRoundTrip() throws Exception {
+        MapMessage expected = new MapMessage();
+        expected.counters = new HashMap<>();
+        expected.counters.put("requests", 1500L);
+        expected.counters.put("errors", -3L);
+        expected.nested = new TreeMap<>();
+        NestedClass nested = new NestedClass();
+        nested.baz2 = "nested";
+        expected.nested.put(-5, nested);
+        expected.nested.put(9, new NestedClass());
+        expected.statuses = new HashMap<>();
+        expected.statuses.put(1L << 40, Status.RETIRED);
+        MapMessage actual = ProtobufDeserializer.deserialize(ProtobufSerializer.serialize(expected), MapMessage.class);
+        assertEquals(expected.counters, actual.counters);
+        assertEquals(expected.nested.keySet(), actual.nested.keySet());
+        assertEquals("nested", actual.nested.get(-5).baz2);
+        // Empty messages are left out of their entry, and decode as a default instance
+        assertNull(actual.nested.get(9).baz2);
+        assertEquals(expected.statuses, actual.statuses);
+    }
+
+    @Test
+    public void missingMapKeysAndValuesAreDefaults() throws Exception {
+        // Entries holding only a value, only a key, and an unknown enum number
+        byte[] encoded = {0x0A, 0x02, 0x10, 0x07, 0x0A, 0x03, 0x0A, 0x01, 'a', 0x1A, 0x04, 0x08, 0x01, 0x10, 0x09};
+        MapMessage actual = ProtobufDeserializer.deserialize(encoded, MapMessage.class);
+        Map<String, Long> counters = new HashMap<>();
+        counters.put("", 7L);
+        counters.put("a", 0L);
+        assertEquals(counters, actual.counters);
+        assertTrue(actual.statuses.isEmpty());
+    }
+
+    @Test
+    public void droppedMapEntriesAreReadToTheirEnd() throws Exception {
+        // Unknown enum numbers ahead of the key and ahead of an unknown field, then a known one ahead of the key
+        byte[] encoded = {0x1A, 0x04, 0x10, 0x09, 0x08, 0x01, 0x1A, 0x06, 0x08, 0x02, 0x10, 0x09, 0x18, 0x05,
+            0x1A, 0x04, 0x10, 0x07, 0x08, 0x03};
+        MapMessage actual = ProtobufDeserializer.deserialize(encoded, MapMessage.class);
+        Map<Long, Status> statuses = new HashMap<>();
+        statuses.put(3L, Status.ACTIVE);
+        assertEquals(statuses, actual.statuses);
+    }
+
+    @Test
+    public void unpackedElementsAreAppended() throws Exception {
+        // One key per element, as written by older encoders
+        ByteBuffer encoded = ByteBuffer.allocate(32).order(ByteOrder.LITTLE_ENDIAN);
+        encoded.put(new byte[]{0x08, 0x05, 0x08, (byte) 0xD8, 0x04});
+        encoded.put((byte) 0x11).putDouble(1.5);
+        encoded.put((byte) 0x11).putDouble(-2.25);
+        encoded.put(new byte[]{0x20, 0x01});
+        encoded.flip();
+        RepeatedMessage actual = ProtobufDeserializer.deserialize(encoded, RepeatedMessage.class);
+        assertArrayEquals(new int[]{-3, 300}, actual.sint32s);
+        assertArrayEquals(new double[]{1.5, -2.25}, actual.doubles, 0);
+        assertEquals(Arrays.asList(1L), actual.int64s);
+    }
+
+    @Test
+    public void unpackedRunsAreAppendedWhole() throws Exception {
+        // Long runs of unpacked elements, then another field and one more element
+        int count = 10_000;
+        ByteBuffer encoded = ByteBuffer.allocate(count * 13 + 16).order(ByteOrder.LITTLE_ENDIAN);
+        int[] expected = new int[count + 1];
+        for (int i = 0; i < count; i++) {
+            expected[i] = i % 2 == 0 ? i : -i;
+            encoded.put((byte) 0x08);
+            for (int zigZag = expected[i] << 1 ^ expected[i] >> 31; ; zigZag >>>= 7) {
+                if ((zigZag & ~0x7F) == 0) {
+                    encoded.put((byte) zigZag);
+                    break;
+                }
+                encoded.put((byte) (zigZag & 0x7F | 0x80));
+            }
+        }
+        for (int i = 0; i < count; i++) {
+            encoded.put((byte) 0x11).putDouble(i);
+        }
+        expected[count] = -1;
+        encoded.put(new byte[]{0x20, 0x01, 0x08, 0x01});
+        encoded.flip();
+        RepeatedMessage actual = ProtobufDeserializer.deserialize(encoded, RepeatedMessage.class);
+        assertArrayEquals(expected, actual.sint32s);
+        assertEquals(count, actual.doubles.length);
+        assertEquals(count - 1, actual.doubles[count - 1], 0);
+        assertEquals(Arrays.asList(1L), actual.int64s);
+    }
+
+    @Test
+    public void unknownFieldsAreSkipped() throws Exception {
+        ScalarMessage full = new ScalarMessage();
+        full.int32 = 5;
+        full.double1 = 2.5;
+        full.float1 = 1f;
+        full.fixed64 = 9;
+        full.string = "skipped";
+        full.int64 = 77;
+        SparseMessage actual = ProtobufDeserializer.deserialize(ProtobufSerializer.serialize(full), SparseMessage.class);
+        assertEquals(5, actual.int32);
+        assertEquals(77, actual.int64);
+    }
+
+    public static class SparseMessage {
+
+        @ProtobufField(fieldNumber = 3, protobufType = ProtobufType.INT32)
+        public int int32;
+        @ProtobufField(fieldNumber = 4, protobufType = ProtobufType.INT64)
+        public long int64;
+    }
+
+    @Test
+    public void groupsAreSkipped() throws Exception {
+        // Group 5 holding a varint and group 6, which holds a string, then field 3 = 7 and field 4 = 8
+        byte[] encoded = {0x2B, 0x08, 0x01, 0x33, 0x0A, 0x01, 'a', 0x34, 0x2C, 0x18, 0x07, 0x20, 0x08};
+        SparseMessage actual = ProtobufDeserializer.deserialize(encoded, SparseMessage.class);
+        assertEquals(7, actual.int32);
+        assertEquals(8, actual.int64);
+    }
+
+    @Test(expected = ProtobufDeserializationException.class)
+    public void mismatchedGroupEndsFail() throws Exception {
+        ProtobufDeserializer.deserialize(new byte[]{0x2B, 0x08, 0x01, 0x34}, SparseMessage.class);
+    }
+
+    public static class Position {
+
+        @ProtobufField(fieldNumber = 1, protobufType = ProtobufType.SINT32)
+        public Integer x;
+        @ProtobufField(fieldNumber = 2, protobufType = ProtobufType.SINT32)
+        public Integer y;
+    }
+
+    public static class State {
+
+        @ProtobufField(fieldNumber = 1, protobufType = ProtobufType.INT32)
+        public int version;
+        @ProtobufField(fieldNumber = 2, protobufType = ProtobufType.MESSAGE)
+        public Position position;
+    }
+
+    @Test
+    public void embeddedMessagesAreMerged() throws Exception {
+        State previous = new State();
+        previous.version = 1;
+        previous.position = new Position();
+        previous.position.x = 10;
+        previous.position.y = 20;
+        State current = new State();
+        current.version = 2;
+        current.position = new Position();
+        current.position.x = 11;
+        current.position.y = 20;
+        ByteBuffer full = ProtobufSerializer.serialize(previous);
+        ByteBuffer delta = ProtobufSerializer.serializeDelta(previous, current);
+        ByteBuffer merged = ByteBuffer.allocate(full.remaining() + delta.remaining()).put(full).put(delta);
+        merged.flip();
+        State actual = ProtobufDeserializer.deserialize(merged, State.class);
+        assertEquals(2, actual.version);
+        assertEquals(Integer.valueOf(11), actual.position.x);
+        assertEquals(Integer.valueOf(20), actual.position.y);
+    }
+
+    public static class FailingMessage {
+
+        @ProtobufField(fieldNumber = 1, protobufType = ProtobufType.INT32)
+        public int foo;
+
+        public FailingMessage() throws Exception {
+            throw new Exception("constructor failed");
+        }
+    }
+
+    @Test
+    public void checkedFailuresKeepTheirCause() throws Exception {
+        try {
+            ProtobufDeserializer.deserialize(new byte[0], FailingMessage.class);
+            fail();
+        } catch (ProtobufDeserializationException e) {
+            assertEquals("constructor failed", e.getCause().getMessage());
+        }
+    }
+
+    @Test(expected = ProtobufDeserializationException.class)
+    public void truncatedInputFails() throws Exception {
+        RepeatedMessage message = new RepeatedMessage();
+        message.int64s = Arrays.asList(-1L);
+        byte[] encoded = ProtobufSerializer.serialize(message).array();
+        ProtobufDeserializer.deserialize(Arrays.copyOf(encoded, encoded.length - 3), RepeatedMessage.class);
+    }
+
+    @Test(expected = ProtobufDeserializationException.class)
+    public void overlongLengthFails() throws Exception {
+        // Field 14 claims 100 bytes, only 1 follows
+        ProtobufDeserializer.deserialize(new byte[]{0x72, 100, 'a'}, ScalarMessage.class);
+    }
+
+    @Test(expected = ProtobufDeserializationException.class)
+    public void mismatchedFieldTypeFails() throws Exception {
+        ProtobufDeserializer.deserialize(new byte[0], MismatchedMessage.class);
+    }
+
+    public static class FloatKeyedMessage {
+
+        @ProtobufField(fieldNumber = 1, protobufType = ProtobufType.MAP, mapKeyType = ProtobufType.FLOAT,
+            mapValueType = ProtobufType.INT32)
+        public Map<Float, Integer> values;
+    }
+
+    @Test(expected = ProtobufDeserializationException.class)
+    public void invalidMapKeyTypeFails() throws Exception {
+        ProtobufDeserializer.deserialize(new byte[0], FloatKeyedMessage.class);
+    }
+
+    public static class KeyedScalarMessage {
+
+        @ProtobufField(fieldNumber = 1, protobufType = ProtobufType.INT32, mapKeyType = ProtobufType.STRING)
+        public int value;
+    }
+
+    @Test(expected = ProtobufDeserializationException.class)
+    public void mapTypesOnOtherFieldsFail() throws Exception {
+        ProtobufDeserializer.deserialize(new byte[0], KeyedScalarMessage.class);
+    }
+
+    public static class MismatchedMessage {
+
+        @ProtobufField(fieldNumber = 1, protobufType = ProtobufType.INT32)
+        public String foo;
+    }
+
+    @Test(expected = ProtobufDeserializationException.class)
+    public void deepNestingFails() throws Exception {
+        // Field 1 of RecursiveMessage nested past the maximum depth
+        byte[] encoded = new byte[0];
+        for (int i = 0; i <= ProtobufDeserializer.MAX_DEPTH; i++) {
+            byte[] outer = new byte[encoded.length + 3];
+            outer[0] = 0x0A;
+            outer[1] = (byte) ((encoded.length & 0x7F) | 0x80);
+            outer[2] = (byte) (encoded.length >>> 7);
+            System.arraycopy(encoded, 0, outer, 3, encoded.length);
+            encoded = outer;
+        }
+        ProtobufDeserializer.deserialize(encoded, RecursiveMessage.class);
+    }
+
+    public static class RecursiveMessage {
+
+        @ProtobufField(fieldNumber = 1, protobufType = ProtobufType.MESSAGE)
+        public RecursiveMessage child;
+    }
+}
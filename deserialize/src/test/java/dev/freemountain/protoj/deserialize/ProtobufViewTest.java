@@ -0,0 +1,121 @@
+package dev.freemountain.protoj.deserialize;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import com.google.common.io.Resources;
+import dev.freemountain.protoj.api.ProtobufDeserializationException;
+import dev.freemountain.protoj.api.ProtobufField;
+import dev.freemountain.protoj.api.ProtobufType;
+import dev.freemountain.protoj.serialize.ProtobufSerializer;
+import java.io.ByteArrayOutputStream;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import org.junit.Test;
+
+public class ProtobufViewTest {
+
+    public static class TestMessage {
+
+        @ProtobufField(fieldNumber = 3, protobufType = ProtobufType.SINT64)
+        public long foo = -12345678901L;
+        @ProtobufField(fieldNumber = 1, protobufType = ProtobufType.BYTES)
+        public byte[] bar = {1, 2, 3};
+        @ProtobufField(fieldNumber = 2000, protobufType = ProtobufType.SFIXED32)
+        public int baz = -7;
+    }
+
+    @Test
+    public void readsProtocOutput() throws Exception {
+        byte[] protocBytes = Resources.toByteArray(Resources.getResource("protoc-it-out.bin"));
+        ByteBuffer direct = ByteBuffer.allocateDirect(protocBytes.length + 2);
+        direct.put((byte) 0).put(protocBytes).put((byte) 0);
+        direct.position(1);
+        direct.limit(1 + protocBytes.length);
+        ProtobufView view = ProtobufView.of(direct);
+        assertEquals(protocBytes.length, view.getSize());
+        assertEquals(659819.1246, view.getDouble(985691), 0);
+        assertEquals(19371283, view.getInt(1, ProtobufType.INT32));
+        assertEquals(9174917261277L, view.getLong(11237, ProtobufType.INT64));
+        ProtobufView nested = view.getMessage(2);
+        assertTrue(nested.getBoolean(2));
+        assertEquals(7.80f, nested.getFloat(9), 0);
+        assertEquals("H3LlO W0RLd", nested.getString(7));
+        assertEquals("H3LlO W0RLd", StandardCharsets.UTF_8.decode(nested.getBytes(7)).toString());
+        // The caller's buffer isn't moved
+        assertEquals(1, direct.position());
+        assertEquals(1 + protocBytes.length, direct.limit());
+    }
+
+    @Test
+    public void slicesShareTheBuffer() throws Exception {
+        byte[] encoded = ProtobufSerializer.serialize(new TestMessage()).array();
+        ProtobufView view = ProtobufView.of(encoded);
+        ByteBuffer bar = view.getBytes(1);
+        assertEquals(3, bar.remaining());
+        assertTrue(bar.hasArray());
+        assertEquals(encoded, bar.array());
+        assertEquals(2, bar.get(1));
+        assertEquals(-12345678901L, view.getLong(3, ProtobufType.SINT64));
+        assertEquals(-7, view.getInt(2000, ProtobufType.SFIXED32));
+    }
+
+    @Test
+    public void absentFieldsAreDefaults() throws Exception {
+        ProtobufView view = ProtobufView.of(ProtobufSerializer.serialize(new TestMessage()));
+        assertFalse(view.has(2));
+        assertTrue(view.has(3));
+        assertEquals(0, view.getInt(2, ProtobufType.INT32));
+        assertEquals(0, view.getLong(4, ProtobufType.FIXED64));
+        assertFalse(view.getBoolean(5));
+        assertNull(view.getBytes(6));
+        assertNull(view.getString(7));
+        assertNull(view.getMessage(8));
+    }
+
+    @Test
+    public void lastOccurrenceWins() throws Exception {
+        // Field 2 = 1, field 1 = 5, field 2 = 300
+        ProtobufView view = ProtobufView.of(new byte[]{0x10, 0x01, 0x08, 0x05, 0x10, (byte) 0xAC, 0x02});
+        assertEquals(300, view.getInt(2, ProtobufType.INT32));
+        assertEquals(5, view.getInt(1, ProtobufType.UINT32));
+    }
+
+    @Test
+    public void fieldsOutOfOrderAreIndexed() throws Exception {
+        // Field 100 = 1, then fields 200 down to 1 holding their own numbers
+        ByteArrayOutputStream encoded = new ByteArrayOutputStream();
+        writeVarint(encoded, 100 << 3);
+        writeVarint(encoded, 1);
+        for (int fieldNumber = 200; fieldNumber > 0; fieldNumber--) {
+            writeVarint(encoded, fieldNumber << 3);
+            writeVarint(encoded, fieldNumber);
+        }
+        ProtobufView view = ProtobufView.of(encoded.toByteArray());
+        for (int fieldNumber = 1; fieldNumber <= 200; fieldNumber++) {
+            assertEquals(fieldNumber, view.getInt(fieldNumber, ProtobufType.INT32));
+        }
+        assertFalse(view.has(201));
+    }
+
+    private static void writeVarint(ByteArrayOutputStream out, int value) {
+        while ((value & ~0x7F) != 0) {
+            out.write(value & 0x7F | 0x80);
+            value >>>= 7;
+        }
+        out.write(value);
+    }
+
+    @Test(expected = ProtobufDeserializationException.class)
+    public void mismatchedWireTypeFails() throws Exception {
+        ProtobufView.of(ProtobufSerializer.serialize(new TestMessage())).getDouble(3);
+    }
+
+    @Test(expected = ProtobufDeserializationException.class)
+    public void truncatedInputFails() throws Exception {
+        // Field 1 claims 5 bytes, only 1 follows
+        ProtobufView.of(new byte[]{0x0A, 0x05, 0x01}).has(1);
+    }
+}
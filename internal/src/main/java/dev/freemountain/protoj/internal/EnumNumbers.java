@@ -0,0 +1,52 @@
+package dev.freemountain.protoj.internal;
+
+import dev.freemountain.protoj.api.ProtobufEnumValue;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Protobuf numbers of the constants of a Java enum, from {@link ProtobufEnumValue} or else their ordinals.
+ */
+public final class EnumNumbers {
+
+    private EnumNumbers() {
+        throw new RuntimeException("You shouldn't be here");
+    }
+
+    /**
+     * @return number of every constant, indexed by ordinal
+     * @throws IllegalArgumentException if only some constants are annotated, or two have the same number
+     */
+    public static int[] forEnum(Class<?> enumClass) {
+        Object[] constants = enumClass.getEnumConstants();
+        if (constants == null) {
+            throw new IllegalArgumentException(enumClass.getName() + " isn't an enum");
+        }
+        int[] numbers = new int[constants.length];
+        Map<Integer, String> names = new HashMap<>();
+        int annotated = 0;
+        for (Object constant : constants) {
+            Enum<?> value = (Enum<?>) constant;
+            ProtobufEnumValue annotation;
+            try {
+                annotation = enumClass.getField(value.name()).getAnnotation(ProtobufEnumValue.class);
+            } catch (NoSuchFieldException e) {
+                // Constants are always public fields
+                throw new IllegalArgumentException(e.getMessage());
+            }
+            int number = annotation != null ? annotation.value() : value.ordinal();
+            annotated += annotation != null ? 1 : 0;
+            String duplicate = names.put(number, value.name());
+            if (duplicate != null) {
+                throw new IllegalArgumentException("Duplicate number " + number + " on " + enumClass.getName() + "."
+                    + value.name() + ", already used by " + duplicate);
+            }
+            numbers[value.ordinal()] = number;
+        }
+        if (annotated != 0 && annotated != constants.length) {
+            throw new IllegalArgumentException("Only " + annotated + " of " + constants.length + " constants of "
+                + enumClass.getName() + " have a @ProtobufEnumValue");
+        }
+        return numbers;
+    }
+}
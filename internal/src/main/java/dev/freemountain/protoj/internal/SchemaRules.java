@@ -0,0 +1,56 @@
+package dev.freemountain.protoj.internal;
+
+import dev.freemountain.protoj.api.ProtobufType;
+
+/**
+ * Rules shared by the runtime schema and the annotation processor, so messages accepted at compile time are accepted
+ * at runtime and generated serializers are found under the names they're generated with.
+ */
+public final class SchemaRules {
+
+    public static final int MIN_FIELD_NUMBER = 1;
+    public static final int MAX_FIELD_NUMBER = (1 << 29) - 1;
+    // Generated serializers are named after their message class with this suffix
+    public static final String SERIALIZER_SUFFIX = "ProtobufSerializer";
+
+    private SchemaRules() {
+    }
+
+    /**
+     * Checks the {@code mapKeyType} and {@code mapValueType} of a field.  Both default to {@code MAP}, which is never
+     * a valid key or value type, so they're required on {@code MAP} fields and can't be set on any other field.
+     *
+     * @return what's wrong with the types, or null if they're valid
+     */
+    public static String mapTypesError(ProtobufType protobufType, ProtobufType keyType, ProtobufType valueType) {
+        if (protobufType != ProtobufType.MAP) {
+            return keyType != ProtobufType.MAP || valueType != ProtobufType.MAP
+                ? "Map key and value types on a " + protobufType + " field" : null;
+        }
+        if (keyType == ProtobufType.MAP || valueType == ProtobufType.MAP) {
+            return "MAP field needs both a mapKeyType and a mapValueType";
+        }
+        if (!isValidMapKeyType(keyType)) {
+            return "Invalid map key type " + keyType + ", must be an integral type, BOOL or STRING";
+        }
+        return null;
+    }
+
+    /**
+     * Whether {@code MAP} fields can have keys of the type, which like in the protobuf language are integral types,
+     * {@code BOOL} and {@code STRING}.
+     */
+    public static boolean isValidMapKeyType(ProtobufType type) {
+        switch (type) {
+            case DOUBLE:
+            case FLOAT:
+            case BYTES:
+            case ENUM:
+            case MESSAGE:
+            case MAP:
+                return false;
+            default:
+                return true;
+        }
+    }
+}
@@ -12,6 +12,8 @@ public class TypeMapper {
     static {
         protobufToWireTypeMap.put(ProtobufType.BOOL, WireType.VARINT);
         protobufToWireTypeMap.put(ProtobufType.BYTES, WireType.LENGTH_DELIMITED);
+        protobufToWireTypeMap.put(ProtobufType.ENUM, WireType.VARINT);
+        protobufToWireTypeMap.put(ProtobufType.MAP, WireType.LENGTH_DELIMITED);
         protobufToWireTypeMap.put(ProtobufType.DOUBLE, WireType.FIXED_64);
         protobufToWireTypeMap.put(ProtobufType.FIXED32, WireType.FIXED_32);
         protobufToWireTypeMap.put(ProtobufType.FIXED64, WireType.FIXED_64);
@@ -0,0 +1,92 @@
+package dev.freemountain.protoj.processor;
+
+import dev.freemountain.protoj.api.ProtobufType;
+
+/**
+ * A validated {@link dev.freemountain.protoj.api.ProtobufField} of a message the processor generates a serializer for.
+ */
+final class FieldModel {
+
+    /**
+     * How the declared Java type of the field holds its values.
+     */
+    enum ValueKind {
+        // Primitive of the Java type matching the protobuf type, never missing
+        PRIMITIVE,
+        // Boxed primitive, String, byte[] or enum, skipped when null
+        OBJECT,
+        // Iterable of boxed primitives or enums, written packed
+        REPEATED,
+        // Primitive array, written packed
+        ARRAY,
+        // Embedded message, or an Iterable of them
+        MESSAGE,
+        // Map, written as an entry message per key
+        MAP
+    }
+
+    private final String name;
+    private final int fieldNumber;
+    private final ProtobufType protobufType;
+    private final ValueKind valueKind;
+    private final String valueTypeName;
+    private final String accessExpression;
+    private final boolean stringCached;
+    private final String enumTypeName;
+
+    FieldModel(String name, int fieldNumber, ProtobufType protobufType, ValueKind valueKind, String valueTypeName,
+        String accessExpression, boolean stringCached, String enumTypeName) {
+        this.name = name;
+        this.fieldNumber = fieldNumber;
+        this.protobufType = protobufType;
+        this.valueKind = valueKind;
+        this.valueTypeName = valueTypeName;
+        this.accessExpression = accessExpression;
+        this.stringCached = stringCached;
+        this.enumTypeName = enumTypeName;
+    }
+
+    String getName() {
+        return name;
+    }
+
+    int getFieldNumber() {
+        return fieldNumber;
+    }
+
+    ProtobufType getProtobufType() {
+        return protobufType;
+    }
+
+    ValueKind getValueKind() {
+        return valueKind;
+    }
+
+    /**
+     * Erased Java type name used to declare the value in generated code.
+     */
+    String getValueTypeName() {
+        return valueTypeName;
+    }
+
+    /**
+     * Expression reading the value from a variable named {@code message}.
+     */
+    String getAccessExpression() {
+        return accessExpression;
+    }
+
+    /**
+     * Whether the values of this {@code STRING} field go through an {@code EncodedStringCache}.
+     */
+    boolean isStringCached() {
+        return stringCached;
+    }
+
+    /**
+     * Qualified name of the enum held by an {@code ENUM} field, or its elements, or null for other types.
+     */
+    String getEnumTypeName() {
+        return enumTypeName;
+    }
+}
@@ -0,0 +1,314 @@
+package dev.freemountain.protoj.processor;
+
+import dev.freemountain.protoj.api.ProtobufField;
+import dev.freemountain.protoj.api.ProtobufType;
+import dev.freemountain.protoj.internal.SchemaRules;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import javax.annotation.processing.AbstractProcessor;
+import javax.annotation.processing.RoundEnvironment;
+import javax.annotation.processing.SupportedAnnotationTypes;
+import javax.lang.model.SourceVersion;
+import javax.lang.model.element.Element;
+import javax.lang.model.element.ElementKind;
+import javax.lang.model.element.ExecutableElement;
+import javax.lang.model.element.Modifier;
+import javax.lang.model.element.PackageElement;
+import javax.lang.model.element.TypeElement;
+import javax.lang.model.element.VariableElement;
+import javax.lang.model.type.ArrayType;
+import javax.lang.model.type.DeclaredType;
+import javax.lang.model.type.TypeKind;
+import javax.lang.model.type.TypeMirror;
+import javax.lang.model.util.ElementFilter;
+import javax.tools.Diagnostic;
+import javax.tools.JavaFileObject;
+
+/**
+ * Generates a {@code XxxProtobufSerializer} for every class with {@link ProtobufField} annotated fields, so
+ * {@code ProtobufSerializer} can encode it without reflection.
+ * <p>
+ * Invalid schemas (duplicate or out of range field numbers, missing getters, inaccessible fields and field types that
+ * can never match their {@link ProtobufType}) fail compilation.  Classes the generated code can't reference, or with
+ * field types only known at runtime, are left to the reflective serializer.
+ */
+@SupportedAnnotationTypes("dev.freemountain.protoj.api.ProtobufField")
+public class ProtobufSerializerProcessor extends AbstractProcessor {
+
+    private final Set<String> generatedTypes = new HashSet<>();
+
+    @Override
+    public SourceVersion getSupportedSourceVersion() {
+        return SourceVersion.latestSupported();
+    }
+
+    @Override
+    public boolean process(Set<? extends TypeElement> annotations, RoundEnvironment roundEnv) {
+        Set<TypeElement> messageTypes = new LinkedHashSet<>();
+        for (Element element : roundEnv.getElementsAnnotatedWith(ProtobufField.class)) {
+            Element enclosing = element.getEnclosingElement();
+            if (element.getKind() == ElementKind.FIELD && enclosing.getKind() == ElementKind.CLASS) {
+                messageTypes.add((TypeElement) enclosing);
+            }
+        }
+        for (TypeElement messageType : messageTypes) {
+            List<FieldModel> fields = buildFields(messageType);
+            if (fields != null && isReferenceable(messageType)) {
+                generate(messageType, fields);
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Validated fields in declaration order, or null if the class is invalid or its serializer can't be generated.
+     */
+    private List<FieldModel> buildFields(TypeElement messageType) {
+        List<FieldModel> fields = new ArrayList<>();
+        Map<Integer, VariableElement> fieldNumbers = new HashMap<>();
+        boolean valid = true;
+        boolean generatable = true;
+        for (VariableElement field : ElementFilter.fieldsIn(messageType.getEnclosedElements())) {
+            ProtobufField annotation = field.getAnnotation(ProtobufField.class);
+            if (annotation == null) {
+                continue;
+            }
+            int fieldNumber = annotation.fieldNumber();
+            if (fieldNumber < SchemaRules.MIN_FIELD_NUMBER || fieldNumber > SchemaRules.MAX_FIELD_NUMBER) {
+                error(field, "Invalid field number " + fieldNumber + ", must be between "
+                    + SchemaRules.MIN_FIELD_NUMBER + " and " + SchemaRules.MAX_FIELD_NUMBER);
+                valid = false;
+            }
+            VariableElement duplicate = fieldNumbers.put(fieldNumber, field);
+            if (duplicate != null) {
+                error(field, "Duplicate field number " + fieldNumber + ", already used by " + duplicate.getSimpleName());
+                valid = false;
+            }
+            int encodedCacheSize = annotation.encodedCacheSize();
+            if (encodedCacheSize != 0 && (annotation.protobufType() != ProtobufType.STRING || encodedCacheSize < 0)) {
+                error(field, "Invalid encodedCacheSize " + encodedCacheSize + ", only STRING fields can be cached");
+                valid = false;
+            }
+            String mapTypesError = SchemaRules.mapTypesError(annotation.protobufType(), annotation.mapKeyType(),
+                annotation.mapValueType());
+            if (mapTypesError != null) {
+                error(field, mapTypesError);
+                valid = false;
+            }
+            // Has a custom getter method?
+            String accessExpression;
+            TypeMirror valueType;
+            String getterMethod = annotation.getterMethod();
+            if (getterMethod.length() > 0) {
+                ExecutableElement getter = findGetter(messageType, getterMethod);
+                if (getter == null) {
+                    error(field, "No public no-arg getter method " + getterMethod + "() on "
+                        + messageType.getQualifiedName());
+                    valid = false;
+                    continue;
+                }
+                accessExpression = "message." + getterMethod + "()";
+                valueType = getter.getReturnType();
+            } else {
+                if (field.getModifiers().contains(Modifier.PRIVATE)) {
+                    error(field, "Private field " + field.getSimpleName() + " needs a getterMethod");
+                    valid = false;
+                    continue;
+                }
+                accessExpression = "message." + field.getSimpleName();
+                valueType = field.asType();
+            }
+            TypeElement enumType = annotation.protobufType() == ProtobufType.ENUM ? enumType(valueType) : null;
+            FieldModel.ValueKind valueKind = valueKind(annotation.protobufType(), valueType);
+            if (valueKind == null) {
+                if (isKnownValueType(annotation.protobufType(), valueType)) {
+                    error(field, "Type " + valueType + " can't hold " + annotation.protobufType() + " values");
+                    valid = false;
+                } else {
+                    note(field, "Type " + valueType + " is only known at runtime, " + messageType.getQualifiedName()
+                        + " will be serialized reflectively");
+                    generatable = false;
+                }
+                continue;
+            }
+            fields.add(new FieldModel(field.getSimpleName().toString(), fieldNumber, annotation.protobufType(),
+                valueKind, processingEnv.getTypeUtils().erasure(valueType).toString(), accessExpression,
+                encodedCacheSize > 0, enumType != null ? enumType.getQualifiedName().toString() : null));
+        }
+        return valid && generatable ? fields : null;
+    }
+
+    private ExecutableElement findGetter(TypeElement messageType, String name) {
+        for (ExecutableElement method : ElementFilter
+            .methodsIn(processingEnv.getElementUtils().getAllMembers(messageType))) {
+            if (method.getSimpleName().contentEquals(name) && method.getParameters().isEmpty()
+                && method.getModifiers().contains(Modifier.PUBLIC)) {
+                return method;
+            }
+        }
+        return null;
+    }
+
+    private FieldModel.ValueKind valueKind(ProtobufType protobufType, TypeMirror valueType) {
+        String primitive = SerializerGenerator.primitiveTypeName(protobufType);
+        if (valueType.getKind().isPrimitive()) {
+            boolean matches = primitive != null && valueType.getKind().name().toLowerCase().equals(primitive);
+            return matches ? FieldModel.ValueKind.PRIMITIVE : null;
+        }
+        if (valueType.getKind() == TypeKind.ARRAY) {
+            TypeMirror componentType = ((ArrayType) valueType).getComponentType();
+            if (primitive != null && componentType.getKind().isPrimitive()) {
+                boolean matches = componentType.getKind().name().toLowerCase().equals(primitive);
+                return matches ? FieldModel.ValueKind.ARRAY : null;
+            }
+        }
+        if (protobufType == ProtobufType.MESSAGE) {
+            return FieldModel.ValueKind.MESSAGE;
+        }
+        if (protobufType == ProtobufType.MAP) {
+            TypeMirror map = processingEnv.getTypeUtils()
+                .erasure(processingEnv.getElementUtils().getTypeElement(Map.class.getName()).asType());
+            boolean isMap = processingEnv.getTypeUtils()
+                .isAssignable(processingEnv.getTypeUtils().erasure(valueType), map);
+            return isMap ? FieldModel.ValueKind.MAP : null;
+        }
+        boolean repeated = isIterable(valueType);
+        if (protobufType == ProtobufType.ENUM) {
+            // The enum table is looked up once, so the enum has to be known and referenceable
+            if (enumType(valueType) == null) {
+                return null;
+            }
+            return repeated ? FieldModel.ValueKind.REPEATED : FieldModel.ValueKind.OBJECT;
+        }
+        if (repeated) {
+            return FieldModel.ValueKind.REPEATED;
+        }
+        String typeName = processingEnv.getTypeUtils().erasure(valueType).toString();
+        return typeName.equals(SerializerGenerator.boxedTypeName(protobufType)) ? FieldModel.ValueKind.OBJECT : null;
+    }
+
+    private boolean isIterable(TypeMirror valueType) {
+        TypeMirror iterable = processingEnv.getTypeUtils()
+            .erasure(processingEnv.getElementUtils().getTypeElement(Iterable.class.getName()).asType());
+        return processingEnv.getTypeUtils().isAssignable(processingEnv.getTypeUtils().erasure(valueType), iterable);
+    }
+
+    /**
+     * Enum declared as the value type, or as the only type argument of an {@link Iterable}, or null if there isn't
+     * one the generated serializer can reference.
+     */
+    private TypeElement enumType(TypeMirror valueType) {
+        if (valueType.getKind() != TypeKind.DECLARED) {
+            return null;
+        }
+        DeclaredType declaredType = (DeclaredType) valueType;
+        if (isIterable(valueType)) {
+            if (declaredType.getTypeArguments().size() != 1
+                || declaredType.getTypeArguments().get(0).getKind() != TypeKind.DECLARED) {
+                return null;
+            }
+            declaredType = (DeclaredType) declaredType.getTypeArguments().get(0);
+        }
+        Element element = declaredType.asElement();
+        if (element.getKind() != ElementKind.ENUM) {
+            return null;
+        }
+        for (Element enclosing = element; enclosing instanceof TypeElement;
+            enclosing = enclosing.getEnclosingElement()) {
+            if (enclosing.getModifiers().contains(Modifier.PRIVATE)) {
+                return null;
+            }
+        }
+        return (TypeElement) element;
+    }
+
+    /**
+     * Boxed primitives, strings, enums and primitive arrays are final, so a mismatch with the protobuf type can never
+     * work.
+     */
+    private boolean isKnownValueType(ProtobufType fieldType, TypeMirror valueType) {
+        if (valueType.getKind().isPrimitive()) {
+            return true;
+        }
+        if (valueType.getKind() == TypeKind.DECLARED
+            && ((DeclaredType) valueType).asElement().getKind() == ElementKind.ENUM) {
+            // Unless it's an ENUM field of an enum the generated serializer can't reference
+            return fieldType != ProtobufType.ENUM;
+        }
+        if (valueType.getKind() == TypeKind.ARRAY) {
+            return ((ArrayType) valueType).getComponentType().getKind().isPrimitive();
+        }
+        String typeName = processingEnv.getTypeUtils().erasure(valueType).toString();
+        for (ProtobufType protobufType : ProtobufType.values()) {
+            if (typeName.equals(SerializerGenerator.boxedTypeName(protobufType))) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Generated serializers live in the message's package, so the message and its enclosing classes can't be private.
+     */
+    private boolean isReferenceable(TypeElement messageType) {
+        Element element = messageType;
+        while (element instanceof TypeElement) {
+            TypeElement type = (TypeElement) element;
+            if (type.getModifiers().contains(Modifier.PRIVATE) || !type.getTypeParameters().isEmpty()) {
+                note(messageType, messageType.getQualifiedName() + " can't be referenced from a generated serializer, "
+                    + "it will be serialized reflectively");
+                return false;
+            }
+            element = element.getEnclosingElement();
+        }
+        return true;
+    }
+
+    private void generate(TypeElement messageType, List<FieldModel> fields) {
+        PackageElement packageElement = processingEnv.getElementUtils().getPackageOf(messageType);
+        String packageName = packageElement.isUnnamed() ? "" : packageElement.getQualifiedName().toString();
+        String serializerName = serializerName(messageType);
+        String qualifiedName = packageName.isEmpty() ? serializerName : packageName + "." + serializerName;
+        if (!generatedTypes.add(qualifiedName)) {
+            return;
+        }
+        SerializerGenerator generator = new SerializerGenerator(packageName, serializerName,
+            messageType.getQualifiedName().toString(), fields);
+        try {
+            JavaFileObject sourceFile = processingEnv.getFiler().createSourceFile(qualifiedName, messageType);
+            try (PrintWriter out = new PrintWriter(sourceFile.openWriter())) {
+                generator.write(out);
+            }
+        } catch (IOException e) {
+            error(messageType, "Unable to write " + qualifiedName + ": " + e.getMessage());
+        }
+    }
+
+    /**
+     * {@code Outer.Inner} is served by {@code Outer_InnerProtobufSerializer}.
+     */
+    static String serializerName(TypeElement messageType) {
+        StringBuilder name = new StringBuilder(messageType.getSimpleName());
+        Element enclosing = messageType.getEnclosingElement();
+        while (enclosing instanceof TypeElement) {
+            name.insert(0, enclosing.getSimpleName() + "_");
+            enclosing = enclosing.getEnclosingElement();
+        }
+        return name.append(SchemaRules.SERIALIZER_SUFFIX).toString();
+    }
+
+    private void error(Element element, String message) {
+        processingEnv.getMessager().printMessage(Diagnostic.Kind.ERROR, message, element);
+    }
+
+    private void note(Element element, String message) {
+        processingEnv.getMessager().printMessage(Diagnostic.Kind.NOTE, message, element);
+    }
+}
@@ -0,0 +1,487 @@
+package dev.freemountain.protoj.processor;
+
+import dev.freemountain.protoj.api.ProtobufType;
+import dev.freemountain.protoj.internal.TypeMapper;
+import dev.freemountain.protoj.internal.WireType;
+import java.io.PrintWriter;
+import java.util.List;
+
+/**
+ * Emits the source of a {@code MessageSerializer} with straight-line encoding code for every field of a message.
+ */
+final class SerializerGenerator {
+
+    private static final String SERIALIZER = "ProtobufSerializer";
+
+    private final String packageName;
+    private final String serializerName;
+    private final String messageTypeName;
+    private final List<FieldModel> fields;
+
+    SerializerGenerator(String packageName, String serializerName, String messageTypeName, List<FieldModel> fields) {
+        this.packageName = packageName;
+        this.serializerName = serializerName;
+        this.messageTypeName = messageTypeName;
+        this.fields = fields;
+    }
+
+    void write(PrintWriter out) {
+        if (!packageName.isEmpty()) {
+            out.println("package " + packageName + ";");
+            out.println();
+        }
+        if (fields.stream().anyMatch(FieldModel::isStringCached)) {
+            out.println("import dev.freemountain.protoj.serialize.EncodedStringCache;");
+        }
+        if (fields.stream().anyMatch(field -> field.getEnumTypeName() != null)) {
+            out.println("import dev.freemountain.protoj.serialize.EnumTable;");
+        }
+        if (fields.stream().anyMatch(field -> field.getValueKind() == FieldModel.ValueKind.MAP)) {
+            out.println("import dev.freemountain.protoj.serialize.MapEncoder;");
+        }
+        out.println("import dev.freemountain.protoj.serialize.MessageSerializer;");
+        out.println("import dev.freemountain.protoj.serialize.ProtoWriter;");
+        out.println("import dev.freemountain.protoj.serialize.ProtobufSerializer;");
+        out.println("import dev.freemountain.protoj.serialize.SerializationContext;");
+        out.println("import java.io.IOException;");
+        out.println();
+        out.println("/**");
+        out.println(" * Generated by protoj-processor from {@link " + messageTypeName + "}.  Do not edit.");
+        out.println(" */");
+        out.println("@SuppressWarnings(\"rawtypes\")");
+        out.println("public final class " + serializerName + " implements MessageSerializer<" + messageTypeName
+            + "> {");
+        out.println();
+        for (FieldModel field : fields) {
+            out.println("    private static final byte[] " + tagName(field) + " = " + tagInitializer(field) + ";");
+        }
+        for (FieldModel field : fields) {
+            if (field.isStringCached()) {
+                // Shared with reflective serialization of the same class
+                out.println("    private static final EncodedStringCache " + cacheName(field)
+                    + " = EncodedStringCache.forField(" + messageTypeName + ".class, \"" + field.getName() + "\");");
+            }
+            if (field.getEnumTypeName() != null) {
+                out.println("    private static final EnumTable " + enumTableName(field) + " = EnumTable.forEnum("
+                    + field.getEnumTypeName() + ".class);");
+            }
+            if (field.getValueKind() == FieldModel.ValueKind.MAP) {
+                out.println("    private static final MapEncoder " + mapEncoderName(field) + " = MapEncoder.forField("
+                    + messageTypeName + ".class, \"" + field.getName() + "\");");
+            }
+        }
+        out.println();
+        out.println("    @Override");
+        out.println("    public int computeSize(" + messageTypeName + " message, SerializationContext context) {");
+        out.println("        int size = 0;");
+        for (FieldModel field : fields) {
+            writeFieldSize(out, field);
+        }
+        out.println("        return size;");
+        out.println("    }");
+        out.println();
+        out.println("    @Override");
+        out.println("    public void serialize(" + messageTypeName
+            + " message, ProtoWriter out, SerializationContext context)");
+        out.println("        throws IOException {");
+        for (FieldModel field : fields) {
+            writeField(out, field);
+        }
+        out.println("    }");
+        out.println("}");
+    }
+
+    private void writeField(PrintWriter out, FieldModel field) {
+        String value = "field" + field.getFieldNumber();
+        ProtobufType type = field.getProtobufType();
+        out.println("        // " + field.getName() + " = " + field.getFieldNumber() + " " + type);
+        switch (field.getValueKind()) {
+            case PRIMITIVE:
+                out.println("        out.writeTag(" + tagName(field) + ");");
+                out.println("        " + encode(type, field.getAccessExpression()));
+                break;
+            case OBJECT:
+                out.println("        " + field.getValueTypeName() + " " + value + " = " + field.getAccessExpression()
+                    + ";");
+                out.println("        if (" + present(type, value) + ") {");
+                out.println("            out.writeTag(" + tagName(field) + ");");
+                out.println("            " + encode(field, unbox(type, value)));
+                out.println("        }");
+                break;
+            case REPEATED:
+                String item = item(field);
+                out.println("        " + field.getValueTypeName() + " " + value + " = " + field.getAccessExpression()
+                    + ";");
+                out.println("        if (" + value + " != null) {");
+                if (isPacked(type)) {
+                    // The payload is sized again so the elements can be written straight after the length prefix
+                    String packedSize = "packedSize" + field.getFieldNumber();
+                    writePackedSize(out, packedSize, value, field);
+                    out.println("            if (" + packedSize + " > 0) {");
+                    out.println("                out.writeTag(" + tagName(field) + ");");
+                    out.println("                out.writeVarint(" + packedSize + ");");
+                    out.println("                for (Object item : " + value + ") {");
+                    out.println("                    if (item != null) {");
+                    out.println("                        " + encode(field, item));
+                    out.println("                    }");
+                    out.println("                }");
+                    out.println("            }");
+                } else {
+                    out.println("            for (Object item : " + value + ") {");
+                    out.println("                if (item != null) {");
+                    out.println("                    out.writeTag(" + tagName(field) + ");");
+                    out.println("                    " + encode(field, item));
+                    out.println("                }");
+                    out.println("            }");
+                }
+                out.println("        }");
+                break;
+            case ARRAY:
+                String arraySize = "packedSize" + field.getFieldNumber();
+                out.println("        " + field.getValueTypeName() + " " + value + " = " + field.getAccessExpression()
+                    + ";");
+                out.println("        if (" + value + " != null) {");
+                writeArraySize(out, arraySize, value, type);
+                out.println("            if (" + arraySize + " > 0) {");
+                out.println("                out.writeTag(" + tagName(field) + ");");
+                out.println("                out.writeVarint(" + arraySize + ");");
+                String bulkWrite = bulkWrite(type, value);
+                if (bulkWrite != null) {
+                    out.println("                " + bulkWrite);
+                } else {
+                    out.println("                for (" + primitiveTypeName(type) + " item : " + value + ") {");
+                    out.println("                    " + encode(type, "item"));
+                    out.println("                }");
+                }
+                out.println("            }");
+                out.println("        }");
+                break;
+            case MESSAGE:
+                out.println("        Object " + value + " = " + field.getAccessExpression() + ";");
+                out.println("        if (" + value + " != null) {");
+                out.println("            context.writeMessage(out, " + tagName(field) + ", " + value + ");");
+                out.println("        }");
+                break;
+            case MAP:
+                out.println("        " + field.getValueTypeName() + " " + value + " = " + field.getAccessExpression()
+                    + ";");
+                out.println("        if (" + value + " != null) {");
+                out.println("            " + mapEncoderName(field) + ".write(out, " + value + ", context);");
+                out.println("        }");
+                break;
+        }
+    }
+
+    private void writeFieldSize(PrintWriter out, FieldModel field) {
+        String value = "field" + field.getFieldNumber();
+        ProtobufType type = field.getProtobufType();
+        switch (field.getValueKind()) {
+            case PRIMITIVE:
+                out.println("        size += " + tagName(field) + ".length + " + size(type, field.getAccessExpression())
+                    + ";");
+                break;
+            case OBJECT:
+                out.println("        " + field.getValueTypeName() + " " + value + " = " + field.getAccessExpression()
+                    + ";");
+                out.println("        if (" + present(type, value) + ") {");
+                out.println("            size += " + tagName(field) + ".length + " + size(field, unbox(type, value))
+                    + ";");
+                out.println("        }");
+                break;
+            case REPEATED:
+                String item = item(field);
+                out.println("        " + field.getValueTypeName() + " " + value + " = " + field.getAccessExpression()
+                    + ";");
+                out.println("        if (" + value + " != null) {");
+                if (isPacked(type)) {
+                    String packedSize = "packedSize" + field.getFieldNumber();
+                    writePackedSize(out, packedSize, value, field);
+                    out.println("            if (" + packedSize + " > 0) {");
+                    out.println("                size += " + tagName(field) + ".length + " + SERIALIZER
+                        + ".computeLengthDelimitedSize(" + packedSize + ");");
+                    out.println("            }");
+                } else {
+                    out.println("            for (Object item : " + value + ") {");
+                    out.println("                if (item != null) {");
+                    out.println("                    size += " + tagName(field) + ".length + " + size(field, item) + ";");
+                    out.println("                }");
+                    out.println("            }");
+                }
+                out.println("        }");
+                break;
+            case ARRAY:
+                String arraySize = "packedSize" + field.getFieldNumber();
+                out.println("        " + field.getValueTypeName() + " " + value + " = " + field.getAccessExpression()
+                    + ";");
+                out.println("        if (" + value + " != null) {");
+                writeArraySize(out, arraySize, value, type);
+                out.println("            if (" + arraySize + " > 0) {");
+                out.println("                size += " + tagName(field) + ".length + " + SERIALIZER
+                    + ".computeLengthDelimitedSize(" + arraySize + ");");
+                out.println("            }");
+                out.println("        }");
+                break;
+            case MESSAGE:
+                out.println("        Object " + value + " = " + field.getAccessExpression() + ";");
+                out.println("        if (" + value + " != null) {");
+                out.println("            size += context.computeMessageSize(" + tagName(field) + ", " + value + ");");
+                out.println("        }");
+                break;
+            case MAP:
+                out.println("        " + field.getValueTypeName() + " " + value + " = " + field.getAccessExpression()
+                    + ";");
+                out.println("        if (" + value + " != null) {");
+                out.println("            size += " + mapEncoderName(field) + ".computeSize(" + value + ", context);");
+                out.println("        }");
+                break;
+        }
+    }
+
+    private static void writePackedSize(PrintWriter out, String packedSize, String value, FieldModel field) {
+        out.println("            int " + packedSize + " = 0;");
+        out.println("            for (Object item : " + value + ") {");
+        out.println("                if (item != null) {");
+        out.println("                    " + packedSize + " += " + size(field, item(field)) + ";");
+        out.println("                }");
+        out.println("            }");
+    }
+
+    /**
+     * Fixed width elements are sized by the array length alone.
+     */
+    private static void writeArraySize(PrintWriter out, String packedSize, String value, ProtobufType type) {
+        int fixedSize = fixedSize(type);
+        if (fixedSize > 0) {
+            out.println("            int " + packedSize + " = " + value + ".length * " + fixedSize + ";");
+            return;
+        }
+        out.println("            int " + packedSize + " = 0;");
+        out.println("            for (" + primitiveTypeName(type) + " item : " + value + ") {");
+        out.println("                " + packedSize + " += " + size(type, "item") + ";");
+        out.println("            }");
+    }
+
+    private static int fixedSize(ProtobufType type) {
+        switch (type) {
+            case DOUBLE:
+            case SFIXED64:
+            case FIXED64:
+                return 8;
+            case FLOAT:
+            case SFIXED32:
+            case FIXED32:
+                return 4;
+            case BOOL:
+                return 1;
+            default:
+                return 0;
+        }
+    }
+
+    /**
+     * Bulk little endian copy of a fixed width array, or null if the elements are written one by one.
+     */
+    private static String bulkWrite(ProtobufType type, String value) {
+        switch (type) {
+            case DOUBLE:
+            case SFIXED64:
+            case FIXED64:
+                return "out.writeFixed64Array(" + value + ");";
+            case FLOAT:
+            case SFIXED32:
+            case FIXED32:
+                return "out.writeFixed32Array(" + value + ");";
+            default:
+                return null;
+        }
+    }
+
+    /**
+     * Repeated fields of scalar numeric types and enums are packed, strings and bytes get a key per element.
+     */
+    private static boolean isPacked(ProtobufType type) {
+        return type != ProtobufType.STRING && type != ProtobufType.BYTES;
+    }
+
+    /**
+     * Missing values and empty strings aren't written.
+     */
+    private static String present(ProtobufType type, String value) {
+        String present = value + " != null";
+        return type == ProtobufType.STRING ? present + " && !" + value + ".isEmpty()" : present;
+    }
+
+    private static String tagName(FieldModel field) {
+        return "TAG_" + field.getFieldNumber();
+    }
+
+    private static String cacheName(FieldModel field) {
+        return "CACHE_" + field.getFieldNumber();
+    }
+
+    private static String mapEncoderName(FieldModel field) {
+        return "MAP_" + field.getFieldNumber();
+    }
+
+    private static String enumTableName(FieldModel field) {
+        return "ENUM_" + field.getFieldNumber();
+    }
+
+    /**
+     * Element of a repeated field, cast from the {@code item} variable of the loop over its values.
+     */
+    private static String item(FieldModel field) {
+        ProtobufType type = field.getProtobufType();
+        if (field.getEnumTypeName() != null) {
+            return "((java.lang.Enum) item)";
+        }
+        return unbox(type, "((" + boxedTypeName(type) + ") item)");
+    }
+
+    /**
+     * Each key in the streamed message is a varint with the value (field_number << 3) | wire_type
+     */
+    private static String tagInitializer(FieldModel field) {
+        FieldModel.ValueKind valueKind = field.getValueKind();
+        boolean delimited = valueKind == FieldModel.ValueKind.REPEATED || valueKind == FieldModel.ValueKind.ARRAY
+            || valueKind == FieldModel.ValueKind.MESSAGE || valueKind == FieldModel.ValueKind.MAP;
+        WireType wireType = delimited ? WireType.LENGTH_DELIMITED : TypeMapper.getWireType(field.getProtobufType());
+        long key = ((long) field.getFieldNumber() << 3) | wireType.getWireTypeId();
+        StringBuilder initializer = new StringBuilder("{");
+        do {
+            int groupBits = (int) (key & 0x7F);
+            key >>>= 7;
+            if (key != 0) {
+                groupBits |= 0x80;
+            }
+            initializer.append(initializer.length() > 1 ? ", " : "")
+                .append(String.format("(byte) 0x%02X", groupBits));
+        } while (key != 0);
+        return initializer.append("}").toString();
+    }
+
+    /**
+     * Encodes a single value, through the field's cache of encoded strings or enum table if it has one.
+     */
+    private static String encode(FieldModel field, String value) {
+        if (field.isStringCached()) {
+            return cacheName(field) + ".write(out, " + value + ");";
+        }
+        if (field.getEnumTypeName() != null) {
+            return enumTableName(field) + ".write(out, " + value + ");";
+        }
+        return encode(field.getProtobufType(), value);
+    }
+
+    private static String size(FieldModel field, String value) {
+        if (field.isStringCached()) {
+            return cacheName(field) + ".computeSize(" + value + ")";
+        }
+        if (field.getEnumTypeName() != null) {
+            return enumTableName(field) + ".computeSize(" + value + ")";
+        }
+        return size(field.getProtobufType(), value);
+    }
+
+    private static String encode(ProtobufType type, String value) {
+        switch (type) {
+            case DOUBLE:
+            case SFIXED64:
+            case FIXED64:
+                return "out.writeFixed64(" + value + ");";
+            case FLOAT:
+            case SFIXED32:
+            case FIXED32:
+                return "out.writeFixed32(" + value + ");";
+            case UINT32:
+                return "out.writeUInt32(" + value + ");";
+            case SINT32:
+                return "out.writeSInt32(" + value + ");";
+            case SINT64:
+                return "out.writeSInt64(" + value + ");";
+            case BOOL:
+                return "out.writeVarint(" + value + " ? 1 : 0);";
+            case STRING:
+                return "out.writeString(" + value + ");";
+            case BYTES:
+                return "out.writeLengthDelimited(" + value + ");";
+            default:
+                return "out.writeVarint(" + value + ");";
+        }
+    }
+
+    private static String size(ProtobufType type, String value) {
+        switch (type) {
+            case DOUBLE:
+            case SFIXED64:
+            case FIXED64:
+                return SERIALIZER + ".computeFixed64Size(" + value + ")";
+            case FLOAT:
+            case SFIXED32:
+            case FIXED32:
+                return SERIALIZER + ".computeFixed32Size(" + value + ")";
+            case UINT32:
+                return SERIALIZER + ".computeUInt32Size(" + value + ")";
+            case SINT32:
+                return SERIALIZER + ".computeSInt32Size(" + value + ")";
+            case SINT64:
+                return SERIALIZER + ".computeSInt64Size(" + value + ")";
+            case BOOL:
+                return "1";
+            case STRING:
+                return SERIALIZER + ".computeStringSize(" + value + ")";
+            case BYTES:
+                return SERIALIZER + ".computeBytesSize(" + value + ")";
+            default:
+                return SERIALIZER + ".computeVarintSize(" + value + ")";
+        }
+    }
+
+    private static String unbox(ProtobufType type, String value) {
+        String primitive = primitiveTypeName(type);
+        return primitive == null ? value : value + "." + primitive + "Value()";
+    }
+
+    static String primitiveTypeName(ProtobufType type) {
+        switch (type) {
+            case INT32:
+            case UINT32:
+            case SINT32:
+            case SFIXED32:
+            case FIXED32:
+                return "int";
+            case INT64:
+            case UINT64:
+            case SINT64:
+            case SFIXED64:
+            case FIXED64:
+                return "long";
+            case FLOAT:
+                return "float";
+            case DOUBLE:
+                return "double";
+            case BOOL:
+                return "boolean";
+            default:
+                return null;
+        }
+    }
+
+    static String boxedTypeName(ProtobufType type) {
+        switch (type) {
+            case STRING:
+                return "java.lang.String";
+            case BYTES:
+                return "byte[]";
+            case BOOL:
+                return "java.lang.Boolean";
+            default:
+                String primitive = primitiveTypeName(type);
+                if (primitive == null) {
+                    return null;
+                }
+                return primitive.equals("int") ? "java.lang.Integer"
+                    : "java.lang." + Character.toUpperCase(primitive.charAt(0)) + primitive.substring(1);
+        }
+    }
+}
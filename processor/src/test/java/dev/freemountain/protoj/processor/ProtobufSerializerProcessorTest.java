@@ -0,0 +1,413 @@
+package dev.freemountain.protoj.processor;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.URI;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.stream.Collectors;
+import javax.tools.Diagnostic;
+import javax.tools.DiagnosticCollector;
+import javax.tools.FileObject;
+import javax.tools.ForwardingJavaFileManager;
+import javax.tools.JavaCompiler;
+import javax.tools.JavaFileManager;
+import javax.tools.JavaFileObject;
+import javax.tools.SimpleJavaFileObject;
+import javax.tools.ToolProvider;
+import org.junit.Test;
+
+public class ProtobufSerializerProcessorTest {
+
+    @Test
+    public void generatesSerializer() throws Exception {
+        Result result = process("test.Message",
+            "package test;",
+            "import dev.freemountain.protoj.api.*;",
+            "public class Message {",
+            "    @ProtobufField(fieldNumber = 1, protobufType = ProtobufType.INT32)",
+            "    public int foo;",
+            "    @ProtobufField(fieldNumber = 2, protobufType = ProtobufType.STRING, getterMethod = \"getBar\")",
+            "    private String bar;",
+            "    public String getBar() { return bar; }",
+            "}");
+        assertTrue(result.errors().isEmpty());
+        String generated = result.sources.get("test.MessageProtobufSerializer");
+        assertNotNull(generated);
+        assertTrue(generated.contains("implements MessageSerializer<test.Message>"));
+        assertTrue(generated.contains("TAG_1 = {(byte) 0x08}"));
+        assertTrue(generated.contains("message.getBar()"));
+    }
+
+    @Test
+    public void nestedClassNamesAreJoined() throws Exception {
+        Result result = process("test.Outer",
+            "package test;",
+            "import dev.freemountain.protoj.api.*;",
+            "public class Outer {",
+            "    public static class Inner {",
+            "        @ProtobufField(fieldNumber = 1, protobufType = ProtobufType.INT64)",
+            "        public Long foo;",
+            "    }",
+            "}");
+        assertTrue(result.errors().isEmpty());
+        assertNotNull(result.sources.get("test.Outer_InnerProtobufSerializer"));
+    }
+
+    @Test
+    public void duplicateFieldNumberFails() throws Exception {
+        Result result = process("test.Message",
+            "package test;",
+            "import dev.freemountain.protoj.api.*;",
+            "public class Message {",
+            "    @ProtobufField(fieldNumber = 3, protobufType = ProtobufType.INT32)",
+            "    public int foo;",
+            "    @ProtobufField(fieldNumber = 3, protobufType = ProtobufType.INT64)",
+            "    public long bar;",
+            "}");
+        assertEquals(1, result.errors().size());
+        assertTrue(result.errors().get(0).contains("Duplicate field number 3"));
+        assertTrue(result.sources.isEmpty());
+    }
+
+    @Test
+    public void invalidFieldNumbersFail() throws Exception {
+        Result result = process("test.Message",
+            "package test;",
+            "import dev.freemountain.protoj.api.*;",
+            "public class Message {",
+            "    @ProtobufField(fieldNumber = 0, protobufType = ProtobufType.INT32)",
+            "    public int foo;",
+            "    @ProtobufField(fieldNumber = 536870912, protobufType = ProtobufType.INT32)",
+            "    public int bar;",
+            "}");
+        assertEquals(2, result.errors().size());
+        assertTrue(result.errors().get(0).contains("Invalid field number 0"));
+        assertTrue(result.errors().get(1).contains("Invalid field number 536870912"));
+    }
+
+    @Test
+    public void missingGetterFails() throws Exception {
+        Result result = process("test.Message",
+            "package test;",
+            "import dev.freemountain.protoj.api.*;",
+            "public class Message {",
+            "    @ProtobufField(fieldNumber = 1, protobufType = ProtobufType.INT32, getterMethod = \"getBar\")",
+            "    private int foo;",
+            "    public int getFoo() { return foo; }",
+            "}");
+        assertEquals(1, result.errors().size());
+        assertTrue(result.errors().get(0).contains("getBar()"));
+    }
+
+    @Test
+    public void privateFieldWithoutGetterFails() throws Exception {
+        Result result = process("test.Message",
+            "package test;",
+            "import dev.freemountain.protoj.api.*;",
+            "public class Message {",
+            "    @ProtobufField(fieldNumber = 1, protobufType = ProtobufType.INT32)",
+            "    private int foo;",
+            "}");
+        assertEquals(1, result.errors().size());
+    }
+
+    @Test
+    public void mismatchedTypeFails() throws Exception {
+        Result result = process("test.Message",
+            "package test;",
+            "import dev.freemountain.protoj.api.*;",
+            "public class Message {",
+            "    @ProtobufField(fieldNumber = 1, protobufType = ProtobufType.INT32)",
+            "    public Boolean foo;",
+            "}");
+        assertEquals(1, result.errors().size());
+    }
+
+    @Test
+    public void runtimeTypesAreLeftToReflection() throws Exception {
+        Result result = process("test.Message",
+            "package test;",
+            "import dev.freemountain.protoj.api.*;",
+            "public class Message {",
+            "    @ProtobufField(fieldNumber = 1, protobufType = ProtobufType.INT32)",
+            "    public Object foo;",
+            "}");
+        assertTrue(result.errors().isEmpty());
+        assertTrue(result.sources.isEmpty());
+    }
+
+    @Test
+    public void privateClassesAreLeftToReflection() throws Exception {
+        Result result = process("test.Message",
+            "package test;",
+            "import dev.freemountain.protoj.api.*;",
+            "public class Message {",
+            "    private static class Hidden {",
+            "        @ProtobufField(fieldNumber = 1, protobufType = ProtobufType.INT32)",
+            "        public int foo;",
+            "    }",
+            "}");
+        assertTrue(result.errors().isEmpty());
+        assertNull(result.sources.get("test.Message_HiddenProtobufSerializer"));
+    }
+
+    @Test
+    public void tagsAreVarintEncoded() throws Exception {
+        Result result = process("test.Message",
+            "package test;",
+            "import dev.freemountain.protoj.api.*;",
+            "import java.util.List;",
+            "public class Message {",
+            "    @ProtobufField(fieldNumber = 985691, protobufType = ProtobufType.DOUBLE)",
+            "    public double foo;",
+            "    @ProtobufField(fieldNumber = 17, protobufType = ProtobufType.INT32)",
+            "    public List<Integer> bar;",
+            "}");
+        String generated = result.sources.get("test.MessageProtobufSerializer");
+        assertTrue(generated.contains("TAG_985691 = {(byte) 0xD9, (byte) 0xA5, (byte) 0xE1, (byte) 0x03}"));
+        // Repeated scalars are packed, so length-delimited
+        assertTrue(generated.contains("TAG_17 = {(byte) 0x8A, (byte) 0x01}"));
+        assertFalse(generated.contains("TAG_17 = {(byte) 0x88"));
+    }
+
+    @Test
+    public void sizesAreComputedBeforeWriting() throws Exception {
+        Result result = process("test.Message",
+            "package test;",
+            "import dev.freemountain.protoj.api.*;",
+            "import java.util.List;",
+            "public class Message {",
+            "    @ProtobufField(fieldNumber = 1, protobufType = ProtobufType.INT32)",
+            "    public List<Integer> foo;",
+            "    @ProtobufField(fieldNumber = 2, protobufType = ProtobufType.STRING)",
+            "    public List<String> bar;",
+            "    @ProtobufField(fieldNumber = 3, protobufType = ProtobufType.MESSAGE)",
+            "    public Message baz;",
+            "}");
+        String generated = result.sources.get("test.MessageProtobufSerializer");
+        assertTrue(generated.contains("public int computeSize(test.Message message, SerializationContext context)"));
+        assertTrue(generated.contains("context.computeMessageSize(TAG_3, field3)"));
+        // Packed elements are written straight after the length prefix
+        assertFalse(generated.contains("new ByteArrayOutputStream()"));
+        assertTrue(generated.contains("out.writeVarint(packedSize1)"));
+        // Strings get a key per element
+        assertTrue(generated.contains("out.writeString(((java.lang.String) item))"));
+    }
+
+    @Test
+    public void primitiveArraysArePacked() throws Exception {
+        Result result = process("test.Message",
+            "package test;",
+            "import dev.freemountain.protoj.api.*;",
+            "public class Message {",
+            "    @ProtobufField(fieldNumber = 1, protobufType = ProtobufType.DOUBLE)",
+            "    public double[] foo;",
+            "    @ProtobufField(fieldNumber = 2, protobufType = ProtobufType.SINT64)",
+            "    public long[] bar;",
+            "}");
+        assertTrue(result.errors().isEmpty());
+        String generated = result.sources.get("test.MessageProtobufSerializer");
+        assertTrue(generated.contains("TAG_1 = {(byte) 0x0A}"));
+        assertTrue(generated.contains("int packedSize1 = field1.length * 8;"));
+        assertTrue(generated.contains("out.writeFixed64Array(field1);"));
+        assertTrue(generated.contains("out.writeSInt64(item);"));
+    }
+
+    @Test
+    public void mismatchedArrayTypeFails() throws Exception {
+        Result result = process("test.Message",
+            "package test;",
+            "import dev.freemountain.protoj.api.*;",
+            "public class Message {",
+            "    @ProtobufField(fieldNumber = 1, protobufType = ProtobufType.DOUBLE)",
+            "    public float[] foo;",
+            "}");
+        assertEquals(1, result.errors().size());
+    }
+
+    @Test
+    public void cachedStringsGoThroughTheCache() throws Exception {
+        Result result = process("test.Message",
+            "package test;",
+            "import dev.freemountain.protoj.api.*;",
+            "import java.util.List;",
+            "public class Message {",
+            "    @ProtobufField(fieldNumber = 1, protobufType = ProtobufType.STRING, encodedCacheSize = 64)",
+            "    public String region;",
+            "    @ProtobufField(fieldNumber = 2, protobufType = ProtobufType.STRING, encodedCacheSize = 8)",
+            "    public List<String> tags;",
+            "}");
+        assertTrue(result.errors().isEmpty());
+        String generated = result.sources.get("test.MessageProtobufSerializer");
+        assertTrue(generated.contains("CACHE_1 = EncodedStringCache.forField(test.Message.class, \"region\")"));
+        assertTrue(generated.contains("CACHE_1.computeSize(field1)"));
+        assertTrue(generated.contains("CACHE_1.write(out, field1)"));
+        assertTrue(generated.contains("CACHE_2.write(out, ((java.lang.String) item))"));
+    }
+
+    @Test
+    public void cacheOnNonStringFieldFails() throws Exception {
+        Result result = process("test.Message",
+            "package test;",
+            "import dev.freemountain.protoj.api.*;",
+            "public class Message {",
+            "    @ProtobufField(fieldNumber = 1, protobufType = ProtobufType.BYTES, encodedCacheSize = 64)",
+            "    public byte[] foo;",
+            "}");
+        assertEquals(1, result.errors().size());
+        assertTrue(result.errors().get(0).contains("only STRING fields can be cached"));
+    }
+
+    @Test
+    public void enumsGoThroughTheirTable() throws Exception {
+        Result result = process("test.Message",
+            "package test;",
+            "import dev.freemountain.protoj.api.*;",
+            "import java.util.List;",
+            "public class Message {",
+            "    public enum Color { RED, GREEN }",
+            "    @ProtobufField(fieldNumber = 1, protobufType = ProtobufType.ENUM)",
+            "    public Color color;",
+            "    @ProtobufField(fieldNumber = 2, protobufType = ProtobufType.ENUM)",
+            "    public List<Color> colors;",
+            "}");
+        assertTrue(result.errors().isEmpty());
+        String generated = result.sources.get("test.MessageProtobufSerializer");
+        assertTrue(generated.contains("ENUM_1 = EnumTable.forEnum(test.Message.Color.class)"));
+        assertTrue(generated.contains("ENUM_1.write(out, field1)"));
+        assertTrue(generated.contains("ENUM_2.write(out, ((java.lang.Enum) item))"));
+    }
+
+    @Test
+    public void enumWithScalarTypeFails() throws Exception {
+        Result result = process("test.Message",
+            "package test;",
+            "import dev.freemountain.protoj.api.*;",
+            "public class Message {",
+            "    public enum Color { RED, GREEN }",
+            "    @ProtobufField(fieldNumber = 1, protobufType = ProtobufType.INT32)",
+            "    public Color color;",
+            "}");
+        assertEquals(1, result.errors().size());
+        assertTrue(result.errors().get(0).contains("can't hold INT32 values"));
+    }
+
+    @Test
+    public void mapsGoThroughTheirEncoder() throws Exception {
+        Result result = process("test.Message",
+            "package test;",
+            "import dev.freemountain.protoj.api.*;",
+            "import java.util.Map;",
+            "public class Message {",
+            "    @ProtobufField(fieldNumber = 1, protobufType = ProtobufType.MAP, mapKeyType = ProtobufType.STRING,",
+            "        mapValueType = ProtobufType.INT64)",
+            "    public Map<String, Long> counters;",
+            "}");
+        assertTrue(result.errors().isEmpty());
+        String generated = result.sources.get("test.MessageProtobufSerializer");
+        assertTrue(generated.contains("MAP_1 = MapEncoder.forField(test.Message.class, \"counters\")"));
+        assertTrue(generated.contains("size += MAP_1.computeSize(field1, context)"));
+        assertTrue(generated.contains("MAP_1.write(out, field1, context)"));
+    }
+
+    @Test
+    public void invalidMapTypesFail() throws Exception {
+        Result result = process("test.Message",
+            "package test;",
+            "import dev.freemountain.protoj.api.*;",
+            "import java.util.Map;",
+            "public class Message {",
+            "    @ProtobufField(fieldNumber = 1, protobufType = ProtobufType.MAP, mapKeyType = ProtobufType.FLOAT,",
+            "        mapValueType = ProtobufType.INT64)",
+            "    public Map<Float, Long> byFloat;",
+            "    @ProtobufField(fieldNumber = 2, protobufType = ProtobufType.MAP, mapKeyType = ProtobufType.STRING)",
+            "    public Map<String, Long> noValueType;",
+            "    @ProtobufField(fieldNumber = 3, protobufType = ProtobufType.MAP, mapKeyType = ProtobufType.STRING,",
+            "        mapValueType = ProtobufType.INT64)",
+            "    public String notAMap;",
+            "}");
+        assertEquals(3, result.errors().size());
+        assertTrue(result.errors().get(0).contains("Invalid map key type FLOAT"));
+        assertTrue(result.errors().get(1).contains("needs both a mapKeyType and a mapValueType"));
+        assertTrue(result.errors().get(2).contains("can't hold MAP values"));
+    }
+
+    /**
+     * Runs only the annotation processing step, since the generated sources need protoj-serialize to compile.
+     */
+    private static Result process(String className, String... lines) throws IOException {
+        JavaCompiler compiler = ToolProvider.getSystemJavaCompiler();
+        DiagnosticCollector<JavaFileObject> diagnostics = new DiagnosticCollector<>();
+        Result result = new Result(diagnostics);
+        JavaFileManager fileManager = new ForwardingJavaFileManager<JavaFileManager>(
+            compiler.getStandardFileManager(diagnostics, null, null)) {
+            @Override
+            public JavaFileObject getJavaFileForOutput(Location location, String name, JavaFileObject.Kind kind,
+                FileObject sibling) {
+                return new SimpleJavaFileObject(URI.create("mem:///" + name.replace('.', '/') + kind.extension),
+                    kind) {
+                    @Override
+                    public OutputStream openOutputStream() {
+                        return new ByteArrayOutputStream() {
+                            @Override
+                            public void close() {
+                                result.sources.put(name, new String(toByteArray()));
+                            }
+                        };
+                    }
+
+                    @Override
+                    public CharSequence getCharContent(boolean ignoreEncodingErrors) {
+                        // Read back when processing the next round
+                        return result.sources.get(name);
+                    }
+                };
+            }
+        };
+        JavaFileObject source = new SimpleJavaFileObject(
+            URI.create("mem:///" + className.replace('.', '/') + JavaFileObject.Kind.SOURCE.extension),
+            JavaFileObject.Kind.SOURCE) {
+            @Override
+            public CharSequence getCharContent(boolean ignoreEncodingErrors) {
+                return String.join("\n", lines);
+            }
+        };
+        List<String> options = new ArrayList<>(
+            Arrays.asList("-proc:only", "-classpath", System.getProperty("java.class.path")));
+        JavaCompiler.CompilationTask task = compiler
+            .getTask(null, fileManager, diagnostics, options, null, Arrays.asList(source));
+        task.setProcessors(Arrays.asList(new ProtobufSerializerProcessor()));
+        task.call();
+        return result;
+    }
+
+    private static class Result {
+
+        private final DiagnosticCollector<JavaFileObject> diagnostics;
+        private final Map<String, String> sources = new HashMap<>();
+
+        Result(DiagnosticCollector<JavaFileObject> diagnostics) {
+            this.diagnostics = diagnostics;
+        }
+
+        /**
+         * Errors reported for the processed source, ignoring unresolved imports in the generated sources.
+         */
+        List<String> errors() {
+            return diagnostics.getDiagnostics().stream().filter(d -> d.getKind() == Diagnostic.Kind.ERROR)
+                .filter(d -> d.getSource() == null || !d.getSource().getName().endsWith("ProtobufSerializer.java"))
+                .map(d -> d.getMessage(null)).collect(Collectors.toList());
+        }
+    }
+}
@@ -0,0 +1,294 @@
+package dev.freemountain.protoj.serialize;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Serializes messages on a pool of worker threads, so callers can hand off encoding and carry on.  Messages wait in a
+ * bounded queue, and callers are held back, or turned away, while it's full.
+ * <p>
+ * Workers take every message queued up behind the one they're woken for, up to the batch size, and encode the whole
+ * batch into one shared array.  Each future gets its own slice of that array, which stays reachable as long as any
+ * slice of the batch is.  Nothing is batched while the workers keep up, so an idle service adds no latency.
+ * <p>
+ * Workers are virtual threads when the runtime supports them, and daemon platform threads otherwise.  Messages must
+ * not change until their future completes.
+ */
+public final class AsyncSerializer implements AutoCloseable {
+
+    public static final int DEFAULT_QUEUE_CAPACITY = 1024;
+    public static final int DEFAULT_MAX_BATCH_SIZE = 64;
+    // Queued by close() behind the last message, and passed on by each worker which takes it as it stops
+    private static final Task STOP = new Task(null);
+    // Memoized sizes are ints
+    private static final int MAX_RETAINED_SIZES = SerializerPool.DEFAULT_MAX_RETAINED_SIZE / Integer.BYTES;
+
+    private final BlockingQueue<Task> queue;
+    private final int maxBatchSize;
+    private final Thread[] workers;
+    private final AtomicInteger runningWorkers;
+    private volatile boolean closed;
+
+    public AsyncSerializer() {
+        this(DEFAULT_QUEUE_CAPACITY, Runtime.getRuntime().availableProcessors(), DEFAULT_MAX_BATCH_SIZE);
+    }
+
+    public AsyncSerializer(int queueCapacity, int workerCount, int maxBatchSize) {
+        this(queueCapacity, workerCount, maxBatchSize, defaultThreadFactory());
+    }
+
+    /**
+     * @param queueCapacity most messages waiting to be serialized
+     * @param workerCount number of worker threads
+     * @param maxBatchSize most messages encoded into one shared array
+     */
+    public AsyncSerializer(int queueCapacity, int workerCount, int maxBatchSize, ThreadFactory threadFactory) {
+        if (queueCapacity < 1) {
+            throw new IllegalArgumentException("Invalid queue capacity " + queueCapacity);
+        }
+        if (workerCount < 1) {
+            throw new IllegalArgumentException("Invalid worker count " + workerCount);
+        }
+        if (maxBatchSize < 1) {
+            throw new IllegalArgumentException("Invalid max batch size " + maxBatchSize);
+        }
+        this.queue = new ArrayBlockingQueue<>(queueCapacity);
+        this.maxBatchSize = maxBatchSize;
+        this.workers = new Thread[workerCount];
+        this.runningWorkers = new AtomicInteger(workerCount);
+        for (int i = 0; i < workerCount; i++) {
+            workers[i] = threadFactory.newThread(new Worker());
+            workers[i].start();
+        }
+    }
+
+    /**
+     * Virtual threads on runtimes which have them, looked up reflectively since this library targets Java 8, and
+     * daemon platform threads otherwise.
+     */
+    public static ThreadFactory defaultThreadFactory() {
+        try {
+            Object builder = Thread.class.getMethod("ofVirtual").invoke(null);
+            Class<?> builderClass = Class.forName("java.lang.Thread$Builder");
+            builder = builderClass.getMethod("name", String.class, long.class).invoke(builder, "protoj-async-", 0L);
+            return (ThreadFactory) builderClass.getMethod("factory").invoke(builder);
+        } catch (ReflectiveOperationException | RuntimeException e) {
+            // Before Java 21, or with preview features disabled
+            AtomicInteger threadCount = new AtomicInteger();
+            return runnable -> {
+                Thread thread = new Thread(runnable, "protoj-async-" + threadCount.getAndIncrement());
+                thread.setDaemon(true);
+                return thread;
+            };
+        }
+    }
+
+    /**
+     * Queues the message, waiting for room while the queue is full.
+     *
+     * @return future of the serialized message, failed with a {@link RejectedExecutionException} once closed
+     */
+    public <T> CompletableFuture<ByteBuffer> serialize(T message) throws InterruptedException {
+        Task task = new Task(message);
+        if (!closed) {
+            queue.put(task);
+            checkAccepted(task);
+        } else {
+            task.future.completeExceptionally(new RejectedExecutionException("Serializer is closed"));
+        }
+        return task.future;
+    }
+
+    /**
+     * Queues the message if there is room, without waiting.
+     *
+     * @return future of the serialized message, failed with a {@link RejectedExecutionException} if the queue is full
+     * or the serializer is closed
+     */
+    public <T> CompletableFuture<ByteBuffer> trySerialize(T message) {
+        Task task = new Task(message);
+        if (closed) {
+            task.future.completeExceptionally(new RejectedExecutionException("Serializer is closed"));
+        } else if (!queue.offer(task)) {
+            task.future.completeExceptionally(new RejectedExecutionException("Serializer queue is full"));
+        } else {
+            checkAccepted(task);
+        }
+        return task.future;
+    }
+
+    /**
+     * Number of messages waiting for a worker.
+     */
+    public int getQueuedCount() {
+        return queue.size();
+    }
+
+    /**
+     * Stops accepting messages, and waits for the workers to serialize the ones already queued.  If the calling thread
+     * is interrupted, it returns without waiting with its interrupt status set, and the workers still finish the queue.
+     */
+    @Override
+    public void close() {
+        boolean interrupted = false;
+        synchronized (this) {
+            if (!closed) {
+                closed = true;
+                interrupted = putUninterruptibly(STOP);
+            }
+        }
+        try {
+            for (Thread worker : workers) {
+                if (interrupted) {
+                    break;
+                }
+                worker.join();
+            }
+        } catch (InterruptedException e) {
+            interrupted = true;
+        }
+        if (interrupted) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * Queues the task even if interrupted, since workers only stop once they take {@link #STOP}.
+     *
+     * @return whether the thread was interrupted while waiting for room
+     */
+    private boolean putUninterruptibly(Task task) {
+        boolean interrupted = false;
+        while (true) {
+            try {
+                queue.put(task);
+                return interrupted;
+            } catch (InterruptedException e) {
+                interrupted = true;
+            }
+        }
+    }
+
+    /**
+     * Closing may have raced with queueing the task, after the workers stopped.  A task still in the queue was never
+     * taken by a worker, so it's withdrawn and failed.
+     */
+    private void checkAccepted(Task task) {
+        if (closed && queue.remove(task)) {
+            task.future.completeExceptionally(new RejectedExecutionException("Serializer is closed"));
+        }
+    }
+
+    private static final class Task {
+
+        private final Object message;
+        private final CompletableFuture<ByteBuffer> future = new CompletableFuture<>();
+
+        Task(Object message) {
+            this.message = message;
+        }
+    }
+
+    private final class Worker implements Runnable {
+
+        private final List<Task> batch = new ArrayList<>(maxBatchSize);
+        // One per message in the batch, as each holds the memoized sizes of its message until it's written
+        private final SerializationContext[] contexts = new SerializationContext[maxBatchSize];
+        private final int[] sizes = new int[maxBatchSize];
+
+        Worker() {
+            for (int i = 0; i < maxBatchSize; i++) {
+                contexts[i] = new SerializationContext();
+            }
+        }
+
+        @Override
+        public void run() {
+            while (true) {
+                Task task;
+                try {
+                    task = queue.take();
+                } catch (InterruptedException e) {
+                    // Keep going until closed, so no queued future is left incomplete
+                    continue;
+                }
+                batch.add(task);
+                queue.drainTo(batch, maxBatchSize - 1);
+                boolean stop = batch.remove(STOP);
+                serializeBatch();
+                batch.clear();
+                if (stop) {
+                    // The last worker leaves it out, so it isn't counted as a queued message
+                    if (runningWorkers.decrementAndGet() > 0) {
+                        putUninterruptibly(STOP);
+                    }
+                    return;
+                }
+            }
+        }
+
+        /**
+         * Size pass for the whole batch to lay out the shared array, then the write pass into each message's slot.
+         * A message which fails only fails its own future.
+         */
+        private void serializeBatch() {
+            long totalSize = 0;
+            for (int i = 0; i < batch.size(); i++) {
+                contexts[i].reset(MAX_RETAINED_SIZES);
+                try {
+                    sizes[i] = ProtobufSerializer.computeTopLevelSize(batch.get(i).message, contexts[i]);
+                    totalSize += sizes[i];
+                } catch (Throwable e) {
+                    sizes[i] = -1;
+                    batch.get(i).future.completeExceptionally(e);
+                }
+            }
+            byte[] buffer;
+            try {
+                buffer = new byte[Math.toIntExact(totalSize)];
+            } catch (ArithmeticException e) {
+                // Too large to share an array, e.g. a batch of huge messages
+                serializeSeparately();
+                return;
+            }
+            int offset = 0;
+            for (int i = 0; i < batch.size(); i++) {
+                int size = sizes[i];
+                if (size < 0) {
+                    continue;
+                }
+                Task task = batch.get(i);
+                try {
+                    ProtobufSerializer.write(task.message, ProtoWriter.forArray(buffer, offset), size, contexts[i]);
+                    task.future.complete(ByteBuffer.wrap(buffer, offset, size).slice());
+                } catch (Throwable e) {
+                    task.future.completeExceptionally(e);
+                }
+                offset += size;
+            }
+        }
+
+        private void serializeSeparately() {
+            for (int i = 0; i < batch.size(); i++) {
+                Task task = batch.get(i);
+                if (sizes[i] < 0) {
+                    continue;
+                }
+                try {
+                    byte[] buffer = new byte[sizes[i]];
+                    ProtobufSerializer.write(task.message, ProtoWriter.forArray(buffer, 0), sizes[i], contexts[i]);
+                    task.future.complete(ByteBuffer.wrap(buffer));
+                } catch (Throwable e) {
+                    task.future.completeExceptionally(e);
+                }
+            }
+        }
+    }
+}
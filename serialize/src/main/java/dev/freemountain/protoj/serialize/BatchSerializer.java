@@ -0,0 +1,162 @@
+package dev.freemountain.protoj.serialize;
+
+import dev.freemountain.protoj.api.ProtobufSerializationException;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.RandomAccess;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ForkJoinPool;
+
+/**
+ * Serializes lists of independent messages by splitting them into contiguous ranges which run as separate tasks.
+ * Every range reuses one {@link SerializationContext} for its messages, and results are stored by index so the output
+ * keeps the order of the input.
+ * <p>
+ * The list is split into a few ranges per thread, so a range of unusually large messages doesn't hold up the whole
+ * batch, and small batches are serialized on the calling thread.
+ */
+final class BatchSerializer {
+
+    // Ranges per thread, to even out ranges of differently sized messages
+    private static final int RANGES_PER_THREAD = 4;
+    // Fewest messages worth a task of their own
+    private static final int MIN_RANGE_SIZE = 64;
+    // Memoized sizes are ints
+    private static final int MAX_RETAINED_SIZES = SerializerPool.DEFAULT_MAX_RETAINED_SIZE / Integer.BYTES;
+
+    private BatchSerializer() {
+    }
+
+    /**
+     * Work on the messages from start (inclusive) to end (exclusive).
+     */
+    private interface RangeTask {
+
+        void run(int start, int end, SerializationContext context) throws IOException;
+    }
+
+    static Executor defaultExecutor() {
+        return ForkJoinPool.commonPool();
+    }
+
+    static <T> List<ByteBuffer> serializeAll(List<T> input, Executor executor) throws IOException {
+        List<T> messages = randomAccess(input);
+        ByteBuffer[] buffers = new ByteBuffer[messages.size()];
+        SerializationContext[] contexts = new SerializationContext[rangeCount(messages.size(), executor)];
+        forEachRange(messages.size(), contexts, executor, (start, end, context) -> {
+            for (int i = start; i < end; i++) {
+                T message = messages.get(i);
+                context.reset(MAX_RETAINED_SIZES);
+                byte[] buffer = new byte[ProtobufSerializer.computeTopLevelSize(message, context)];
+                ProtobufSerializer.write(message, ProtoWriter.forArray(buffer, 0), buffer.length, context);
+                buffers[i] = ByteBuffer.wrap(buffer);
+            }
+        });
+        return Arrays.asList(buffers);
+    }
+
+    /**
+     * Runs the size pass for every message in parallel to lay out the output, then the write pass in parallel straight
+     * into each message's offset.  Each range's context keeps the memoized sizes of all its messages, an int per
+     * embedded message, from one pass to the next, so the size pass runs once per message.
+     */
+    static <T> SerializedBatch serializeContiguous(List<T> input, Executor executor) throws IOException {
+        List<T> messages = randomAccess(input);
+        int count = messages.size();
+        int[] offsets = new int[count + 1];
+        SerializationContext[] contexts = new SerializationContext[rangeCount(count, executor)];
+        forEachRange(count, contexts, executor, (start, end, context) -> {
+            for (int i = start; i < end; i++) {
+                offsets[i + 1] = ProtobufSerializer.computeTopLevelSize(messages.get(i), context);
+            }
+        });
+        long totalSize = 0;
+        for (int i = 1; i <= count; i++) {
+            totalSize += offsets[i];
+            if (totalSize > Integer.MAX_VALUE) {
+                throw new ProtobufSerializationException("Batch of " + count + " messages exceeds 2GB");
+            }
+            offsets[i] = (int) totalSize;
+        }
+        byte[] buffer = new byte[(int) totalSize];
+        forEachRange(count, contexts, executor, (start, end, context) -> {
+            context.rewind();
+            for (int i = start; i < end; i++) {
+                // Timed over the write pass only, as the range was sized as a whole
+                context.setStartNanos(ProtobufSerializer.getMetrics() != null ? System.nanoTime() : 0);
+                int size = offsets[i + 1] - offsets[i];
+                ProtobufSerializer.write(messages.get(i), ProtoWriter.forArray(buffer, offsets[i]), size, context);
+            }
+        });
+        return new SerializedBatch(buffer, offsets);
+    }
+
+    /**
+     * Ranges index into the list, so linked lists are copied first.
+     */
+    private static <T> List<T> randomAccess(List<T> messages) {
+        return messages instanceof RandomAccess ? messages : new ArrayList<>(messages);
+    }
+
+    /**
+     * Number of ranges the messages are split into, 1 to serialize them on the calling thread.
+     */
+    private static int rangeCount(int count, Executor executor) {
+        int parallelism = executor instanceof ForkJoinPool ? ((ForkJoinPool) executor).getParallelism()
+            : Runtime.getRuntime().availableProcessors();
+        return Math.max(Math.min(parallelism * RANGES_PER_THREAD, count / MIN_RANGE_SIZE), 1);
+    }
+
+    /**
+     * Runs the task over one range per context, creating the contexts on the first pass so later passes over the same
+     * ranges get the same contexts back.
+     */
+    private static void forEachRange(int count, SerializationContext[] contexts, Executor executor, RangeTask task)
+        throws IOException {
+        int rangeCount = contexts.length;
+        for (int range = 0; range < rangeCount; range++) {
+            if (contexts[range] == null) {
+                contexts[range] = new SerializationContext();
+            }
+        }
+        if (rangeCount == 1) {
+            task.run(0, count, contexts[0]);
+            return;
+        }
+        CompletableFuture<?>[] ranges = new CompletableFuture<?>[rangeCount];
+        for (int range = 0; range < rangeCount; range++) {
+            // Spread the remainder over the first ranges
+            int start = (int) ((long) count * range / rangeCount);
+            int end = (int) ((long) count * (range + 1) / rangeCount);
+            SerializationContext context = contexts[range];
+            ranges[range] = CompletableFuture.runAsync(() -> {
+                try {
+                    task.run(start, end, context);
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+            }, executor);
+        }
+        try {
+            CompletableFuture.allOf(ranges).join();
+        } catch (CompletionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof UncheckedIOException) {
+                throw ((UncheckedIOException) cause).getCause();
+            }
+            if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            }
+            if (cause instanceof Error) {
+                throw (Error) cause;
+            }
+            throw e;
+        }
+    }
+}
@@ -0,0 +1,193 @@
+package dev.freemountain.protoj.serialize;
+
+import dev.freemountain.protoj.api.ProtobufSerializationException;
+import dev.freemountain.protoj.api.ProtobufType;
+import dev.freemountain.protoj.internal.TypeMapper;
+import java.io.IOException;
+import java.lang.reflect.Array;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+
+/**
+ * Encodes the fields of a message which changed since a previous snapshot of it, see
+ * {@link ProtobufSerializer#serializeDelta}.  The size pass compares every field to the snapshot and records what to do
+ * with it in traversal order, like the sizes of embedded messages, so the write pass doesn't read the snapshot again.
+ */
+final class DeltaEncoder {
+
+    // What the write pass does with a field: nothing, write it as usual, write its default value, or write the delta of
+    // its embedded message.  Maps record the entries to write instead.
+    private static final Object UNCHANGED = new Object();
+    private static final Object CHANGED = new Object();
+    private static final Object CLEARED = new Object();
+    private static final Object NESTED = new Object();
+    // Largest default value, a fixed 64-bit zero
+    private static final byte[] ZEROS = new byte[8];
+
+    private final Object previous;
+    private final List<Object> changes = new ArrayList<>();
+    private int cursor;
+
+    DeltaEncoder(Object previous) {
+        this.previous = previous;
+    }
+
+    int computeSize(Object message, SerializationContext context) {
+        return computeDeltaSize(previous, message, context);
+    }
+
+    void write(ProtoWriter out, Object message, SerializationContext context) throws IOException {
+        MessageSchema schema = MessageSchema.forClass(message.getClass());
+        for (FieldSchema field : schema.getFields()) {
+            Object change = changes.get(cursor++);
+            if (change == UNCHANGED) {
+                continue;
+            }
+            if (change == CHANGED) {
+                ProtobufSerializer.writeField(out, field, message, context);
+            } else if (change == CLEARED) {
+                out.writeTag(field.getTag());
+                out.writeBytes(ZEROS, 0, computeDefaultSize(field.getProtobufType()));
+            } else if (change == NESTED) {
+                // The changes inside an embedded message without any were dropped
+                int messageSize = context.nextSize();
+                if (messageSize > 0) {
+                    out.writeTag(field.getDelimitedTag());
+                    out.writeVarint(messageSize);
+                    int start = out.getBytesWritten();
+                    Object value = field.getValue(message);
+                    write(out, value, context);
+                    ProtobufSerializer.checkSize(value, messageSize, out.getBytesWritten() - start);
+                }
+            } else {
+                field.getMapEncoder().write(out, (Map<?, ?>) change, context);
+            }
+        }
+    }
+
+    private int computeDeltaSize(Object previous, Object message, SerializationContext context) {
+        context.enterMessage(message);
+        try {
+            int size = 0;
+            for (FieldSchema field : MessageSchema.forClass(message.getClass()).getFields()) {
+                size += computeFieldDeltaSize(field, previous, message, context);
+            }
+            return size;
+        } finally {
+            context.exitMessage(message);
+        }
+    }
+
+    private int computeFieldDeltaSize(FieldSchema field, Object previous, Object message,
+        SerializationContext context) {
+        Object value = field.getValue(message);
+        Object previousValue = field.getValue(previous);
+        if (Objects.deepEquals(value, previousValue)) {
+            changes.add(UNCHANGED);
+            return 0;
+        }
+        ProtobufType protobufType = field.getProtobufType();
+        boolean repeated = previousValue instanceof Iterable
+            || previousValue != null && PrimitiveArrays.isPrimitiveArray(previousValue);
+        if (field.isPrimitive()) {
+            // Always written, even when they're 0
+            changes.add(CHANGED);
+            return ProtobufSerializer.computeFieldSize(field, message, context);
+        }
+        // Empty strings aren't written either, and repeated strings are lists
+        if (value == null || value instanceof String && ((String) value).isEmpty()) {
+            if (repeated && isEmpty(previousValue)
+                || protobufType == ProtobufType.MAP && ((Map<?, ?>) previousValue).isEmpty()) {
+                // Was empty already
+                changes.add(UNCHANGED);
+                return 0;
+            }
+            if (protobufType == ProtobufType.MESSAGE || protobufType == ProtobufType.MAP || repeated) {
+                throw cantMerge(message, field);
+            }
+            // Written explicitly, since leaving it out would keep the previous value
+            changes.add(CLEARED);
+            return field.getTag().length + computeDefaultSize(protobufType);
+        }
+        if (protobufType == ProtobufType.MAP) {
+            Map<?, ?> entries = changedEntries(message, field, (Map<?, ?>) previousValue, (Map<?, ?>) value);
+            changes.add(entries);
+            return field.getMapEncoder().computeSize(entries, context);
+        }
+        if (repeated && !isEmpty(previousValue)) {
+            // Merging appends to repeated fields
+            throw cantMerge(message, field);
+        }
+        if (protobufType == ProtobufType.MESSAGE && previousValue != null && !(value instanceof Iterable)) {
+            if (previousValue.getClass() != value.getClass()) {
+                throw cantMerge(message, field);
+            }
+            int index = changes.size();
+            changes.add(NESTED);
+            int slot = context.reserveSize();
+            int messageSize = computeDeltaSize(previousValue, value, context);
+            context.recordSize(slot, messageSize);
+            if (messageSize == 0) {
+                // Nothing changed inside it after all, so the write pass skips it
+                changes.subList(index + 1, changes.size()).clear();
+                return 0;
+            }
+            return field.getDelimitedTag().length + ProtobufSerializer.computeLengthDelimitedSize(messageSize);
+        }
+        changes.add(CHANGED);
+        return ProtobufSerializer.computeFieldSize(field, message, context);
+    }
+
+    /**
+     * Entries which were added or changed, as a map entry replaces the one with the same key when merged.
+     */
+    private static Map<?, ?> changedEntries(Object message, FieldSchema field, Map<?, ?> previous,
+        Map<?, ?> current) {
+        if (previous == null) {
+            return current;
+        }
+        for (Object key : previous.keySet()) {
+            if (key != null && !current.containsKey(key)) {
+                throw cantMerge(message, field);
+            }
+        }
+        Map<Object, Object> changed = new LinkedHashMap<>();
+        for (Map.Entry<?, ?> entry : current.entrySet()) {
+            Object key = entry.getKey();
+            if (!previous.containsKey(key) || !Objects.equals(previous.get(key), entry.getValue())) {
+                changed.put(key, entry.getValue());
+            }
+        }
+        return changed;
+    }
+
+    private static boolean isEmpty(Object repeated) {
+        if (repeated instanceof Iterable) {
+            return !((Iterable<?>) repeated).iterator().hasNext();
+        }
+        return Array.getLength(repeated) == 0;
+    }
+
+    /**
+     * Size of the zero encoding of a type's default value, which is all zero bytes.
+     */
+    private static int computeDefaultSize(ProtobufType type) {
+        switch (TypeMapper.getWireType(type)) {
+            case FIXED_32:
+                return 4;
+            case FIXED_64:
+                return 8;
+            default:
+                // A varint 0, or a length prefix of 0
+                return 1;
+        }
+    }
+
+    private static ProtobufSerializationException cantMerge(Object message, FieldSchema field) {
+        return new ProtobufSerializationException("Change to " + message.getClass().getName() + "."
+            + field.getName() + " can't be merged, serialize the full message instead");
+    }
+}
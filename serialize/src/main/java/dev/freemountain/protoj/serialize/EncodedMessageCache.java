@@ -0,0 +1,141 @@
+package dev.freemountain.protoj.serialize;
+
+import dev.freemountain.protoj.api.ProtobufImmutable;
+import dev.freemountain.protoj.api.ProtobufSerializationException;
+import java.io.IOException;
+import java.lang.ref.Reference;
+import java.lang.ref.ReferenceQueue;
+import java.lang.ref.WeakReference;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Encodings of {@link ProtobufImmutable} messages, keyed by identity and held weakly, so every instance is encoded the
+ * first time it's embedded and its bytes are copied into every later parent until it's garbage collected.
+ */
+final class EncodedMessageCache {
+
+    private static final ClassValue<Boolean> immutableClasses = new ClassValue<Boolean>() {
+        @Override
+        protected Boolean computeValue(Class<?> messageClass) {
+            return messageClass.isAnnotationPresent(ProtobufImmutable.class);
+        }
+    };
+
+    private static final ConcurrentHashMap<Key, byte[]> encodings = new ConcurrentHashMap<>();
+    private static final ReferenceQueue<Object> collected = new ReferenceQueue<>();
+
+    private EncodedMessageCache() {
+    }
+
+    static boolean isImmutable(Class<?> messageClass) {
+        return immutableClasses.get(messageClass);
+    }
+
+    /**
+     * Encoding of an immutable message without a key or length prefix, serializing it on the first call.  It's
+     * serialized on its own, but still checked for circular references and depth along the path in the context.
+     * <p>
+     * Later calls copy the cached bytes without entering the message, so its depth is only checked along the path of
+     * the parent which first embedded it, and a shared instance may end up nested deeper than the max depth in
+     * another parent.
+     */
+    static byte[] encode(Object message, SerializationContext context) {
+        Lookup lookup = context.getCacheLookup();
+        lookup.set(message);
+        byte[] encoded = encodings.get(lookup);
+        lookup.set(null);
+        if (encoded != null) {
+            return encoded;
+        }
+        SerializationContext messageContext = new SerializationContext(context);
+        int size = ProtobufSerializer.computeMessageSize(message, messageContext);
+        encoded = new byte[size];
+        ProtoWriter out = ProtoWriter.forArray(encoded, 0);
+        try {
+            ProtobufSerializer.writeMessage(out, message, messageContext);
+        } catch (IndexOutOfBoundsException e) {
+            throw ProtobufSerializer.messageChanged(message, size);
+        } catch (IOException e) {
+            // Array writers don't actually throw
+            throw new ProtobufSerializationException(e.getMessage());
+        }
+        if (out.getBytesWritten() != size) {
+            throw ProtobufSerializer.messageChanged(message, size);
+        }
+        expungeCollected();
+        // Racing threads encode the same bytes, either copy is kept
+        byte[] previous = encodings.putIfAbsent(new Key(message, collected), encoded);
+        return previous != null ? previous : encoded;
+    }
+
+    /**
+     * Number of messages currently cached.
+     */
+    static int size() {
+        expungeCollected();
+        return encodings.size();
+    }
+
+    private static void expungeCollected() {
+        Reference<?> key;
+        while ((key = collected.poll()) != null) {
+            encodings.remove(key);
+        }
+    }
+
+    /**
+     * Reusable key for looking up a message without allocating a reference to it, equal to the {@link Key} of the
+     * same instance.  Only used by the thread owning the context holding it.
+     */
+    static final class Lookup {
+
+        private Object message;
+        private int hash;
+
+        void set(Object message) {
+            this.message = message;
+            this.hash = message != null ? System.identityHashCode(message) : 0;
+        }
+
+        @Override
+        public int hashCode() {
+            return hash;
+        }
+
+        @Override
+        public boolean equals(Object other) {
+            return other instanceof Key && message != null && message == ((Key) other).get();
+        }
+    }
+
+    /**
+     * Weak reference to a message, equal to other references to, and lookups of, the same instance while it's
+     * reachable.
+     */
+    private static final class Key extends WeakReference<Object> {
+
+        private final int hash;
+
+        Key(Object message, ReferenceQueue<Object> queue) {
+            super(message, queue);
+            this.hash = System.identityHashCode(message);
+        }
+
+        @Override
+        public int hashCode() {
+            return hash;
+        }
+
+        @Override
+        public boolean equals(Object other) {
+            if (this == other) {
+                return true;
+            }
+            Object message = get();
+            if (other instanceof Lookup) {
+                return message != null && message == ((Lookup) other).message;
+            }
+            return other instanceof Key && message != null && message == ((Key) other).get();
+        }
+    }
+}
@@ -0,0 +1,208 @@
+package dev.freemountain.protoj.serialize;
+
+import dev.freemountain.protoj.api.ProtobufField;
+import dev.freemountain.protoj.api.ProtobufSerializationException;
+import java.io.IOException;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Cache of the length-prefixed UTF-8 encodings of the values of a {@code STRING} field, for fields whose values
+ * repeat, e.g. service names or status codes.  Cached values are copied into the output instead of being encoded.
+ * Enabled per field with {@link ProtobufField#encodedCacheSize()}, and shared by every message of the class.
+ * <p>
+ * Values are kept in a direct-mapped table, where each value can only live in the slot its hash points to.  A value
+ * only replaces the one in its slot when it's been seen more often recently, going by a small frequency sketch which is
+ * halved periodically, so a stream of one-off values doesn't flush out the hot ones.  Lookups are lock-free, and
+ * concurrent updates to the sketch may lose counts, which only makes admission slightly less accurate.
+ * <p>
+ * Values encoding to more than {@link #MAX_ENCODED_SIZE} bytes are never cached.
+ */
+public final class EncodedStringCache {
+
+    public static final int MAX_ENCODED_SIZE = 256;
+    private static final int MAX_CAPACITY = 1 << 20;
+    // Counters per slot in the sketch, and the number of them a value is counted in
+    private static final int SKETCH_WIDTH = 4;
+    private static final int MAX_FREQUENCY = 15;
+    // Fewest counters per row, so small caches still tell values apart
+    private static final int MIN_SKETCH_ROW = 64;
+    // Counts recorded per slot before the sketch is halved, so it keeps up with changes in the hot values
+    private static final int SAMPLES_PER_SLOT = 10;
+
+    private final Entry[] table;
+    private final int mask;
+    private final byte[] frequencies;
+    private final int sketchMask;
+    private final int sampleSize;
+    private int samples;
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+
+    /**
+     * @param capacity number of values kept, rounded up to a power of two
+     */
+    EncodedStringCache(int capacity) {
+        capacity = Math.min(capacity, MAX_CAPACITY);
+        int tableSize = capacity <= 1 ? 1 : Integer.highestOneBit(capacity - 1) << 1;
+        this.table = new Entry[tableSize];
+        this.mask = tableSize - 1;
+        int sketchRow = Math.max(tableSize, MIN_SKETCH_ROW);
+        this.frequencies = new byte[sketchRow * SKETCH_WIDTH];
+        this.sketchMask = sketchRow - 1;
+        this.sampleSize = sketchRow * SAMPLES_PER_SLOT;
+    }
+
+    /**
+     * Cache of the field, or null if it isn't cached.  Caches are created along with the schema of the class, so
+     * generated serializers share them with reflective serialization.
+     *
+     * @throws ProtobufSerializationException if the schema of the class is invalid, e.g. a field enables caching
+     * without being a {@code STRING}
+     */
+    public static EncodedStringCache forField(Class<?> messageClass, String fieldName) {
+        FieldSchema field = MessageSchema.forClass(messageClass).getField(fieldName);
+        return field != null ? field.getStringCache() : null;
+    }
+
+    /**
+     * Size pass for a value, which counts it and caches its encoding if it's hot enough.
+     *
+     * @return size of the value including its length prefix, see {@link ProtobufSerializer#computeStringSize}
+     */
+    public int computeSize(String value) {
+        int hash = spread(value.hashCode());
+        int frequency = increment(hash);
+        Entry entry = table[hash & mask];
+        if (entry != null && matches(entry, value)) {
+            return entry.encoded.length;
+        }
+        int size = ProtobufSerializer.computeStringSize(value);
+        if (size <= MAX_ENCODED_SIZE && (entry == null || frequency > frequency(spread(entry.value.hashCode())))) {
+            table[hash & mask] = new Entry(value, encode(value, size));
+        }
+        return size;
+    }
+
+    /**
+     * Write pass for a value, copying its cached encoding or encoding it if it isn't cached.
+     */
+    public void write(ProtoWriter out, String value) throws IOException {
+        Entry entry = table[spread(value.hashCode()) & mask];
+        if (entry != null && matches(entry, value)) {
+            hits.increment();
+            out.writeBytes(entry.encoded);
+        } else {
+            misses.increment();
+            out.writeString(value);
+        }
+    }
+
+    /**
+     * Number of values written from the cache.
+     */
+    public long getHitCount() {
+        return hits.sum();
+    }
+
+    /**
+     * Number of values encoded because they weren't cached.
+     */
+    public long getMissCount() {
+        return misses.sum();
+    }
+
+    public double getHitRate() {
+        long hitCount = hits.sum();
+        long total = hitCount + misses.sum();
+        return total == 0 ? 0 : (double) hitCount / total;
+    }
+
+    /**
+     * Number of values currently cached.
+     */
+    public int getSize() {
+        int size = 0;
+        for (Entry entry : table) {
+            if (entry != null) {
+                size++;
+            }
+        }
+        return size;
+    }
+
+    public int getCapacity() {
+        return table.length;
+    }
+
+    private static boolean matches(Entry entry, String value) {
+        return entry.value == value || entry.value.equals(value);
+    }
+
+    /**
+     * Counts the value in the sketch.
+     *
+     * @return its estimated count, including this one
+     */
+    private int increment(int hash) {
+        int frequency = MAX_FREQUENCY;
+        for (int i = 0; i < SKETCH_WIDTH; i++) {
+            int index = counterIndex(hash, i);
+            int count = frequencies[index];
+            if (count < MAX_FREQUENCY) {
+                frequencies[index] = (byte) ++count;
+            }
+            frequency = Math.min(frequency, count);
+        }
+        if (++samples >= sampleSize) {
+            samples = 0;
+            for (int i = 0; i < frequencies.length; i++) {
+                frequencies[i] >>= 1;
+            }
+        }
+        return frequency;
+    }
+
+    private int frequency(int hash) {
+        int frequency = MAX_FREQUENCY;
+        for (int i = 0; i < SKETCH_WIDTH; i++) {
+            frequency = Math.min(frequency, frequencies[counterIndex(hash, i)]);
+        }
+        return frequency;
+    }
+
+    /**
+     * Counter of the value in each row of the sketch, from independently rehashed bits.
+     */
+    private int counterIndex(int hash, int row) {
+        int rowHash = (hash + row) * 0x9E3779B9;
+        rowHash ^= rowHash >>> 16;
+        return row * (sketchMask + 1) + (rowHash & sketchMask);
+    }
+
+    private static int spread(int hash) {
+        hash *= 0x85EBCA6B;
+        return hash ^ (hash >>> 15);
+    }
+
+    private static byte[] encode(String value, int size) {
+        byte[] encoded = new byte[size];
+        try {
+            ProtoWriter.forArray(encoded, 0).writeString(value);
+        } catch (IOException e) {
+            // Array writers don't actually throw
+            throw new ProtobufSerializationException(e.getMessage());
+        }
+        return encoded;
+    }
+
+    private static final class Entry {
+
+        private final String value;
+        private final byte[] encoded;
+
+        Entry(String value, byte[] encoded) {
+            this.value = value;
+            this.encoded = encoded;
+        }
+    }
+}
@@ -0,0 +1,101 @@
+package dev.freemountain.protoj.serialize;
+
+import dev.freemountain.protoj.api.ProtobufEnumValue;
+import dev.freemountain.protoj.api.ProtobufSerializationException;
+import dev.freemountain.protoj.internal.EnumNumbers;
+import java.io.IOException;
+
+/**
+ * Varint encodings of the numbers of every constant of an enum, indexed by ordinal, so {@code ENUM} values are sized
+ * and written with an array lookup.  Numbers come from {@link ProtobufEnumValue}, or else the ordinals.  Built once per
+ * enum and shared by the reflective and generated serializers.
+ */
+public final class EnumTable {
+
+    private static final ClassValue<EnumTable> tables = new ClassValue<EnumTable>() {
+        @Override
+        protected EnumTable computeValue(Class<?> enumClass) {
+            return build(enumClass);
+        }
+    };
+
+    private final Class<?> enumClass;
+    private final byte[][] encodings;
+
+    private EnumTable(Class<?> enumClass, byte[][] encodings) {
+        this.enumClass = enumClass;
+        this.encodings = encodings;
+    }
+
+    /**
+     * @throws ProtobufSerializationException if the class isn't an enum or its numbers are invalid
+     */
+    public static EnumTable forEnum(Class<?> enumClass) {
+        return tables.get(enumClass);
+    }
+
+    /**
+     * Table of the value's own enum, for fields whose enum type isn't known ahead of time.
+     */
+    static EnumTable forValue(Enum<?> value) {
+        return tables.get(value.getDeclaringClass());
+    }
+
+    public int computeSize(Enum<?> value) {
+        return encoding(value).length;
+    }
+
+    public void write(ProtoWriter out, Enum<?> value) throws IOException {
+        out.writeBytes(encoding(value));
+    }
+
+    /**
+     * Size of the packed payload of a repeated field, excluding its key and length prefix.
+     */
+    int computePackedSize(Iterable<?> values) {
+        int size = 0;
+        for (Object value : values) {
+            if (value != null) {
+                size += encoding((Enum<?>) value).length;
+            }
+        }
+        return size;
+    }
+
+    void writePacked(ProtoWriter out, Iterable<?> values) throws IOException {
+        for (Object value : values) {
+            if (value != null) {
+                out.writeBytes(encoding((Enum<?>) value));
+            }
+        }
+    }
+
+    private byte[] encoding(Enum<?> value) {
+        // Constants with a body are subclasses of their enum
+        if (value.getClass() != enumClass && value.getDeclaringClass() != enumClass) {
+            return forValue(value).encodings[value.ordinal()];
+        }
+        return encodings[value.ordinal()];
+    }
+
+    private static EnumTable build(Class<?> enumClass) {
+        int[] numbers;
+        try {
+            numbers = EnumNumbers.forEnum(enumClass);
+        } catch (IllegalArgumentException e) {
+            throw new ProtobufSerializationException(e.getMessage());
+        }
+        byte[][] encodings = new byte[numbers.length][];
+        for (int i = 0; i < numbers.length; i++) {
+            // Negative numbers are sign extended to 10 bytes, like INT32
+            encodings[i] = new byte[ProtobufSerializer.computeVarintSize(numbers[i])];
+            try {
+                ProtoWriter.forArray(encodings[i], 0).writeVarint(numbers[i]);
+            } catch (IOException e) {
+                // Array writers don't actually throw
+                throw new ProtobufSerializationException(e.getMessage());
+            }
+        }
+        return new EnumTable(enumClass, encodings);
+    }
+}
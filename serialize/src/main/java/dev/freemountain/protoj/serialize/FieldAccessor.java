@@ -0,0 +1,340 @@
+package dev.freemountain.protoj.serialize;
+
+import dev.freemountain.protoj.api.ProtobufSerializationException;
+import java.lang.invoke.CallSite;
+import java.lang.invoke.LambdaConversionException;
+import java.lang.invoke.LambdaMetafactory;
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.lang.reflect.Field;
+import java.lang.reflect.Method;
+import java.lang.reflect.Modifier;
+import java.util.function.Function;
+import java.util.function.Predicate;
+import java.util.function.ToDoubleFunction;
+import java.util.function.ToIntFunction;
+import java.util.function.ToLongFunction;
+
+/**
+ * Reads a {@link dev.freemountain.protoj.api.ProtobufField} value from a message without going through
+ * {@link Field#get(Object)} or {@link Method#invoke(Object, Object...)}.
+ * <p>
+ * Getter methods are bound to generated functional interfaces using {@link LambdaMetafactory}, fields (and getters the
+ * metafactory can't link against) are read through type-adapted {@link MethodHandle}s.  Accessors for primitive
+ * fields and getters have a primitive-specialized reader, so e.g. reading an {@code int} never allocates an
+ * {@link Integer}.
+ */
+abstract class FieldAccessor {
+
+    private static final MethodHandles.Lookup lookup = MethodHandles.lookup();
+
+    /**
+     * Reads the value, boxing it if it's a primitive.
+     */
+    abstract Object get(Object message);
+
+    /**
+     * Primitive type this accessor can read without boxing, or null for reference types.
+     */
+    Class<?> getPrimitiveType() {
+        return null;
+    }
+
+    int getInt(Object message) {
+        throw new UnsupportedOperationException();
+    }
+
+    long getLong(Object message) {
+        throw new UnsupportedOperationException();
+    }
+
+    float getFloat(Object message) {
+        throw new UnsupportedOperationException();
+    }
+
+    double getDouble(Object message) {
+        throw new UnsupportedOperationException();
+    }
+
+    boolean getBoolean(Object message) {
+        throw new UnsupportedOperationException();
+    }
+
+    static FieldAccessor forField(Field field) throws IllegalAccessException {
+        MethodHandle handle = lookup.unreflectGetter(field);
+        if (Modifier.isStatic(field.getModifiers())) {
+            handle = MethodHandles.dropArguments(handle, 0, Object.class);
+        }
+        return fromHandle(handle, field.getType());
+    }
+
+    static FieldAccessor forGetter(Method getter) throws IllegalAccessException {
+        MethodHandle handle = lookup.unreflect(getter);
+        Class<?> valueType = getter.getReturnType();
+        if (Modifier.isStatic(getter.getModifiers())) {
+            return fromHandle(MethodHandles.dropArguments(handle, 0, Object.class), valueType);
+        }
+        if (isVisible(getter.getDeclaringClass())) {
+            try {
+                return fromLambda(handle, getter.getDeclaringClass(), valueType);
+            } catch (LambdaConversionException | RuntimeException e) {
+                // Fall through to the method handle based accessor
+            }
+        }
+        return fromHandle(handle, valueType);
+    }
+
+    /**
+     * Generated lambda classes resolve the getter's class through this library's classloader, so they can only be used
+     * for classes visible from it.
+     */
+    private static boolean isVisible(Class<?> messageClass) {
+        try {
+            return Class.forName(messageClass.getName(), false, FieldAccessor.class.getClassLoader()) == messageClass;
+        } catch (ClassNotFoundException | LinkageError e) {
+            return false;
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    private static FieldAccessor fromLambda(MethodHandle getter, Class<?> messageClass, Class<?> valueType)
+        throws LambdaConversionException {
+        if (valueType == int.class) {
+            return new IntAccessor(
+                (ToIntFunction<Object>) bind(getter, messageClass, ToIntFunction.class, "applyAsInt", int.class));
+        } else if (valueType == long.class) {
+            return new LongAccessor(
+                (ToLongFunction<Object>) bind(getter, messageClass, ToLongFunction.class, "applyAsLong", long.class));
+        } else if (valueType == float.class) {
+            return new FloatAccessor(
+                (ToFloatFunction<Object>) bind(getter, messageClass, ToFloatFunction.class, "applyAsFloat",
+                    float.class));
+        } else if (valueType == double.class) {
+            return new DoubleAccessor(
+                (ToDoubleFunction<Object>) bind(getter, messageClass, ToDoubleFunction.class, "applyAsDouble",
+                    double.class));
+        } else if (valueType == boolean.class) {
+            return new BooleanAccessor(
+                (Predicate<Object>) bind(getter, messageClass, Predicate.class, "test", boolean.class));
+        }
+        return new ObjectAccessor(
+            (Function<Object, Object>) bind(getter, messageClass, Function.class, "apply", Object.class));
+    }
+
+    private static Object bind(MethodHandle getter, Class<?> messageClass, Class<?> functionType, String functionMethod,
+        Class<?> returnType) throws LambdaConversionException {
+        CallSite site = LambdaMetafactory.metafactory(lookup, functionMethod, MethodType.methodType(functionType),
+            MethodType.methodType(returnType, Object.class), getter, MethodType.methodType(returnType, messageClass));
+        try {
+            return site.getTarget().invoke();
+        } catch (Throwable t) {
+            throw propagate(t);
+        }
+    }
+
+    private static FieldAccessor fromHandle(MethodHandle getter, Class<?> valueType) {
+        if (valueType == int.class) {
+            MethodHandle handle = getter.asType(MethodType.methodType(int.class, Object.class));
+            return new IntAccessor(message -> {
+                try {
+                    return (int) handle.invokeExact(message);
+                } catch (Throwable t) {
+                    throw propagate(t);
+                }
+            });
+        } else if (valueType == long.class) {
+            MethodHandle handle = getter.asType(MethodType.methodType(long.class, Object.class));
+            return new LongAccessor(message -> {
+                try {
+                    return (long) handle.invokeExact(message);
+                } catch (Throwable t) {
+                    throw propagate(t);
+                }
+            });
+        } else if (valueType == float.class) {
+            MethodHandle handle = getter.asType(MethodType.methodType(float.class, Object.class));
+            return new FloatAccessor(message -> {
+                try {
+                    return (float) handle.invokeExact(message);
+                } catch (Throwable t) {
+                    throw propagate(t);
+                }
+            });
+        } else if (valueType == double.class) {
+            MethodHandle handle = getter.asType(MethodType.methodType(double.class, Object.class));
+            return new DoubleAccessor(message -> {
+                try {
+                    return (double) handle.invokeExact(message);
+                } catch (Throwable t) {
+                    throw propagate(t);
+                }
+            });
+        } else if (valueType == boolean.class) {
+            MethodHandle handle = getter.asType(MethodType.methodType(boolean.class, Object.class));
+            return new BooleanAccessor(message -> {
+                try {
+                    return (boolean) handle.invokeExact(message);
+                } catch (Throwable t) {
+                    throw propagate(t);
+                }
+            });
+        }
+        MethodHandle handle = getter.asType(MethodType.methodType(Object.class, Object.class));
+        return new ObjectAccessor(message -> {
+            try {
+                return (Object) handle.invokeExact(message);
+            } catch (Throwable t) {
+                throw propagate(t);
+            }
+        });
+    }
+
+    private static RuntimeException propagate(Throwable t) {
+        if (t instanceof RuntimeException) {
+            return (RuntimeException) t;
+        } else if (t instanceof Error) {
+            throw (Error) t;
+        }
+        return new ProtobufSerializationException(t.getMessage(), t);
+    }
+
+    interface ToFloatFunction<T> {
+
+        float applyAsFloat(T value);
+    }
+
+    private static final class ObjectAccessor extends FieldAccessor {
+
+        private final Function<Object, Object> reader;
+
+        ObjectAccessor(Function<Object, Object> reader) {
+            this.reader = reader;
+        }
+
+        @Override
+        Object get(Object message) {
+            return reader.apply(message);
+        }
+    }
+
+    private static final class IntAccessor extends FieldAccessor {
+
+        private final ToIntFunction<Object> reader;
+
+        IntAccessor(ToIntFunction<Object> reader) {
+            this.reader = reader;
+        }
+
+        @Override
+        Object get(Object message) {
+            return reader.applyAsInt(message);
+        }
+
+        @Override
+        Class<?> getPrimitiveType() {
+            return int.class;
+        }
+
+        @Override
+        int getInt(Object message) {
+            return reader.applyAsInt(message);
+        }
+    }
+
+    private static final class LongAccessor extends FieldAccessor {
+
+        private final ToLongFunction<Object> reader;
+
+        LongAccessor(ToLongFunction<Object> reader) {
+            this.reader = reader;
+        }
+
+        @Override
+        Object get(Object message) {
+            return reader.applyAsLong(message);
+        }
+
+        @Override
+        Class<?> getPrimitiveType() {
+            return long.class;
+        }
+
+        @Override
+        long getLong(Object message) {
+            return reader.applyAsLong(message);
+        }
+    }
+
+    private static final class FloatAccessor extends FieldAccessor {
+
+        private final ToFloatFunction<Object> reader;
+
+        FloatAccessor(ToFloatFunction<Object> reader) {
+            this.reader = reader;
+        }
+
+        @Override
+        Object get(Object message) {
+            return reader.applyAsFloat(message);
+        }
+
+        @Override
+        Class<?> getPrimitiveType() {
+            return float.class;
+        }
+
+        @Override
+        float getFloat(Object message) {
+            return reader.applyAsFloat(message);
+        }
+    }
+
+    private static final class DoubleAccessor extends FieldAccessor {
+
+        private final ToDoubleFunction<Object> reader;
+
+        DoubleAccessor(ToDoubleFunction<Object> reader) {
+            this.reader = reader;
+        }
+
+        @Override
+        Object get(Object message) {
+            return reader.applyAsDouble(message);
+        }
+
+        @Override
+        Class<?> getPrimitiveType() {
+            return double.class;
+        }
+
+        @Override
+        double getDouble(Object message) {
+            return reader.applyAsDouble(message);
+        }
+    }
+
+    private static final class BooleanAccessor extends FieldAccessor {
+
+        private final Predicate<Object> reader;
+
+        BooleanAccessor(Predicate<Object> reader) {
+            this.reader = reader;
+        }
+
+        @Override
+        Object get(Object message) {
+            return reader.test(message);
+        }
+
+        @Override
+        Class<?> getPrimitiveType() {
+            return boolean.class;
+        }
+
+        @Override
+        boolean getBoolean(Object message) {
+            return reader.test(message);
+        }
+    }
+}
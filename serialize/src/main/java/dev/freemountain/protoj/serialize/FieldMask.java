@@ -0,0 +1,188 @@
+package dev.freemountain.protoj.serialize;
+
+import dev.freemountain.protoj.api.ProtobufSerializationException;
+import dev.freemountain.protoj.api.ProtobufType;
+import dev.freemountain.protoj.internal.SchemaRules;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Selection of the fields to serialize, by paths of field numbers separated by dots, e.g. {@code "1"} for field 1 of
+ * the message, or {@code "3.2"} for field 2 of the message in its field 3.  Selecting a {@code MESSAGE} field without
+ * going into it selects all of it, and paths into a repeated message field apply to each of its messages.
+ * <p>
+ * Fields which aren't selected are never read, so their getters aren't called.  Masks are immutable and thread-safe,
+ * and resolve the selected fields once per class, so they're meant to be built once and reused.  Messages are
+ * serialized reflectively down to the last level of the paths, and any generated serializers only below that.
+ */
+public final class FieldMask {
+
+    private static final int[] NO_FIELDS = new int[0];
+    private static final FieldMask[] NO_SUBMASKS = new FieldMask[0];
+
+    // Selected field numbers in ascending order, and the mask of the fields selected in each, or null for all of them
+    private final int[] fieldNumbers;
+    private final FieldMask[] submasks;
+
+    private final ClassValue<Selection[]> selections = new ClassValue<Selection[]>() {
+        @Override
+        protected Selection[] computeValue(Class<?> messageClass) {
+            return select(messageClass);
+        }
+    };
+
+    private FieldMask(int[] fieldNumbers, FieldMask[] submasks) {
+        this.fieldNumbers = fieldNumbers;
+        this.submasks = submasks;
+    }
+
+    /**
+     * Mask of the fields on any of the paths.  Paths inside a field which is also selected as a whole are redundant.
+     *
+     * @throws IllegalArgumentException if a path isn't made of valid field numbers
+     */
+    public static FieldMask of(String... paths) {
+        Node root = new Node();
+        for (String path : paths) {
+            Node node = root;
+            String[] fieldNumbers = path.split("\\.", -1);
+            for (int i = 0; i < fieldNumbers.length; i++) {
+                int fieldNumber = parseFieldNumber(path, fieldNumbers[i]);
+                if (node.children == null) {
+                    // Already selected as a whole
+                    break;
+                }
+                Node child = node.children.computeIfAbsent(fieldNumber, n -> new Node());
+                if (i == fieldNumbers.length - 1) {
+                    child.children = null;
+                }
+                node = child;
+            }
+        }
+        return root.toMask();
+    }
+
+    public boolean includes(int fieldNumber) {
+        return Arrays.binarySearch(fieldNumbers, fieldNumber) >= 0;
+    }
+
+    /**
+     * Mask of the fields selected inside a field, or null if it's selected as a whole or not at all.
+     */
+    public FieldMask getSubmask(int fieldNumber) {
+        int index = Arrays.binarySearch(fieldNumbers, fieldNumber);
+        return index >= 0 ? submasks[index] : null;
+    }
+
+    /**
+     * Selected fields of the class, in the order they're serialized.
+     *
+     * @throws ProtobufSerializationException if a path goes into a field of the class which isn't a {@code MESSAGE}
+     */
+    Selection[] getSelections(Class<?> messageClass) {
+        return selections.get(messageClass);
+    }
+
+    /**
+     * The paths of the mask, in ascending order.
+     */
+    @Override
+    public String toString() {
+        List<String> paths = new ArrayList<>();
+        addPaths("", paths);
+        return paths.toString();
+    }
+
+    private void addPaths(String prefix, List<String> paths) {
+        for (int i = 0; i < fieldNumbers.length; i++) {
+            String path = prefix + fieldNumbers[i];
+            if (submasks[i] == null) {
+                paths.add(path);
+            } else {
+                submasks[i].addPaths(path + ".", paths);
+            }
+        }
+    }
+
+    private Selection[] select(Class<?> messageClass) {
+        List<Selection> selected = new ArrayList<>();
+        // Field numbers the class doesn't have are ignored, e.g. fields of other message types in the same position
+        for (FieldSchema field : MessageSchema.forClass(messageClass).getFields()) {
+            int index = Arrays.binarySearch(fieldNumbers, field.getFieldNumber());
+            if (index < 0) {
+                continue;
+            }
+            FieldMask submask = submasks[index];
+            if (submask != null && field.getProtobufType() != ProtobufType.MESSAGE) {
+                throw new ProtobufSerializationException("Field mask selects fields inside "
+                    + messageClass.getName() + "." + field.getName() + ", which isn't a MESSAGE");
+            }
+            selected.add(new Selection(field, submask));
+        }
+        return selected.toArray(new Selection[0]);
+    }
+
+    private static int parseFieldNumber(String path, String fieldNumber) {
+        int number;
+        try {
+            number = Integer.parseInt(fieldNumber);
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException("Invalid field mask path " + path);
+        }
+        if (number < SchemaRules.MIN_FIELD_NUMBER || number > SchemaRules.MAX_FIELD_NUMBER) {
+            throw new IllegalArgumentException("Invalid field number " + number + " in field mask path " + path);
+        }
+        return number;
+    }
+
+    /**
+     * A selected field, and the mask of the fields selected inside it if it's only selected in part.
+     */
+    static final class Selection {
+
+        private final FieldSchema field;
+        private final FieldMask submask;
+
+        Selection(FieldSchema field, FieldMask submask) {
+            this.field = field;
+            this.submask = submask;
+        }
+
+        FieldSchema getField() {
+            return field;
+        }
+
+        /**
+         * Null if the field is selected as a whole.
+         */
+        FieldMask getSubmask() {
+            return submask;
+        }
+    }
+
+    /**
+     * Field of a mask being parsed, whose children are null once it's selected as a whole.
+     */
+    private static final class Node {
+
+        private Map<Integer, Node> children = new TreeMap<>();
+
+        FieldMask toMask() {
+            if (children.isEmpty()) {
+                return new FieldMask(NO_FIELDS, NO_SUBMASKS);
+            }
+            int[] fieldNumbers = new int[children.size()];
+            FieldMask[] submasks = new FieldMask[children.size()];
+            int i = 0;
+            for (Map.Entry<Integer, Node> child : children.entrySet()) {
+                fieldNumbers[i] = child.getKey();
+                submasks[i] = child.getValue().children == null ? null : child.getValue().toMask();
+                i++;
+            }
+            return new FieldMask(fieldNumbers, submasks);
+        }
+    }
+}
@@ -0,0 +1,126 @@
+package dev.freemountain.protoj.serialize;
+
+import dev.freemountain.protoj.api.ProtobufType;
+
+/**
+ * Resolved description of a single {@link dev.freemountain.protoj.api.ProtobufField}, including its accessor and the
+ * pre-encoded key bytes written in front of its values.
+ */
+final class FieldSchema {
+
+    private final String name;
+    private final FieldAccessor accessor;
+    private final boolean primitive;
+    private final int fieldNumber;
+    private final ProtobufType protobufType;
+    private final byte[] tag;
+    private final byte[] delimitedTag;
+    private final EncodedStringCache stringCache;
+    private final EnumTable enumTable;
+    private final MapEncoder mapEncoder;
+
+    FieldSchema(String name, FieldAccessor accessor, int fieldNumber, ProtobufType protobufType, byte[] tag,
+        byte[] delimitedTag, EncodedStringCache stringCache, EnumTable enumTable, MapEncoder mapEncoder) {
+        this.name = name;
+        this.accessor = accessor;
+        this.primitive = accessor.getPrimitiveType() != null && accessor.getPrimitiveType() == javaType(protobufType);
+        this.fieldNumber = fieldNumber;
+        this.protobufType = protobufType;
+        this.tag = tag;
+        this.delimitedTag = delimitedTag;
+        this.stringCache = stringCache;
+        this.enumTable = enumTable;
+        this.mapEncoder = mapEncoder;
+    }
+
+    /**
+     * Primitive Java type used to hold values of the given type, or null if it isn't held in a primitive.
+     */
+    static Class<?> javaType(ProtobufType protobufType) {
+        switch (protobufType) {
+            case INT32:
+            case UINT32:
+            case SINT32:
+            case SFIXED32:
+            case FIXED32:
+                return int.class;
+            case INT64:
+            case UINT64:
+            case SINT64:
+            case SFIXED64:
+            case FIXED64:
+                return long.class;
+            case FLOAT:
+                return float.class;
+            case DOUBLE:
+                return double.class;
+            case BOOL:
+                return boolean.class;
+            default:
+                return null;
+        }
+    }
+
+    Object getValue(Object message) {
+        return accessor.get(message);
+    }
+
+    FieldAccessor getAccessor() {
+        return accessor;
+    }
+
+    /**
+     * Whether the value is a primitive of the Java type matching {@link #getProtobufType()}, and can be read through
+     * the accessor's primitive reader without boxing.
+     */
+    boolean isPrimitive() {
+        return primitive;
+    }
+
+    String getName() {
+        return name;
+    }
+
+    int getFieldNumber() {
+        return fieldNumber;
+    }
+
+    ProtobufType getProtobufType() {
+        return protobufType;
+    }
+
+    /**
+     * Key for a single value using the wire type of this field's {@link ProtobufType}.
+     */
+    byte[] getTag() {
+        return tag;
+    }
+
+    /**
+     * Key using the length-delimited wire type, used for embedded messages and packed repeated values.
+     */
+    byte[] getDelimitedTag() {
+        return delimitedTag;
+    }
+
+    /**
+     * Cache of encoded values for a {@code STRING} field, or null if it isn't cached.
+     */
+    EncodedStringCache getStringCache() {
+        return stringCache;
+    }
+
+    /**
+     * Table of the declared enum type of an {@code ENUM} field, or null if it's only known from the values.
+     */
+    EnumTable getEnumTable() {
+        return enumTable;
+    }
+
+    /**
+     * Encoder of the entries of a {@code MAP} field, or null for other fields.
+     */
+    MapEncoder getMapEncoder() {
+        return mapEncoder;
+    }
+}
@@ -0,0 +1,67 @@
+package dev.freemountain.protoj.serialize;
+
+import dev.freemountain.protoj.internal.SchemaRules;
+import java.util.Optional;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Lookup of compile-time generated {@link MessageSerializer}s.  The lookup, including a miss, happens once per class.
+ */
+final class GeneratedSerializers {
+
+    private static final Logger logger = LoggerFactory.getLogger(GeneratedSerializers.class);
+
+    private static final ClassValue<Optional<MessageSerializer<Object>>> serializers =
+        new ClassValue<Optional<MessageSerializer<Object>>>() {
+            @Override
+            protected Optional<MessageSerializer<Object>> computeValue(Class<?> messageClass) {
+                return Optional.ofNullable(load(messageClass));
+            }
+        };
+
+    private GeneratedSerializers() {
+        throw new RuntimeException("You shouldn't be here");
+    }
+
+    /**
+     * Generated serializer for the class, or null if there isn't one.
+     */
+    static MessageSerializer<Object> forClass(Class<?> messageClass) {
+        return serializers.get(messageClass).orElse(null);
+    }
+
+    /**
+     * {@code com.example.Outer$Inner} is served by {@code com.example.Outer_InnerProtobufSerializer}.
+     */
+    static String serializerClassName(Class<?> messageClass) {
+        String packagePrefix = messageClass.getPackage() == null ? "" : messageClass.getPackage().getName() + ".";
+        String nestedName = messageClass.getName().substring(packagePrefix.length()).replace('$', '_');
+        return packagePrefix + nestedName + SchemaRules.SERIALIZER_SUFFIX;
+    }
+
+    @SuppressWarnings("unchecked")
+    private static MessageSerializer<Object> load(Class<?> messageClass) {
+        if (messageClass.isAnonymousClass() || messageClass.isLocalClass()) {
+            return null;
+        }
+        String className = serializerClassName(messageClass);
+        Class<?> serializerClass;
+        try {
+            serializerClass = Class.forName(className, true, messageClass.getClassLoader());
+        } catch (ClassNotFoundException e) {
+            return null;
+        }
+        if (!MessageSerializer.class.isAssignableFrom(serializerClass)) {
+            logger.warn("Ignoring generated serializer class={} which doesn't implement {}", className,
+                MessageSerializer.class.getName());
+            return null;
+        }
+        try {
+            return (MessageSerializer<Object>) serializerClass.getConstructor().newInstance();
+        } catch (ReflectiveOperationException e) {
+            logger.warn("Ignoring generated serializer class={} error={}", className, e.getMessage());
+            return null;
+        }
+    }
+}
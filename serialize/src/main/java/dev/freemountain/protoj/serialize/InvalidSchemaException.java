@@ -0,0 +1,25 @@
+package dev.freemountain.protoj.serialize;
+
+import dev.freemountain.protoj.api.ProtobufSerializationException;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Thrown when message classes have invalid fields, listing every problem found rather than just the first.
+ */
+final class InvalidSchemaException extends ProtobufSerializationException {
+
+    private final List<String> problems;
+
+    InvalidSchemaException(List<String> problems) {
+        super(problems.size() + " invalid message field(s):\n  " + String.join("\n  ", problems));
+        this.problems = Collections.unmodifiableList(problems);
+    }
+
+    /**
+     * Problems found, one per invalid field.
+     */
+    List<String> getProblems() {
+        return problems;
+    }
+}
@@ -0,0 +1,144 @@
+package dev.freemountain.protoj.serialize;
+
+import dev.freemountain.protoj.api.ProtobufField;
+import dev.freemountain.protoj.api.ProtobufSerializationException;
+import dev.freemountain.protoj.api.ProtobufType;
+import dev.freemountain.protoj.internal.TypeMapper;
+import java.io.IOException;
+import java.util.Map;
+
+/**
+ * Encodes a {@code MAP} field straight from the entries of a {@link Map}.  On the wire a map is a repeated embedded
+ * message per entry, holding the key as field 1 and the value as field 2, and entries are sized and written inline
+ * while iterating over the map, without an entry object per key.  Built once per field from
+ * {@link ProtobufField#mapKeyType()} and {@link ProtobufField#mapValueType()}, and shared by the reflective and
+ * generated serializers.
+ * <p>
+ * Entries with a null key are skipped, and null values are left out of their entry, which decodes as the default
+ * value.  Embedded messages without any encoded fields are left out the same way.
+ */
+public final class MapEncoder {
+
+    private static final int KEY_FIELD_NUMBER = 1;
+    private static final int VALUE_FIELD_NUMBER = 2;
+
+    private final byte[] tag;
+    private final ProtobufType keyType;
+    private final ProtobufType valueType;
+    private final byte[] keyTag;
+    private final byte[] valueTag;
+    // Table of the declared enum type of ENUM values, or null if it's only known from the values
+    private final EnumTable valueEnumTable;
+
+    MapEncoder(int fieldNumber, ProtobufType keyType, ProtobufType valueType, EnumTable valueEnumTable) {
+        this.tag = encodeTag(fieldNumber, ProtobufType.MAP);
+        this.keyType = keyType;
+        this.valueType = valueType;
+        this.keyTag = encodeTag(KEY_FIELD_NUMBER, keyType);
+        this.valueTag = encodeTag(VALUE_FIELD_NUMBER, valueType);
+        this.valueEnumTable = valueEnumTable;
+    }
+
+    /**
+     * Encoder of the field, or null if it isn't a {@code MAP}.  Encoders are created along with the schema of the
+     * class.
+     *
+     * @throws ProtobufSerializationException if the schema of the class is invalid, e.g. a {@code MAP} field has
+     * invalid key or value types
+     */
+    public static MapEncoder forField(Class<?> messageClass, String fieldName) {
+        FieldSchema field = MessageSchema.forClass(messageClass).getField(fieldName);
+        return field != null ? field.getMapEncoder() : null;
+    }
+
+    /**
+     * Size of every entry of the map, including their keys and length prefixes.  The sizes of embedded message values
+     * are recorded in the context like those of any other embedded message.
+     */
+    public int computeSize(Map<?, ?> map, SerializationContext context) {
+        int size = 0;
+        for (Map.Entry<?, ?> entry : map.entrySet()) {
+            Object key = entry.getKey();
+            if (key == null) {
+                continue;
+            }
+            int entrySize = keyTag.length + ProtobufSerializer.computeValueSize(keyType, key);
+            Object value = entry.getValue();
+            if (value != null) {
+                if (valueType == ProtobufType.MESSAGE) {
+                    entrySize += ProtobufSerializer.computeEmbeddedMessageSize(valueTag.length, value, context);
+                } else {
+                    entrySize += valueTag.length + computeValueSize(value);
+                }
+            }
+            size += tag.length + ProtobufSerializer.computeLengthDelimitedSize(entrySize);
+        }
+        return size;
+    }
+
+    /**
+     * Writes every entry of the map, after {@link #computeSize} was run for it with the same context.
+     */
+    public void write(ProtoWriter out, Map<?, ?> map, SerializationContext context) throws IOException {
+        for (Map.Entry<?, ?> entry : map.entrySet()) {
+            Object key = entry.getKey();
+            if (key == null) {
+                continue;
+            }
+            Object value = entry.getValue();
+            int keySize = ProtobufSerializer.computeValueSize(keyType, key);
+            int entrySize = keyTag.length + keySize;
+            int messageSize = 0;
+            if (value != null) {
+                if (valueType == ProtobufType.MESSAGE) {
+                    messageSize = context.nextSize();
+                    if (messageSize > 0) {
+                        entrySize += valueTag.length + ProtobufSerializer.computeLengthDelimitedSize(messageSize);
+                    }
+                } else {
+                    entrySize += valueTag.length + computeValueSize(value);
+                }
+            }
+            out.writeTag(tag);
+            out.writeVarint(entrySize);
+            out.writeTag(keyTag);
+            ProtobufSerializer.append(out, keyType, key);
+            if (value == null) {
+                continue;
+            }
+            if (valueType == ProtobufType.MESSAGE) {
+                if (messageSize > 0) {
+                    out.writeTag(valueTag);
+                    out.writeVarint(messageSize);
+                    ProtobufSerializer.writeEmbeddedMessage(out, value, messageSize, context);
+                }
+            } else {
+                out.writeTag(valueTag);
+                if (valueEnumTable != null) {
+                    valueEnumTable.write(out, (Enum<?>) value);
+                } else {
+                    ProtobufSerializer.append(out, valueType, value);
+                }
+            }
+        }
+    }
+
+    private int computeValueSize(Object value) {
+        return valueEnumTable != null ? valueEnumTable.computeSize((Enum<?>) value)
+            : ProtobufSerializer.computeValueSize(valueType, value);
+    }
+
+    private static byte[] encodeTag(int fieldNumber, ProtobufType type) {
+        // Embedded messages are always keyed as length-delimited
+        ProtobufType tagType = type == ProtobufType.MESSAGE ? ProtobufType.BYTES : type;
+        int key = (fieldNumber << 3) | TypeMapper.getWireType(tagType).getWireTypeId();
+        byte[] tag = new byte[ProtobufSerializer.computeVarintSize(key)];
+        try {
+            ProtoWriter.forArray(tag, 0).writeVarint(key);
+        } catch (IOException e) {
+            // Array writers don't actually throw
+            throw new ProtobufSerializationException(e.getMessage());
+        }
+        return tag;
+    }
+}
@@ -0,0 +1,117 @@
+package dev.freemountain.protoj.serialize;
+
+import java.io.Closeable;
+import java.io.Flushable;
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * Appends messages to a file as a log of length-delimited records, each a varint length prefix followed by the
+ * encoded message.  This is the framing protobuf's {@code writeDelimitedTo} and {@code parseDelimitedFrom} use, so logs
+ * can be replayed by either side.
+ * <p>
+ * Records are encoded straight into a single reused chunk which is written to the channel whenever it fills up, so
+ * appending doesn't allocate per message or issue a write per record.  Records only reach the channel when the chunk
+ * fills up or on {@link #flush()} and {@link #close()}, and neither forces them to the storage device.
+ * <p>
+ * Writers aren't thread-safe.  A message which fails to serialize part way, e.g. because it changed while being
+ * written, is dropped from the chunk if none of its record was written to the channel yet.  Otherwise the rest of the
+ * log couldn't be framed, so the writer fails every later {@link #append} and {@link #flush()}, and {@link #close()}
+ * only closes the channel.
+ */
+public final class MessageLogWriter implements Closeable, Flushable {
+
+    public static final int DEFAULT_CHUNK_SIZE = 64 * 1024;
+    // Memoized sizes are ints
+    private static final int MAX_RETAINED_SIZES = SerializerPool.DEFAULT_MAX_RETAINED_SIZE / Integer.BYTES;
+
+    private final FileChannel channel;
+    private final ProtoWriter out;
+    private final SerializationContext context = new SerializationContext();
+    private long bytesWritten;
+    // Set once part of a record which failed was written to the channel
+    private boolean failed;
+
+    /**
+     * Writes records from the channel's position, or its end if it was opened for appending.
+     */
+    public MessageLogWriter(FileChannel channel) {
+        this(channel, DEFAULT_CHUNK_SIZE);
+    }
+
+    public MessageLogWriter(FileChannel channel, int chunkSize) {
+        this.channel = channel;
+        this.out = ProtoWriter.forChannel(channel, chunkSize);
+    }
+
+    /**
+     * Opens the file for appending, creating it if it doesn't exist.
+     */
+    public static MessageLogWriter open(Path path) throws IOException {
+        return new MessageLogWriter(
+            FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.APPEND));
+    }
+
+    /**
+     * Appends the message as a single record.
+     *
+     * @return number of bytes in the record, including its length prefix
+     */
+    public <T> int append(T message) throws IOException {
+        checkNotFailed();
+        context.reset(MAX_RETAINED_SIZES);
+        int size = ProtobufSerializer.computeTopLevelSize(message, context);
+        int recordStart = out.getBytesWritten();
+        try {
+            out.writeUInt32(size);
+            ProtobufSerializer.write(message, out, size, context);
+        } catch (RuntimeException | IOException e) {
+            // The channel may hold part of the record if writing to it failed
+            if (e instanceof IOException || !out.rollBack(recordStart)) {
+                failed = true;
+            }
+            throw e;
+        }
+        int recordSize = ProtobufSerializer.computeUInt32Size(size) + size;
+        bytesWritten += recordSize;
+        return recordSize;
+    }
+
+    /**
+     * Number of bytes appended through this writer, whether flushed or not.
+     */
+    public long getBytesWritten() {
+        return bytesWritten;
+    }
+
+    /**
+     * Writes the buffered records to the channel.
+     */
+    @Override
+    public void flush() throws IOException {
+        checkNotFailed();
+        out.flush();
+    }
+
+    /**
+     * Flushes the buffered records and closes the channel.
+     */
+    @Override
+    public void close() throws IOException {
+        try {
+            if (!failed) {
+                flush();
+            }
+        } finally {
+            channel.close();
+        }
+    }
+
+    private void checkNotFailed() throws IOException {
+        if (failed) {
+            throw new IOException("Log is missing the end of a record which failed to serialize");
+        }
+    }
+}
@@ -0,0 +1,270 @@
+package dev.freemountain.protoj.serialize;
+
+import dev.freemountain.protoj.api.ProtobufField;
+import dev.freemountain.protoj.api.ProtobufSerializationException;
+import dev.freemountain.protoj.api.ProtobufType;
+import dev.freemountain.protoj.internal.SchemaRules;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.lang.invoke.MethodType;
+import java.lang.reflect.Field;
+import java.lang.reflect.Method;
+import java.lang.reflect.ParameterizedType;
+import java.lang.reflect.Type;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Serialization plan for a message class.  Built once per class from its {@link ProtobufField} annotations and shared
+ * by every thread serializing messages of that class, so steady-state serialization does no annotation or member
+ * lookups.
+ */
+final class MessageSchema {
+
+    /*
+     * ClassValue keeps the plan reachable only as long as the class itself, so schemas don't pin classloaders.  Failed
+     * builds are not cached and will throw again on the next lookup.
+     */
+    private static final ClassValue<MessageSchema> schemas = new ClassValue<MessageSchema>() {
+        @Override
+        protected MessageSchema computeValue(Class<?> messageClass) {
+            return build(messageClass);
+        }
+    };
+
+    private final Class<?> messageClass;
+    private final FieldSchema[] fields;
+    private final List<String> typeMismatches;
+
+    private MessageSchema(Class<?> messageClass, FieldSchema[] fields, List<String> typeMismatches) {
+        this.messageClass = messageClass;
+        this.fields = fields;
+        this.typeMismatches = typeMismatches;
+    }
+
+    static MessageSchema forClass(Class<?> messageClass) {
+        return schemas.get(messageClass);
+    }
+
+    Class<?> getMessageClass() {
+        return messageClass;
+    }
+
+    /**
+     * Serializable fields in declaration order.
+     */
+    FieldSchema[] getFields() {
+        return fields;
+    }
+
+    /**
+     * Fields whose Java type can't hold values of their {@link ProtobufType}.  They only fail once a value is
+     * serialized, so they don't stop the schema from being built, and are reported by {@link ProtobufSchemaRegistry}.
+     */
+    List<String> getTypeMismatches() {
+        return typeMismatches;
+    }
+
+    /**
+     * Field declared under the given Java name, or null if there's no such serializable field.
+     */
+    FieldSchema getField(String name) {
+        for (FieldSchema field : fields) {
+            if (field.getName().equals(name)) {
+                return field;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Checks every field before building the plan, so all problems of the class are reported at once.
+     *
+     * @throws InvalidSchemaException listing every invalid field, along with any type mismatches
+     */
+    private static MessageSchema build(Class<?> messageClass) {
+        String className = messageClass.getName();
+        List<FieldSchema> fields = new ArrayList<>();
+        List<String> problems = new ArrayList<>();
+        List<String> typeMismatches = new ArrayList<>();
+        Set<Integer> visitedFieldNumbers = new HashSet<>();
+        for (Field field : messageClass.getDeclaredFields()) {
+            ProtobufField fieldAnnotation = field.getAnnotation(ProtobufField.class);
+            if (fieldAnnotation == null) {
+                continue;
+            }
+            String fieldName = className + "." + field.getName();
+            int problemCount = problems.size();
+            ProtobufType protobufType = fieldAnnotation.protobufType();
+            int fieldNumber = fieldAnnotation.fieldNumber();
+            if (fieldNumber < SchemaRules.MIN_FIELD_NUMBER || fieldNumber > SchemaRules.MAX_FIELD_NUMBER) {
+                problems.add(fieldName + " has invalid field number " + fieldNumber);
+            } else if (!visitedFieldNumbers.add(fieldNumber)) {
+                // Ensure field numbers are unique
+                problems.add(fieldName + " has duplicate field number " + fieldNumber);
+            }
+            int encodedCacheSize = fieldAnnotation.encodedCacheSize();
+            if (encodedCacheSize != 0 && (protobufType != ProtobufType.STRING || encodedCacheSize < 0)) {
+                problems.add(fieldName + " has invalid encodedCacheSize " + encodedCacheSize
+                    + ", only STRING fields can be cached");
+            }
+            String mapTypesError = SchemaRules.mapTypesError(protobufType, fieldAnnotation.mapKeyType(),
+                fieldAnnotation.mapValueType());
+            if (mapTypesError != null) {
+                problems.add(fieldName + ": " + mapTypesError);
+            }
+            // Has a custom getter method?
+            FieldAccessor accessor = null;
+            Type valueType = null;
+            try {
+                if (fieldAnnotation.getterMethod().length() > 0) {
+                    Method getter = messageClass.getMethod(fieldAnnotation.getterMethod());
+                    valueType = getter.getGenericReturnType();
+                    accessor = FieldAccessor.forGetter(getter);
+                } else {
+                    valueType = field.getGenericType();
+                    accessor = FieldAccessor.forField(field);
+                }
+            } catch (NoSuchMethodException e) {
+                problems.add(fieldName + " has no public getter " + fieldAnnotation.getterMethod() + "()");
+            } catch (IllegalAccessException e) {
+                problems.add("Can't access " + fieldName + ": " + e.getMessage());
+            }
+            if (valueType != null && !canHold(protobufType, valueType)) {
+                typeMismatches.add(fieldName + " of type " + valueType.getTypeName() + " can't hold " + protobufType
+                    + " values");
+            }
+            if (problems.size() > problemCount) {
+                continue;
+            }
+            MapEncoder mapEncoder = protobufType == ProtobufType.MAP ? mapEncoder(fieldAnnotation, valueType) : null;
+            // Embedded messages and map entries are always keyed as length-delimited
+            ProtobufType tagType = protobufType == ProtobufType.MESSAGE || protobufType == ProtobufType.MAP
+                ? ProtobufType.BYTES : protobufType;
+            fields.add(new FieldSchema(field.getName(), accessor, fieldNumber, protobufType,
+                encodeTag(tagType, fieldNumber), encodeTag(ProtobufType.BYTES, fieldNumber),
+                encodedCacheSize > 0 ? new EncodedStringCache(encodedCacheSize) : null,
+                protobufType == ProtobufType.ENUM ? enumTable(valueType) : null,
+                mapEncoder));
+        }
+        if (!problems.isEmpty()) {
+            problems.addAll(typeMismatches);
+            throw new InvalidSchemaException(problems);
+        }
+        return new MessageSchema(messageClass, fields.toArray(new FieldSchema[0]),
+            typeMismatches.isEmpty() ? Collections.<String>emptyList() : Collections.unmodifiableList(typeMismatches));
+    }
+
+    /**
+     * Whether a value of the Java type may be serialized as the protobuf type, either directly, as a packed
+     * primitive array or as the elements of an {@link Iterable}.  Types which may or may not hold the right values,
+     * like {@code Object} or {@code Number}, are let through.
+     */
+    private static boolean canHold(ProtobufType type, Type valueType) {
+        Class<?> valueClass = rawClass(valueType);
+        if (valueClass == null) {
+            // Type variables and wildcards
+            return true;
+        }
+        if (Iterable.class.isAssignableFrom(valueClass)) {
+            Class<?> elementClass = rawClass(elementType(valueType));
+            return elementClass == null || canHoldSingle(type, elementClass);
+        }
+        if (valueClass.isArray() && valueClass.getComponentType().isPrimitive() && valueClass != byte[].class) {
+            return ProtobufSerializer.isPackable(type) && valueClass.getComponentType() == FieldSchema.javaType(type);
+        }
+        return canHoldSingle(type, valueClass);
+    }
+
+    private static boolean canHoldSingle(ProtobufType type, Class<?> valueClass) {
+        switch (type) {
+            case MESSAGE:
+                return !valueClass.isPrimitive() && !valueClass.isArray() && valueClass != String.class
+                    && !Number.class.isAssignableFrom(valueClass) && valueClass != Boolean.class;
+            case ENUM:
+                return valueClass.isEnum() || valueClass.isAssignableFrom(Enum.class);
+            case MAP:
+                return Map.class.isAssignableFrom(valueClass) || valueClass.isAssignableFrom(Map.class);
+            case STRING:
+                return valueClass.isAssignableFrom(String.class);
+            case BYTES:
+                return valueClass.isAssignableFrom(byte[].class);
+            default:
+                // Scalars are held in their primitive or its box
+                Class<?> primitiveClass = FieldSchema.javaType(type);
+                return valueClass == primitiveClass
+                    || valueClass.isAssignableFrom(MethodType.methodType(primitiveClass).wrap().returnType());
+        }
+    }
+
+    /**
+     * Element type of a parameterized collection, or the type itself if it isn't one.
+     */
+    static Type elementType(Type valueType) {
+        if (valueType instanceof ParameterizedType) {
+            ParameterizedType parameterizedType = (ParameterizedType) valueType;
+            Type[] arguments = parameterizedType.getActualTypeArguments();
+            if (Iterable.class.isAssignableFrom((Class<?>) parameterizedType.getRawType()) && arguments.length == 1) {
+                return arguments[0];
+            }
+        }
+        return valueType;
+    }
+
+    /**
+     * Class of a plain or parameterized type, or null for type variables and wildcards.
+     */
+    static Class<?> rawClass(Type type) {
+        if (type instanceof Class) {
+            return (Class<?>) type;
+        }
+        if (type instanceof ParameterizedType) {
+            return (Class<?>) ((ParameterizedType) type).getRawType();
+        }
+        return null;
+    }
+
+    /**
+     * Table of the enum declared as the value type, or as the element type of a repeated field.
+     */
+    private static EnumTable enumTable(Type valueType) {
+        if (valueType instanceof ParameterizedType) {
+            Type[] arguments = ((ParameterizedType) valueType).getActualTypeArguments();
+            valueType = arguments.length == 1 ? arguments[0] : null;
+        }
+        if (valueType instanceof Class && ((Class<?>) valueType).isEnum()) {
+            return EnumTable.forEnum((Class<?>) valueType);
+        }
+        return null;
+    }
+
+    /**
+     * Encoder of the entries of a {@code MAP} field, with the value enum table from the type arguments of the map.
+     */
+    private static MapEncoder mapEncoder(ProtobufField fieldAnnotation, Type mapType) {
+        ProtobufType valueType = fieldAnnotation.mapValueType();
+        EnumTable valueEnumTable = null;
+        if (valueType == ProtobufType.ENUM && mapType instanceof ParameterizedType) {
+            Type[] arguments = ((ParameterizedType) mapType).getActualTypeArguments();
+            if (arguments.length == 2 && arguments[1] instanceof Class && ((Class<?>) arguments[1]).isEnum()) {
+                valueEnumTable = EnumTable.forEnum((Class<?>) arguments[1]);
+            }
+        }
+        return new MapEncoder(fieldAnnotation.fieldNumber(), fieldAnnotation.mapKeyType(), valueType, valueEnumTable);
+    }
+
+    private static byte[] encodeTag(ProtobufType type, int fieldNumber) {
+        ByteArrayOutputStream tagBytes = new ByteArrayOutputStream();
+        try {
+            ProtobufSerializer.appendPrefix(tagBytes, type, fieldNumber);
+        } catch (IOException e) {
+            // ByteArrayOutputStream doesn't actually throw
+            throw new ProtobufSerializationException(e.getMessage());
+        }
+        return tagBytes.toByteArray();
+    }
+}
@@ -0,0 +1,24 @@
+package dev.freemountain.protoj.serialize;
+
+import java.io.IOException;
+
+/**
+ * Reflection-free serializer for a single message class, generated at compile time by protoj-processor.
+ * <p>
+ * Implementations are named after the message class with a {@code ProtobufSerializer} suffix (nested class names are
+ * joined with {@code _}), live in the same package and have a public no-arg constructor.  {@link ProtobufSerializer}
+ * picks them up automatically in place of the reflective schema when they're on the classpath.
+ */
+public interface MessageSerializer<T> {
+
+    /**
+     * Encoded size of the message.  Called before {@link #serialize}, embedded messages must be sized through the
+     * context.
+     */
+    int computeSize(T message, SerializationContext context);
+
+    /**
+     * Writes every field of the message to the output.  Embedded messages must be written through the context.
+     */
+    void serialize(T message, ProtoWriter out, SerializationContext context) throws IOException;
+}
@@ -0,0 +1,86 @@
+package dev.freemountain.protoj.serialize;
+
+/**
+ * Snapshot of the statistics {@link SerializerStats} collected for one message class.  Latency percentiles are
+ * accurate to within 25%.
+ */
+public final class MessageStats {
+
+    private final String messageClass;
+    private final long count;
+    private final long bytes;
+    private final long failedCount;
+    private final long totalNanos;
+    private final long maxNanos;
+    private final long p50Nanos;
+    private final long p99Nanos;
+    private final long p999Nanos;
+
+    MessageStats(String messageClass, long count, long bytes, long failedCount, long totalNanos, long maxNanos,
+        long p50Nanos, long p99Nanos, long p999Nanos) {
+        this.messageClass = messageClass;
+        this.count = count;
+        this.bytes = bytes;
+        this.failedCount = failedCount;
+        this.totalNanos = totalNanos;
+        this.maxNanos = maxNanos;
+        this.p50Nanos = p50Nanos;
+        this.p99Nanos = p99Nanos;
+        this.p999Nanos = p999Nanos;
+    }
+
+    public String getMessageClass() {
+        return messageClass;
+    }
+
+    /**
+     * Number of messages serialized.
+     */
+    public long getCount() {
+        return count;
+    }
+
+    /**
+     * Total number of bytes the messages were encoded to.
+     */
+    public long getBytes() {
+        return bytes;
+    }
+
+    /**
+     * Number of messages which failed to serialize.
+     */
+    public long getFailedCount() {
+        return failedCount;
+    }
+
+    public long getTotalNanos() {
+        return totalNanos;
+    }
+
+    public long getMeanNanos() {
+        return count == 0 ? 0 : totalNanos / count;
+    }
+
+    public long getMaxNanos() {
+        return maxNanos;
+    }
+
+    public long getP50Nanos() {
+        return p50Nanos;
+    }
+
+    public long getP99Nanos() {
+        return p99Nanos;
+    }
+
+    public long getP999Nanos() {
+        return p999Nanos;
+    }
+
+    @Override
+    public String toString() {
+        return messageClass + " count=" + count + " bytes=" + bytes + " failed=" + failedCount + " meanNanos="
+            + getMeanNanos() + " p50Nanos=" + p50Nanos + " p99Nanos=" + p99Nanos + " maxNanos=" + maxNanos;
+    }
+}
@@ -0,0 +1,127 @@
+package dev.freemountain.protoj.serialize;
+
+import dev.freemountain.protoj.api.ProtobufType;
+import java.io.IOException;
+
+/**
+ * Packed encoding of repeated scalar fields held in primitive arrays, so elements are never boxed.  The array type
+ * must match the protobuf type, e.g. {@code int[]} for {@code INT32} or {@code double[]} for {@code DOUBLE}, anything
+ * else fails with a {@link ClassCastException} like mismatched {@link Iterable} elements do.
+ */
+final class PrimitiveArrays {
+
+    private PrimitiveArrays() {
+    }
+
+    /**
+     * Arrays of anything but bytes, which hold a single {@code BYTES} value.
+     */
+    static boolean isPrimitiveArray(Object value) {
+        Class<?> componentType = value.getClass().getComponentType();
+        return componentType != null && componentType.isPrimitive() && componentType != byte.class;
+    }
+
+    /**
+     * Size of the packed payload, excluding its key and length prefix.
+     */
+    static int computePackedSize(ProtobufType type, Object array) {
+        int size = 0;
+        switch (type) {
+            case DOUBLE:
+                return ((double[]) array).length * Double.BYTES;
+            case FLOAT:
+                return ((float[]) array).length * Float.BYTES;
+            case SFIXED32:
+            case FIXED32:
+                return ((int[]) array).length * Integer.BYTES;
+            case SFIXED64:
+            case FIXED64:
+                return ((long[]) array).length * Long.BYTES;
+            case BOOL:
+                return ((boolean[]) array).length;
+            case INT32:
+                for (int value : (int[]) array) {
+                    size += ProtobufSerializer.computeVarintSize(value);
+                }
+                return size;
+            case UINT32:
+                for (int value : (int[]) array) {
+                    size += ProtobufSerializer.computeUInt32Size(value);
+                }
+                return size;
+            case SINT32:
+                for (int value : (int[]) array) {
+                    size += ProtobufSerializer.computeSInt32Size(value);
+                }
+                return size;
+            case INT64:
+            case UINT64:
+                for (long value : (long[]) array) {
+                    size += ProtobufSerializer.computeVarintSize(value);
+                }
+                return size;
+            case SINT64:
+                for (long value : (long[]) array) {
+                    size += ProtobufSerializer.computeSInt64Size(value);
+                }
+                return size;
+            default:
+                throw new ClassCastException(array.getClass().getName() + " can't hold " + type + " values");
+        }
+    }
+
+    /**
+     * Writes the elements without keys, fixed width ones as a bulk little endian copy.
+     */
+    static void writePacked(ProtoWriter out, ProtobufType type, Object array) throws IOException {
+        switch (type) {
+            case DOUBLE:
+                out.writeFixed64Array((double[]) array);
+                break;
+            case FLOAT:
+                out.writeFixed32Array((float[]) array);
+                break;
+            case SFIXED32:
+            case FIXED32:
+                out.writeFixed32Array((int[]) array);
+                break;
+            case SFIXED64:
+            case FIXED64:
+                out.writeFixed64Array((long[]) array);
+                break;
+            case BOOL:
+                for (boolean value : (boolean[]) array) {
+                    out.writeByte(value ? 1 : 0);
+                }
+                break;
+            case INT32:
+                for (int value : (int[]) array) {
+                    out.writeVarint(value);
+                }
+                break;
+            case UINT32:
+                for (int value : (int[]) array) {
+                    out.writeUInt32(value);
+                }
+                break;
+            case SINT32:
+                for (int value : (int[]) array) {
+                    out.writeSInt32(value);
+                }
+                break;
+            case INT64:
+            case UINT64:
+                for (long value : (long[]) array) {
+                    out.writeVarint(value);
+                }
+                break;
+            case SINT64:
+                for (long value : (long[]) array) {
+                    out.writeSInt64(value);
+                }
+                break;
+            default:
+                throw new ClassCastException(array.getClass().getName() + " can't hold " + type + " values");
+        }
+    }
+}
@@ -0,0 +1,627 @@
+package dev.freemountain.protoj.serialize;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.Buffer;
+import java.nio.BufferOverflowException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.DoubleBuffer;
+import java.nio.FloatBuffer;
+import java.nio.IntBuffer;
+import java.nio.LongBuffer;
+import java.nio.channels.WritableByteChannel;
+
+/**
+ * Sink for encoded protobuf values.  Varints, fixed width values and pre-encoded tags are written without allocating,
+ * straight into the underlying array, buffer or stream.
+ * <p>
+ * Array and buffer writers don't grow, the size pass guarantees the sink has room for the whole message before
+ * anything is written.  Stream and channel writers go through a fixed-size chunk, so memory use doesn't depend on the
+ * message size.
+ */
+public abstract class ProtoWriter {
+
+    // Longest varint, a negative int64
+    private static final int MAX_VARINT_SIZE = 10;
+
+    ProtoWriter() {
+    }
+
+    /**
+     * Writes into the array from the given offset.
+     */
+    public static ProtoWriter forArray(byte[] buffer, int offset) {
+        return new ArrayWriter(buffer, offset);
+    }
+
+    /**
+     * Writes from the buffer's position, which may be a direct buffer.  The buffer's position and byte order are left
+     * untouched.
+     */
+    public static ProtoWriter forBuffer(ByteBuffer buffer) {
+        return new ByteBufferWriter(buffer);
+    }
+
+    /**
+     * Writes to the stream in chunks of the given size.  {@link #flush()} writes out the last chunk.
+     */
+    public static ProtoWriter forStream(OutputStream out, int chunkSize) {
+        return new ChunkedStreamWriter(out, newChunk(chunkSize));
+    }
+
+    /**
+     * Writes to a blocking channel in chunks of the given size.  {@link #flush()} writes out the last chunk.
+     */
+    public static ProtoWriter forChannel(WritableByteChannel channel, int chunkSize) {
+        return new ChunkedChannelWriter(channel, newChunk(chunkSize));
+    }
+
+    static byte[] newChunk(int chunkSize) {
+        if (chunkSize < MAX_VARINT_SIZE) {
+            throw new IllegalArgumentException("Chunk size " + chunkSize + " is smaller than " + MAX_VARINT_SIZE);
+        }
+        return new byte[chunkSize];
+    }
+
+    /**
+     * Chunked stream writer reusing the given chunk.
+     */
+    static ProtoWriter forStream(OutputStream out, byte[] chunk) {
+        return new ChunkedStreamWriter(out, chunk);
+    }
+
+    static ProtoWriter forChannel(WritableByteChannel channel, byte[] chunk) {
+        return new ChunkedChannelWriter(channel, chunk);
+    }
+
+    /**
+     * Writes every byte through to the stream, for the {@code append*} helpers taking a stream.
+     */
+    static ProtoWriter forStream(OutputStream out) {
+        return new StreamWriter(out);
+    }
+
+    /**
+     * Number of bytes written so far.
+     */
+    public abstract int getBytesWritten();
+
+    /**
+     * Drops everything written since {@link #getBytesWritten()} returned the given count, if none of it has left the
+     * writer yet.
+     *
+     * @return whether it was dropped
+     */
+    boolean rollBack(int bytesWritten) {
+        return false;
+    }
+
+    public abstract void writeByte(int value) throws IOException;
+
+    /**
+     * Hands any buffered bytes to the underlying stream or channel, without flushing it.
+     */
+    public void flush() throws IOException {
+    }
+
+    public abstract void writeBytes(byte[] value, int offset, int length) throws IOException;
+
+    public void writeBytes(byte[] value) throws IOException {
+        writeBytes(value, 0, value.length);
+    }
+
+    /**
+     * Pre-encoded key, see {@link FieldSchema#getTag()}.
+     */
+    public void writeTag(byte[] tag) throws IOException {
+        writeBytes(tag, 0, tag.length);
+    }
+
+    /**
+     * Each byte in a varint, except the last byte, has the most significant bit (msb) set - this indicates that there
+     * are further bytes to come. The lower 7 bits of each byte are used to store the two's complement representation of
+     * the number in groups of 7 bits, least significant group first.
+     */
+    public void writeVarint(long value) throws IOException {
+        while ((value & ~0x7FL) != 0) {
+            writeByte((int) (value & 0x7F) | 0x80);
+            value >>>= 7;
+        }
+        writeByte((int) value);
+    }
+
+    /**
+     * uint32 values are unsigned, so negative ints take 5 bytes rather than being sign extended to 10.
+     */
+    public void writeUInt32(int value) throws IOException {
+        writeVarint(value & 0xFFFFFFFFL);
+    }
+
+    /**
+     * sint32 values are ZigZag encoded, so small negative numbers take few bytes.
+     */
+    public void writeSInt32(int value) throws IOException {
+        writeUInt32((value << 1) ^ (value >> 31));
+    }
+
+    public void writeSInt64(long value) throws IOException {
+        writeVarint((value << 1) ^ (value >> 63));
+    }
+
+    /**
+     * Non-varint numeric type values are stored in little endian byte order.  Java is big endian.
+     */
+    public void writeFixed32(int value) throws IOException {
+        writeByte(value);
+        writeByte(value >>> 8);
+        writeByte(value >>> 16);
+        writeByte(value >>> 24);
+    }
+
+    public void writeFixed32(float value) throws IOException {
+        writeFixed32(Float.floatToRawIntBits(value));
+    }
+
+    public void writeFixed64(long value) throws IOException {
+        writeFixed32((int) value);
+        writeFixed32((int) (value >>> 32));
+    }
+
+    public void writeFixed64(double value) throws IOException {
+        writeFixed64(Double.doubleToRawLongBits(value));
+    }
+
+    /**
+     * Elements of a packed repeated field, copied in bulk where the sink allows it.
+     */
+    public void writeFixed32Array(int[] values) throws IOException {
+        for (int value : values) {
+            writeFixed32(value);
+        }
+    }
+
+    public void writeFixed32Array(float[] values) throws IOException {
+        for (float value : values) {
+            writeFixed32(value);
+        }
+    }
+
+    public void writeFixed64Array(long[] values) throws IOException {
+        for (long value : values) {
+            writeFixed64(value);
+        }
+    }
+
+    public void writeFixed64Array(double[] values) throws IOException {
+        for (double value : values) {
+            writeFixed64(value);
+        }
+    }
+
+    /**
+     * varint encoded length followed by the bytes.
+     */
+    public void writeLengthDelimited(byte[] value) throws IOException {
+        writeVarint(value.length);
+        writeBytes(value, 0, value.length);
+    }
+
+    /**
+     * varint encoded length followed by the UTF-8 encoded string, writing a zero length for empty strings.  The
+     * string is encoded straight into the sink.
+     */
+    public void writeString(String value) throws IOException {
+        int utf8Length = Utf8.encodedLength(value);
+        writeVarint(utf8Length);
+        writeUtf8(value, utf8Length);
+    }
+
+    /**
+     * Encodes the string, which encodes to the given number of bytes, without a length prefix.
+     */
+    void writeUtf8(String value, int utf8Length) throws IOException {
+        Utf8.encode(value, this);
+    }
+
+    private static final class ArrayWriter extends ProtoWriter {
+
+        private final byte[] buffer;
+        private final int offset;
+        private int position;
+
+        ArrayWriter(byte[] buffer, int offset) {
+            this.buffer = buffer;
+            this.offset = offset;
+            this.position = offset;
+        }
+
+        @Override
+        public int getBytesWritten() {
+            return position - offset;
+        }
+
+        @Override
+        public void writeByte(int value) {
+            buffer[position++] = (byte) value;
+        }
+
+        @Override
+        public void writeBytes(byte[] value, int offset, int length) {
+            System.arraycopy(value, offset, buffer, position, length);
+            position += length;
+        }
+
+        @Override
+        public void writeVarint(long value) {
+            byte[] buffer = this.buffer;
+            int position = this.position;
+            while ((value & ~0x7FL) != 0) {
+                buffer[position++] = (byte) ((value & 0x7F) | 0x80);
+                value >>>= 7;
+            }
+            buffer[position++] = (byte) value;
+            this.position = position;
+        }
+
+        @Override
+        public void writeFixed32(int value) {
+            byte[] buffer = this.buffer;
+            int position = this.position;
+            buffer[position] = (byte) value;
+            buffer[position + 1] = (byte) (value >>> 8);
+            buffer[position + 2] = (byte) (value >>> 16);
+            buffer[position + 3] = (byte) (value >>> 24);
+            this.position = position + 4;
+        }
+
+        @Override
+        public void writeFixed64(long value) {
+            writeFixed32((int) value);
+            writeFixed32((int) (value >>> 32));
+        }
+
+        @Override
+        public void writeFixed32Array(int[] values) {
+            view(values.length * Integer.BYTES).asIntBuffer().put(values);
+            position += values.length * Integer.BYTES;
+        }
+
+        @Override
+        public void writeFixed32Array(float[] values) {
+            view(values.length * Float.BYTES).asFloatBuffer().put(values);
+            position += values.length * Float.BYTES;
+        }
+
+        @Override
+        public void writeFixed64Array(long[] values) {
+            view(values.length * Long.BYTES).asLongBuffer().put(values);
+            position += values.length * Long.BYTES;
+        }
+
+        @Override
+        public void writeFixed64Array(double[] values) {
+            view(values.length * Double.BYTES).asDoubleBuffer().put(values);
+            position += values.length * Double.BYTES;
+        }
+
+        @Override
+        void writeUtf8(String value, int utf8Length) {
+            position = Utf8.encode(value, 0, value.length(), buffer, position);
+        }
+
+        private ByteBuffer view(int length) {
+            return ByteBuffer.wrap(buffer, position, length).order(ByteOrder.LITTLE_ENDIAN);
+        }
+    }
+
+    private static final class ByteBufferWriter extends ProtoWriter {
+
+        private final ByteBuffer buffer;
+        private final int start;
+
+        ByteBufferWriter(ByteBuffer buffer) {
+            // Fixed width values are put in little endian order without changing the caller's buffer
+            this.buffer = buffer.duplicate().order(ByteOrder.LITTLE_ENDIAN);
+            this.start = buffer.position();
+        }
+
+        @Override
+        public int getBytesWritten() {
+            return buffer.position() - start;
+        }
+
+        @Override
+        public void writeByte(int value) {
+            buffer.put((byte) value);
+        }
+
+        @Override
+        public void writeBytes(byte[] value, int offset, int length) {
+            buffer.put(value, offset, length);
+        }
+
+        @Override
+        public void writeFixed32(int value) {
+            buffer.putInt(value);
+        }
+
+        @Override
+        public void writeFixed64(long value) {
+            buffer.putLong(value);
+        }
+
+        @Override
+        void writeUtf8(String value, int utf8Length) throws IOException {
+            if (!buffer.hasArray()) {
+                super.writeUtf8(value, utf8Length);
+                return;
+            }
+            // Encoded straight into the array, which may extend past the buffer's limit
+            if (utf8Length > buffer.remaining()) {
+                throw new BufferOverflowException();
+            }
+            int start = buffer.arrayOffset() + buffer.position();
+            int end = Utf8.encode(value, 0, value.length(), buffer.array(), start);
+            ((Buffer) buffer).position(buffer.position() + end - start);
+        }
+
+        @Override
+        public void writeFixed32Array(int[] values) {
+            buffer.asIntBuffer().put(values);
+            ((Buffer) buffer).position(buffer.position() + values.length * Integer.BYTES);
+        }
+
+        @Override
+        public void writeFixed32Array(float[] values) {
+            buffer.asFloatBuffer().put(values);
+            ((Buffer) buffer).position(buffer.position() + values.length * Float.BYTES);
+        }
+
+        @Override
+        public void writeFixed64Array(long[] values) {
+            buffer.asLongBuffer().put(values);
+            ((Buffer) buffer).position(buffer.position() + values.length * Long.BYTES);
+        }
+
+        @Override
+        public void writeFixed64Array(double[] values) {
+            buffer.asDoubleBuffer().put(values);
+            ((Buffer) buffer).position(buffer.position() + values.length * Double.BYTES);
+        }
+    }
+
+    private static final class StreamWriter extends ProtoWriter {
+
+        private final OutputStream out;
+        private int bytesWritten;
+
+        StreamWriter(OutputStream out) {
+            this.out = out;
+        }
+
+        @Override
+        public int getBytesWritten() {
+            return bytesWritten;
+        }
+
+        @Override
+        public void writeByte(int value) throws IOException {
+            out.write(value);
+            bytesWritten++;
+        }
+
+        @Override
+        public void writeBytes(byte[] value, int offset, int length) throws IOException {
+            out.write(value, offset, length);
+            bytesWritten += length;
+        }
+    }
+
+    /**
+     * Buffers writes in a chunk, handing it to the sink whenever it fills up.
+     */
+    private abstract static class ChunkedWriter extends ProtoWriter {
+
+        private final byte[] chunk;
+        private int position;
+        private int drained;
+
+        ChunkedWriter(byte[] chunk) {
+            this.chunk = chunk;
+        }
+
+        abstract void writeThrough(byte[] value, int offset, int length) throws IOException;
+
+        @Override
+        public int getBytesWritten() {
+            return drained + position;
+        }
+
+        @Override
+        boolean rollBack(int bytesWritten) {
+            int buffered = bytesWritten - drained;
+            if (buffered < 0 || buffered > position) {
+                return false;
+            }
+            position = buffered;
+            return true;
+        }
+
+        @Override
+        public void writeByte(int value) throws IOException {
+            if (position == chunk.length) {
+                flush();
+            }
+            chunk[position++] = (byte) value;
+        }
+
+        @Override
+        public void writeBytes(byte[] value, int offset, int length) throws IOException {
+            if (length > chunk.length - position) {
+                flush();
+                // Large values go straight to the sink rather than through the chunk
+                if (length > chunk.length) {
+                    writeThrough(value, offset, length);
+                    drained += length;
+                    return;
+                }
+            }
+            System.arraycopy(value, offset, chunk, position, length);
+            position += length;
+        }
+
+        @Override
+        public void writeVarint(long value) throws IOException {
+            if (chunk.length - position < MAX_VARINT_SIZE) {
+                flush();
+            }
+            byte[] chunk = this.chunk;
+            int position = this.position;
+            while ((value & ~0x7FL) != 0) {
+                chunk[position++] = (byte) ((value & 0x7F) | 0x80);
+                value >>>= 7;
+            }
+            chunk[position++] = (byte) value;
+            this.position = position;
+        }
+
+        @Override
+        public void writeFixed32(int value) throws IOException {
+            if (chunk.length - position < Integer.BYTES) {
+                flush();
+            }
+            byte[] chunk = this.chunk;
+            int position = this.position;
+            chunk[position] = (byte) value;
+            chunk[position + 1] = (byte) (value >>> 8);
+            chunk[position + 2] = (byte) (value >>> 16);
+            chunk[position + 3] = (byte) (value >>> 24);
+            this.position = position + Integer.BYTES;
+        }
+
+        @Override
+        public void writeFixed32Array(int[] values) throws IOException {
+            for (int offset = 0; offset < values.length; ) {
+                IntBuffer free = freeSpace().asIntBuffer();
+                int count = Math.min(values.length - offset, free.remaining());
+                free.put(values, offset, count);
+                position += count * Integer.BYTES;
+                offset += count;
+            }
+        }
+
+        @Override
+        public void writeFixed32Array(float[] values) throws IOException {
+            for (int offset = 0; offset < values.length; ) {
+                FloatBuffer free = freeSpace().asFloatBuffer();
+                int count = Math.min(values.length - offset, free.remaining());
+                free.put(values, offset, count);
+                position += count * Float.BYTES;
+                offset += count;
+            }
+        }
+
+        @Override
+        public void writeFixed64Array(long[] values) throws IOException {
+            for (int offset = 0; offset < values.length; ) {
+                LongBuffer free = freeSpace().asLongBuffer();
+                int count = Math.min(values.length - offset, free.remaining());
+                free.put(values, offset, count);
+                position += count * Long.BYTES;
+                offset += count;
+            }
+        }
+
+        @Override
+        public void writeFixed64Array(double[] values) throws IOException {
+            for (int offset = 0; offset < values.length; ) {
+                DoubleBuffer free = freeSpace().asDoubleBuffer();
+                int count = Math.min(values.length - offset, free.remaining());
+                free.put(values, offset, count);
+                position += count * Double.BYTES;
+                offset += count;
+            }
+        }
+
+        /**
+         * Encodes strings which fit into the chunk in one go, and longer ones in runs of chars which are sure to fit
+         * into the rest of it.
+         */
+        @Override
+        void writeUtf8(String value, int utf8Length) throws IOException {
+            if (utf8Length > chunk.length - position && utf8Length <= chunk.length) {
+                flush();
+            }
+            if (utf8Length <= chunk.length - position) {
+                position = Utf8.encode(value, 0, value.length(), chunk, position);
+                return;
+            }
+            int length = value.length();
+            for (int start = 0; start < length; ) {
+                // Room for at least two chars, so a run never ends up empty after backing off a surrogate pair
+                if (chunk.length - position < 2 * Utf8.MAX_BYTES_PER_CHAR) {
+                    flush();
+                }
+                int end = Math.min(length, start + (chunk.length - position) / Utf8.MAX_BYTES_PER_CHAR);
+                if (end < length && Character.isHighSurrogate(value.charAt(end - 1))) {
+                    end--;
+                }
+                position = Utf8.encode(value, start, end, chunk, position);
+                start = end;
+            }
+        }
+
+        /**
+         * Little endian view of the rest of the chunk, flushing it first if it can't hold a fixed64 value.
+         */
+        private ByteBuffer freeSpace() throws IOException {
+            if (chunk.length - position < Long.BYTES) {
+                flush();
+            }
+            return ByteBuffer.wrap(chunk, position, chunk.length - position).order(ByteOrder.LITTLE_ENDIAN);
+        }
+
+        @Override
+        public void flush() throws IOException {
+            if (position > 0) {
+                writeThrough(chunk, 0, position);
+                drained += position;
+                position = 0;
+            }
+        }
+    }
+
+    private static final class ChunkedStreamWriter extends ChunkedWriter {
+
+        private final OutputStream out;
+
+        ChunkedStreamWriter(OutputStream out, byte[] chunk) {
+            super(chunk);
+            this.out = out;
+        }
+
+        @Override
+        void writeThrough(byte[] value, int offset, int length) throws IOException {
+            out.write(value, offset, length);
+        }
+    }
+
+    private static final class ChunkedChannelWriter extends ChunkedWriter {
+
+        private final WritableByteChannel channel;
+
+        ChunkedChannelWriter(WritableByteChannel channel, byte[] chunk) {
+            super(chunk);
+            this.channel = channel;
+        }
+
+        @Override
+        void writeThrough(byte[] value, int offset, int length) throws IOException {
+            ByteBuffer buffer = ByteBuffer.wrap(value, offset, length);
+            while (buffer.hasRemaining()) {
+                channel.write(buffer);
+            }
+        }
+    }
+}
@@ -0,0 +1,304 @@
+package dev.freemountain.protoj.serialize;
+
+import dev.freemountain.protoj.api.ProtobufField;
+import dev.freemountain.protoj.api.ProtobufSerializationException;
+import dev.freemountain.protoj.api.ProtobufType;
+import java.io.File;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.lang.reflect.Field;
+import java.lang.reflect.Modifier;
+import java.lang.reflect.ParameterizedType;
+import java.lang.reflect.Type;
+import java.net.JarURLConnection;
+import java.net.URL;
+import java.net.URLDecoder;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.Enumeration;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.jar.JarEntry;
+import java.util.jar.JarFile;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Validates and builds the serialization plans of message classes ahead of time, e.g. while a service starts up, so
+ * schema errors fail the startup rather than the first request, and the first message of every class doesn't pay for
+ * reflection.
+ * <p>
+ * Registering a class also registers every message class reachable through its {@code MESSAGE} fields.  Every field is
+ * checked for a unique, valid field number, a resolvable getter and a Java type which can hold its
+ * {@link ProtobufType}, and all problems found are reported together.  Plans are built in parallel and cached exactly
+ * as if the classes had been serialized.
+ * <pre>
+ * Set&lt;Class&lt;?&gt;&gt; classes = ProtobufSchemaRegistry.registerPackage("com.example.messages");
+ * ProtobufSchemaRegistry.warmup(classes, 10_000);
+ * </pre>
+ */
+public final class ProtobufSchemaRegistry {
+
+    private static final Logger logger = LoggerFactory.getLogger(ProtobufSchemaRegistry.class);
+    private static final String CLASS_SUFFIX = ".class";
+
+    private ProtobufSchemaRegistry() {
+        throw new RuntimeException("You shouldn't be here");
+    }
+
+    /**
+     * Registers the classes on the common {@link java.util.concurrent.ForkJoinPool}.
+     *
+     * @return the classes and every message class reachable from them
+     * @throws ProtobufSerializationException listing every invalid field found
+     */
+    public static Set<Class<?>> register(Class<?>... messageClasses) {
+        return register(BatchSerializer.defaultExecutor(), messageClasses);
+    }
+
+    /**
+     * Registers the classes, building their plans in parallel on the executor.
+     *
+     * @return the classes and every message class reachable from them
+     * @throws ProtobufSerializationException listing every invalid field found
+     */
+    public static Set<Class<?>> register(Executor executor, Class<?>... messageClasses) {
+        Set<Class<?>> reachable = findReachable(messageClasses);
+        List<CompletableFuture<List<String>>> builds = new ArrayList<>(reachable.size());
+        for (Class<?> messageClass : reachable) {
+            builds.add(CompletableFuture.supplyAsync(() -> build(messageClass), executor));
+        }
+        List<String> problems = new ArrayList<>();
+        for (CompletableFuture<List<String>> build : builds) {
+            problems.addAll(build.join());
+        }
+        if (!problems.isEmpty()) {
+            throw new InvalidSchemaException(problems);
+        }
+        return Collections.unmodifiableSet(reachable);
+    }
+
+    /**
+     * Registers every class in the package and its subpackages which declares a {@link ProtobufField}, found through
+     * the context class loader.
+     */
+    public static Set<Class<?>> registerPackage(String packageName) {
+        ClassLoader classLoader = Thread.currentThread().getContextClassLoader();
+        return registerPackage(packageName, classLoader != null ? classLoader : ProtobufSchemaRegistry.class
+            .getClassLoader());
+    }
+
+    /**
+     * Registers every class in the package and its subpackages which declares a {@link ProtobufField}, from
+     * directories and jars on the class loader's class path.
+     */
+    public static Set<Class<?>> registerPackage(String packageName, ClassLoader classLoader) {
+        return register(scan(packageName, classLoader).toArray(new Class<?>[0]));
+    }
+
+    /**
+     * Serializes a default instance of every class, created through its public no-arg constructor, the given number
+     * of times, so the serializers are compiled before real traffic arrives.  Classes without one, such as inner or
+     * non-public classes, are logged as not warmed up, and can be warmed up with {@link #warmupMessages} instead.
+     *
+     * @return number of classes warmed up
+     */
+    public static int warmup(Collection<Class<?>> messageClasses, int iterations) throws IOException {
+        List<Object> messages = new ArrayList<>();
+        for (Class<?> messageClass : messageClasses) {
+            Object message = newDefaultInstance(messageClass);
+            if (message != null) {
+                messages.add(message);
+            } else {
+                logger.info("Not warmed up class={}, it has no accessible no-arg constructor", messageClass.getName());
+            }
+        }
+        warmupMessages(messages, iterations);
+        return messages.size();
+    }
+
+    /**
+     * Serializes every message the given number of times, for warming up with representative content rather than
+     * default instances.
+     */
+    public static void warmupMessages(Iterable<?> messages, int iterations) throws IOException {
+        SerializerPool pool = new SerializerPool();
+        for (int i = 0; i < iterations; i++) {
+            for (Object message : messages) {
+                pool.serialize(message);
+            }
+        }
+    }
+
+    /**
+     * Walks the {@code MESSAGE} fields breadth-first, keeping the order classes were first reached in.
+     */
+    private static Set<Class<?>> findReachable(Class<?>[] messageClasses) {
+        Set<Class<?>> reachable = new LinkedHashSet<>();
+        Deque<Class<?>> pending = new ArrayDeque<>();
+        Collections.addAll(pending, messageClasses);
+        while (!pending.isEmpty()) {
+            Class<?> messageClass = pending.poll();
+            if (!reachable.add(messageClass)) {
+                continue;
+            }
+            for (Field field : messageClass.getDeclaredFields()) {
+                ProtobufField fieldAnnotation = field.getAnnotation(ProtobufField.class);
+                if (fieldAnnotation == null) {
+                    continue;
+                }
+                Type valueType = valueType(messageClass, field, fieldAnnotation);
+                if (fieldAnnotation.protobufType() == ProtobufType.MAP
+                    && fieldAnnotation.mapValueType() == ProtobufType.MESSAGE) {
+                    valueType = mapValueType(valueType);
+                } else if (fieldAnnotation.protobufType() != ProtobufType.MESSAGE) {
+                    continue;
+                }
+                Class<?> embeddedClass = MessageSchema.rawClass(MessageSchema.elementType(valueType));
+                if (embeddedClass != null && isConcreteMessage(embeddedClass)) {
+                    pending.add(embeddedClass);
+                }
+            }
+        }
+        return reachable;
+    }
+
+    /**
+     * Builds and caches the plan of the class, which checks every field.
+     *
+     * @return problems found, including type mismatches which would only fail when serializing, or an empty list if
+     * it's valid
+     */
+    private static List<String> build(Class<?> messageClass) {
+        try {
+            MessageSchema schema = MessageSchema.forClass(messageClass);
+            GeneratedSerializers.forClass(messageClass);
+            return schema.getTypeMismatches();
+        } catch (InvalidSchemaException e) {
+            return e.getProblems();
+        } catch (ProtobufSerializationException e) {
+            // E.g. invalid enum numbers
+            return Collections.singletonList(messageClass.getName() + ": " + e.getMessage());
+        }
+    }
+
+    /**
+     * Type the field is read as, through its getter if it has one, or null if the getter doesn't exist.
+     */
+    private static Type valueType(Class<?> messageClass, Field field, ProtobufField fieldAnnotation) {
+        if (fieldAnnotation.getterMethod().isEmpty()) {
+            return field.getGenericType();
+        }
+        try {
+            return messageClass.getMethod(fieldAnnotation.getterMethod()).getGenericReturnType();
+        } catch (NoSuchMethodException e) {
+            return null;
+        }
+    }
+
+    /**
+     * Value type argument of a parameterized map, or null if it isn't one.
+     */
+    private static Type mapValueType(Type mapType) {
+        if (mapType instanceof ParameterizedType) {
+            Type[] arguments = ((ParameterizedType) mapType).getActualTypeArguments();
+            return arguments.length == 2 ? arguments[1] : null;
+        }
+        return null;
+    }
+
+    /**
+     * Embedded messages declared as interfaces or abstract classes are serialized by their runtime class, which can't
+     * be known ahead of time.
+     */
+    private static boolean isConcreteMessage(Class<?> messageClass) {
+        return !messageClass.isInterface() && !messageClass.isArray() && !messageClass.isPrimitive()
+            && !Modifier.isAbstract(messageClass.getModifiers()) && !Iterable.class.isAssignableFrom(messageClass)
+            && !messageClass.getName().startsWith("java.");
+    }
+
+    /**
+     * Instance created through the public no-arg constructor of a public class, or null if there isn't one or it
+     * fails.
+     */
+    private static Object newDefaultInstance(Class<?> messageClass) {
+        if (!Modifier.isPublic(messageClass.getModifiers())) {
+            return null;
+        }
+        try {
+            return messageClass.getConstructor().newInstance();
+        } catch (ReflectiveOperationException | RuntimeException e) {
+            return null;
+        }
+    }
+
+    /**
+     * Classes declaring a {@link ProtobufField} in the package and its subpackages.
+     */
+    private static List<Class<?>> scan(String packageName, ClassLoader classLoader) {
+        String packagePath = packageName.replace('.', '/');
+        Set<String> classNames = new LinkedHashSet<>();
+        try {
+            Enumeration<URL> roots = classLoader.getResources(packagePath);
+            while (roots.hasMoreElements()) {
+                URL root = roots.nextElement();
+                if ("file".equals(root.getProtocol())) {
+                    scanDirectory(new File(URLDecoder.decode(root.getPath(), "UTF-8")), packageName, classNames);
+                } else if ("jar".equals(root.getProtocol())) {
+                    scanJar(((JarURLConnection) root.openConnection()).getJarFileURL(), packagePath, classNames);
+                }
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        List<Class<?>> messageClasses = new ArrayList<>();
+        for (String className : classNames) {
+            Class<?> candidate;
+            try {
+                candidate = Class.forName(className, false, classLoader);
+            } catch (ClassNotFoundException | LinkageError e) {
+                continue;
+            }
+            for (Field field : candidate.getDeclaredFields()) {
+                if (field.isAnnotationPresent(ProtobufField.class)) {
+                    messageClasses.add(candidate);
+                    break;
+                }
+            }
+        }
+        return messageClasses;
+    }
+
+    private static void scanDirectory(File directory, String packageName, Set<String> classNames) {
+        File[] files = directory.listFiles();
+        if (files == null) {
+            return;
+        }
+        for (File file : files) {
+            String name = file.getName();
+            if (file.isDirectory()) {
+                scanDirectory(file, packageName + "." + name, classNames);
+            } else if (name.endsWith(CLASS_SUFFIX)) {
+                classNames.add(packageName + "." + name.substring(0, name.length() - CLASS_SUFFIX.length()));
+            }
+        }
+    }
+
+    private static void scanJar(URL jarUrl, String packagePath, Set<String> classNames) throws IOException {
+        try (JarFile jar = new JarFile(URLDecoder.decode(jarUrl.getPath(), "UTF-8"))) {
+            Enumeration<JarEntry> entries = jar.entries();
+            while (entries.hasMoreElements()) {
+                String name = entries.nextElement().getName();
+                if (name.startsWith(packagePath + "/") && name.endsWith(CLASS_SUFFIX)) {
+                    classNames.add(name.substring(0, name.length() - CLASS_SUFFIX.length()).replace('/', '.'));
+                }
+            }
+        }
+    }
+}
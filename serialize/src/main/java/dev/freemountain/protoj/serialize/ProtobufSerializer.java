@@ -1,189 +1,849 @@
 package dev.freemountain.protoj.serialize;
 
-import dev.freemountain.protoj.api.ProtobufField;
+import dev.freemountain.protoj.api.ProtobufBufferOverflowException;
 import dev.freemountain.protoj.api.ProtobufSerializationException;
 import dev.freemountain.protoj.api.ProtobufType;
+import dev.freemountain.protoj.internal.SchemaRules;
 import dev.freemountain.protoj.internal.TypeMapper;
 import dev.freemountain.protoj.internal.WireType;
 import java.io.ByteArrayOutputStream;
 import java.io.IOException;
-import java.lang.reflect.Field;
+import java.io.OutputStream;
+import java.nio.Buffer;
+import java.nio.BufferOverflowException;
 import java.nio.ByteBuffer;
-import java.nio.ByteOrder;
-import java.nio.charset.StandardCharsets;
-import java.util.ArrayList;
-import java.util.Arrays;
-import java.util.BitSet;
-import java.util.Collections;
-import java.util.HashMap;
-import java.util.HashSet;
+import java.nio.channels.WritableByteChannel;
 import java.util.List;
 import java.util.Map;
-import java.util.Set;
+import java.util.concurrent.Executor;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 public class ProtobufSerializer {
 
     private static final Logger logger = LoggerFactory.getLogger(ProtobufSerializer.class);
-    private static final int MIN_FIELD_NUMBER = 1;
-    private static final int MAX_FIELD_NUMBER = (int) Math.pow(2, 29) - 1;
+    static final int STREAM_CHUNK_SIZE = 8192;
+    public static final int DEFAULT_MAX_DEPTH = 100;
+
+    // Listener for every top-level message, or null when disabled
+    private static volatile SerializerMetrics metrics;
 
     private ProtobufSerializer() {
         throw new RuntimeException("You shouldn't be here");
     }
 
+    /*
+     * Serialization runs in two passes.  The size pass computes the encoded size of the whole message tree, recording
+     * the size of every embedded message in the context, and the write pass then encodes every field straight into a
+     * single exactly-sized buffer, using the recorded sizes as length prefixes.
+     */
     public static <T> ByteBuffer serialize(T message) throws IOException {
-        ByteArrayOutputStream byteStream = new ByteArrayOutputStream();
-        return serialize(byteStream, message, 0, new HashMap<>(), new HashSet<>());
-    }
-
-    static <T> ByteBuffer serialize(ByteArrayOutputStream byteStream, T message, int numLevel,
-        HashMap<String, List<Integer>> visitedMessages, Set<Integer> visitedFieldNumbers) throws IOException {
-        // Circular reference checks
-        String className = message.getClass().getName();
-        markClassAsVisited(className, numLevel, visitedMessages);
-        if (isCircularReference(className, numLevel, visitedMessages)) {
-            logger.error("Circular reference found for class={} nestedLevel={}", className, numLevel);
-            throw new ProtobufSerializationException("Circular reference found for  " + className);
-        }
-        // Get serializable fields
-        for (Field field : message.getClass().getDeclaredFields()) {
-            ProtobufField fieldAnnotation = field.getAnnotation(ProtobufField.class);
-            if (fieldAnnotation != null) {
-                ProtobufType protobufType = fieldAnnotation.protobufType();
-                Integer fieldNumber = fieldAnnotation.fieldNumber();
-                // Ensure field numbers are unique
-                if (visitedFieldNumbers.contains(fieldNumber)) {
-                    logger.error("Duplicate field found at for class={} field={} nestedLevel={} number={}", className,
-                        field.getName(), numLevel, fieldNumber);
-                    throw new ProtobufSerializationException("Duplicate field number " + fieldNumber);
+        SerializationContext context = new SerializationContext();
+        byte[] buffer = new byte[computeTopLevelSize(message, context)];
+        write(message, ProtoWriter.forArray(buffer, 0), buffer.length, context);
+        return ByteBuffer.wrap(buffer);
+    }
+
+    /**
+     * Serializes the message, giving up after the given number of levels of embedded messages instead of
+     * {@link #DEFAULT_MAX_DEPTH}.  The limit also stops messages built by getters which return new objects on every
+     * call, where cycles can't be told apart by identity.
+     */
+    public static <T> ByteBuffer serialize(T message, int maxDepth) throws IOException {
+        SerializationContext context = new SerializationContext(maxDepth);
+        byte[] buffer = new byte[computeTopLevelSize(message, context)];
+        write(message, ProtoWriter.forArray(buffer, 0), buffer.length, context);
+        return ByteBuffer.wrap(buffer);
+    }
+
+    /**
+     * Serializes only the fields selected by the mask, without reading the others.
+     */
+    public static <T> ByteBuffer serialize(T message, FieldMask mask) throws IOException {
+        SerializationContext context = new SerializationContext();
+        SizePass sizePass = (m, c) -> computeMaskedSize(m, mask, c);
+        byte[] buffer = new byte[computeTopLevelSize(message, sizePass, context)];
+        WritePass writePass = (out, m, c) -> writeMaskedMessage(out, m, mask, c);
+        write(message, writePass, ProtoWriter.forArray(buffer, 0), buffer.length, context);
+        return ByteBuffer.wrap(buffer);
+    }
+
+    /**
+     * Serializes only the fields of the current message which differ from the previous snapshot of it, for receivers
+     * which merge it into their copy of the previous one.  Changed scalars are written, including ones changed back to
+     * their default value.  Embedded messages are compared field by field in turn, and maps only write the entries
+     * which were added or changed.
+     * <p>
+     * Merging can't remove elements, entries or messages, so it's an error for a repeated field to change unless it
+     * was empty, for a map to lose keys, or for a message field to be cleared, and the full message has to be sent
+     * instead.  Values are compared with {@link java.util.Objects#deepEquals}, so repeated messages and message values
+     * of maps without their own {@code equals} only count as unchanged when they're the same instances.
+     *
+     * @throws IllegalArgumentException if the messages aren't of the same class
+     * @throws ProtobufSerializationException if a change can't be merged
+     */
+    public static <T> ByteBuffer serializeDelta(T previous, T current) throws IOException {
+        if (previous.getClass() != current.getClass()) {
+            throw new IllegalArgumentException("Can't compare " + current.getClass().getName() + " to a previous "
+                + previous.getClass().getName());
+        }
+        SerializationContext context = new SerializationContext();
+        DeltaEncoder delta = new DeltaEncoder(previous);
+        byte[] buffer = new byte[computeTopLevelSize(current, delta::computeSize, context)];
+        write(current, delta::write, ProtoWriter.forArray(buffer, 0), buffer.length, context);
+        return ByteBuffer.wrap(buffer);
+    }
+
+    /**
+     * Encodes the message straight into the buffer from its position, which may be a direct buffer, and advances the
+     * position past it.
+     *
+     * @return number of bytes written
+     * @throws ProtobufBufferOverflowException if the message doesn't fit in the remaining bytes, in which case the
+     * buffer is left untouched
+     */
+    public static <T> int serializeTo(T message, ByteBuffer buffer) throws IOException {
+        SerializationContext context = new SerializationContext();
+        int size = computeTopLevelSize(message, context);
+        if (size > buffer.remaining()) {
+            throw new ProtobufBufferOverflowException(size, buffer.remaining());
+        }
+        write(message, ProtoWriter.forBuffer(buffer), size, context);
+        ((Buffer) buffer).position(buffer.position() + size);
+        return size;
+    }
+
+    /**
+     * Streams the message to the output through a fixed-size chunk, so large messages are never held in memory.  The
+     * stream isn't flushed or closed.
+     *
+     * @return number of bytes written
+     */
+    public static <T> int serialize(T message, OutputStream out) throws IOException {
+        return stream(message, ProtoWriter.forStream(out, STREAM_CHUNK_SIZE), new SerializationContext());
+    }
+
+    /**
+     * Streams the message to a blocking channel through a fixed-size chunk, so large messages are never held in
+     * memory.
+     *
+     * @return number of bytes written
+     */
+    public static <T> int serialize(T message, WritableByteChannel channel) throws IOException {
+        return stream(message, ProtoWriter.forChannel(channel, STREAM_CHUNK_SIZE), new SerializationContext());
+    }
+
+    /**
+     * Serializes independent messages in parallel on the common {@link java.util.concurrent.ForkJoinPool}, returning
+     * their buffers in the order of the list.
+     */
+    public static <T> List<ByteBuffer> serializeAll(List<T> messages) throws IOException {
+        return BatchSerializer.serializeAll(messages, BatchSerializer.defaultExecutor());
+    }
+
+    /**
+     * Serializes independent messages in parallel on the executor, returning their buffers in the order of the list.
+     * The messages must not change until this returns.
+     */
+    public static <T> List<ByteBuffer> serializeAll(List<T> messages, Executor executor) throws IOException {
+        return BatchSerializer.serializeAll(messages, executor);
+    }
+
+    /**
+     * Serializes independent messages in parallel on the common {@link java.util.concurrent.ForkJoinPool}, back to back
+     * into a single buffer in the order of the list.
+     */
+    public static <T> SerializedBatch serializeBatch(List<T> messages) throws IOException {
+        return BatchSerializer.serializeContiguous(messages, BatchSerializer.defaultExecutor());
+    }
+
+    /**
+     * Serializes independent messages in parallel on the executor, back to back into a single buffer in the order of
+     * the list.  The messages must not change until this returns.
+     */
+    public static <T> SerializedBatch serializeBatch(List<T> messages, Executor executor) throws IOException {
+        return BatchSerializer.serializeContiguous(messages, executor);
+    }
+
+    /**
+     * Installs a listener called for every top-level message serialized or failing to serialize, from any thread.
+     * Passing null disables metrics again, which skips timing altogether, and failures are then only logged.
+     */
+    public static void setMetrics(SerializerMetrics metrics) {
+        ProtobufSerializer.metrics = metrics;
+    }
+
+    /**
+     * Listener installed with {@link #setMetrics}, or null if none.
+     */
+    public static SerializerMetrics getMetrics() {
+        return metrics;
+    }
+
+    static int stream(Object message, ProtoWriter out, SerializationContext context) throws IOException {
+        int size = computeTopLevelSize(message, context);
+        write(message, out, size, context);
+        out.flush();
+        return size;
+    }
+
+    /**
+     * Write pass for a top-level message, into a sink with room for its computed size.  The sink may already hold
+     * earlier messages.
+     */
+    static void write(Object message, ProtoWriter out, int size, SerializationContext context)
+        throws IOException {
+        write(message, ProtobufSerializer::writeMessage, out, size, context);
+    }
+
+    private static void write(Object message, WritePass writePass, ProtoWriter out, int size,
+        SerializationContext context) throws IOException {
+        int start = out.getBytesWritten();
+        try {
+            try {
+                writePass.write(out, message, context);
+            } catch (IndexOutOfBoundsException | BufferOverflowException e) {
+                // Grew past the size computed for it
+                throw messageChanged(message, size);
+            }
+            checkSize(message, size, out.getBytesWritten() - start);
+        } catch (RuntimeException e) {
+            throw failed(message, e);
+        } catch (IOException e) {
+            throw failed(message, e);
+        }
+        SerializerMetrics metrics = ProtobufSerializer.metrics;
+        long startNanos = context.getStartNanos();
+        if (metrics != null && startNanos != 0) {
+            metrics.onSerialized(message.getClass(), size, System.nanoTime() - startNanos);
+        }
+    }
+
+    /**
+     * Number of bytes the message serializes to, e.g. to pre-allocate a frame for it.
+     */
+    public static <T> int serializedSize(T message) {
+        return computeTopLevelSize(message, new SerializationContext());
+    }
+
+    /**
+     * Number of bytes the fields of the message selected by the mask serialize to.
+     */
+    public static <T> int serializedSize(T message, FieldMask mask) {
+        return computeTopLevelSize(message, (m, c) -> computeMaskedSize(m, mask, c), new SerializationContext());
+    }
+
+    /**
+     * Size pass for a top-level message, which starts timing it when metrics are enabled.
+     */
+    static int computeTopLevelSize(Object message, SerializationContext context) {
+        return computeTopLevelSize(message, ProtobufSerializer::computeMessageSize, context);
+    }
+
+    private static int computeTopLevelSize(Object message, SizePass sizePass, SerializationContext context) {
+        context.setStartNanos(metrics != null ? System.nanoTime() : 0);
+        try {
+            return sizePass.computeSize(message, context);
+        } catch (RuntimeException e) {
+            throw failed(message, e);
+        }
+    }
+
+    /**
+     * Reports a top-level message which failed to serialize, and returns the error to be rethrown.
+     */
+    static <E extends Exception> E failed(Object message, E error) {
+        SerializerMetrics metrics = ProtobufSerializer.metrics;
+        if (metrics != null) {
+            metrics.onFailed(message.getClass(), error);
+        } else if (error instanceof ProtobufSerializationException) {
+            logger.error("Serialization failed class={} error={}", message.getClass().getName(), error.getMessage());
+        }
+        return error;
+    }
+
+    /**
+     * Size pass, which also runs the circular reference and depth checks.
+     */
+    static int computeMessageSize(Object message, SerializationContext context) {
+        context.enterMessage(message);
+        try {
+            return computeFieldsSize(message, context);
+        } finally {
+            context.exitMessage(message);
+        }
+    }
+
+    private static int computeFieldsSize(Object message, SerializationContext context) {
+        // Prefer a serializer generated at compile time
+        MessageSerializer<Object> generatedSerializer = GeneratedSerializers.forClass(message.getClass());
+        if (generatedSerializer != null) {
+            return generatedSerializer.computeSize(message, context);
+        }
+        // Field numbers, accessors and keys are resolved once per class
+        MessageSchema schema = MessageSchema.forClass(message.getClass());
+        int size = 0;
+        for (FieldSchema field : schema.getFields()) {
+            size += computeFieldSize(field, message, context);
+        }
+        return size;
+    }
+
+    /**
+     * Size of a field of the message including its keys, or 0 if it's missing.
+     */
+    static int computeFieldSize(FieldSchema field, Object message, SerializationContext context) {
+        ProtobufType protobufType = field.getProtobufType();
+        // Primitives are never missing, and are read without boxing
+        if (field.isPrimitive()) {
+            return field.getTag().length + computePrimitiveSize(protobufType, field.getAccessor(), message);
+        }
+        Object value = field.getValue(message);
+        // Skip adding missing values
+        if (value == null) {
+            return 0;
+        }
+        int size = 0;
+        if (protobufType == ProtobufType.MAP) {
+            size += field.getMapEncoder().computeSize((Map<?, ?>) value, context);
+        } else if (protobufType == ProtobufType.MESSAGE) {
+            size += computeEmbeddedSize(field.getDelimitedTag().length, value, context);
+        } else if (value instanceof Iterable) {
+            if (isPackable(protobufType)) {
+                int packedSize = computePackedSize(field, (Iterable) value);
+                if (packedSize > 0) {
+                    size += field.getDelimitedTag().length + computeLengthDelimitedSize(packedSize);
                 }
-                visitedFieldNumbers.add(fieldNumber);
-                // Has a custom getter method?
-                Object value;
-                try {
-                    if (fieldAnnotation.getterMethod().length() > 0) {
-                        value = message.getClass().getMethod(fieldAnnotation.getterMethod()).invoke(message);
-                    } else {
-                        value = field.get(message);
+            } else {
+                for (Object iteratedValue : (Iterable) value) {
+                    if (iteratedValue != null) {
+                        size += field.getTag().length + computeFieldValueSize(field, iteratedValue);
                     }
-                } catch (ReflectiveOperationException e) {
-                    /*
-                        Swallowing checked reflection exceptions since they won't be recoverable w/o programming changes
-                        anyway
-                     */
-                    logger
-                        .error("Error during reflection operation class={} field={} nestedLevel={} number={} error={}",
-                            className, field.getName(), numLevel, fieldNumber, e.getMessage());
-                    throw new ProtobufSerializationException(e.getMessage());
                 }
-                // Skip adding missing values
-                if (value != null) {
-                    boolean isIterable = value instanceof Iterable;
-                    /*
-                     *  Embedded messages are treated in exactly the same way as strings (wire type = 2).
-                     *  If repeated, the encoded message has zero or more key-value pairs with the same field number.
-                     */
-                    if (protobufType == ProtobufType.MESSAGE) {
-                        int nextLevel = ++numLevel;
-                        if (!isIterable) {
-                            value = Collections.singletonList(value);
-                        }
+            }
+        } else if (isPackable(protobufType) && PrimitiveArrays.isPrimitiveArray(value)) {
+            int packedSize = PrimitiveArrays.computePackedSize(protobufType, value);
+            if (packedSize > 0) {
+                size += field.getDelimitedTag().length + computeLengthDelimitedSize(packedSize);
+            }
+        } else if (!isEmptyString(protobufType, value)) {
+            size += field.getTag().length + computeFieldValueSize(field, value);
+        }
+        return size;
+    }
+
+    /**
+     * Write pass, encoding a message the size pass has already been run for with the same context.
+     */
+    static void writeMessage(ProtoWriter out, Object message, SerializationContext context) throws IOException {
+        MessageSerializer<Object> generatedSerializer = GeneratedSerializers.forClass(message.getClass());
+        if (generatedSerializer != null) {
+            generatedSerializer.serialize(message, out, context);
+            return;
+        }
+        MessageSchema schema = MessageSchema.forClass(message.getClass());
+        for (FieldSchema field : schema.getFields()) {
+            writeField(out, field, message, context);
+        }
+    }
+
+    static void writeField(ProtoWriter out, FieldSchema field, Object message, SerializationContext context)
+        throws IOException {
+        ProtobufType protobufType = field.getProtobufType();
+        if (field.isPrimitive()) {
+            out.writeTag(field.getTag());
+            appendPrimitive(out, protobufType, field.getAccessor(), message);
+            return;
+        }
+        Object value = field.getValue(message);
+        if (value == null) {
+            return;
+        }
+        if (protobufType == ProtobufType.MAP) {
+            field.getMapEncoder().write(out, (Map<?, ?>) value, context);
+        } else if (protobufType == ProtobufType.MESSAGE) {
+            appendMessage(out, field.getDelimitedTag(), value, context);
+        } else if (value instanceof Iterable) {
+            if (isPackable(protobufType)) {
+                /*
+                 * A packed repeated field containing zero elements does not appear in the encoded message.
+                 * Otherwise, all of the elements of the field are packed into a single key-value pair with wire
+                 * type 2 (length-delimited). Each element is encoded the same way it would be normally, except
+                 * without a key preceding it.
+                 *
+                 * Repeated fields of scalar numeric types are packed by default
+                 */
+                int packedSize = computePackedSize(field, (Iterable) value);
+                if (packedSize > 0) {
+                    out.writeTag(field.getDelimitedTag());
+                    out.writeVarint(packedSize);
+                    if (field.getEnumTable() != null) {
+                        field.getEnumTable().writePacked(out, (Iterable) value);
+                    } else {
                         for (Object iteratedValue : (Iterable) value) {
-                            ByteBuffer nestedMessage = serialize(new ByteArrayOutputStream(), iteratedValue,
-                                nextLevel, visitedMessages, new HashSet<>());
-                            if (nestedMessage.hasArray() && nestedMessage.array().length > 0) {
-                                appendPrefix(byteStream, ProtobufType.BYTES, fieldNumber);
-                                append(byteStream, ProtobufType.BYTES, nestedMessage.array());
+                            if (iteratedValue != null) {
+                                append(out, protobufType, iteratedValue);
                             }
                         }
-                    } else {
-                        if (isIterable) {
-                            /*
-                             * A packed repeated field containing zero elements does not appear in the encoded message.
-                             * Otherwise, all of the elements of the field are packed into a single key-value pair with wire
-                             * type 2 (length-delimited). Each element is encoded the same way it would be normally, except
-                             * without a key preceding it.
-                             *
-                             * Repeated fields of scalar numeric types are packed by default
-                             */
-                            ByteArrayOutputStream iterableBytes = new ByteArrayOutputStream();
-                            for (Object iteratedValue : (Iterable) value) {
-                                if (iteratedValue != null) {
-                                    append(iterableBytes, protobufType, iteratedValue);
-                                }
-                            }
-                            if (iterableBytes.size() > 0) {
-                                appendPrefix(byteStream, ProtobufType.BYTES, fieldNumber);
-                                append(byteStream, ProtobufType.BYTES, iterableBytes.toByteArray());
-                            }
-                        } else {
-                            appendPrefix(byteStream, protobufType, fieldNumber);
-                            append(byteStream, protobufType, value);
+                    }
+                }
+            } else {
+                // Strings and bytes can't be packed, every element gets its own key
+                for (Object iteratedValue : (Iterable) value) {
+                    if (iteratedValue != null) {
+                        out.writeTag(field.getTag());
+                        appendFieldValue(out, field, iteratedValue);
+                    }
+                }
+            }
+        } else if (isPackable(protobufType) && PrimitiveArrays.isPrimitiveArray(value)) {
+            // Primitive arrays are packed the same way, without boxing the elements
+            int packedSize = PrimitiveArrays.computePackedSize(protobufType, value);
+            if (packedSize > 0) {
+                out.writeTag(field.getDelimitedTag());
+                out.writeVarint(packedSize);
+                PrimitiveArrays.writePacked(out, protobufType, value);
+            }
+        } else if (!isEmptyString(protobufType, value)) {
+            out.writeTag(field.getTag());
+            appendFieldValue(out, field, value);
+        }
+    }
+
+    /**
+     * Size pass over the fields of a message selected by the mask, which also runs the circular reference and depth
+     * checks.
+     */
+    private static int computeMaskedSize(Object message, FieldMask mask, SerializationContext context) {
+        context.enterMessage(message);
+        try {
+            int size = 0;
+            for (FieldMask.Selection selection : mask.getSelections(message.getClass())) {
+                FieldSchema field = selection.getField();
+                FieldMask submask = selection.getSubmask();
+                if (submask == null) {
+                    size += computeFieldSize(field, message, context);
+                    continue;
+                }
+                Object value = field.getValue(message);
+                if (value instanceof Iterable) {
+                    for (Object iteratedValue : (Iterable) value) {
+                        if (iteratedValue != null) {
+                            size += computeMaskedEmbeddedSize(field, iteratedValue, submask, context);
                         }
                     }
+                } else if (value != null) {
+                    size += computeMaskedEmbeddedSize(field, value, submask, context);
                 }
             }
+            return size;
+        } finally {
+            context.exitMessage(message);
         }
-        return ByteBuffer.wrap(byteStream.toByteArray());
     }
 
-    private static void markClassAsVisited(String className, int currentLevel,
-        Map<String, List<Integer>> visitedMessages) {
-        if (!visitedMessages.containsKey(className)) {
-            visitedMessages.put(className, new ArrayList<>());
+    private static int computeMaskedEmbeddedSize(FieldSchema field, Object message, FieldMask mask,
+        SerializationContext context) {
+        int slot = context.reserveSize();
+        int messageSize = computeMaskedSize(message, mask, context);
+        context.recordSize(slot, messageSize);
+        return messageSize > 0 ? field.getDelimitedTag().length + computeLengthDelimitedSize(messageSize) : 0;
+    }
+
+    /**
+     * Write pass over the fields of a message selected by the mask, after {@link #computeMaskedSize}.
+     */
+    private static void writeMaskedMessage(ProtoWriter out, Object message, FieldMask mask,
+        SerializationContext context) throws IOException {
+        for (FieldMask.Selection selection : mask.getSelections(message.getClass())) {
+            FieldSchema field = selection.getField();
+            FieldMask submask = selection.getSubmask();
+            if (submask == null) {
+                writeField(out, field, message, context);
+                continue;
+            }
+            Object value = field.getValue(message);
+            if (value instanceof Iterable) {
+                for (Object iteratedValue : (Iterable) value) {
+                    if (iteratedValue != null) {
+                        writeMaskedEmbeddedMessage(out, field, iteratedValue, submask, context);
+                    }
+                }
+            } else if (value != null) {
+                writeMaskedEmbeddedMessage(out, field, value, submask, context);
+            }
         }
-        visitedMessages.get(className).add(currentLevel);
     }
 
-    private static boolean isCircularReference(String className, int currentLevel,
-        Map<String, List<Integer>> visitedMessages) {
-        // Has this class been seen at another recursion level already?
-        if (visitedMessages.containsKey(className)) {
-            return visitedMessages.get(className).stream().anyMatch(level -> level != currentLevel);
+    private static void writeMaskedEmbeddedMessage(ProtoWriter out, FieldSchema field, Object message, FieldMask mask,
+        SerializationContext context) throws IOException {
+        int messageSize = context.nextSize();
+        if (messageSize > 0) {
+            out.writeTag(field.getDelimitedTag());
+            out.writeVarint(messageSize);
+            int start = out.getBytesWritten();
+            writeMaskedMessage(out, message, mask, context);
+            checkSize(message, messageSize, out.getBytesWritten() - start);
+        }
+    }
+
+    /**
+     * Size of a single non-packed value, from the field's cache of encoded strings or enum table if it has one.
+     */
+    private static int computeFieldValueSize(FieldSchema field, Object value) {
+        EncodedStringCache stringCache = field.getStringCache();
+        if (stringCache != null) {
+            return stringCache.computeSize((String) value);
         }
-        return false;
+        EnumTable enumTable = field.getEnumTable();
+        return enumTable != null ? enumTable.computeSize((Enum<?>) value)
+            : computeValueSize(field.getProtobufType(), value);
     }
 
-    static void append(ByteArrayOutputStream byteStream, ProtobufType type, Object value) throws IOException {
+    /**
+     * Appends a single non-packed value, from the field's cache of encoded strings or enum table if it has one.
+     */
+    private static void appendFieldValue(ProtoWriter out, FieldSchema field, Object value) throws IOException {
+        EncodedStringCache stringCache = field.getStringCache();
+        EnumTable enumTable = field.getEnumTable();
+        if (stringCache != null) {
+            stringCache.write(out, (String) value);
+        } else if (enumTable != null) {
+            enumTable.write(out, (Enum<?>) value);
+        } else {
+            append(out, field.getProtobufType(), value);
+        }
+    }
+
+    private static int computePackedSize(FieldSchema field, Iterable<?> values) {
+        EnumTable enumTable = field.getEnumTable();
+        return enumTable != null ? enumTable.computePackedSize(values)
+            : computePackedSize(field.getProtobufType(), values);
+    }
+
+    /**
+     * Size of an embedded message, or each message of an {@link Iterable}, including keys and length prefixes.  The
+     * size of every message is recorded in the context for {@link #appendMessage}.
+     */
+    static int computeEmbeddedSize(int tagSize, Object value, SerializationContext context) {
+        if (!(value instanceof Iterable)) {
+            return computeEmbeddedMessageSize(tagSize, value, context);
+        }
+        int size = 0;
+        for (Object iteratedValue : (Iterable) value) {
+            if (iteratedValue != null) {
+                size += computeEmbeddedMessageSize(tagSize, iteratedValue, context);
+            }
+        }
+        return size;
+    }
+
+    /**
+     * Size of a single embedded message including its key and length prefix, or 0 if it has no encoded fields and is
+     * skipped.
+     */
+    static int computeEmbeddedMessageSize(int tagSize, Object message, SerializationContext context) {
+        int slot = context.reserveSize();
+        int messageSize = EncodedMessageCache.isImmutable(message.getClass())
+            ? EncodedMessageCache.encode(message, context).length : computeMessageSize(message, context);
+        context.recordSize(slot, messageSize);
+        return messageSize > 0 ? tagSize + computeLengthDelimitedSize(messageSize) : 0;
+    }
+
+    /**
+     *  Embedded messages are treated in exactly the same way as strings (wire type = 2).
+     *  If repeated, the encoded message has zero or more key-value pairs with the same field number.
+     */
+    static void appendMessage(ProtoWriter out, byte[] tag, Object value, SerializationContext context)
+        throws IOException {
+        if (!(value instanceof Iterable)) {
+            appendEmbeddedMessage(out, tag, value, context);
+            return;
+        }
+        for (Object iteratedValue : (Iterable) value) {
+            if (iteratedValue != null) {
+                appendEmbeddedMessage(out, tag, iteratedValue, context);
+            }
+        }
+    }
+
+    private static void appendEmbeddedMessage(ProtoWriter out, byte[] tag, Object message,
+        SerializationContext context) throws IOException {
+        int messageSize = context.nextSize();
+        if (messageSize > 0) {
+            out.writeTag(tag);
+            out.writeVarint(messageSize);
+            writeEmbeddedMessage(out, message, messageSize, context);
+        }
+    }
+
+    /**
+     * Writes the fields of an embedded message after its key and length prefix, checking it still has the size
+     * recorded for it.
+     */
+    static void writeEmbeddedMessage(ProtoWriter out, Object message, int messageSize, SerializationContext context)
+        throws IOException {
+        if (EncodedMessageCache.isImmutable(message.getClass())) {
+            // Cached by the size pass, and kept while the message is reachable
+            byte[] encoded = EncodedMessageCache.encode(message, context);
+            checkSize(message, messageSize, encoded.length);
+            out.writeBytes(encoded);
+            return;
+        }
+        int start = out.getBytesWritten();
+        writeMessage(out, message, context);
+        checkSize(message, messageSize, out.getBytesWritten() - start);
+    }
+
+    /**
+     * Getters returning different values across the two passes would corrupt the length prefixes.
+     */
+    static void checkSize(Object message, int expectedSize, int actualSize) {
+        if (actualSize != expectedSize) {
+            throw messageChanged(message, expectedSize);
+        }
+    }
+
+    static ProtobufSerializationException messageChanged(Object message, int expectedSize) {
+        return new ProtobufSerializationException("Message changed during serialization "
+            + message.getClass().getName() + ", expected " + expectedSize + " bytes");
+    }
+
+    /**
+     * Repeated fields of scalar numeric types and enums are packed, strings, bytes, messages and maps can't be.
+     */
+    static boolean isPackable(ProtobufType type) {
+        return type != ProtobufType.STRING && type != ProtobufType.BYTES && type != ProtobufType.MESSAGE
+            && type != ProtobufType.MAP;
+    }
+
+    /**
+     * Empty strings are the proto3 default, and aren't written.
+     */
+    private static boolean isEmptyString(ProtobufType type, Object value) {
+        return type == ProtobufType.STRING && ((String) value).isEmpty();
+    }
+
+    static void append(ProtoWriter out, ProtobufType type, Object value) throws IOException {
         switch (type) {
             case DOUBLE:
-                appendFixed64(byteStream, (double) value);
+                out.writeFixed64((double) value);
                 break;
             case FLOAT:
-                appendFixed32(byteStream, (float) value);
+                out.writeFixed32((float) value);
                 break;
             case INT32:
+                out.writeVarint((int) value);
+                break;
             case UINT32:
+                out.writeUInt32((int) value);
+                break;
             case SINT32:
-                appendVarint(byteStream, (int) value);
+                out.writeSInt32((int) value);
                 break;
             case INT64:
             case UINT64:
+                out.writeVarint((long) value);
+                break;
             case SINT64:
-                appendVarint(byteStream, (long) value);
+                out.writeSInt64((long) value);
                 break;
             case SFIXED32:
             case FIXED32:
-                appendFixed32(byteStream, (int) value);
+                out.writeFixed32((int) value);
                 break;
             case SFIXED64:
             case FIXED64:
-                appendFixed64(byteStream, (long) value);
+                out.writeFixed64((long) value);
                 break;
             case BOOL:
-                appendVarint(byteStream, (boolean) value == true ? 1 : 0);
+                out.writeVarint((boolean) value ? 1 : 0);
                 break;
             case STRING:
-                appendLengthDelimited(byteStream, (String) value);
+                out.writeString((String) value);
                 break;
             case BYTES:
-                appendLengthDelimited(byteStream, (byte[]) value);
+                out.writeLengthDelimited((byte[]) value);
+                break;
+            case ENUM:
+                EnumTable.forValue((Enum<?>) value).write(out, (Enum<?>) value);
                 break;
         }
     }
 
+    static void appendPrimitive(ProtoWriter out, ProtobufType type, FieldAccessor accessor, Object message)
+        throws IOException {
+        switch (type) {
+            case DOUBLE:
+                out.writeFixed64(accessor.getDouble(message));
+                break;
+            case FLOAT:
+                out.writeFixed32(accessor.getFloat(message));
+                break;
+            case INT32:
+                out.writeVarint(accessor.getInt(message));
+                break;
+            case UINT32:
+                out.writeUInt32(accessor.getInt(message));
+                break;
+            case SINT32:
+                out.writeSInt32(accessor.getInt(message));
+                break;
+            case INT64:
+            case UINT64:
+                out.writeVarint(accessor.getLong(message));
+                break;
+            case SINT64:
+                out.writeSInt64(accessor.getLong(message));
+                break;
+            case SFIXED32:
+            case FIXED32:
+                out.writeFixed32(accessor.getInt(message));
+                break;
+            case SFIXED64:
+            case FIXED64:
+                out.writeFixed64(accessor.getLong(message));
+                break;
+            case BOOL:
+                out.writeVarint(accessor.getBoolean(message) ? 1 : 0);
+                break;
+        }
+    }
+
+    static int computeValueSize(ProtobufType type, Object value) {
+        switch (type) {
+            case DOUBLE:
+                return computeFixed64Size((double) value);
+            case FLOAT:
+                return computeFixed32Size((float) value);
+            case INT32:
+                return computeVarintSize((int) value);
+            case UINT32:
+                return computeUInt32Size((int) value);
+            case SINT32:
+                return computeSInt32Size((int) value);
+            case INT64:
+            case UINT64:
+                return computeVarintSize((long) value);
+            case SINT64:
+                return computeSInt64Size((long) value);
+            case SFIXED32:
+            case FIXED32:
+                return computeFixed32Size((int) value);
+            case SFIXED64:
+            case FIXED64:
+                return computeFixed64Size((long) value);
+            case BOOL:
+                return computeVarintSize((boolean) value ? 1 : 0);
+            case STRING:
+                return computeStringSize((String) value);
+            case BYTES:
+                return computeBytesSize((byte[]) value);
+            case ENUM:
+                return EnumTable.forValue((Enum<?>) value).computeSize((Enum<?>) value);
+            default:
+                return 0;
+        }
+    }
+
+    static int computePrimitiveSize(ProtobufType type, FieldAccessor accessor, Object message) {
+        switch (type) {
+            case DOUBLE:
+            case SFIXED64:
+            case FIXED64:
+                return 8;
+            case FLOAT:
+            case SFIXED32:
+            case FIXED32:
+                return 4;
+            case INT32:
+                return computeVarintSize(accessor.getInt(message));
+            case UINT32:
+                return computeUInt32Size(accessor.getInt(message));
+            case SINT32:
+                return computeSInt32Size(accessor.getInt(message));
+            case INT64:
+            case UINT64:
+                return computeVarintSize(accessor.getLong(message));
+            case SINT64:
+                return computeSInt64Size(accessor.getLong(message));
+            case BOOL:
+                return 1;
+            default:
+                return 0;
+        }
+    }
+
+    /**
+     * Size of the packed payload of a repeated scalar field, excluding its key and length prefix.
+     */
+    static int computePackedSize(ProtobufType type, Iterable<?> values) {
+        int size = 0;
+        for (Object value : values) {
+            if (value != null) {
+                size += computeValueSize(type, value);
+            }
+        }
+        return size;
+    }
+
+    public static int computeVarintSize(long in) {
+        // 7 bits per byte, and zero still takes a byte
+        int numBits = 64 - Long.numberOfLeadingZeros(in);
+        return numBits == 0 ? 1 : (numBits + 6) / 7;
+    }
+
+    public static int computeUInt32Size(int in) {
+        return computeVarintSize(in & 0xFFFFFFFFL);
+    }
+
+    public static int computeSInt32Size(int in) {
+        return computeUInt32Size((in << 1) ^ (in >> 31));
+    }
+
+    public static int computeSInt64Size(long in) {
+        return computeVarintSize((in << 1) ^ (in >> 63));
+    }
+
+    public static int computeFixed32Size(int in) {
+        return 4;
+    }
+
+    public static int computeFixed32Size(float in) {
+        return 4;
+    }
+
+    public static int computeFixed64Size(long in) {
+        return 8;
+    }
+
+    public static int computeFixed64Size(double in) {
+        return 8;
+    }
+
+    /**
+     * Size of a length prefix and the given number of bytes following it.
+     */
+    public static int computeLengthDelimitedSize(int length) {
+        return computeVarintSize(length) + length;
+    }
+
+    public static int computeStringSize(String in) {
+        return computeLengthDelimitedSize(computeUtf8Length(in));
+    }
+
+    public static int computeBytesSize(byte[] in) {
+        return computeLengthDelimitedSize(in.length);
+    }
+
+    /**
+     * Number of bytes {@link java.nio.charset.StandardCharsets#UTF_8} encodes the string to, without encoding it.
+     * Unpaired surrogates are replaced by a single byte.
+     */
+    static int computeUtf8Length(CharSequence in) {
+        return Utf8.encodedLength(in);
+    }
+
     /**
      * varint encoded length followed by the specified number of bytes of data.
      */
@@ -191,45 +851,39 @@ public class ProtobufSerializer {
         if (in == null || in.length() == 0) {
             return;
         }
-        /*
-         * A string must always contain UTF-8 encoded.
-         *
-         * The capacity of the underlying byte array storing the encoded string data can be greater than what is
-         * actually being used, so we trim off unused parts of the byte array.
-         */
-        ByteBuffer stringBuffer = StandardCharsets.UTF_8.encode(in);
-        appendLengthDelimited(byteStream, Arrays.copyOf(stringBuffer.array(), stringBuffer.limit()));
+        appendString(byteStream, in);
+    }
+
+    /**
+     * Length-delimited string value, writing a zero length for empty strings.
+     */
+    static void appendString(ByteArrayOutputStream byteStream, String in) throws IOException {
+        ProtoWriter.forStream(byteStream).writeString(in);
     }
 
     static void appendLengthDelimited(ByteArrayOutputStream byteStream, byte[] in) throws IOException {
-        // Add # of bytes
-        appendVarint(byteStream, in.length);
-        // Add content
-        byteStream.write(in);
+        ProtoWriter.forStream(byteStream).writeLengthDelimited(in);
     }
 
-    /**
-     * Non-varint numeric type values are stored in little endian byte order.  Java is big endian.
-     */
     static void appendFixed32(ByteArrayOutputStream byteStream, int in) throws IOException {
-        byteStream.write(ByteBuffer.allocate(4).order(ByteOrder.LITTLE_ENDIAN).putInt(in).array());
+        ProtoWriter.forStream(byteStream).writeFixed32(in);
     }
 
     static void appendFixed32(ByteArrayOutputStream byteStream, float in) throws IOException {
-        byteStream.write(ByteBuffer.allocate(4).order(ByteOrder.LITTLE_ENDIAN).putFloat(in).array());
+        ProtoWriter.forStream(byteStream).writeFixed32(in);
     }
 
     static void appendFixed64(ByteArrayOutputStream byteStream, long in) throws IOException {
-        byteStream.write(ByteBuffer.allocate(8).order(ByteOrder.LITTLE_ENDIAN).putLong(in).array());
+        ProtoWriter.forStream(byteStream).writeFixed64(in);
     }
 
     static void appendFixed64(ByteArrayOutputStream byteStream, double in) throws IOException {
-        byteStream.write(ByteBuffer.allocate(8).order(ByteOrder.LITTLE_ENDIAN).putDouble(in).array());
+        ProtoWriter.forStream(byteStream).writeFixed64(in);
     }
 
     // Each key in the streamed message is a varint with the value (field_number << 3) | wire_type
     static void appendPrefix(ByteArrayOutputStream byteStream, ProtobufType type, int fieldNumber) throws IOException {
-        if (fieldNumber > MAX_FIELD_NUMBER || fieldNumber < MIN_FIELD_NUMBER) {
+        if (fieldNumber > SchemaRules.MAX_FIELD_NUMBER || fieldNumber < SchemaRules.MIN_FIELD_NUMBER) {
             throw new ProtobufSerializationException("Invalid field number " + fieldNumber);
         }
         WireType wireType = TypeMapper.getWireType(type);
@@ -237,34 +891,23 @@ public class ProtobufSerializer {
         appendVarint(byteStream, valueToEncode);
     }
 
+    static void appendVarint(ByteArrayOutputStream byteStream, long in) throws IOException {
+        ProtoWriter.forStream(byteStream).writeVarint(in);
+    }
+
     /**
-     * Each byte in a varint, except the last byte, has the most significant bit (msb) set – this indicates that there
-     * are further bytes to come. The lower 7 bits of each byte are used to store the two's complement representation of
-     * the number in groups of 7 bits, least significant group first.
+     * Size pass over a top-level message, for serializations encoding only some of its fields.
      */
-    static void appendVarint(ByteArrayOutputStream byteStream, long in) throws IOException {
-        if (byteStream == null) {
-            byteStream = new ByteArrayOutputStream();
-        }
-        // Just exit early if zero
-        if (in == 0) {
-            byteStream.write(new byte[]{0});
-            return;
-        }
-        BitSet inAsBitSet = BitSet.valueOf(new long[]{in});
-        int numLeadingZeros = Long.numberOfLeadingZeros(in);
-        int lastIdx = 64 - numLeadingZeros;
-        // Iterate over bits of input, skipping leading zeros
-        for (int i = 0; i < lastIdx; i = i + 7) {
-            boolean isLastByte = (i + 7 >= lastIdx);
-            // last index to copy is exclusive
-            int lastIdxToCopy = isLastByte ? lastIdx : i + 7;
-            // copy bits from input
-            BitSet curByte = inAsBitSet.get(i, lastIdxToCopy);
-            // set msb
-            curByte.set(7, !isLastByte);
-            byteStream.write(curByte.toByteArray());
-        }
+    private interface SizePass {
+
+        int computeSize(Object message, SerializationContext context);
     }
 
+    /**
+     * Write pass matching a {@link SizePass}.
+     */
+    private interface WritePass {
+
+        void write(ProtoWriter out, Object message, SerializationContext context) throws IOException;
+    }
 }
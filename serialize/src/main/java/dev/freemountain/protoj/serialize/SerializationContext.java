@@ -0,0 +1,152 @@
+package dev.freemountain.protoj.serialize;
+
+import dev.freemountain.protoj.api.ProtobufSerializationException;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.IdentityHashMap;
+
+/**
+ * State for a single top-level serialization, threaded through every embedded message.  Generated
+ * {@link MessageSerializer}s hand embedded messages back through {@link #writeMessage} so they get the same circular
+ * reference checks as reflectively serialized ones.
+ * <p>
+ * The size pass records the size of every embedded message in traversal order, and the write pass reads them back in
+ * the same order for the length prefixes.
+ * <p>
+ * Cycles are found by identity along the path of messages currently being sized, so a message may embed other
+ * instances of its own class, e.g. a tree of nodes, and even share instances between branches.
+ */
+public final class SerializationContext {
+
+    // Messages from the top-level message down to the one being sized
+    private final IdentityHashMap<Object, Boolean> path;
+    private int level;
+    private final int maxDepth;
+    private static final int INITIAL_SIZES = 8;
+
+    private int[] sizes = new int[INITIAL_SIZES];
+    private int sizeCount;
+    private int sizeCursor;
+    // When the size pass started, or 0 if it isn't timed
+    private long startNanos;
+    private final EncodedMessageCache.Lookup cacheLookup = new EncodedMessageCache.Lookup();
+
+    SerializationContext() {
+        this(ProtobufSerializer.DEFAULT_MAX_DEPTH);
+    }
+
+    /**
+     * @param maxDepth how many levels of embedded messages are serialized before giving up
+     */
+    SerializationContext(int maxDepth) {
+        if (maxDepth < 0) {
+            throw new IllegalArgumentException("Invalid max depth " + maxDepth);
+        }
+        this.path = new IdentityHashMap<>();
+        this.maxDepth = maxDepth;
+    }
+
+    /**
+     * Context for serializing an embedded message on its own, with its own sizes but sharing the path of messages
+     * above it for the circular reference and depth checks.
+     */
+    SerializationContext(SerializationContext parent) {
+        this.path = parent.path;
+        this.level = parent.level;
+        this.maxDepth = parent.maxDepth;
+    }
+
+    /**
+     * Writes an embedded message, or each message of an {@link Iterable}, keyed by the given pre-encoded tag.
+     * Messages without any encoded fields are skipped.
+     */
+    public void writeMessage(ProtoWriter out, byte[] tag, Object value) throws IOException {
+        ProtobufSerializer.appendMessage(out, tag, value, this);
+    }
+
+    /**
+     * Size of an embedded message, or each message of an {@link Iterable}, including keys and length prefixes.
+     */
+    public int computeMessageSize(byte[] tag, Object value) {
+        return ProtobufSerializer.computeEmbeddedSize(tag.length, value, this);
+    }
+
+    /**
+     * Reserves the slot for the size of the next embedded message, before its own embedded messages are visited.
+     */
+    int reserveSize() {
+        if (sizeCount == sizes.length) {
+            sizes = Arrays.copyOf(sizes, sizes.length * 2);
+        }
+        return sizeCount++;
+    }
+
+    void recordSize(int slot, int size) {
+        sizes[slot] = size;
+        if (size == 0) {
+            // Empty messages are never written, so neither are the messages embedded in them
+            sizeCount = slot + 1;
+        }
+    }
+
+    int nextSize() {
+        return sizes[sizeCursor++];
+    }
+
+    /**
+     * Moves back to the first recorded size, for a write pass over every message sized since the last reset.
+     */
+    void rewind() {
+        sizeCursor = 0;
+    }
+
+    /**
+     * Clears the state of the last serialization so the context can be reused, dropping a size memo grown beyond the
+     * given number of messages.
+     */
+    void reset(int maxRetainedSizes) {
+        path.clear();
+        level = 0;
+        sizeCount = 0;
+        sizeCursor = 0;
+        if (sizes.length > Math.max(maxRetainedSizes, INITIAL_SIZES)) {
+            sizes = new int[INITIAL_SIZES];
+        }
+    }
+
+    /**
+     * Key for looking up immutable messages in the {@link EncodedMessageCache}.
+     */
+    EncodedMessageCache.Lookup getCacheLookup() {
+        return cacheLookup;
+    }
+
+    long getStartNanos() {
+        return startNanos;
+    }
+
+    void setStartNanos(long startNanos) {
+        this.startNanos = startNanos;
+    }
+
+    /**
+     * Pushes the message onto the path, checking it isn't already on it and the path isn't too deep.  The top-level
+     * message is at level 0.
+     */
+    void enterMessage(Object message) {
+        if (level > maxDepth) {
+            throw new ProtobufSerializationException("Messages nested deeper than " + maxDepth + " levels at "
+                + message.getClass().getName());
+        }
+        if (path.put(message, Boolean.TRUE) != null) {
+            throw new ProtobufSerializationException(
+                "Circular reference found for " + message.getClass().getName() + " at nested level " + level);
+        }
+        level++;
+    }
+
+    void exitMessage(Object message) {
+        level--;
+        path.remove(message);
+    }
+}
@@ -0,0 +1,50 @@
+package dev.freemountain.protoj.serialize;
+
+import java.nio.Buffer;
+import java.nio.ByteBuffer;
+
+/**
+ * Messages serialized back to back into a single buffer, with an index of where each one starts.
+ */
+public final class SerializedBatch {
+
+    private final byte[] buffer;
+    // Offset of every message, followed by the end of the last one
+    private final int[] offsets;
+
+    SerializedBatch(byte[] buffer, int[] offsets) {
+        this.buffer = buffer;
+        this.offsets = offsets;
+    }
+
+    /**
+     * Number of messages in the batch.
+     */
+    public int size() {
+        return offsets.length - 1;
+    }
+
+    /**
+     * All messages, without any delimiters between them.
+     */
+    public ByteBuffer getBuffer() {
+        return ByteBuffer.wrap(buffer);
+    }
+
+    public int getOffset(int index) {
+        return offsets[index];
+    }
+
+    public int getLength(int index) {
+        return offsets[index + 1] - offsets[index];
+    }
+
+    /**
+     * The encoded message at the index, as a slice sharing the batch's buffer.
+     */
+    public ByteBuffer getMessage(int index) {
+        ByteBuffer message = ByteBuffer.wrap(buffer);
+        ((Buffer) message).limit(offsets[index + 1]).position(offsets[index]);
+        return message.slice();
+    }
+}
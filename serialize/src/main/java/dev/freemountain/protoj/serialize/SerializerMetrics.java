@@ -0,0 +1,23 @@
+package dev.freemountain.protoj.serialize;
+
+/**
+ * Listener for every top-level message serialized, installed with {@link ProtobufSerializer#setMetrics}, e.g. to find
+ * the message types which dominate serialization time and output.  Embedded messages are accounted to the top-level
+ * message they're embedded in.
+ * <p>
+ * Listeners are called on the serializing threads, so they must be thread-safe and cheap.  {@link SerializerStats}
+ * aggregates per-class counts, bytes, latencies and errors, and can expose them over JMX.
+ */
+public interface SerializerMetrics {
+
+    /**
+     * @param size number of bytes the message was encoded to
+     * @param nanos time from the start of the size pass to the end of the write pass
+     */
+    void onSerialized(Class<?> messageClass, int size, long nanos);
+
+    /**
+     * @param error exception about to be thrown to the caller
+     */
+    void onFailed(Class<?> messageClass, Exception error);
+}
@@ -0,0 +1,148 @@
+package dev.freemountain.protoj.serialize;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.WritableByteChannel;
+
+/**
+ * Opt-in alternative to the static {@link ProtobufSerializer} methods which recycles its scratch memory across calls.
+ * Every thread gets its own output buffer, stream chunk and {@link SerializationContext}, so repeated calls don't
+ * allocate anything per message.
+ * <p>
+ * Buffers grown beyond the configured cap aren't retained, so one huge message doesn't pin its buffer for the lifetime
+ * of the thread.
+ */
+public final class SerializerPool {
+
+    public static final int DEFAULT_MAX_RETAINED_SIZE = 1 << 20;
+    private static final int INITIAL_BUFFER_SIZE = 256;
+
+    private final int maxRetainedSize;
+    private final int maxDepth;
+    private final ThreadLocal<Arena> arenas = ThreadLocal.withInitial(Arena::new);
+
+    public SerializerPool() {
+        this(DEFAULT_MAX_RETAINED_SIZE);
+    }
+
+    /**
+     * @param maxRetainedSize largest buffer, in bytes, kept for reuse by each thread
+     */
+    public SerializerPool(int maxRetainedSize) {
+        this(maxRetainedSize, ProtobufSerializer.DEFAULT_MAX_DEPTH);
+    }
+
+    /**
+     * @param maxRetainedSize largest buffer, in bytes, kept for reuse by each thread
+     * @param maxDepth how many levels of embedded messages are serialized before giving up, see
+     * {@link ProtobufSerializer#serialize(Object, int)}
+     */
+    public SerializerPool(int maxRetainedSize, int maxDepth) {
+        if (maxRetainedSize < 0) {
+            throw new IllegalArgumentException("Invalid max retained size " + maxRetainedSize);
+        }
+        if (maxDepth < 0) {
+            throw new IllegalArgumentException("Invalid max depth " + maxDepth);
+        }
+        this.maxRetainedSize = maxRetainedSize;
+        this.maxDepth = maxDepth;
+    }
+
+    /**
+     * Serializes the message into the calling thread's buffer.
+     * <p>
+     * The returned buffer is only valid until the next call on the same thread, and its backing array may be longer
+     * than the message, so read it between its position and limit rather than through {@link ByteBuffer#array()}.
+     */
+    public <T> ByteBuffer serialize(T message) throws IOException {
+        Arena arena = arenas.get();
+        if (arena.inUse) {
+            // Serializing from within a getter, the arena is already taken
+            return ProtobufSerializer.serialize(message, maxDepth);
+        }
+        arena.inUse = true;
+        try {
+            SerializationContext context = arena.context();
+            int size = ProtobufSerializer.computeTopLevelSize(message, context);
+            byte[] buffer = arena.buffer(size);
+            ProtobufSerializer.write(message, ProtoWriter.forArray(buffer, 0), size, context);
+            return ByteBuffer.wrap(buffer, 0, size);
+        } finally {
+            arena.inUse = false;
+        }
+    }
+
+    /**
+     * Streams the message to the output through the calling thread's chunk, see
+     * {@link ProtobufSerializer#serialize(Object, OutputStream)}.
+     */
+    public <T> int serialize(T message, OutputStream out) throws IOException {
+        Arena arena = arenas.get();
+        if (arena.inUse) {
+            ProtoWriter writer = ProtoWriter.forStream(out, ProtobufSerializer.STREAM_CHUNK_SIZE);
+            return ProtobufSerializer.stream(message, writer, new SerializationContext(maxDepth));
+        }
+        arena.inUse = true;
+        try {
+            return ProtobufSerializer.stream(message, ProtoWriter.forStream(out, arena.chunk()), arena.context());
+        } finally {
+            arena.inUse = false;
+        }
+    }
+
+    /**
+     * Streams the message to a blocking channel through the calling thread's chunk, see
+     * {@link ProtobufSerializer#serialize(Object, WritableByteChannel)}.
+     */
+    public <T> int serialize(T message, WritableByteChannel channel) throws IOException {
+        Arena arena = arenas.get();
+        if (arena.inUse) {
+            ProtoWriter writer = ProtoWriter.forChannel(channel, ProtobufSerializer.STREAM_CHUNK_SIZE);
+            return ProtobufSerializer.stream(message, writer, new SerializationContext(maxDepth));
+        }
+        arena.inUse = true;
+        try {
+            return ProtobufSerializer.stream(message, ProtoWriter.forChannel(channel, arena.chunk()), arena.context());
+        } finally {
+            arena.inUse = false;
+        }
+    }
+
+    /**
+     * Scratch memory owned by a single thread.
+     */
+    private final class Arena {
+
+        private final SerializationContext context = new SerializationContext(maxDepth);
+        private byte[] buffer = new byte[0];
+        private byte[] chunk;
+        private boolean inUse;
+
+        SerializationContext context() {
+            // Memoized sizes are ints
+            context.reset(maxRetainedSize / Integer.BYTES);
+            return context;
+        }
+
+        byte[] buffer(int size) {
+            if (size <= buffer.length) {
+                return buffer;
+            }
+            if (size > maxRetainedSize) {
+                return new byte[size];
+            }
+            // Grow geometrically, up to the cap
+            int newSize = Math.max(size, Math.max(INITIAL_BUFFER_SIZE, buffer.length * 2));
+            buffer = new byte[Math.min(newSize, maxRetainedSize)];
+            return buffer;
+        }
+
+        byte[] chunk() {
+            if (chunk == null) {
+                chunk = ProtoWriter.newChunk(ProtobufSerializer.STREAM_CHUNK_SIZE);
+            }
+            return chunk;
+        }
+    }
+}
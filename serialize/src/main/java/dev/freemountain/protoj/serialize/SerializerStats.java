@@ -0,0 +1,180 @@
+package dev.freemountain.protoj.serialize;
+
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+/**
+ * {@link SerializerMetrics} which aggregates per-class call counts, encoded bytes, errors and latency histograms.
+ * Counters and latency buckets are striped, so serializing threads don't contend on them.
+ * <pre>
+ * SerializerStats stats = new SerializerStats();
+ * ProtobufSerializer.setMetrics(stats);
+ * stats.registerMBean();
+ * </pre>
+ * Latencies are recorded in buckets of a quarter of a power of two, so percentiles are accurate to within 25% at any
+ * scale without a fixed range.
+ */
+public final class SerializerStats implements SerializerMetrics, SerializerStatsMXBean {
+
+    public static final String OBJECT_NAME = "dev.freemountain.protoj:type=SerializerStats";
+
+    // Buckets per power of two, as the number of bits after the leading one
+    private static final int SUB_BUCKET_BITS = 2;
+    private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+    // Values below twice the sub-buckets get a bucket each, then every power of two up to 2^62 gets SUB_BUCKETS
+    private static final int BUCKET_COUNT = (64 - SUB_BUCKET_BITS) * SUB_BUCKETS;
+
+    private final ConcurrentMap<Class<?>, ClassStats> stats = new ConcurrentHashMap<>();
+
+    @Override
+    public void onSerialized(Class<?> messageClass, int size, long nanos) {
+        forClass(messageClass).record(size, nanos);
+    }
+
+    @Override
+    public void onFailed(Class<?> messageClass, Exception error) {
+        forClass(messageClass).failedCount.increment();
+    }
+
+    /**
+     * Statistics of the message class, or null if none of its messages were serialized.
+     */
+    public MessageStats getMessageStats(Class<?> messageClass) {
+        ClassStats classStats = stats.get(messageClass);
+        return classStats == null ? null : classStats.snapshot(messageClass);
+    }
+
+    @Override
+    public List<MessageStats> getMessageStats() {
+        List<MessageStats> snapshots = new ArrayList<>();
+        stats.forEach((messageClass, classStats) -> snapshots.add(classStats.snapshot(messageClass)));
+        snapshots.sort((a, b) -> Long.compare(b.getTotalNanos(), a.getTotalNanos()));
+        return snapshots;
+    }
+
+    @Override
+    public long getSerializedCount() {
+        return stats.values().stream().mapToLong(classStats -> classStats.count.sum()).sum();
+    }
+
+    @Override
+    public long getSerializedBytes() {
+        return stats.values().stream().mapToLong(classStats -> classStats.bytes.sum()).sum();
+    }
+
+    @Override
+    public long getFailedCount() {
+        return stats.values().stream().mapToLong(classStats -> classStats.failedCount.sum()).sum();
+    }
+
+    /**
+     * Drops everything recorded so far.  Messages serialized concurrently may be counted either side of the reset.
+     */
+    @Override
+    public void reset() {
+        stats.clear();
+    }
+
+    /**
+     * Registers these statistics with the platform MBean server under {@link #OBJECT_NAME}.
+     */
+    public ObjectName registerMBean() throws JMException {
+        ObjectName name = new ObjectName(OBJECT_NAME);
+        ManagementFactory.getPlatformMBeanServer().registerMBean(this, name);
+        return name;
+    }
+
+    public void unregisterMBean() throws JMException {
+        MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+        ObjectName name = new ObjectName(OBJECT_NAME);
+        if (server.isRegistered(name)) {
+            server.unregisterMBean(name);
+        }
+    }
+
+    private ClassStats forClass(Class<?> messageClass) {
+        ClassStats classStats = stats.get(messageClass);
+        // Only the first message of a class takes the map's lock
+        return classStats != null ? classStats : stats.computeIfAbsent(messageClass, key -> new ClassStats());
+    }
+
+    static int bucket(long nanos) {
+        if (nanos < 2 * SUB_BUCKETS) {
+            return (int) Math.max(nanos, 0);
+        }
+        int exponent = 63 - Long.numberOfLeadingZeros(nanos);
+        int subBucket = (int) (nanos >>> (exponent - SUB_BUCKET_BITS)) & (SUB_BUCKETS - 1);
+        return (exponent - SUB_BUCKET_BITS + 1) * SUB_BUCKETS + subBucket;
+    }
+
+    /**
+     * Largest value recorded in the bucket.
+     */
+    static long bucketUpperBound(int bucket) {
+        if (bucket < 2 * SUB_BUCKETS) {
+            return bucket;
+        }
+        int shift = bucket / SUB_BUCKETS - 1;
+        long lowerBound = (long) (SUB_BUCKETS + bucket % SUB_BUCKETS) << shift;
+        return lowerBound + (1L << shift) - 1;
+    }
+
+    private static final class ClassStats {
+
+        private final LongAdder count = new LongAdder();
+        private final LongAdder bytes = new LongAdder();
+        private final LongAdder failedCount = new LongAdder();
+        private final LongAdder totalNanos = new LongAdder();
+        private final LongAccumulator maxNanos = new LongAccumulator(Math::max, 0);
+        private final LongAdder[] latencies = new LongAdder[BUCKET_COUNT];
+
+        ClassStats() {
+            for (int i = 0; i < BUCKET_COUNT; i++) {
+                latencies[i] = new LongAdder();
+            }
+        }
+
+        void record(int size, long nanos) {
+            count.increment();
+            bytes.add(size);
+            totalNanos.add(nanos);
+            maxNanos.accumulate(nanos);
+            latencies[bucket(nanos)].increment();
+        }
+
+        MessageStats snapshot(Class<?> messageClass) {
+            long[] histogram = new long[BUCKET_COUNT];
+            long recorded = 0;
+            for (int i = 0; i < BUCKET_COUNT; i++) {
+                histogram[i] = latencies[i].sum();
+                recorded += histogram[i];
+            }
+            return new MessageStats(messageClass.getName(), count.sum(), bytes.sum(), failedCount.sum(),
+                totalNanos.sum(), maxNanos.get(), percentile(histogram, recorded, 0.5),
+                percentile(histogram, recorded, 0.99), percentile(histogram, recorded, 0.999));
+        }
+
+        private static long percentile(long[] histogram, long recorded, double fraction) {
+            if (recorded == 0) {
+                return 0;
+            }
+            long rank = (long) Math.ceil(recorded * fraction);
+            long seen = 0;
+            for (int i = 0; i < histogram.length; i++) {
+                seen += histogram[i];
+                if (seen >= rank) {
+                    return bucketUpperBound(i);
+                }
+            }
+            return bucketUpperBound(histogram.length - 1);
+        }
+    }
+}
@@ -0,0 +1,22 @@
+package dev.freemountain.protoj.serialize;
+
+import java.util.List;
+
+/**
+ * Management interface of {@link SerializerStats}.
+ */
+public interface SerializerStatsMXBean {
+
+    long getSerializedCount();
+
+    long getSerializedBytes();
+
+    long getFailedCount();
+
+    /**
+     * Statistics of every message class, the one serialization spent the most time on first.
+     */
+    List<MessageStats> getMessageStats();
+
+    void reset();
+}
@@ -0,0 +1,119 @@
+package dev.freemountain.protoj.serialize;
+
+import java.io.IOException;
+
+/**
+ * UTF-8 encoding straight into the output, without going through {@link String#getBytes} and its intermediate arrays.
+ * Runs of ASCII, the bulk of most strings, take a tight loop of their own.
+ * <p>
+ * Output matches {@link java.nio.charset.StandardCharsets#UTF_8}, including unpaired surrogates being replaced by
+ * {@code '?'}.
+ */
+final class Utf8 {
+
+    // Most bytes a char encodes to, as surrogate pairs take 4 bytes for 2 chars
+    static final int MAX_BYTES_PER_CHAR = 3;
+    private static final byte REPLACEMENT = '?';
+
+    private Utf8() {
+        throw new RuntimeException("You shouldn't be here");
+    }
+
+    /**
+     * Number of bytes the string encodes to, without encoding it.
+     */
+    static int encodedLength(CharSequence value) {
+        int length = value.length();
+        int i = 0;
+        while (i < length && value.charAt(i) < 0x80) {
+            i++;
+        }
+        int utf8Length = length;
+        for (; i < length; i++) {
+            char c = value.charAt(i);
+            if (c < 0x80) {
+                continue;
+            } else if (c < 0x800) {
+                utf8Length += 1;
+            } else if (Character.isHighSurrogate(c) && i + 1 < length
+                && Character.isLowSurrogate(value.charAt(i + 1))) {
+                // 4 bytes for the pair of chars
+                utf8Length += 2;
+                i++;
+            } else if (!Character.isSurrogate(c)) {
+                utf8Length += 2;
+            }
+        }
+        return utf8Length;
+    }
+
+    /**
+     * Encodes the chars from start (inclusive) to end (exclusive) into the buffer, which must have room for them.  A
+     * surrogate pair split by end is encoded as unpaired, so ranges should end between pairs.
+     *
+     * @return position after the last byte written
+     */
+    static int encode(CharSequence value, int start, int end, byte[] buffer, int position) {
+        int i = start;
+        // ASCII run
+        while (i < end) {
+            char c = value.charAt(i);
+            if (c >= 0x80) {
+                break;
+            }
+            buffer[position++] = (byte) c;
+            i++;
+        }
+        for (; i < end; i++) {
+            char c = value.charAt(i);
+            if (c < 0x80) {
+                buffer[position++] = (byte) c;
+            } else if (c < 0x800) {
+                buffer[position++] = (byte) (0xC0 | (c >>> 6));
+                buffer[position++] = (byte) (0x80 | (c & 0x3F));
+            } else if (!Character.isSurrogate(c)) {
+                buffer[position++] = (byte) (0xE0 | (c >>> 12));
+                buffer[position++] = (byte) (0x80 | ((c >>> 6) & 0x3F));
+                buffer[position++] = (byte) (0x80 | (c & 0x3F));
+            } else if (Character.isHighSurrogate(c) && i + 1 < end && Character.isLowSurrogate(value.charAt(i + 1))) {
+                int codePoint = Character.toCodePoint(c, value.charAt(++i));
+                buffer[position++] = (byte) (0xF0 | (codePoint >>> 18));
+                buffer[position++] = (byte) (0x80 | ((codePoint >>> 12) & 0x3F));
+                buffer[position++] = (byte) (0x80 | ((codePoint >>> 6) & 0x3F));
+                buffer[position++] = (byte) (0x80 | (codePoint & 0x3F));
+            } else {
+                buffer[position++] = REPLACEMENT;
+            }
+        }
+        return position;
+    }
+
+    /**
+     * Encodes the string a byte at a time, for sinks without an array to encode into.
+     */
+    static void encode(CharSequence value, ProtoWriter out) throws IOException {
+        int length = value.length();
+        for (int i = 0; i < length; i++) {
+            char c = value.charAt(i);
+            if (c < 0x80) {
+                out.writeByte(c);
+            } else if (c < 0x800) {
+                out.writeByte(0xC0 | (c >>> 6));
+                out.writeByte(0x80 | (c & 0x3F));
+            } else if (!Character.isSurrogate(c)) {
+                out.writeByte(0xE0 | (c >>> 12));
+                out.writeByte(0x80 | ((c >>> 6) & 0x3F));
+                out.writeByte(0x80 | (c & 0x3F));
+            } else if (Character.isHighSurrogate(c) && i + 1 < length
+                && Character.isLowSurrogate(value.charAt(i + 1))) {
+                int codePoint = Character.toCodePoint(c, value.charAt(++i));
+                out.writeByte(0xF0 | (codePoint >>> 18));
+                out.writeByte(0x80 | ((codePoint >>> 12) & 0x3F));
+                out.writeByte(0x80 | ((codePoint >>> 6) & 0x3F));
+                out.writeByte(0x80 | (codePoint & 0x3F));
+            } else {
+                out.writeByte(REPLACEMENT);
+            }
+        }
+    }
+}
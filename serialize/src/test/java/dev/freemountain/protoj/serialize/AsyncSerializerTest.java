@@ -0,0 +1,157 @@
+package dev.freemountain.protoj.serialize;
+
+import static junit.framework.TestCase.assertEquals;
+import static junit.framework.TestCase.assertSame;
+import static junit.framework.TestCase.assertTrue;
+import static org.junit.Assert.fail;
+
+import dev.freemountain.protoj.api.ProtobufField;
+import dev.freemountain.protoj.api.ProtobufSerializationException;
+import dev.freemountain.protoj.api.ProtobufType;
+import dev.freemountain.protoj.serialize.integration.IntegrationTestProto;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import org.junit.Test;
+
+public class AsyncSerializerTest {
+
+    /**
+     * Holds up the worker serializing it until released.
+     */
+    public static class BlockingMessage {
+
+        @ProtobufField(fieldNumber = 1, protobufType = ProtobufType.INT32, getterMethod = "getFoo")
+        private int foo = 1;
+        private final CountDownLatch started = new CountDownLatch(1);
+        private final CountDownLatch release = new CountDownLatch(1);
+
+        public int getFoo() {
+            started.countDown();
+            try {
+                release.await();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            return foo;
+        }
+    }
+
+    @Test
+    public void matchesSerialize() throws Exception {
+        IntegrationTestProto message = new IntegrationTestProto();
+        ByteBuffer expected = ProtobufSerializer.serialize(message);
+        try (AsyncSerializer serializer = new AsyncSerializer()) {
+            List<CompletableFuture<ByteBuffer>> futures = new ArrayList<>();
+            for (int i = 0; i < 5000; i++) {
+                futures.add(serializer.serialize(message));
+            }
+            for (CompletableFuture<ByteBuffer> future : futures) {
+                assertEquals(expected, future.get(10, TimeUnit.SECONDS));
+            }
+        }
+    }
+
+    @Test
+    public void queuedMessagesAreBatched() throws Exception {
+        try (AsyncSerializer serializer = new AsyncSerializer(16, 1, 8)) {
+            BlockingMessage blocking = new BlockingMessage();
+            CompletableFuture<ByteBuffer> first = serializer.serialize(blocking);
+            blocking.started.await();
+            List<CompletableFuture<ByteBuffer>> queued = new ArrayList<>();
+            for (int i = 0; i < 8; i++) {
+                queued.add(serializer.serialize(new IntegrationTestProto()));
+            }
+            blocking.release.countDown();
+            assertEquals(2, first.get(10, TimeUnit.SECONDS).remaining());
+            ByteBuffer expected = ProtobufSerializer.serialize(new IntegrationTestProto());
+            byte[] shared = queued.get(0).get(10, TimeUnit.SECONDS).array();
+            for (CompletableFuture<ByteBuffer> future : queued) {
+                ByteBuffer buffer = future.get(10, TimeUnit.SECONDS);
+                assertEquals(expected, buffer);
+                assertSame(shared, buffer.array());
+            }
+        }
+    }
+
+    @Test
+    public void fullQueueRejects() throws Exception {
+        try (AsyncSerializer serializer = new AsyncSerializer(1, 1, 4)) {
+            BlockingMessage blocking = new BlockingMessage();
+            serializer.serialize(blocking);
+            blocking.started.await();
+            CompletableFuture<ByteBuffer> queued = serializer.trySerialize(new IntegrationTestProto());
+            CompletableFuture<ByteBuffer> rejected = serializer.trySerialize(new IntegrationTestProto());
+            assertTrue(rejected.isCompletedExceptionally());
+            assertEquals(1, serializer.getQueuedCount());
+            blocking.release.countDown();
+            assertEquals(ProtobufSerializer.serialize(new IntegrationTestProto()), queued.get(10, TimeUnit.SECONDS));
+            try {
+                rejected.get();
+                fail();
+            } catch (ExecutionException e) {
+                assertTrue(e.getCause() instanceof RejectedExecutionException);
+            }
+        }
+    }
+
+    @Test
+    public void failuresOnlyFailTheirFuture() throws Exception {
+        class InvalidMessage {
+
+            @ProtobufField(fieldNumber = 0, protobufType = ProtobufType.INT32)
+            public int foo;
+        }
+        try (AsyncSerializer serializer = new AsyncSerializer(16, 1, 8)) {
+            BlockingMessage blocking = new BlockingMessage();
+            serializer.serialize(blocking);
+            blocking.started.await();
+            CompletableFuture<ByteBuffer> invalid = serializer.serialize(new InvalidMessage());
+            CompletableFuture<ByteBuffer> valid = serializer.serialize(new IntegrationTestProto());
+            blocking.release.countDown();
+            assertEquals(ProtobufSerializer.serialize(new IntegrationTestProto()), valid.get(10, TimeUnit.SECONDS));
+            try {
+                invalid.get(10, TimeUnit.SECONDS);
+                fail();
+            } catch (ExecutionException e) {
+                assertTrue(e.getCause() instanceof ProtobufSerializationException);
+            }
+        }
+    }
+
+    @Test
+    public void closeDrainsQueue() throws Exception {
+        AsyncSerializer serializer = new AsyncSerializer(16, 2, 4);
+        List<CompletableFuture<ByteBuffer>> futures = new ArrayList<>();
+        for (int i = 0; i < 16; i++) {
+            futures.add(serializer.serialize(new IntegrationTestProto()));
+        }
+        serializer.close();
+        for (CompletableFuture<ByteBuffer> future : futures) {
+            assertTrue(future.isDone() && !future.isCompletedExceptionally());
+        }
+        assertTrue(serializer.serialize(new IntegrationTestProto()).isCompletedExceptionally());
+        assertTrue(serializer.trySerialize(new IntegrationTestProto()).isCompletedExceptionally());
+    }
+
+    @Test
+    public void interruptedCloseReturnsAndWorkersFinish() throws Exception {
+        AsyncSerializer serializer = new AsyncSerializer(16, 1, 4);
+        BlockingMessage blocking = new BlockingMessage();
+        CompletableFuture<ByteBuffer> first = serializer.serialize(blocking);
+        blocking.started.await();
+        CompletableFuture<ByteBuffer> queued = serializer.serialize(new IntegrationTestProto());
+        Thread.currentThread().interrupt();
+        serializer.close();
+        assertTrue(Thread.interrupted());
+        assertTrue(serializer.trySerialize(new IntegrationTestProto()).isCompletedExceptionally());
+        blocking.release.countDown();
+        assertEquals(2, first.get(10, TimeUnit.SECONDS).remaining());
+        assertEquals(ProtobufSerializer.serialize(new IntegrationTestProto()), queued.get(10, TimeUnit.SECONDS));
+    }
+}
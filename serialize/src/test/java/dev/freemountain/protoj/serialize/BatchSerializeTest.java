@@ -0,0 +1,158 @@
+package dev.freemountain.protoj.serialize;
+
+import static junit.framework.TestCase.assertEquals;
+import static junit.framework.TestCase.assertTrue;
+
+import dev.freemountain.protoj.api.ProtobufField;
+import dev.freemountain.protoj.api.ProtobufSerializationException;
+import dev.freemountain.protoj.api.ProtobufType;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.junit.Test;
+
+public class BatchSerializeTest {
+
+    public static class TestMessage {
+
+        @ProtobufField(fieldNumber = 1, protobufType = ProtobufType.INT32)
+        public int foo;
+        @ProtobufField(fieldNumber = 2, protobufType = ProtobufType.STRING)
+        public String bar;
+        @ProtobufField(fieldNumber = 3, protobufType = ProtobufType.MESSAGE)
+        public NestedMessage baz;
+
+        TestMessage(int foo) {
+            this.foo = foo;
+            // Varying sizes, so offsets differ between messages
+            this.bar = foo % 7 == 0 ? null : "message " + foo;
+            this.baz = foo % 3 == 0 ? null : new NestedMessage(foo * 31L);
+        }
+    }
+
+    public static class NestedMessage {
+
+        @ProtobufField(fieldNumber = 1, protobufType = ProtobufType.SINT64)
+        public long qux;
+
+        NestedMessage(long qux) {
+            this.qux = qux;
+        }
+    }
+
+    private static List<TestMessage> messages(int count) {
+        List<TestMessage> messages = new ArrayList<>();
+        for (int i = 0; i < count; i++) {
+            messages.add(new TestMessage(i));
+        }
+        return messages;
+    }
+
+    @Test
+    public void serializeAllKeepsOrder() throws Exception {
+        List<TestMessage> messages = messages(10000);
+        List<ByteBuffer> buffers = ProtobufSerializer.serializeAll(messages);
+        assertEquals(messages.size(), buffers.size());
+        for (int i = 0; i < messages.size(); i++) {
+            assertEquals(ProtobufSerializer.serialize(messages.get(i)), buffers.get(i));
+        }
+    }
+
+    @Test
+    public void batchIsContiguous() throws Exception {
+        List<TestMessage> messages = messages(5000);
+        SerializedBatch batch = ProtobufSerializer.serializeBatch(new LinkedList<>(messages));
+        assertEquals(messages.size(), batch.size());
+        int offset = 0;
+        for (int i = 0; i < messages.size(); i++) {
+            ByteBuffer expected = ProtobufSerializer.serialize(messages.get(i));
+            assertEquals(offset, batch.getOffset(i));
+            assertEquals(expected.remaining(), batch.getLength(i));
+            assertEquals(expected, batch.getMessage(i));
+            offset += expected.remaining();
+        }
+        assertEquals(offset, batch.getBuffer().remaining());
+    }
+
+    @Test
+    public void suppliedExecutorIsUsed() throws Exception {
+        AtomicInteger tasks = new AtomicInteger();
+        ExecutorService executor = Executors.newFixedThreadPool(4);
+        try {
+            List<TestMessage> messages = messages(2000);
+            SerializedBatch batch = ProtobufSerializer.serializeBatch(messages, command -> {
+                tasks.incrementAndGet();
+                executor.execute(command);
+            });
+            assertTrue(tasks.get() > 1);
+            List<ByteBuffer> buffers = ProtobufSerializer.serializeAll(messages, executor);
+            for (int i = 0; i < messages.size(); i++) {
+                assertEquals(buffers.get(i), batch.getMessage(i));
+            }
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+    @Test
+    public void smallAndEmptyBatches() throws Exception {
+        assertEquals(0, ProtobufSerializer.serializeAll(new ArrayList<TestMessage>()).size());
+        SerializedBatch empty = ProtobufSerializer.serializeBatch(new ArrayList<TestMessage>());
+        assertEquals(0, empty.size());
+        assertEquals(0, empty.getBuffer().remaining());
+        SerializedBatch single = ProtobufSerializer.serializeBatch(Arrays.asList(new TestMessage(1)));
+        assertEquals(ProtobufSerializer.serialize(new TestMessage(1)), single.getMessage(0));
+    }
+
+    public static class CountingMessage {
+
+        @ProtobufField(fieldNumber = 1, protobufType = ProtobufType.STRING, getterMethod = "getFoo")
+        private String foo = "counted";
+        private final AtomicInteger calls = new AtomicInteger();
+
+        public String getFoo() {
+            // Longer from the third call on
+            return calls.incrementAndGet() > 2 ? foo + foo : foo;
+        }
+    }
+
+    @Test
+    public void batchesAreSizedOnce() throws Exception {
+        List<CountingMessage> messages = new ArrayList<>();
+        for (int i = 0; i < 1000; i++) {
+            messages.add(new CountingMessage());
+        }
+        SerializedBatch batch = ProtobufSerializer.serializeBatch(messages);
+        for (int i = 0; i < messages.size(); i++) {
+            assertEquals(2, messages.get(i).calls.get());
+            assertEquals(9, batch.getLength(i));
+        }
+    }
+
+    @Test(expected = ProtobufSerializationException.class)
+    public void messagesChangedBetweenPassesFail() throws Exception {
+        CountingMessage message = new CountingMessage();
+        // Sized, then written with a longer value
+        message.calls.set(1);
+        ProtobufSerializer.serializeBatch(Arrays.asList(message));
+    }
+
+    @Test(expected = ProtobufSerializationException.class)
+    public void failuresArePropagated() throws Exception {
+        class InvalidMessage {
+
+            @ProtobufField(fieldNumber = 1, protobufType = ProtobufType.INT32)
+            public int foo;
+            @ProtobufField(fieldNumber = 1, protobufType = ProtobufType.INT32)
+            public int bar;
+        }
+        List<Object> messages = new ArrayList<>(messages(1000));
+        messages.set(777, new InvalidMessage());
+        ProtobufSerializer.serializeAll(messages);
+    }
+}
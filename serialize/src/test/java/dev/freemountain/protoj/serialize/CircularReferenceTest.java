@@ -1,10 +1,12 @@
 package dev.freemountain.protoj.serialize;
 
+import static junit.framework.TestCase.assertEquals;
 import static org.junit.Assert.fail;
 
 import dev.freemountain.protoj.api.ProtobufField;
 import dev.freemountain.protoj.api.ProtobufSerializationException;
 import dev.freemountain.protoj.api.ProtobufType;
+import java.nio.ByteBuffer;
 import java.util.ArrayList;
 import java.util.List;
 import org.junit.Test;
@@ -43,6 +45,23 @@ public class CircularReferenceTest {
         }
     }
 
+    class Node {
+
+        @ProtobufField(fieldNumber = 1, protobufType = ProtobufType.INT32)
+        public int id;
+        @ProtobufField(fieldNumber = 2, protobufType = ProtobufType.MESSAGE)
+        public List<Node> children = new ArrayList<>();
+
+        Node(int id) {
+            this.id = id;
+        }
+
+        Node add(Node child) {
+            children.add(child);
+            return this;
+        }
+    }
+
     @Test(expected = ProtobufSerializationException.class)
     public void circularMessageReferenceThrows() throws Exception {
         ProtobufSerializer.serialize(new TestMessage1());
@@ -54,4 +73,56 @@ public class CircularReferenceTest {
         ProtobufSerializer.serialize(new TestMessage1WithList());
         fail();
     }
+
+    @Test
+    public void recursiveTreeSerializes() throws Exception {
+        Node tree = new Node(1).add(new Node(2).add(new Node(3))).add(new Node(4));
+        ByteBuffer out = ProtobufSerializer.serialize(tree);
+        // id 1, then child 2 holding child 3, then child 4
+        assertEquals(ByteBuffer.wrap(new byte[]{0x08, 1, 0x12, 6, 0x08, 2, 0x12, 2, 0x08, 3, 0x12, 2, 0x08, 4}), out);
+    }
+
+    @Test
+    public void sharedInstanceInSiblingsSerializes() throws Exception {
+        Node shared = new Node(2);
+        Node tree = new Node(1).add(shared).add(shared);
+        assertEquals(10, ProtobufSerializer.serialize(tree).remaining());
+    }
+
+    @Test(expected = ProtobufSerializationException.class)
+    public void instanceEmbeddingItselfThrows() throws Exception {
+        Node node = new Node(1);
+        node.add(new Node(2).add(node));
+        ProtobufSerializer.serialize(node);
+    }
+
+    @Test
+    public void maxDepthIsConfigurable() throws Exception {
+        Node tree = new Node(0);
+        Node leaf = tree;
+        for (int i = 1; i <= 3; i++) {
+            Node child = new Node(i);
+            leaf.add(child);
+            leaf = child;
+        }
+        ProtobufSerializer.serialize(tree, 3);
+        try {
+            ProtobufSerializer.serialize(tree, 2);
+            fail();
+        } catch (ProtobufSerializationException e) {
+            // Expected
+        }
+    }
+
+    @Test
+    public void poolMaxDepthIsConfigurable() throws Exception {
+        Node tree = new Node(0).add(new Node(1).add(new Node(2)));
+        new SerializerPool(SerializerPool.DEFAULT_MAX_RETAINED_SIZE, 2).serialize(tree);
+        try {
+            new SerializerPool(SerializerPool.DEFAULT_MAX_RETAINED_SIZE, 1).serialize(tree);
+            fail();
+        } catch (ProtobufSerializationException e) {
+            // Expected
+        }
+    }
 }
@@ -0,0 +1,142 @@
+package dev.freemountain.protoj.serialize;
+
+import static junit.framework.TestCase.assertEquals;
+import static org.junit.Assert.assertArrayEquals;
+
+import dev.freemountain.protoj.api.ProtobufField;
+import dev.freemountain.protoj.api.ProtobufSerializationException;
+import dev.freemountain.protoj.api.ProtobufType;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import org.junit.Test;
+
+public class DeltaSerializationTest {
+
+    public static class Position {
+
+        @ProtobufField(fieldNumber = 1, protobufType = ProtobufType.SINT32)
+        public Integer x;
+        @ProtobufField(fieldNumber = 2, protobufType = ProtobufType.SINT32)
+        public Integer y;
+
+        public Position() {
+        }
+
+        Position(Integer x, Integer y) {
+            this.x = x;
+            this.y = y;
+        }
+    }
+
+    public static class State {
+
+        @ProtobufField(fieldNumber = 1, protobufType = ProtobufType.INT32)
+        public int version;
+        @ProtobufField(fieldNumber = 2, protobufType = ProtobufType.STRING)
+        public String status;
+        @ProtobufField(fieldNumber = 3, protobufType = ProtobufType.INT64)
+        public Long count;
+        @ProtobufField(fieldNumber = 4, protobufType = ProtobufType.MESSAGE)
+        public Position position;
+        @ProtobufField(fieldNumber = 5, protobufType = ProtobufType.MAP, mapKeyType = ProtobufType.STRING,
+            mapValueType = ProtobufType.INT64)
+        public Map<String, Long> counters = new LinkedHashMap<>();
+        @ProtobufField(fieldNumber = 6, protobufType = ProtobufType.STRING)
+        public List<String> tags = new ArrayList<>();
+    }
+
+    private static State state() {
+        State state = new State();
+        state.version = 1;
+        state.status = "ok";
+        state.count = 5L;
+        state.position = new Position(10, 20);
+        state.counters.put("sent", 100L);
+        state.counters.put("dropped", 2L);
+        state.tags.add("primary");
+        return state;
+    }
+
+    @Test
+    public void onlyChangedFieldsAreWritten() throws Exception {
+        State previous = state();
+        State current = state();
+        current.version = 2;
+        current.status = "degraded";
+        current.position.x = 11;
+        current.counters.put("sent", 130L);
+        current.counters.put("retried", 1L);
+        State expected = new State();
+        expected.version = 2;
+        expected.status = "degraded";
+        expected.position = new Position(11, null);
+        expected.counters.put("sent", 130L);
+        expected.counters.put("retried", 1L);
+
+        assertEquals(ProtobufSerializer.serialize(expected), ProtobufSerializer.serializeDelta(previous, current));
+    }
+
+    @Test
+    public void equalSnapshotsHaveAnEmptyDelta() throws Exception {
+        assertEquals(0, ProtobufSerializer.serializeDelta(state(), state()).remaining());
+    }
+
+    @Test
+    public void clearedScalarsAreWrittenAsDefaults() throws Exception {
+        State previous = state();
+        State current = state();
+        current.status = "";
+        current.count = null;
+
+        ByteBuffer delta = ProtobufSerializer.serializeDelta(previous, current);
+        byte[] bytes = new byte[delta.remaining()];
+        delta.get(bytes);
+        assertArrayEquals(new byte[] {0x12, 0x00, 0x18, 0x00}, bytes);
+    }
+
+    @Test
+    public void repeatedFieldsAreWrittenWhenTheyWereEmpty() throws Exception {
+        State previous = state();
+        previous.tags.clear();
+        previous.position = null;
+        State current = state();
+        State expected = new State();
+        expected.position = current.position;
+        expected.tags = current.tags;
+
+        byte[] expectedBytes = ProtobufSerializer.serialize(expected).array();
+        byte[] bytes = ProtobufSerializer.serializeDelta(previous, current).array();
+        // Without the unchanged version, which the expected message always writes
+        assertArrayEquals(Arrays.copyOfRange(expectedBytes, 2, expectedBytes.length), bytes);
+    }
+
+    @Test(expected = ProtobufSerializationException.class)
+    public void changedRepeatedFieldsFail() throws Exception {
+        State current = state();
+        current.tags.add("secondary");
+        ProtobufSerializer.serializeDelta(state(), current);
+    }
+
+    @Test(expected = ProtobufSerializationException.class)
+    public void removedMapKeysFail() throws Exception {
+        State current = state();
+        current.counters.remove("dropped");
+        ProtobufSerializer.serializeDelta(state(), current);
+    }
+
+    @Test(expected = ProtobufSerializationException.class)
+    public void clearedMessagesFail() throws Exception {
+        State current = state();
+        current.position = null;
+        ProtobufSerializer.serializeDelta(state(), current);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void differentClassesFail() throws Exception {
+        ProtobufSerializer.serializeDelta(state(), new Position());
+    }
+}
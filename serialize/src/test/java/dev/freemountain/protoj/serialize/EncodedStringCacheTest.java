@@ -0,0 +1,106 @@
+package dev.freemountain.protoj.serialize;
+
+import static junit.framework.TestCase.assertEquals;
+import static junit.framework.TestCase.assertNull;
+import static junit.framework.TestCase.assertTrue;
+
+import dev.freemountain.protoj.api.ProtobufField;
+import dev.freemountain.protoj.api.ProtobufSerializationException;
+import dev.freemountain.protoj.api.ProtobufType;
+import java.io.ByteArrayOutputStream;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.List;
+import org.junit.Test;
+
+public class EncodedStringCacheTest {
+
+    // Serialized by its generated serializer
+    public static class CachedMessage {
+
+        @ProtobufField(fieldNumber = 1, protobufType = ProtobufType.STRING, encodedCacheSize = 16)
+        public String region = "eu-west-1";
+        @ProtobufField(fieldNumber = 2, protobufType = ProtobufType.STRING, encodedCacheSize = 16)
+        public List<String> tags = Arrays.asList("a", "", "caf\u00e9");
+        @ProtobufField(fieldNumber = 3, protobufType = ProtobufType.STRING)
+        public String uncached = "x";
+    }
+
+    public static class UncachedMessage {
+
+        @ProtobufField(fieldNumber = 1, protobufType = ProtobufType.STRING)
+        public String region = "eu-west-1";
+        @ProtobufField(fieldNumber = 2, protobufType = ProtobufType.STRING)
+        public List<String> tags = Arrays.asList("a", "", "caf\u00e9");
+        @ProtobufField(fieldNumber = 3, protobufType = ProtobufType.STRING)
+        public String uncached = "x";
+    }
+
+    @Test
+    public void cachedFieldsEncodeTheSame() throws Exception {
+        // Serialized reflectively
+        class ReflectiveMessage {
+
+            @ProtobufField(fieldNumber = 1, protobufType = ProtobufType.STRING, encodedCacheSize = 16)
+            public String region = "eu-west-1";
+            @ProtobufField(fieldNumber = 2, protobufType = ProtobufType.STRING, encodedCacheSize = 16)
+            public List<String> tags = Arrays.asList("a", "", "caf\u00e9");
+            @ProtobufField(fieldNumber = 3, protobufType = ProtobufType.STRING)
+            public String uncached = "x";
+        }
+        ByteBuffer expected = ProtobufSerializer.serialize(new UncachedMessage());
+        for (int i = 0; i < 3; i++) {
+            assertEquals(expected, ProtobufSerializer.serialize(new CachedMessage()));
+            assertEquals(expected, ProtobufSerializer.serialize(new ReflectiveMessage()));
+        }
+        EncodedStringCache regions = EncodedStringCache.forField(ReflectiveMessage.class, "region");
+        assertEquals(3, regions.getHitCount());
+        assertEquals(0, regions.getMissCount());
+        assertEquals(1, regions.getSize());
+        EncodedStringCache tags = EncodedStringCache.forField(CachedMessage.class, "tags");
+        assertEquals(9, tags.getHitCount() + tags.getMissCount());
+        assertTrue(tags.getHitRate() > 0);
+        assertNull(EncodedStringCache.forField(CachedMessage.class, "uncached"));
+    }
+
+    @Test
+    public void hotValueSurvivesOneOffValues() throws Exception {
+        EncodedStringCache cache = new EncodedStringCache(1);
+        for (int i = 0; i < 5; i++) {
+            cache.computeSize("hot");
+        }
+        for (int i = 0; i < 5; i++) {
+            // Each one-off value is seen less often than the hot one
+            assertEquals(ProtobufSerializer.computeStringSize("cold" + i), cache.computeSize("cold" + i));
+            cache.computeSize("hot");
+        }
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        cache.write(ProtoWriter.forStream(out), "hot");
+        cache.write(ProtoWriter.forStream(out), "cold4");
+        assertEquals(1, cache.getHitCount());
+        assertEquals(1, cache.getMissCount());
+        assertTrue(Arrays.equals(new byte[]{3, 'h', 'o', 't', 5, 'c', 'o', 'l', 'd', '4'}, out.toByteArray()));
+    }
+
+    @Test
+    public void longValuesAreNotCached() throws Exception {
+        EncodedStringCache cache = new EncodedStringCache(4);
+        char[] chars = new char[EncodedStringCache.MAX_ENCODED_SIZE];
+        Arrays.fill(chars, 'x');
+        cache.computeSize(new String(chars));
+        assertEquals(0, cache.getSize());
+        cache.computeSize("short");
+        assertEquals(1, cache.getSize());
+        assertEquals(4, cache.getCapacity());
+    }
+
+    @Test(expected = ProtobufSerializationException.class)
+    public void onlyStringFieldsAreCached() throws Exception {
+        class InvalidMessage {
+
+            @ProtobufField(fieldNumber = 1, protobufType = ProtobufType.INT32, encodedCacheSize = 16)
+            public Integer foo = 1;
+        }
+        ProtobufSerializer.serialize(new InvalidMessage());
+    }
+}
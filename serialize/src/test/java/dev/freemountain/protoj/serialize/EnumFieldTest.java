@@ -0,0 +1,135 @@
+package dev.freemountain.protoj.serialize;
+
+import static junit.framework.TestCase.assertEquals;
+import static junit.framework.TestCase.assertNotNull;
+
+import dev.freemountain.protoj.api.ProtobufEnumValue;
+import dev.freemountain.protoj.api.ProtobufField;
+import dev.freemountain.protoj.api.ProtobufSerializationException;
+import dev.freemountain.protoj.api.ProtobufType;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.List;
+import org.junit.Test;
+
+public class EnumFieldTest {
+
+    public enum Color {
+        @ProtobufEnumValue(0)
+        UNKNOWN,
+        @ProtobufEnumValue(5)
+        RED,
+        @ProtobufEnumValue(300)
+        GREEN,
+        @ProtobufEnumValue(-1)
+        INVALID
+    }
+
+    public enum Size {
+        SMALL,
+        MEDIUM {
+            @Override
+            public String toString() {
+                return "medium";
+            }
+        },
+        LARGE
+    }
+
+    // Serialized by its generated serializer
+    public static class EnumMessage {
+
+        @ProtobufField(fieldNumber = 1, protobufType = ProtobufType.ENUM)
+        public Color color = Color.GREEN;
+        @ProtobufField(fieldNumber = 2, protobufType = ProtobufType.ENUM)
+        public List<Color> colors = Arrays.asList(Color.RED, null, Color.UNKNOWN, Color.INVALID);
+        @ProtobufField(fieldNumber = 3, protobufType = ProtobufType.ENUM)
+        public Size size = Size.MEDIUM;
+        @ProtobufField(fieldNumber = 4, protobufType = ProtobufType.ENUM)
+        public Color missing;
+    }
+
+    public static class IntMessage {
+
+        @ProtobufField(fieldNumber = 1, protobufType = ProtobufType.INT32)
+        public Integer color = 300;
+        @ProtobufField(fieldNumber = 2, protobufType = ProtobufType.INT32)
+        public List<Integer> colors = Arrays.asList(5, 0, -1);
+        @ProtobufField(fieldNumber = 3, protobufType = ProtobufType.INT32)
+        public Integer size = 1;
+    }
+
+    @Test
+    public void enumsEncodeAsTheirNumbers() throws Exception {
+        class ReflectiveMessage {
+
+            @ProtobufField(fieldNumber = 1, protobufType = ProtobufType.ENUM)
+            public Color color = Color.GREEN;
+            @ProtobufField(fieldNumber = 2, protobufType = ProtobufType.ENUM)
+            public List<Color> colors = Arrays.asList(Color.RED, null, Color.UNKNOWN, Color.INVALID);
+            @ProtobufField(fieldNumber = 3, protobufType = ProtobufType.ENUM, getterMethod = "getSize")
+            private Object size;
+
+            // Only known from the value
+            public Object getSize() {
+                return Size.MEDIUM;
+            }
+        }
+        assertNotNull(GeneratedSerializers.forClass(EnumMessage.class));
+        ByteBuffer expected = ProtobufSerializer.serialize(new IntMessage());
+        assertEquals(expected, ProtobufSerializer.serialize(new EnumMessage()));
+        assertEquals(expected, ProtobufSerializer.serialize(new ReflectiveMessage()));
+        assertEquals(expected.remaining(), ProtobufSerializer.serializedSize(new ReflectiveMessage()));
+    }
+
+    @Test
+    public void tableHoldsEncodedNumbers() throws Exception {
+        EnumTable table = EnumTable.forEnum(Color.class);
+        assertEquals(1, table.computeSize(Color.UNKNOWN));
+        assertEquals(2, table.computeSize(Color.GREEN));
+        // Sign extended like INT32
+        assertEquals(10, table.computeSize(Color.INVALID));
+        byte[] out = new byte[2];
+        table.write(ProtoWriter.forArray(out, 0), Color.GREEN);
+        assertEquals(ByteBuffer.wrap(new byte[]{(byte) 0xAC, 0x02}), ByteBuffer.wrap(out));
+        assertEquals(1, EnumTable.forEnum(Size.class).computeSize(Size.MEDIUM));
+    }
+
+    @Test(expected = ProtobufSerializationException.class)
+    public void partlyNumberedEnumFails() throws Exception {
+        EnumTable.forEnum(PartlyNumbered.class);
+    }
+
+    @Test(expected = ProtobufSerializationException.class)
+    public void duplicateNumbersFail() throws Exception {
+        class DuplicateMessage {
+
+            @ProtobufField(fieldNumber = 1, protobufType = ProtobufType.ENUM)
+            public Duplicated value = Duplicated.A;
+        }
+        ProtobufSerializer.serialize(new DuplicateMessage());
+    }
+
+    @Test(expected = ClassCastException.class)
+    public void nonEnumValueFails() throws Exception {
+        class InvalidMessage {
+
+            @ProtobufField(fieldNumber = 1, protobufType = ProtobufType.ENUM)
+            public Object value = 1;
+        }
+        ProtobufSerializer.serialize(new InvalidMessage());
+    }
+
+    private enum PartlyNumbered {
+        @ProtobufEnumValue(1)
+        A,
+        B
+    }
+
+    private enum Duplicated {
+        @ProtobufEnumValue(1)
+        A,
+        @ProtobufEnumValue(1)
+        B
+    }
+}
@@ -0,0 +1,121 @@
+package dev.freemountain.protoj.serialize;
+
+import static junit.framework.TestCase.assertEquals;
+import static junit.framework.TestCase.assertFalse;
+import static junit.framework.TestCase.assertNull;
+import static junit.framework.TestCase.assertTrue;
+import static junit.framework.TestCase.fail;
+
+import dev.freemountain.protoj.api.ProtobufField;
+import dev.freemountain.protoj.api.ProtobufSerializationException;
+import dev.freemountain.protoj.api.ProtobufType;
+import org.junit.Test;
+
+public class FieldAccessorTest {
+
+    public static class TestMessage {
+
+        public int intField = 7;
+        public long longField = -8L;
+        public float floatField = 1.5f;
+        public double doubleField = -2.25;
+        public boolean booleanField = true;
+        public String stringField = "foo";
+        public static int staticField = 11;
+        private int privateField = 12;
+
+        public int getPrivateField() {
+            return privateField;
+        }
+
+        public Integer getBoxed() {
+            return 13;
+        }
+
+        public static long getStatic() {
+            return 14L;
+        }
+
+        public static String getFailing() throws Exception {
+            throw new Exception("getter failed");
+        }
+    }
+
+    @Test
+    public void fieldsUsePrimitiveReaders() throws Exception {
+        TestMessage message = new TestMessage();
+        FieldAccessor intAccessor = FieldAccessor.forField(TestMessage.class.getField("intField"));
+        assertEquals(int.class, intAccessor.getPrimitiveType());
+        assertEquals(7, intAccessor.getInt(message));
+        assertEquals(-8L, FieldAccessor.forField(TestMessage.class.getField("longField")).getLong(message));
+        assertEquals(1.5f, FieldAccessor.forField(TestMessage.class.getField("floatField")).getFloat(message));
+        assertEquals(-2.25, FieldAccessor.forField(TestMessage.class.getField("doubleField")).getDouble(message));
+        assertTrue(FieldAccessor.forField(TestMessage.class.getField("booleanField")).getBoolean(message));
+    }
+
+    @Test
+    public void objectFieldsAreReadAsObjects() throws Exception {
+        FieldAccessor accessor = FieldAccessor.forField(TestMessage.class.getField("stringField"));
+        assertNull(accessor.getPrimitiveType());
+        assertEquals("foo", accessor.get(new TestMessage()));
+    }
+
+    @Test
+    public void primitivesAreBoxedByGet() throws Exception {
+        assertEquals(7, FieldAccessor.forField(TestMessage.class.getField("intField")).get(new TestMessage()));
+    }
+
+    @Test
+    public void staticFieldsIgnoreMessage() throws Exception {
+        assertEquals(11, FieldAccessor.forField(TestMessage.class.getField("staticField")).getInt(new TestMessage()));
+    }
+
+    @Test
+    public void gettersUsePrimitiveReaders() throws Exception {
+        FieldAccessor accessor = FieldAccessor.forGetter(TestMessage.class.getMethod("getPrivateField"));
+        assertEquals(int.class, accessor.getPrimitiveType());
+        assertEquals(12, accessor.getInt(new TestMessage()));
+    }
+
+    @Test
+    public void boxedGettersAreReadAsObjects() throws Exception {
+        FieldAccessor accessor = FieldAccessor.forGetter(TestMessage.class.getMethod("getBoxed"));
+        assertNull(accessor.getPrimitiveType());
+        assertEquals(13, accessor.get(new TestMessage()));
+    }
+
+    @Test
+    public void staticGettersIgnoreMessage() throws Exception {
+        assertEquals(14L, FieldAccessor.forGetter(TestMessage.class.getMethod("getStatic")).getLong(new TestMessage()));
+    }
+
+    @Test(expected = IllegalAccessException.class)
+    public void privateFieldThrows() throws Exception {
+        FieldAccessor.forField(TestMessage.class.getDeclaredField("privateField"));
+    }
+
+    @Test
+    public void mismatchedPrimitiveIsNotReadAsPrimitive() throws Exception {
+        class MismatchedMessage {
+
+            @ProtobufField(fieldNumber = 1, protobufType = ProtobufType.INT64)
+            public int foo = 1;
+            @ProtobufField(fieldNumber = 2, protobufType = ProtobufType.INT64)
+            public long bar = 1;
+        }
+        FieldSchema[] fields = MessageSchema.forClass(MismatchedMessage.class).getFields();
+        assertFalse(fields[0].isPrimitive());
+        assertTrue(fields[1].isPrimitive());
+    }
+
+    @Test
+    public void checkedGetterFailuresKeepTheirCause() throws Exception {
+        FieldAccessor accessor = FieldAccessor.forGetter(TestMessage.class.getMethod("getFailing"));
+        try {
+            accessor.get(new TestMessage());
+            fail();
+        } catch (ProtobufSerializationException e) {
+            assertEquals("getter failed", e.getCause().getMessage());
+        }
+    }
+}
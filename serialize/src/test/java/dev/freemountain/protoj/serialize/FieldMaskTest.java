@@ -0,0 +1,162 @@
+package dev.freemountain.protoj.serialize;
+
+import static junit.framework.TestCase.assertEquals;
+import static junit.framework.TestCase.assertFalse;
+import static junit.framework.TestCase.assertNull;
+import static junit.framework.TestCase.assertTrue;
+import static junit.framework.TestCase.fail;
+
+import dev.freemountain.protoj.api.ProtobufField;
+import dev.freemountain.protoj.api.ProtobufSerializationException;
+import dev.freemountain.protoj.api.ProtobufType;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import org.junit.Test;
+
+public class FieldMaskTest {
+
+    public static class Customer {
+
+        @ProtobufField(fieldNumber = 1, protobufType = ProtobufType.STRING)
+        public String name;
+        @ProtobufField(fieldNumber = 2, protobufType = ProtobufType.STRING)
+        public String email;
+
+        public Customer() {
+        }
+
+        Customer(String name, String email) {
+            this.name = name;
+            this.email = email;
+        }
+    }
+
+    public static class Item {
+
+        @ProtobufField(fieldNumber = 1, protobufType = ProtobufType.STRING)
+        public String sku;
+        @ProtobufField(fieldNumber = 2, protobufType = ProtobufType.INT32)
+        public int quantity;
+
+        public Item() {
+        }
+
+        Item(String sku, int quantity) {
+            this.sku = sku;
+            this.quantity = quantity;
+        }
+    }
+
+    public static class Order {
+
+        @ProtobufField(fieldNumber = 1, protobufType = ProtobufType.INT64)
+        public long id;
+        @ProtobufField(fieldNumber = 2, protobufType = ProtobufType.STRING, getterMethod = "getNote")
+        private String note;
+        @ProtobufField(fieldNumber = 3, protobufType = ProtobufType.MESSAGE)
+        public Customer customer;
+        @ProtobufField(fieldNumber = 4, protobufType = ProtobufType.MESSAGE)
+        public List<Item> items = new ArrayList<>();
+        public int noteReads;
+
+        public String getNote() {
+            noteReads++;
+            return note;
+        }
+    }
+
+    private static Order order() {
+        Order order = new Order();
+        order.id = 42;
+        order.note = "leave at the door";
+        order.customer = new Customer("Ada", "ada@example.com");
+        order.items.add(new Item("A-1", 2));
+        order.items.add(new Item("B-7", 1));
+        return order;
+    }
+
+    @Test
+    public void unselectedFieldsAreNeverRead() throws Exception {
+        Order order = order();
+        Order expected = new Order();
+        expected.id = 42;
+
+        FieldMask mask = FieldMask.of("1");
+        assertEquals(ProtobufSerializer.serialize(expected), ProtobufSerializer.serialize(order, mask));
+        assertEquals(0, order.noteReads);
+    }
+
+    @Test
+    public void nestedPathsSelectFieldsOfEmbeddedMessages() throws Exception {
+        Order order = order();
+        Order expected = new Order();
+        expected.id = 42;
+        expected.customer = new Customer("Ada", null);
+        expected.items.add(new Item(null, 2));
+        expected.items.add(new Item(null, 1));
+
+        FieldMask mask = FieldMask.of("1", "3.1", "4.2");
+        ByteBuffer expectedBytes = ProtobufSerializer.serialize(expected);
+        assertEquals(expectedBytes, ProtobufSerializer.serialize(order, mask));
+        assertEquals(expectedBytes.remaining(), ProtobufSerializer.serializedSize(order, mask));
+    }
+
+    @Test
+    public void wholeFieldsIncludeTheirPaths() throws Exception {
+        Order order = order();
+        Order expected = new Order();
+        expected.id = 42;
+        expected.customer = order.customer;
+
+        ByteBuffer expectedBytes = ProtobufSerializer.serialize(expected);
+        assertEquals(expectedBytes, ProtobufSerializer.serialize(order, FieldMask.of("1", "3.2", "3")));
+        assertEquals(expectedBytes, ProtobufSerializer.serialize(order, FieldMask.of("1", "3", "3.2")));
+    }
+
+    @Test
+    public void emptySelectionsOfEmbeddedMessagesAreSkipped() throws Exception {
+        Order order = order();
+        order.customer.email = null;
+
+        assertEquals(0, ProtobufSerializer.serialize(order, FieldMask.of("3.2")).remaining());
+        assertEquals(0, ProtobufSerializer.serialize(order, FieldMask.of()).remaining());
+    }
+
+    @Test
+    public void fieldsMissingFromTheClassAreIgnored() throws Exception {
+        Order order = order();
+        Order expected = new Order();
+        expected.id = 42;
+
+        FieldMask mask = FieldMask.of("1", "9");
+        assertEquals(ProtobufSerializer.serialize(expected), ProtobufSerializer.serialize(order, mask));
+    }
+
+    @Test
+    public void masksDescribeTheirPaths() {
+        FieldMask mask = FieldMask.of("4.2", "1", "3", "3.1", "4.1");
+        assertEquals("[1, 3, 4.1, 4.2]", mask.toString());
+        assertTrue(mask.includes(3));
+        assertFalse(mask.includes(2));
+        assertNull(mask.getSubmask(3));
+        assertEquals("[1, 2]", mask.getSubmask(4).toString());
+    }
+
+    @Test
+    public void invalidPathsFail() {
+        for (String path : new String[] {"", "a", "0", "1..2", "1.", "-3", "536870912"}) {
+            try {
+                FieldMask.of(path);
+                fail("Accepted " + path);
+            } catch (IllegalArgumentException e) {
+                // Expected
+            }
+        }
+    }
+
+    @Test(expected = ProtobufSerializationException.class)
+    public void pathsIntoScalarFieldsFail() throws Exception {
+        ProtobufSerializer.serialize(order(), FieldMask.of("1.1"));
+    }
+}
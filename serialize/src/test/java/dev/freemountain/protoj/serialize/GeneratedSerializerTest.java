@@ -0,0 +1,94 @@
+package dev.freemountain.protoj.serialize;
+
+import static dev.freemountain.protoj.serialize.TestUtil.printBits;
+import static junit.framework.TestCase.assertEquals;
+import static junit.framework.TestCase.assertNotNull;
+import static junit.framework.TestCase.assertNull;
+import static junit.framework.TestCase.assertTrue;
+
+import dev.freemountain.protoj.api.ProtobufField;
+import dev.freemountain.protoj.api.ProtobufType;
+import dev.freemountain.protoj.serialize.integration.IntegrationTestProto;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.List;
+import org.junit.Test;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+public class GeneratedSerializerTest {
+
+    private final static Logger logger = LoggerFactory.getLogger(GeneratedSerializerTest.class);
+
+    /**
+     * Serializers are generated for member classes by protoj-processor during test compilation
+     */
+    public static class GeneratedMessage {
+
+        @ProtobufField(fieldNumber = 1, protobufType = ProtobufType.INT32)
+        public int foo = 2;
+        @ProtobufField(fieldNumber = 2, protobufType = ProtobufType.STRING)
+        public String bar = "bar";
+        @ProtobufField(fieldNumber = 3, protobufType = ProtobufType.SFIXED64)
+        public Long baz = null;
+        @ProtobufField(fieldNumber = 4, protobufType = ProtobufType.FLOAT, getterMethod = "getQux")
+        private List<Float> qux = Arrays.asList(1.5f, null, -2f);
+        @ProtobufField(fieldNumber = 5, protobufType = ProtobufType.MESSAGE)
+        public GeneratedNestedMessage nested = new GeneratedNestedMessage();
+
+        public List<Float> getQux() {
+            return qux;
+        }
+    }
+
+    public static class GeneratedNestedMessage {
+
+        @ProtobufField(fieldNumber = 1, protobufType = ProtobufType.BOOL)
+        public boolean foo = true;
+    }
+
+    @Test
+    public void generatedSerializerIsFound() throws Exception {
+        assertNotNull(GeneratedSerializers.forClass(GeneratedMessage.class));
+        assertNotNull(GeneratedSerializers.forClass(IntegrationTestProto.class));
+        assertNotNull(GeneratedSerializers.forClass(IntegrationTestProto.NestedClass.class));
+    }
+
+    @Test
+    public void serializerClassNamesJoinNestedClasses() throws Exception {
+        assertEquals("dev.freemountain.protoj.serialize.GeneratedSerializerTest_GeneratedMessageProtobufSerializer",
+            GeneratedSerializers.serializerClassName(GeneratedMessage.class));
+    }
+
+    @Test
+    public void localClassesAreSerializedReflectively() throws Exception {
+        class LocalMessage {
+
+            @ProtobufField(fieldNumber = 1, protobufType = ProtobufType.INT32)
+            public int foo = 2;
+        }
+        assertNull(GeneratedSerializers.forClass(LocalMessage.class));
+    }
+
+    @Test
+    public void generatedMatchesReflective() throws Exception {
+        class ReflectiveMessage {
+
+            @ProtobufField(fieldNumber = 1, protobufType = ProtobufType.INT32)
+            public int foo = 2;
+            @ProtobufField(fieldNumber = 2, protobufType = ProtobufType.STRING)
+            public String bar = "bar";
+            @ProtobufField(fieldNumber = 3, protobufType = ProtobufType.SFIXED64)
+            public Long baz = null;
+            @ProtobufField(fieldNumber = 4, protobufType = ProtobufType.FLOAT)
+            public List<Float> qux = Arrays.asList(1.5f, null, -2f);
+            @ProtobufField(fieldNumber = 5, protobufType = ProtobufType.MESSAGE)
+            public GeneratedNestedMessage nested = new GeneratedNestedMessage();
+        }
+        ByteBuffer generatedOut = ProtobufSerializer.serialize(new GeneratedMessage());
+        ByteBuffer reflectiveOut = ProtobufSerializer.serialize(new ReflectiveMessage());
+        logger.debug("generated={}", printBits(generatedOut.array()));
+        logger.debug("reflective={}", printBits(reflectiveOut.array()));
+        assertTrue(Arrays.equals(generatedOut.array(), reflectiveOut.array()));
+    }
+}
@@ -0,0 +1,160 @@
+package dev.freemountain.protoj.serialize;
+
+import static junit.framework.TestCase.assertEquals;
+import static junit.framework.TestCase.assertTrue;
+
+import dev.freemountain.protoj.api.ProtobufField;
+import dev.freemountain.protoj.api.ProtobufImmutable;
+import dev.freemountain.protoj.api.ProtobufSerializationException;
+import dev.freemountain.protoj.api.ProtobufType;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import org.junit.Test;
+
+public class ImmutableMessageTest {
+
+    @ProtobufImmutable
+    public static class Config {
+
+        @ProtobufField(fieldNumber = 1, protobufType = ProtobufType.STRING, getterMethod = "getRegion")
+        private final String region;
+        @ProtobufField(fieldNumber = 2, protobufType = ProtobufType.INT32)
+        public final Integer version;
+        public int regionReads;
+
+        public Config(String region, Integer version) {
+            this.region = region;
+            this.version = version;
+        }
+
+        public String getRegion() {
+            regionReads++;
+            return region;
+        }
+    }
+
+    // The same fields, encoded every time
+    public static class MutableConfig {
+
+        @ProtobufField(fieldNumber = 1, protobufType = ProtobufType.STRING)
+        public String region;
+        @ProtobufField(fieldNumber = 2, protobufType = ProtobufType.INT32)
+        public int version;
+
+        MutableConfig(String region, int version) {
+            this.region = region;
+            this.version = version;
+        }
+    }
+
+    // Serialized by its generated serializer
+    public static class Request {
+
+        @ProtobufField(fieldNumber = 1, protobufType = ProtobufType.INT64)
+        public long id;
+        @ProtobufField(fieldNumber = 2, protobufType = ProtobufType.MESSAGE)
+        public Object config;
+        @ProtobufField(fieldNumber = 3, protobufType = ProtobufType.MESSAGE)
+        public List<Object> fallbacks = new ArrayList<>();
+        @ProtobufField(fieldNumber = 4, protobufType = ProtobufType.MAP, mapKeyType = ProtobufType.STRING,
+            mapValueType = ProtobufType.MESSAGE)
+        public Map<String, Object> configsByName = new LinkedHashMap<>();
+    }
+
+    @Test
+    public void immutableMessagesAreEncodedOnce() throws Exception {
+        Config config = new Config("eu-west-1", 3);
+        Request request = new Request();
+        request.id = 7;
+        request.config = config;
+        request.fallbacks.add(config);
+        request.configsByName.put("primary", config);
+        Request expected = new Request();
+        expected.id = 7;
+        MutableConfig mutableConfig = new MutableConfig("eu-west-1", 3);
+        expected.config = mutableConfig;
+        expected.fallbacks.add(mutableConfig);
+        expected.configsByName.put("primary", mutableConfig);
+
+        ByteBuffer expectedBytes = ProtobufSerializer.serialize(expected);
+        for (int i = 0; i < 3; i++) {
+            assertEquals(expectedBytes, ProtobufSerializer.serialize(request));
+        }
+        assertEquals(expectedBytes.remaining(), ProtobufSerializer.serializedSize(request));
+        // By the size and write passes of its only encoding
+        assertEquals(2, config.regionReads);
+    }
+
+    @Test
+    public void immutableMessagesAreCachedPerInstance() throws Exception {
+        class ReflectiveRequest {
+
+            @ProtobufField(fieldNumber = 2, protobufType = ProtobufType.MESSAGE)
+            public List<Config> fallbacks = new ArrayList<>();
+        }
+        ReflectiveRequest request = new ReflectiveRequest();
+        Config first = new Config("us-east-1", 1);
+        Config second = new Config("us-east-1", 1);
+        request.fallbacks.add(first);
+        request.fallbacks.add(second);
+        request.fallbacks.add(first);
+
+        ProtobufSerializer.serialize(request);
+        ProtobufSerializer.serialize(request);
+        assertEquals(2, first.regionReads);
+        assertEquals(2, second.regionReads);
+        assertTrue(EncodedMessageCache.size() >= 2);
+    }
+
+    @Test
+    public void immutableMessagesKeepTheirPlaceAmongOtherSizes() throws Exception {
+        Config config = new Config("ap-south-1", 5);
+        MutableConfig mutableConfig = new MutableConfig("eu-central-1", 2);
+        Request request = new Request();
+        request.config = mutableConfig;
+        request.fallbacks.add(config);
+        request.fallbacks.add(new Config("", null));
+        request.fallbacks.add(mutableConfig);
+        request.configsByName.put("cached", config);
+        request.configsByName.put("encoded", mutableConfig);
+        Request expected = new Request();
+        MutableConfig copy = new MutableConfig("ap-south-1", 5);
+        expected.config = mutableConfig;
+        expected.fallbacks.add(copy);
+        expected.fallbacks.add(mutableConfig);
+        expected.configsByName.put("cached", copy);
+        expected.configsByName.put("encoded", mutableConfig);
+
+        ProtobufSerializer.serialize(request);
+        assertEquals(ProtobufSerializer.serialize(expected), ProtobufSerializer.serialize(request));
+    }
+
+    @Test
+    public void emptyImmutableMessagesAreSkipped() throws Exception {
+        Request request = new Request();
+        request.id = 1;
+        request.config = new Config("", null);
+        Request expected = new Request();
+        expected.id = 1;
+
+        assertEquals(ProtobufSerializer.serialize(expected), ProtobufSerializer.serialize(request));
+    }
+
+    @Test(expected = ProtobufSerializationException.class)
+    public void circularReferencesThroughImmutableMessagesFail() throws Exception {
+        @ProtobufImmutable
+        class Node {
+
+            @ProtobufField(fieldNumber = 1, protobufType = ProtobufType.MESSAGE)
+            public Request request;
+        }
+        Request request = new Request();
+        Node node = new Node();
+        node.request = request;
+        request.config = node;
+        ProtobufSerializer.serialize(request);
+    }
+}
@@ -0,0 +1,210 @@
+package dev.freemountain.protoj.serialize;
+
+import static junit.framework.TestCase.assertEquals;
+import static junit.framework.TestCase.assertNotNull;
+
+import dev.freemountain.protoj.api.ProtobufField;
+import dev.freemountain.protoj.api.ProtobufSerializationException;
+import dev.freemountain.protoj.api.ProtobufType;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import org.junit.Test;
+
+public class MapFieldTest {
+
+    public enum Level {
+        LOW,
+        HIGH
+    }
+
+    public static class Point {
+
+        @ProtobufField(fieldNumber = 1, protobufType = ProtobufType.SINT32)
+        public int x;
+
+        public Point() {
+        }
+
+        Point(int x) {
+            this.x = x;
+        }
+    }
+
+    // Serialized by its generated serializer
+    public static class MapMessage {
+
+        @ProtobufField(fieldNumber = 1, protobufType = ProtobufType.MAP, mapKeyType = ProtobufType.STRING,
+            mapValueType = ProtobufType.INT64)
+        public Map<String, Long> counters = new LinkedHashMap<>();
+        @ProtobufField(fieldNumber = 2, protobufType = ProtobufType.MAP, mapKeyType = ProtobufType.INT32,
+            mapValueType = ProtobufType.MESSAGE)
+        public Map<Integer, Point> points = new LinkedHashMap<>();
+        @ProtobufField(fieldNumber = 3, protobufType = ProtobufType.MAP, mapKeyType = ProtobufType.BOOL,
+            mapValueType = ProtobufType.ENUM)
+        public Map<Boolean, Level> levels = new LinkedHashMap<>();
+    }
+
+    // The same maps as lists of entry messages
+    public static class EntryMessage {
+
+        @ProtobufField(fieldNumber = 1, protobufType = ProtobufType.MESSAGE)
+        public List<CounterEntry> counters = new ArrayList<>();
+        @ProtobufField(fieldNumber = 2, protobufType = ProtobufType.MESSAGE)
+        public List<PointEntry> points = new ArrayList<>();
+        @ProtobufField(fieldNumber = 3, protobufType = ProtobufType.MESSAGE)
+        public List<LevelEntry> levels = new ArrayList<>();
+    }
+
+    public static class CounterEntry {
+
+        @ProtobufField(fieldNumber = 1, protobufType = ProtobufType.STRING)
+        public String key;
+        @ProtobufField(fieldNumber = 2, protobufType = ProtobufType.INT64)
+        public Long value;
+
+        CounterEntry(String key, Long value) {
+            this.key = key;
+            this.value = value;
+        }
+    }
+
+    public static class PointEntry {
+
+        @ProtobufField(fieldNumber = 1, protobufType = ProtobufType.INT32)
+        public int key;
+        @ProtobufField(fieldNumber = 2, protobufType = ProtobufType.MESSAGE)
+        public Point value;
+
+        PointEntry(int key, Point value) {
+            this.key = key;
+            this.value = value;
+        }
+    }
+
+    public static class LevelEntry {
+
+        @ProtobufField(fieldNumber = 1, protobufType = ProtobufType.BOOL)
+        public boolean key;
+        @ProtobufField(fieldNumber = 2, protobufType = ProtobufType.ENUM)
+        public Level value;
+
+        LevelEntry(boolean key, Level value) {
+            this.key = key;
+            this.value = value;
+        }
+    }
+
+    @Test
+    public void mapsEncodeAsEntryMessages() throws Exception {
+        class ReflectiveMessage {
+
+            @ProtobufField(fieldNumber = 1, protobufType = ProtobufType.MAP, mapKeyType = ProtobufType.STRING,
+                mapValueType = ProtobufType.INT64)
+            public Map<String, Long> counters = new LinkedHashMap<>();
+            @ProtobufField(fieldNumber = 2, protobufType = ProtobufType.MAP, mapKeyType = ProtobufType.INT32,
+                mapValueType = ProtobufType.MESSAGE)
+            public Map<Integer, Point> points = new LinkedHashMap<>();
+            @ProtobufField(fieldNumber = 3, protobufType = ProtobufType.MAP, mapKeyType = ProtobufType.BOOL,
+                mapValueType = ProtobufType.ENUM, getterMethod = "getLevels")
+            private Map<Boolean, Level> levels = new LinkedHashMap<>();
+
+            public Map<Boolean, Level> getLevels() {
+                return levels;
+            }
+        }
+        MapMessage generated = new MapMessage();
+        ReflectiveMessage reflective = new ReflectiveMessage();
+        EntryMessage expected = new EntryMessage();
+        for (Map<String, Long> counters : Arrays.asList(generated.counters, reflective.counters)) {
+            counters.put("requests", 1500L);
+            counters.put("idle", 0L);
+            counters.put("errors", null);
+            counters.put(null, 7L);
+        }
+        expected.counters.add(new CounterEntry("requests", 1500L));
+        expected.counters.add(new CounterEntry("idle", 0L));
+        expected.counters.add(new CounterEntry("errors", null));
+        for (Map<Integer, Point> points : Arrays.asList(generated.points, reflective.points)) {
+            points.put(-1, new Point(3));
+            // Written without its value, like an empty embedded message
+            points.put(2, new Point(0));
+        }
+        expected.points.add(new PointEntry(-1, new Point(3)));
+        expected.points.add(new PointEntry(2, new Point(0)));
+        for (Map<Boolean, Level> levels : Arrays.asList(generated.levels, reflective.levels)) {
+            levels.put(true, Level.HIGH);
+        }
+        expected.levels.add(new LevelEntry(true, Level.HIGH));
+
+        assertNotNull(GeneratedSerializers.forClass(MapMessage.class));
+        ByteBuffer expectedBytes = ProtobufSerializer.serialize(expected);
+        assertEquals(expectedBytes, ProtobufSerializer.serialize(generated));
+        assertEquals(expectedBytes, ProtobufSerializer.serialize(reflective));
+        assertEquals(expectedBytes.remaining(), ProtobufSerializer.serializedSize(reflective));
+    }
+
+    @Test
+    public void largeMapsRoundTripThroughSerializerPool() throws Exception {
+        MapMessage message = new MapMessage();
+        EntryMessage expected = new EntryMessage();
+        for (int i = 0; i < 5000; i++) {
+            message.counters.put("counter-" + i, (long) i * i);
+            expected.counters.add(new CounterEntry("counter-" + i, (long) i * i));
+            message.points.put(i, new Point(-i));
+            expected.points.add(new PointEntry(i, new Point(-i)));
+        }
+        ByteBuffer expectedBytes = ProtobufSerializer.serialize(expected);
+        SerializerPool pool = new SerializerPool(1 << 20);
+        assertEquals(expectedBytes, pool.serialize(message));
+    }
+
+    @Test
+    public void unorderedMapsUseIterationOrder() throws Exception {
+        MapMessage message = new MapMessage();
+        message.counters = new HashMap<>();
+        for (int i = 0; i < 100; i++) {
+            message.counters.put(Integer.toString(i), (long) i);
+        }
+        EntryMessage expected = new EntryMessage();
+        for (Map.Entry<String, Long> entry : message.counters.entrySet()) {
+            expected.counters.add(new CounterEntry(entry.getKey(), entry.getValue()));
+        }
+        assertEquals(ProtobufSerializer.serialize(expected), ProtobufSerializer.serialize(message));
+    }
+
+    @Test(expected = ProtobufSerializationException.class)
+    public void invalidKeyTypeFails() throws Exception {
+        class InvalidMessage {
+
+            @ProtobufField(fieldNumber = 1, protobufType = ProtobufType.MAP, mapKeyType = ProtobufType.DOUBLE,
+                mapValueType = ProtobufType.INT32)
+            public Map<Double, Integer> values = new HashMap<>();
+        }
+        ProtobufSerializer.serialize(new InvalidMessage());
+    }
+
+    @Test(expected = ProtobufSerializationException.class)
+    public void missingValueTypeFails() throws Exception {
+        class InvalidMessage {
+
+            @ProtobufField(fieldNumber = 1, protobufType = ProtobufType.MAP, mapKeyType = ProtobufType.STRING)
+            public Map<String, Integer> values = new HashMap<>();
+        }
+        ProtobufSerializer.serialize(new InvalidMessage());
+    }
+
+    @Test(expected = ProtobufSerializationException.class)
+    public void mapTypesOnOtherFieldsFail() throws Exception {
+        class InvalidMessage {
+
+            @ProtobufField(fieldNumber = 1, protobufType = ProtobufType.INT32, mapKeyType = ProtobufType.STRING)
+            public Integer value = 1;
+        }
+        ProtobufSerializer.serialize(new InvalidMessage());
+    }
+}
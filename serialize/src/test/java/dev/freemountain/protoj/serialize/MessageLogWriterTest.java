@@ -0,0 +1,150 @@
+package dev.freemountain.protoj.serialize;
+
+import static junit.framework.TestCase.assertEquals;
+import static junit.framework.TestCase.assertTrue;
+import static junit.framework.TestCase.fail;
+
+import dev.freemountain.protoj.api.ProtobufField;
+import dev.freemountain.protoj.api.ProtobufSerializationException;
+import dev.freemountain.protoj.api.ProtobufType;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class MessageLogWriterTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    public static class TestMessage {
+
+        @ProtobufField(fieldNumber = 1, protobufType = ProtobufType.INT32)
+        public int foo;
+        @ProtobufField(fieldNumber = 2, protobufType = ProtobufType.STRING)
+        public String bar;
+
+        TestMessage(int foo, String bar) {
+            this.foo = foo;
+            this.bar = bar;
+        }
+    }
+
+    public static class ChangingMessage {
+
+        @ProtobufField(fieldNumber = 1, protobufType = ProtobufType.STRING, getterMethod = "getBar")
+        private String bar;
+        private int reads;
+
+        public String getBar() {
+            // Longer on the write pass than on the size pass
+            return reads++ % 2 == 0 ? "short" : "a longer value than was sized";
+        }
+    }
+
+    @Test
+    public void recordsAreLengthDelimited() throws Exception {
+        Path log = folder.newFile().toPath();
+        TestMessage small = new TestMessage(1, "a");
+        char[] chars = new char[200];
+        Arrays.fill(chars, 'x');
+        TestMessage large = new TestMessage(-1, new String(chars));
+        ByteArrayOutputStream expected = new ByteArrayOutputStream();
+        try (MessageLogWriter writer = MessageLogWriter.open(log)) {
+            for (TestMessage message : Arrays.asList(small, large, small)) {
+                byte[] encoded = ProtobufSerializer.serialize(message).array();
+                ProtobufSerializer.appendVarint(expected, encoded.length);
+                expected.write(encoded);
+                assertEquals(ProtobufSerializer.computeUInt32Size(encoded.length) + encoded.length,
+                    writer.append(message));
+            }
+            assertEquals(expected.size(), writer.getBytesWritten());
+        }
+        assertTrue(Arrays.equals(expected.toByteArray(), Files.readAllBytes(log)));
+    }
+
+    @Test
+    public void reopeningAppends() throws Exception {
+        Path log = folder.newFile().toPath();
+        try (MessageLogWriter writer = MessageLogWriter.open(log)) {
+            writer.append(new TestMessage(1, "a"));
+        }
+        long firstSize = Files.size(log);
+        try (MessageLogWriter writer = MessageLogWriter.open(log)) {
+            writer.append(new TestMessage(1, "a"));
+        }
+        assertEquals(2 * firstSize, Files.size(log));
+    }
+
+    @Test
+    public void recordsSpanChunks() throws Exception {
+        Path log = folder.newFile().toPath();
+        ByteArrayOutputStream expected = new ByteArrayOutputStream();
+        try (MessageLogWriter writer = new MessageLogWriter(
+            FileChannel.open(log, StandardOpenOption.WRITE), 16)) {
+            for (int i = 0; i < 100; i++) {
+                TestMessage message = new TestMessage(i * 1000, "message " + i);
+                byte[] encoded = ProtobufSerializer.serialize(message).array();
+                ProtobufSerializer.appendVarint(expected, encoded.length);
+                expected.write(encoded);
+                writer.append(message);
+            }
+        }
+        assertTrue(Arrays.equals(expected.toByteArray(), Files.readAllBytes(log)));
+    }
+
+    @Test
+    public void failedRecordsStillInTheChunkAreDropped() throws Exception {
+        Path log = folder.newFile().toPath();
+        TestMessage message = new TestMessage(1, "a");
+        ByteArrayOutputStream expected = new ByteArrayOutputStream();
+        try (MessageLogWriter writer = MessageLogWriter.open(log)) {
+            writer.append(message);
+            try {
+                writer.append(new ChangingMessage());
+                fail();
+            } catch (ProtobufSerializationException e) {
+                // Expected
+            }
+            writer.append(message);
+        }
+        for (int i = 0; i < 2; i++) {
+            byte[] encoded = ProtobufSerializer.serialize(message).array();
+            ProtobufSerializer.appendVarint(expected, encoded.length);
+            expected.write(encoded);
+        }
+        assertTrue(Arrays.equals(expected.toByteArray(), Files.readAllBytes(log)));
+    }
+
+    @Test
+    public void failedRecordsPartlyWrittenFailTheWriter() throws Exception {
+        Path log = folder.newFile().toPath();
+        MessageLogWriter writer = new MessageLogWriter(FileChannel.open(log, StandardOpenOption.WRITE), 16);
+        writer.append(new TestMessage(1, "a"));
+        try {
+            writer.append(new ChangingMessage());
+            fail();
+        } catch (ProtobufSerializationException e) {
+            // Expected
+        }
+        try {
+            writer.append(new TestMessage(1, "a"));
+            fail();
+        } catch (IOException e) {
+            // Expected
+        }
+        try {
+            writer.flush();
+            fail();
+        } catch (IOException e) {
+            // Expected
+        }
+        writer.close();
+    }
+}
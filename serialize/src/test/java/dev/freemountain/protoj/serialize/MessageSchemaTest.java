@@ -0,0 +1,62 @@
+package dev.freemountain.protoj.serialize;
+
+import static junit.framework.TestCase.assertEquals;
+import static junit.framework.TestCase.assertSame;
+import static junit.framework.TestCase.assertTrue;
+
+import dev.freemountain.protoj.api.ProtobufField;
+import dev.freemountain.protoj.api.ProtobufSerializationException;
+import dev.freemountain.protoj.api.ProtobufType;
+import java.util.Arrays;
+import org.junit.Test;
+
+public class MessageSchemaTest {
+
+    class TestMessage {
+
+        public int skipMe = 1;
+        @ProtobufField(fieldNumber = 2, protobufType = ProtobufType.FIXED64)
+        public long foo = 0;
+        @ProtobufField(fieldNumber = 16, protobufType = ProtobufType.MESSAGE)
+        public TestMessage bar;
+    }
+
+    @Test
+    public void schemaIsCachedPerClass() throws Exception {
+        assertSame(MessageSchema.forClass(TestMessage.class), MessageSchema.forClass(TestMessage.class));
+    }
+
+    @Test
+    public void schemaHasAnnotatedFieldsInOrder() throws Exception {
+        FieldSchema[] fields = MessageSchema.forClass(TestMessage.class).getFields();
+        assertEquals(2, fields.length);
+        assertEquals("foo", fields[0].getName());
+        assertEquals(2, fields[0].getFieldNumber());
+        assertEquals("bar", fields[1].getName());
+        assertEquals(ProtobufType.MESSAGE, fields[1].getProtobufType());
+    }
+
+    @Test
+    public void tagsArePreEncoded() throws Exception {
+        FieldSchema[] fields = MessageSchema.forClass(TestMessage.class).getFields();
+        assertTrue(Arrays.equals(fields[0].getTag(), new byte[]{0x11}));
+        assertTrue(Arrays.equals(fields[0].getDelimitedTag(), new byte[]{0x12}));
+        // Embedded messages are always length-delimited
+        assertTrue(Arrays.equals(fields[1].getTag(), new byte[]{(byte) 0x82, 0x01}));
+    }
+
+    @Test(expected = ProtobufSerializationException.class)
+    public void invalidSchemaThrowsOnEveryLookup() throws Exception {
+        class InvalidMessage {
+
+            @ProtobufField(fieldNumber = 1, protobufType = ProtobufType.INT32, getterMethod = "getMissing")
+            private int foo = 0;
+        }
+        try {
+            MessageSchema.forClass(InvalidMessage.class);
+        } catch (ProtobufSerializationException e) {
+            // Failures aren't cached
+        }
+        MessageSchema.forClass(InvalidMessage.class);
+    }
+}
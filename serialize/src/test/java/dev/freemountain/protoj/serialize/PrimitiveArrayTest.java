@@ -0,0 +1,138 @@
+package dev.freemountain.protoj.serialize;
+
+import static dev.freemountain.protoj.serialize.TestUtil.printBits;
+import static junit.framework.TestCase.assertEquals;
+import static junit.framework.TestCase.assertNotNull;
+import static junit.framework.TestCase.assertTrue;
+
+import dev.freemountain.protoj.api.ProtobufField;
+import dev.freemountain.protoj.api.ProtobufType;
+import java.io.ByteArrayOutputStream;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.Arrays;
+import java.util.List;
+import org.junit.Test;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+public class PrimitiveArrayTest {
+
+    private final static Logger logger = LoggerFactory.getLogger(PrimitiveArrayTest.class);
+
+    /**
+     * Generated by protoj-processor, see {@link #arraysMatchLists()}
+     */
+    public static class ArrayMessage {
+
+        @ProtobufField(fieldNumber = 1, protobufType = ProtobufType.SINT32)
+        public int[] foo = {1, -1, 300, Integer.MIN_VALUE};
+        @ProtobufField(fieldNumber = 2, protobufType = ProtobufType.INT64)
+        public long[] bar = {0, -1, 1L << 40};
+        @ProtobufField(fieldNumber = 3, protobufType = ProtobufType.FLOAT)
+        public float[] baz = {1.5f, -2f};
+        @ProtobufField(fieldNumber = 4, protobufType = ProtobufType.DOUBLE)
+        public double[] qux = {659819.1246, Double.NaN};
+        @ProtobufField(fieldNumber = 5, protobufType = ProtobufType.BOOL)
+        public boolean[] quux = {true, false, true};
+        @ProtobufField(fieldNumber = 6, protobufType = ProtobufType.FIXED64)
+        public long[] corge = {1, Long.MIN_VALUE};
+        @ProtobufField(fieldNumber = 7, protobufType = ProtobufType.UINT32)
+        public int[] empty = {};
+    }
+
+    @Test
+    public void arraysMatchLists() throws Exception {
+        class ListMessage {
+
+            @ProtobufField(fieldNumber = 1, protobufType = ProtobufType.SINT32)
+            public List<Integer> foo = Arrays.asList(1, -1, 300, Integer.MIN_VALUE);
+            @ProtobufField(fieldNumber = 2, protobufType = ProtobufType.INT64)
+            public List<Long> bar = Arrays.asList(0L, -1L, 1L << 40);
+            @ProtobufField(fieldNumber = 3, protobufType = ProtobufType.FLOAT)
+            public List<Float> baz = Arrays.asList(1.5f, -2f);
+            @ProtobufField(fieldNumber = 4, protobufType = ProtobufType.DOUBLE)
+            public List<Double> qux = Arrays.asList(659819.1246, Double.NaN);
+            @ProtobufField(fieldNumber = 5, protobufType = ProtobufType.BOOL)
+            public List<Boolean> quux = Arrays.asList(true, false, true);
+            @ProtobufField(fieldNumber = 6, protobufType = ProtobufType.FIXED64)
+            public List<Long> corge = Arrays.asList(1L, Long.MIN_VALUE);
+            @ProtobufField(fieldNumber = 7, protobufType = ProtobufType.UINT32)
+            public List<Integer> empty = Arrays.asList();
+        }
+        class ReflectiveArrayMessage {
+
+            @ProtobufField(fieldNumber = 1, protobufType = ProtobufType.SINT32)
+            public int[] foo = {1, -1, 300, Integer.MIN_VALUE};
+            @ProtobufField(fieldNumber = 2, protobufType = ProtobufType.INT64)
+            public long[] bar = {0, -1, 1L << 40};
+            @ProtobufField(fieldNumber = 3, protobufType = ProtobufType.FLOAT)
+            public float[] baz = {1.5f, -2f};
+            @ProtobufField(fieldNumber = 4, protobufType = ProtobufType.DOUBLE)
+            public double[] qux = {659819.1246, Double.NaN};
+            @ProtobufField(fieldNumber = 5, protobufType = ProtobufType.BOOL)
+            public boolean[] quux = {true, false, true};
+            @ProtobufField(fieldNumber = 6, protobufType = ProtobufType.FIXED64)
+            public long[] corge = {1, Long.MIN_VALUE};
+            @ProtobufField(fieldNumber = 7, protobufType = ProtobufType.UINT32)
+            public int[] empty = {};
+        }
+        ByteBuffer listOut = ProtobufSerializer.serialize(new ListMessage());
+        ByteBuffer arrayOut = ProtobufSerializer.serialize(new ReflectiveArrayMessage());
+        logger.debug("list={}", printBits(listOut.array()));
+        logger.debug("array={}", printBits(arrayOut.array()));
+        assertTrue(Arrays.equals(listOut.array(), arrayOut.array()));
+        assertTrue(Arrays.equals(listOut.array(), ProtobufSerializer.serialize(new ArrayMessage()).array()));
+    }
+
+    @Test
+    public void generatedSizeMatchesOutput() throws Exception {
+        assertNotNull(GeneratedSerializers.forClass(ArrayMessage.class));
+        ArrayMessage message = new ArrayMessage();
+        ByteBuffer out = ProtobufSerializer.serialize(message);
+        assertEquals(out.remaining(), ProtobufSerializer.serializedSize(message));
+    }
+
+    @Test
+    public void fixedArraysAreCopiedInBulk() throws Exception {
+        class TestMessage {
+
+            @ProtobufField(fieldNumber = 1, protobufType = ProtobufType.DOUBLE)
+            public double[] foo = new double[5000];
+            @ProtobufField(fieldNumber = 2, protobufType = ProtobufType.SFIXED32)
+            public int[] bar = new int[3001];
+        }
+        TestMessage message = new TestMessage();
+        for (int i = 0; i < message.foo.length; i++) {
+            message.foo[i] = i * 1.25;
+        }
+        for (int i = 0; i < message.bar.length; i++) {
+            message.bar[i] = -i;
+        }
+        byte[] expected = ProtobufSerializer.serialize(message).array();
+        // Key and 3 byte length, then the elements
+        ByteBuffer littleEndian = ByteBuffer.wrap(expected).order(ByteOrder.LITTLE_ENDIAN);
+        assertEquals(0.0, littleEndian.getDouble(4));
+        assertEquals(1.25, littleEndian.getDouble(12));
+        // Chunked and buffer writers split the copy differently
+        ByteArrayOutputStream streamed = new ByteArrayOutputStream();
+        ProtobufSerializer.serialize(message, streamed);
+        assertTrue(Arrays.equals(expected, streamed.toByteArray()));
+        ByteBuffer buffer = ByteBuffer.allocateDirect(expected.length);
+        ProtobufSerializer.serializeTo(message, buffer);
+        buffer.flip();
+        byte[] buffered = new byte[buffer.remaining()];
+        buffer.get(buffered);
+        assertTrue(Arrays.equals(expected, buffered));
+    }
+
+    @Test(expected = ClassCastException.class)
+    public void mismatchedArrayType() throws Exception {
+        class TestMessage {
+
+            @ProtobufField(fieldNumber = 1, protobufType = ProtobufType.DOUBLE)
+            public float[] foo = {1f};
+        }
+        ProtobufSerializer.serialize(new TestMessage());
+    }
+}
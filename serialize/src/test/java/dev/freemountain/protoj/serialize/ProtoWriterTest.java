@@ -0,0 +1,165 @@
+package dev.freemountain.protoj.serialize;
+
+import static dev.freemountain.protoj.serialize.TestUtil.printBits;
+import static junit.framework.TestCase.assertEquals;
+import static junit.framework.TestCase.assertTrue;
+
+import dev.freemountain.protoj.api.ProtobufField;
+import dev.freemountain.protoj.api.ProtobufType;
+import java.io.ByteArrayOutputStream;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.List;
+import org.junit.Test;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+public class ProtoWriterTest {
+
+    private final static Logger logger = LoggerFactory.getLogger(ProtoWriterTest.class);
+
+    @Test
+    public void varints() throws Exception {
+        assertTrue(Arrays.equals(new byte[]{0x00}, write(out -> out.writeVarint(0))));
+        assertTrue(Arrays.equals(new byte[]{(byte) 0xAC, 0x02}, write(out -> out.writeVarint(300))));
+        byte[] minusOne = write(out -> out.writeVarint(-1));
+        assertEquals(10, minusOne.length);
+        assertEquals(0x01, minusOne[9]);
+    }
+
+    @Test
+    public void uint32IsNotSignExtended() throws Exception {
+        assertTrue(Arrays.equals(new byte[]{(byte) 0xFF, (byte) 0xFF, (byte) 0xFF, (byte) 0xFF, 0x0F},
+            write(out -> out.writeUInt32(-1))));
+        assertEquals(5, ProtobufSerializer.computeUInt32Size(-1));
+    }
+
+    @Test
+    public void signedIntsAreZigZagEncoded() throws Exception {
+        assertTrue(Arrays.equals(new byte[]{0x00}, write(out -> out.writeSInt32(0))));
+        assertTrue(Arrays.equals(new byte[]{0x01}, write(out -> out.writeSInt32(-1))));
+        assertTrue(Arrays.equals(new byte[]{0x02}, write(out -> out.writeSInt32(1))));
+        assertTrue(Arrays.equals(new byte[]{(byte) 0xFF, (byte) 0xFF, (byte) 0xFF, (byte) 0xFF, 0x0F},
+            write(out -> out.writeSInt32(Integer.MIN_VALUE))));
+        assertTrue(Arrays.equals(new byte[]{0x03}, write(out -> out.writeSInt64(-2))));
+        assertEquals(10, write(out -> out.writeSInt64(Long.MIN_VALUE)).length);
+        assertEquals(1, ProtobufSerializer.computeSInt32Size(-1));
+        assertEquals(10, ProtobufSerializer.computeSInt64Size(Long.MIN_VALUE));
+    }
+
+    @Test
+    public void fixedValuesAreLittleEndian() throws Exception {
+        assertTrue(Arrays.equals(new byte[]{0x04, 0x03, 0x02, 0x01}, write(out -> out.writeFixed32(0x01020304))));
+        assertTrue(Arrays.equals(new byte[]{0x08, 0x07, 0x06, 0x05, 0x04, 0x03, 0x02, 0x01},
+            write(out -> out.writeFixed64(0x0102030405060708L))));
+        assertTrue(Arrays.equals(new byte[]{0x00, 0x00, (byte) 0xC0, 0x3F}, write(out -> out.writeFixed32(1.5f))));
+    }
+
+    @Test
+    public void bufferWriterLeavesBufferUntouched() throws Exception {
+        ByteBuffer buffer = ByteBuffer.allocateDirect(16);
+        buffer.position(2);
+        ProtoWriter out = ProtoWriter.forBuffer(buffer);
+        out.writeFixed32(0x01020304);
+        out.writeVarint(300);
+        assertEquals(6, out.getBytesWritten());
+        assertEquals(2, buffer.position());
+        assertEquals(ByteOrder.BIG_ENDIAN, buffer.order());
+        assertEquals(0x04, buffer.get(2));
+        assertEquals((byte) 0xAC, buffer.get(6));
+    }
+
+    @Test
+    public void signedFieldsMatchSize() throws Exception {
+        class TestMessage {
+
+            @ProtobufField(fieldNumber = 1, protobufType = ProtobufType.SINT32)
+            public int foo = -1;
+            @ProtobufField(fieldNumber = 2, protobufType = ProtobufType.SINT64)
+            public List<Long> bar = Arrays.asList(-2L, 2L);
+            @ProtobufField(fieldNumber = 3, protobufType = ProtobufType.UINT32)
+            public Integer baz = -1;
+        }
+        TestMessage message = new TestMessage();
+        ByteBuffer out = ProtobufSerializer.serialize(message);
+        logger.debug("result={}", printBits(out.array()));
+        assertTrue(Arrays.equals(out.array(), new byte[]{0x08, 0x01, 0x12, 0x02, 0x03, 0x04, 0x18, (byte) 0xFF,
+            (byte) 0xFF, (byte) 0xFF, (byte) 0xFF, 0x0F}));
+        assertEquals(out.remaining(), ProtobufSerializer.serializedSize(message));
+    }
+
+    @Test
+    public void stringsMatchJdkEncoder() throws Exception {
+        StringBuilder longString = new StringBuilder();
+        for (int i = 0; i < 200; i++) {
+            // Mixed widths, so runs and surrogate pairs straddle chunk boundaries
+            longString.append("ab\u00e9\u20ac\ud83d\ude00");
+        }
+        String[] strings = {"", "plain ascii", "caf\u00e9", "\u20ac5", "\ud83d\ude00!", "\ud83d", "x\ude00y",
+            "\ud83d\ud83d\ude00", longString.toString(), longString + "\ud83d"};
+        for (String value : strings) {
+            byte[] expected = value.getBytes(StandardCharsets.UTF_8);
+            assertEquals(expected.length, ProtobufSerializer.computeUtf8Length(value));
+            int size = ProtobufSerializer.computeStringSize(value);
+
+            byte[] array = new byte[size];
+            ProtoWriter.forArray(array, 0).writeString(value);
+            assertStringEncoding(expected, array);
+
+            ByteBuffer direct = ByteBuffer.allocateDirect(size);
+            ProtoWriter.forBuffer(direct).writeString(value);
+            byte[] directBytes = new byte[size];
+            direct.get(directBytes);
+            assertStringEncoding(expected, directBytes);
+
+            ByteBuffer heap = ByteBuffer.allocate(size + 3);
+            heap.position(3);
+            ProtoWriter.forBuffer(heap.slice()).writeString(value);
+            assertStringEncoding(expected, Arrays.copyOfRange(heap.array(), 3, size + 3));
+
+            for (int chunkSize : new int[]{10, 11, 64}) {
+                ByteArrayOutputStream stream = new ByteArrayOutputStream();
+                ProtoWriter chunked = ProtoWriter.forStream(stream, chunkSize);
+                chunked.writeString(value);
+                chunked.flush();
+                assertEquals(size, chunked.getBytesWritten());
+                assertStringEncoding(expected, stream.toByteArray());
+            }
+
+            ByteArrayOutputStream stream = new ByteArrayOutputStream();
+            ProtoWriter.forStream(stream).writeString(value);
+            assertStringEncoding(expected, stream.toByteArray());
+        }
+    }
+
+    /**
+     * Length prefix followed by the expected bytes.
+     */
+    private static void assertStringEncoding(byte[] expected, byte[] actual) throws Exception {
+        ByteArrayOutputStream prefixed = new ByteArrayOutputStream();
+        ProtoWriter.forStream(prefixed).writeLengthDelimited(expected);
+        assertTrue(Arrays.equals(prefixed.toByteArray(), actual));
+    }
+
+    private interface WriterAction {
+
+        void write(ProtoWriter out) throws Exception;
+    }
+
+    /**
+     * Writes through both the array and buffer writers, checking they agree.
+     */
+    private static byte[] write(WriterAction action) throws Exception {
+        byte[] array = new byte[16];
+        ProtoWriter arrayWriter = ProtoWriter.forArray(array, 0);
+        action.write(arrayWriter);
+        ByteBuffer buffer = ByteBuffer.allocate(16);
+        ProtoWriter bufferWriter = ProtoWriter.forBuffer(buffer);
+        action.write(bufferWriter);
+        assertEquals(arrayWriter.getBytesWritten(), bufferWriter.getBytesWritten());
+        assertTrue(Arrays.equals(array, buffer.array()));
+        return Arrays.copyOf(array, arrayWriter.getBytesWritten());
+    }
+}
@@ -0,0 +1,127 @@
+package dev.freemountain.protoj.serialize;
+
+import static junit.framework.TestCase.assertEquals;
+import static junit.framework.TestCase.assertTrue;
+import static org.junit.Assert.fail;
+
+import dev.freemountain.protoj.api.ProtobufField;
+import dev.freemountain.protoj.api.ProtobufSerializationException;
+import dev.freemountain.protoj.api.ProtobufType;
+import dev.freemountain.protoj.serialize.integration.IntegrationTestProto;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import org.junit.Test;
+
+public class ProtobufSchemaRegistryTest {
+
+    public static class Leaf {
+
+        @ProtobufField(fieldNumber = 1, protobufType = ProtobufType.STRING)
+        public String name = "leaf";
+    }
+
+    public static class Branch {
+
+        @ProtobufField(fieldNumber = 1, protobufType = ProtobufType.MESSAGE)
+        public List<Leaf> leaves = Arrays.asList(new Leaf(), new Leaf());
+        @ProtobufField(fieldNumber = 2, protobufType = ProtobufType.MESSAGE)
+        public Branch parent;
+        @ProtobufField(fieldNumber = 3, protobufType = ProtobufType.SINT64)
+        public long[] weights = {-1, 2};
+    }
+
+    @Test
+    public void registersReachableClasses() {
+        Set<Class<?>> registered = ProtobufSchemaRegistry.register(Branch.class);
+        assertEquals(new HashSet<>(Arrays.asList(Branch.class, Leaf.class)), registered);
+    }
+
+    @Test
+    public void registersPackage() {
+        Set<Class<?>> registered = ProtobufSchemaRegistry
+            .registerPackage(IntegrationTestProto.class.getPackage().getName());
+        assertEquals(new HashSet<>(Arrays.asList(IntegrationTestProto.class, IntegrationTestProto.NestedClass.class)),
+            registered);
+    }
+
+    @Test
+    public void reportsEveryInvalidField() {
+        class InvalidMessage {
+
+            @ProtobufField(fieldNumber = 1, protobufType = ProtobufType.INT32)
+            public String wrongType;
+            @ProtobufField(fieldNumber = 2, protobufType = ProtobufType.MESSAGE, getterMethod = "getMissing")
+            public Leaf missingGetter;
+            @ProtobufField(fieldNumber = 0, protobufType = ProtobufType.BOOL)
+            public boolean invalidNumber;
+            @ProtobufField(fieldNumber = 4, protobufType = ProtobufType.DOUBLE)
+            public int[] wrongArray;
+            @ProtobufField(fieldNumber = 5, protobufType = ProtobufType.INT64)
+            public List<Integer> wrongElements;
+            @ProtobufField(fieldNumber = 6, protobufType = ProtobufType.INT64)
+            public Number unknown;
+        }
+        try {
+            ProtobufSchemaRegistry.register(InvalidMessage.class);
+            fail();
+        } catch (ProtobufSerializationException e) {
+            assertTrue(e.getMessage(), e.getMessage().startsWith("5 invalid message field(s)"));
+            assertTrue(e.getMessage().contains("wrongType of type java.lang.String can't hold INT32 values"));
+            assertTrue(e.getMessage().contains("missingGetter has no public getter getMissing()"));
+            assertTrue(e.getMessage().contains("invalidNumber has invalid field number 0"));
+            assertTrue(e.getMessage().contains("wrongArray of type int[] can't hold DOUBLE values"));
+            assertTrue(e.getMessage().contains("wrongElements of type java.util.List<java.lang.Integer>"));
+        }
+    }
+
+    @Test
+    public void reportsTypeMismatchesOfBuildableClasses() {
+        class MismatchedMessage {
+
+            @ProtobufField(fieldNumber = 1, protobufType = ProtobufType.STRING)
+            public Integer wrongType;
+        }
+        try {
+            ProtobufSchemaRegistry.register(MismatchedMessage.class);
+            fail();
+        } catch (ProtobufSerializationException e) {
+            assertTrue(e.getMessage(), e.getMessage().startsWith("1 invalid message field(s)"));
+            assertTrue(e.getMessage().contains("wrongType of type java.lang.Integer can't hold STRING values"));
+        }
+    }
+
+    @Test(expected = ProtobufSerializationException.class)
+    public void reportsDuplicateFieldNumbers() {
+        class DuplicateMessage {
+
+            @ProtobufField(fieldNumber = 1, protobufType = ProtobufType.INT32)
+            public int foo;
+            @ProtobufField(fieldNumber = 1, protobufType = ProtobufType.INT32)
+            public int bar;
+        }
+        ProtobufSchemaRegistry.register(Branch.class, DuplicateMessage.class);
+    }
+
+    public static class PrivateConstructor {
+
+        @ProtobufField(fieldNumber = 1, protobufType = ProtobufType.INT32)
+        public int foo;
+
+        private PrivateConstructor() {
+        }
+    }
+
+    @Test
+    public void warmsUpClassesWithDefaultConstructors() throws Exception {
+        class NoDefaultConstructor {
+
+            @ProtobufField(fieldNumber = 1, protobufType = ProtobufType.INT32)
+            public int foo;
+        }
+        assertEquals(2, ProtobufSchemaRegistry.warmup(Arrays.asList(Branch.class, Leaf.class,
+            NoDefaultConstructor.class, PrivateConstructor.class), 10));
+        ProtobufSchemaRegistry.warmupMessages(Arrays.asList(new Branch(), new Leaf()), 10);
+    }
+}
@@ -0,0 +1,53 @@
+package dev.freemountain.protoj.serialize;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertNull;
+
+import com.google.common.io.Resources;
+import dev.freemountain.protoj.api.ProtobufField;
+import dev.freemountain.protoj.api.ProtobufType;
+import java.util.Arrays;
+import java.util.List;
+import org.junit.Test;
+
+/**
+ * {@link dev.freemountain.protoj.serialize.integration.ProtocSerializationCompareTest} through the reflective schema.
+ * The integration message has a generated serializer, local classes never do, since neither the annotation processor
+ * nor the serializer lookup sees them.
+ */
+public class ReflectiveProtocCompareTest {
+
+    @Test
+    public void reflectiveSchemaMatchesProtoc() throws Exception {
+        class NestedClass {
+
+            public int skipMe = -1;
+            @ProtobufField(fieldNumber = 2, protobufType = ProtobufType.BOOL)
+            public boolean bar2 = true;
+            @ProtobufField(fieldNumber = 7, protobufType = ProtobufType.STRING)
+            public String baz2 = "H3LlO W0RLd";
+            @ProtobufField(fieldNumber = 9, protobufType = ProtobufType.FLOAT)
+            public float foo2 = 7.80f;
+        }
+        class IntegrationTestProto {
+
+            @ProtobufField(fieldNumber = 1, protobufType = ProtobufType.INT32)
+            public int foo1 = 19371283;
+            @ProtobufField(fieldNumber = 2, protobufType = ProtobufType.MESSAGE, getterMethod = "getNestedInstance")
+            private NestedClass nested1;
+            @ProtobufField(fieldNumber = 17, protobufType = ProtobufType.INT32)
+            public List<Integer> list = Arrays.asList(-1, 4, 171487, -149);
+            @ProtobufField(fieldNumber = 11237, protobufType = ProtobufType.INT64)
+            public Long bar1 = 9174917261277L;
+            @ProtobufField(fieldNumber = 985691, protobufType = ProtobufType.DOUBLE)
+            public double baz1 = 659819.1246;
+
+            public NestedClass getNestedInstance() {
+                return new NestedClass();
+            }
+        }
+        assertNull(GeneratedSerializers.forClass(IntegrationTestProto.class));
+        byte[] protocBytes = Resources.toByteArray(Resources.getResource("protoc-it-out.bin"));
+        assertArrayEquals(protocBytes, ProtobufSerializer.serialize(new IntegrationTestProto()).array());
+    }
+}
@@ -0,0 +1,94 @@
+package dev.freemountain.protoj.serialize;
+
+import static junit.framework.TestCase.assertEquals;
+import static junit.framework.TestCase.assertTrue;
+import static junit.framework.TestCase.fail;
+
+import dev.freemountain.protoj.api.ProtobufBufferOverflowException;
+import dev.freemountain.protoj.api.ProtobufField;
+import dev.freemountain.protoj.api.ProtobufSerializationException;
+import dev.freemountain.protoj.api.ProtobufType;
+import dev.freemountain.protoj.serialize.integration.IntegrationTestProto;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import org.junit.Test;
+
+public class SerializeToTest {
+
+    @Test
+    public void directBufferMatchesSerialize() throws Exception {
+        IntegrationTestProto message = new IntegrationTestProto();
+        byte[] expected = ProtobufSerializer.serialize(message).array();
+        ByteBuffer buffer = ByteBuffer.allocateDirect(expected.length + 10);
+        buffer.put((byte) 0x7F);
+        int written = ProtobufSerializer.serializeTo(message, buffer);
+        assertEquals(expected.length, written);
+        assertEquals(1 + expected.length, buffer.position());
+        buffer.flip();
+        assertEquals(0x7F, buffer.get());
+        byte[] actual = new byte[written];
+        buffer.get(actual);
+        assertTrue(Arrays.equals(expected, actual));
+    }
+
+    @Test
+    public void consecutiveMessages() throws Exception {
+        class TestMessage {
+
+            @ProtobufField(fieldNumber = 1, protobufType = ProtobufType.INT32)
+            public int foo = 150;
+        }
+        ByteBuffer buffer = ByteBuffer.allocate(6);
+        assertEquals(3, ProtobufSerializer.serializeTo(new TestMessage(), buffer));
+        assertEquals(3, ProtobufSerializer.serializeTo(new TestMessage(), buffer));
+        assertTrue(Arrays.equals(buffer.array(), new byte[]{0x08, (byte) 0x96, 0x01, 0x08, (byte) 0x96, 0x01}));
+    }
+
+    @Test
+    public void overflowReportsRequiredSize() throws Exception {
+        class TestMessage {
+
+            @ProtobufField(fieldNumber = 1, protobufType = ProtobufType.STRING)
+            public String foo = "testing";
+        }
+        ByteBuffer buffer = ByteBuffer.allocate(8);
+        buffer.position(2);
+        try {
+            ProtobufSerializer.serializeTo(new TestMessage(), buffer);
+            fail();
+        } catch (ProtobufBufferOverflowException e) {
+            assertEquals(9, e.getRequiredSize());
+            assertEquals(6, e.getRemaining());
+        }
+        // Left untouched
+        assertEquals(2, buffer.position());
+        assertTrue(Arrays.equals(buffer.array(), new byte[8]));
+    }
+
+    @Test
+    public void stringsGrowingPastTheLimitDontOverwriteTheArray() throws Exception {
+        class TestMessage {
+
+            @ProtobufField(fieldNumber = 1, protobufType = ProtobufType.STRING, getterMethod = "getFoo")
+            private String foo;
+            private int reads;
+
+            public String getFoo() {
+                // Longer on the write pass than on the size pass
+                return reads++ == 0 ? "ab" : "a much longer string";
+            }
+        }
+        byte[] array = new byte[64];
+        Arrays.fill(array, (byte) 0x55);
+        ByteBuffer window = ByteBuffer.wrap(array, 8, 4).slice();
+        try {
+            ProtobufSerializer.serializeTo(new TestMessage(), window);
+            fail();
+        } catch (ProtobufSerializationException e) {
+            // Expected
+        }
+        for (int i = 12; i < array.length; i++) {
+            assertEquals(0x55, array[i]);
+        }
+    }
+}
@@ -0,0 +1,136 @@
+package dev.freemountain.protoj.serialize;
+
+import static dev.freemountain.protoj.serialize.TestUtil.printBits;
+import static junit.framework.TestCase.assertEquals;
+import static junit.framework.TestCase.assertTrue;
+
+import dev.freemountain.protoj.api.ProtobufField;
+import dev.freemountain.protoj.api.ProtobufSerializationException;
+import dev.freemountain.protoj.api.ProtobufType;
+import dev.freemountain.protoj.serialize.integration.IntegrationTestProto;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.List;
+import org.junit.Test;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+public class SerializedSizeTest {
+
+    private final static Logger logger = LoggerFactory.getLogger(SerializedSizeTest.class);
+
+    @Test
+    public void sizeMatchesGeneratedOutput() throws Exception {
+        IntegrationTestProto message = new IntegrationTestProto();
+        ByteBuffer out = ProtobufSerializer.serialize(message);
+        assertEquals(out.remaining(), ProtobufSerializer.serializedSize(message));
+    }
+
+    @Test
+    public void sizeMatchesNestedOutput() throws Exception {
+        class ThirdLevel {
+
+            @ProtobufField(fieldNumber = 1, protobufType = ProtobufType.STRING)
+            public String foo = "\u00e9\u20ac\ud83d\ude00";
+        }
+        class SecondLevel {
+
+            @ProtobufField(fieldNumber = 1, protobufType = ProtobufType.MESSAGE)
+            public List<ThirdLevel> foo = Arrays.asList(new ThirdLevel(), null, new ThirdLevel());
+            @ProtobufField(fieldNumber = 2, protobufType = ProtobufType.SINT64)
+            public List<Long> bar = Arrays.asList(1L, 300L, Long.MAX_VALUE);
+        }
+        class TestMessage {
+
+            @ProtobufField(fieldNumber = 1, protobufType = ProtobufType.MESSAGE)
+            public SecondLevel foo = new SecondLevel();
+            @ProtobufField(fieldNumber = 2, protobufType = ProtobufType.DOUBLE)
+            public double bar = 1.5;
+        }
+        TestMessage message = new TestMessage();
+        ByteBuffer out = ProtobufSerializer.serialize(message);
+        logger.debug("result={}", printBits(out.array()));
+        assertEquals(out.remaining(), ProtobufSerializer.serializedSize(message));
+        // Outer key, length, then the second level straight after it
+        assertEquals(0x0A, out.get(0));
+        assertEquals(out.remaining() - 2 - 9, out.get(1));
+    }
+
+    @Test
+    public void emptyNestedMessageIsSkipped() throws Exception {
+        class ThirdLevel {
+
+            @ProtobufField(fieldNumber = 1, protobufType = ProtobufType.INT32)
+            public Integer foo = null;
+        }
+        class SecondLevel {
+
+            @ProtobufField(fieldNumber = 1, protobufType = ProtobufType.MESSAGE)
+            public ThirdLevel foo = new ThirdLevel();
+        }
+        class OtherSecondLevel {
+
+            @ProtobufField(fieldNumber = 1, protobufType = ProtobufType.INT32)
+            public Integer foo = null;
+        }
+        class TestMessage {
+
+            @ProtobufField(fieldNumber = 1, protobufType = ProtobufType.MESSAGE)
+            public SecondLevel foo = new SecondLevel();
+            @ProtobufField(fieldNumber = 2, protobufType = ProtobufType.MESSAGE)
+            public List<OtherSecondLevel> bar = Arrays.asList(new OtherSecondLevel(), new OtherSecondLevel());
+            @ProtobufField(fieldNumber = 3, protobufType = ProtobufType.INT32)
+            public int baz = 1;
+        }
+        TestMessage message = new TestMessage();
+        message.bar.get(1).foo = 5;
+        ByteBuffer out = ProtobufSerializer.serialize(message);
+        logger.debug("result={}", printBits(out.array()));
+        assertTrue(Arrays.equals(out.array(), new byte[]{0x12, 0x02, 0x08, 0x05, 0x18, 0x01}));
+        assertEquals(6, ProtobufSerializer.serializedSize(message));
+    }
+
+    @Test
+    public void repeatedStringsAreNotPacked() throws Exception {
+        class TestMessage {
+
+            @ProtobufField(fieldNumber = 1, protobufType = ProtobufType.STRING)
+            public List<String> foo = Arrays.asList("a", "", "b");
+            @ProtobufField(fieldNumber = 2, protobufType = ProtobufType.STRING)
+            public String bar = "";
+        }
+        TestMessage message = new TestMessage();
+        ByteBuffer out = ProtobufSerializer.serialize(message);
+        logger.debug("result={}", printBits(out.array()));
+        // Key per element, empty elements are kept, the empty singular string is skipped
+        assertTrue(Arrays.equals(out.array(), new byte[]{0x0A, 0x01, 0x61, 0x0A, 0x00, 0x0A, 0x01, 0x62}));
+        assertEquals(8, ProtobufSerializer.serializedSize(message));
+    }
+
+    @Test(expected = ProtobufSerializationException.class)
+    public void changingMessageFails() throws Exception {
+        class TestMessage {
+
+            private int calls;
+
+            @ProtobufField(fieldNumber = 1, protobufType = ProtobufType.STRING, getterMethod = "getFoo")
+            private String foo;
+
+            public String getFoo() {
+                return calls++ == 0 ? "a" : "ab";
+            }
+        }
+        ProtobufSerializer.serialize(new TestMessage());
+    }
+
+    @Test
+    public void varintSizes() throws Exception {
+        assertEquals(1, ProtobufSerializer.computeVarintSize(0));
+        assertEquals(1, ProtobufSerializer.computeVarintSize(127));
+        assertEquals(2, ProtobufSerializer.computeVarintSize(128));
+        assertEquals(10, ProtobufSerializer.computeVarintSize(-1));
+        assertEquals(6, ProtobufSerializer.computeUtf8Length("a\u00e9\u20ac"));
+        assertEquals(4, ProtobufSerializer.computeUtf8Length("\ud83d\ude00"));
+        assertEquals(1, ProtobufSerializer.computeUtf8Length("\ud83d"));
+    }
+}
@@ -0,0 +1,78 @@
+package dev.freemountain.protoj.serialize;
+
+import static junit.framework.TestCase.assertEquals;
+import static junit.framework.TestCase.assertNotSame;
+import static junit.framework.TestCase.assertSame;
+import static junit.framework.TestCase.assertTrue;
+
+import dev.freemountain.protoj.api.ProtobufField;
+import dev.freemountain.protoj.api.ProtobufType;
+import dev.freemountain.protoj.serialize.integration.IntegrationTestProto;
+import java.io.ByteArrayOutputStream;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import org.junit.Test;
+
+public class SerializerPoolTest {
+
+    @Test
+    public void matchesSerialize() throws Exception {
+        SerializerPool pool = new SerializerPool();
+        IntegrationTestProto message = new IntegrationTestProto();
+        byte[] expected = ProtobufSerializer.serialize(message).array();
+        for (int i = 0; i < 3; i++) {
+            assertTrue(Arrays.equals(expected, toArray(pool.serialize(message))));
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            assertEquals(expected.length, pool.serialize(message, out));
+            assertTrue(Arrays.equals(expected, out.toByteArray()));
+        }
+    }
+
+    @Test
+    public void bufferIsReused() throws Exception {
+        class TestMessage {
+
+            @ProtobufField(fieldNumber = 1, protobufType = ProtobufType.BYTES)
+            public byte[] foo;
+
+            TestMessage(int size) {
+                foo = new byte[size];
+            }
+        }
+        SerializerPool pool = new SerializerPool(1024);
+        ByteBuffer first = pool.serialize(new TestMessage(10));
+        ByteBuffer second = pool.serialize(new TestMessage(20));
+        assertSame(first.array(), second.array());
+        assertEquals(22, second.remaining());
+        // Too big to retain
+        ByteBuffer large = pool.serialize(new TestMessage(2000));
+        assertNotSame(first.array(), large.array());
+        assertEquals(large.remaining(), large.array().length);
+        assertSame(first.array(), pool.serialize(new TestMessage(10)).array());
+    }
+
+    @Test
+    public void nestedCallsDontShareBuffer() throws Exception {
+        SerializerPool pool = new SerializerPool();
+        class TestMessage {
+
+            @ProtobufField(fieldNumber = 1, protobufType = ProtobufType.BYTES, getterMethod = "getFoo")
+            private byte[] foo;
+
+            public byte[] getFoo() throws Exception {
+                return toArray(pool.serialize(new IntegrationTestProto()));
+            }
+        }
+        ByteBuffer out = pool.serialize(new TestMessage());
+        byte[] nested = ProtobufSerializer.serialize(new IntegrationTestProto()).array();
+        assertEquals(0x0A, out.get());
+        out.position(1 + ProtobufSerializer.computeVarintSize(nested.length));
+        assertTrue(Arrays.equals(nested, toArray(out)));
+    }
+
+    private static byte[] toArray(ByteBuffer buffer) {
+        byte[] bytes = new byte[buffer.remaining()];
+        buffer.get(bytes);
+        return bytes;
+    }
+}
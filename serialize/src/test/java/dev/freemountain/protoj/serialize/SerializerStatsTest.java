@@ -0,0 +1,141 @@
+package dev.freemountain.protoj.serialize;
+
+import static junit.framework.TestCase.assertEquals;
+import static junit.framework.TestCase.assertNull;
+import static junit.framework.TestCase.assertTrue;
+import static org.junit.Assert.fail;
+
+import dev.freemountain.protoj.api.ProtobufField;
+import dev.freemountain.protoj.api.ProtobufSerializationException;
+import dev.freemountain.protoj.api.ProtobufType;
+import java.lang.management.ManagementFactory;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import javax.management.openmbean.CompositeData;
+import org.junit.After;
+import org.junit.Test;
+
+public class SerializerStatsTest {
+
+    public static class Point {
+
+        @ProtobufField(fieldNumber = 1, protobufType = ProtobufType.SINT32)
+        public int x = -3;
+        @ProtobufField(fieldNumber = 2, protobufType = ProtobufType.STRING)
+        public String label = "origin";
+    }
+
+    class Circular {
+
+        @ProtobufField(fieldNumber = 1, protobufType = ProtobufType.MESSAGE, getterMethod = "getChild")
+        private Circular child;
+
+        public Circular getChild() {
+            return new Circular();
+        }
+    }
+
+    @After
+    public void disableMetrics() {
+        ProtobufSerializer.setMetrics(null);
+    }
+
+    @Test
+    public void countsBytesPerClass() throws Exception {
+        SerializerStats stats = new SerializerStats();
+        ProtobufSerializer.setMetrics(stats);
+        int size = ProtobufSerializer.serialize(new Point()).remaining();
+        new SerializerPool().serialize(new Point());
+        ProtobufSerializer.serializeAll(Arrays.asList(new Point(), new Point()));
+        MessageStats pointStats = stats.getMessageStats(Point.class);
+        assertEquals(Point.class.getName(), pointStats.getMessageClass());
+        assertEquals(4, pointStats.getCount());
+        assertEquals(4L * size, pointStats.getBytes());
+        assertEquals(0, pointStats.getFailedCount());
+        assertTrue(pointStats.getP50Nanos() <= pointStats.getP99Nanos());
+        assertTrue(pointStats.getMeanNanos() <= pointStats.getMaxNanos());
+        assertEquals(4, stats.getSerializedCount());
+        assertNull(stats.getMessageStats(Circular.class));
+    }
+
+    @Test
+    public void countsFailures() throws Exception {
+        SerializerStats stats = new SerializerStats();
+        ProtobufSerializer.setMetrics(stats);
+        try {
+            ProtobufSerializer.serialize(new Circular());
+            fail();
+        } catch (ProtobufSerializationException e) {
+            // Expected
+        }
+        MessageStats circularStats = stats.getMessageStats(Circular.class);
+        assertEquals(0, circularStats.getCount());
+        assertEquals(1, circularStats.getFailedCount());
+        assertEquals(1, stats.getFailedCount());
+    }
+
+    @Test
+    public void listenerSeesEveryTopLevelMessage() throws Exception {
+        List<Class<?>> serialized = new ArrayList<>();
+        List<Integer> sizes = new ArrayList<>();
+        ProtobufSerializer.setMetrics(new SerializerMetrics() {
+            @Override
+            public void onSerialized(Class<?> messageClass, int size, long nanos) {
+                serialized.add(messageClass);
+                sizes.add(size);
+                assertTrue(nanos >= 0);
+            }
+
+            @Override
+            public void onFailed(Class<?> messageClass, Exception error) {
+                fail();
+            }
+        });
+        ByteBuffer out = ProtobufSerializer.serialize(new Point());
+        assertEquals(ProtobufSerializer.serializedSize(new Point()), out.remaining());
+        assertEquals(Arrays.asList(Point.class), serialized);
+        assertEquals(Arrays.asList(out.remaining()), sizes);
+
+        ProtobufSerializer.setMetrics(null);
+        ProtobufSerializer.serialize(new Point());
+        assertEquals(1, serialized.size());
+    }
+
+    @Test
+    public void exposedOverJmx() throws Exception {
+        SerializerStats stats = new SerializerStats();
+        ProtobufSerializer.setMetrics(stats);
+        ObjectName name = stats.registerMBean();
+        try {
+            ProtobufSerializer.serialize(new Point());
+            MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+            assertEquals(1L, server.getAttribute(name, "SerializedCount"));
+            CompositeData[] messageStats = (CompositeData[]) server.getAttribute(name, "MessageStats");
+            assertEquals(1, messageStats.length);
+            assertEquals(Point.class.getName(), messageStats[0].get("messageClass"));
+            assertEquals(1L, messageStats[0].get("count"));
+
+            server.invoke(name, "reset", null, null);
+            assertEquals(0L, server.getAttribute(name, "SerializedCount"));
+        } finally {
+            stats.unregisterMBean();
+        }
+    }
+
+    @Test
+    public void bucketsCoverEveryLatency() {
+        long previous = -1;
+        for (int bucket = 0; bucket < (64 - 2) * 4; bucket++) {
+            long upperBound = SerializerStats.bucketUpperBound(bucket);
+            // Contiguous, and every value maps back to its own bucket
+            assertEquals(bucket, SerializerStats.bucket(previous + 1));
+            assertEquals(bucket, SerializerStats.bucket(upperBound));
+            previous = upperBound;
+        }
+        assertEquals(Long.MAX_VALUE, previous);
+    }
+}
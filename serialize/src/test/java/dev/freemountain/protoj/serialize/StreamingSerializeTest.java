@@ -0,0 +1,90 @@
+package dev.freemountain.protoj.serialize;
+
+import static junit.framework.TestCase.assertEquals;
+import static junit.framework.TestCase.assertTrue;
+
+import dev.freemountain.protoj.api.ProtobufField;
+import dev.freemountain.protoj.api.ProtobufType;
+import dev.freemountain.protoj.serialize.integration.IntegrationTestProto;
+import java.io.ByteArrayOutputStream;
+import java.io.OutputStream;
+import java.nio.channels.Channels;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import org.junit.Test;
+
+public class StreamingSerializeTest {
+
+    public static class LargeMessage {
+
+        @ProtobufField(fieldNumber = 1, protobufType = ProtobufType.BYTES)
+        public List<byte[]> foo = new ArrayList<>();
+        @ProtobufField(fieldNumber = 2, protobufType = ProtobufType.INT64)
+        public List<Long> bar = new ArrayList<>();
+        @ProtobufField(fieldNumber = 3, protobufType = ProtobufType.MESSAGE)
+        public List<IntegrationTestProto> baz = new ArrayList<>();
+
+        LargeMessage() {
+            for (int i = 0; i < 50; i++) {
+                byte[] bytes = new byte[i * 700];
+                Arrays.fill(bytes, (byte) i);
+                foo.add(bytes);
+                bar.add(-1L - i);
+                baz.add(new IntegrationTestProto());
+            }
+        }
+    }
+
+    @Test
+    public void streamMatchesSerialize() throws Exception {
+        LargeMessage message = new LargeMessage();
+        byte[] expected = ProtobufSerializer.serialize(message).array();
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        assertEquals(expected.length, ProtobufSerializer.serialize(message, out));
+        assertTrue(Arrays.equals(expected, out.toByteArray()));
+    }
+
+    @Test
+    public void channelMatchesSerialize() throws Exception {
+        LargeMessage message = new LargeMessage();
+        byte[] expected = ProtobufSerializer.serialize(message).array();
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        assertEquals(expected.length, ProtobufSerializer.serialize(message, Channels.newChannel(out)));
+        assertTrue(Arrays.equals(expected, out.toByteArray()));
+    }
+
+    @Test
+    public void writesAreChunked() throws Exception {
+        class TestMessage {
+
+            @ProtobufField(fieldNumber = 1, protobufType = ProtobufType.INT64)
+            public List<Long> foo = new ArrayList<>();
+        }
+        TestMessage message = new TestMessage();
+        for (long i = 0; i < 5000; i++) {
+            message.foo.add(i << 40);
+        }
+        List<Integer> writes = new ArrayList<>();
+        OutputStream out = new OutputStream() {
+            @Override
+            public void write(int b) {
+                writes.add(1);
+            }
+
+            @Override
+            public void write(byte[] b, int off, int len) {
+                writes.add(len);
+            }
+        };
+        int size = ProtobufSerializer.serialize(message, out);
+        assertEquals(size, writes.stream().mapToInt(Integer::intValue).sum());
+        assertTrue(writes.size() > 1);
+        assertTrue(writes.stream().allMatch(length -> length <= ProtobufSerializer.STREAM_CHUNK_SIZE));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void chunkMustFitVarint() throws Exception {
+        ProtoWriter.forStream(new ByteArrayOutputStream(), 4);
+    }
+}